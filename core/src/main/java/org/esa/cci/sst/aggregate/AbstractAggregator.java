@@ -30,13 +30,30 @@ import org.esa.cci.sst.util.StopWatch;
 import ucar.nc2.NetcdfFile;
 
 import java.awt.*;
+import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 /**
  * The base class for the averaging and regridding aggregators.
+ * <p/>
+ * Source pixels are aggregated in parallel, where the rows of the target cell grid are
+ * distributed among the threads of a fork-join pool. Since every target cell is accumulated
+ * by a single thread and source files are aggregated in their original order, the result
+ * does not depend on the number of threads. While a source file is aggregated, the next
+ * source file is read in the background.
  *
  * @author Bettina Scholze
  * @author Ralf Quast
@@ -48,6 +65,10 @@ public abstract class AbstractAggregator {
     private final SstDepth sstDepth;
     private final FileType fileType;
 
+    private int threadCount;
+    private ForkJoinPool forkJoinPool;
+    private ExecutorService readerService;
+
     protected final Logger logger;
 
     protected AbstractAggregator(FileStore fileStore, Climatology climatology, SstDepth sstDepth) {
@@ -56,9 +77,32 @@ public abstract class AbstractAggregator {
         this.sstDepth = sstDepth;
         this.fileType = fileStore.getProductType().getFileType();
 
+        threadCount = Runtime.getRuntime().availableProcessors();
         logger = SstLogging.getLogger();
     }
 
+    /**
+     * Sets the number of threads used for aggregating source pixels.
+     *
+     * @param threadCount The number of threads.
+     */
+    public final synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        if (threadCount != this.threadCount) {
+            this.threadCount = threadCount;
+            if (forkJoinPool != null) {
+                forkJoinPool.shutdown();
+                forkJoinPool = null;
+            }
+        }
+    }
+
+    public final synchronized int getThreadCount() {
+        return threadCount;
+    }
+
     abstract public List<? extends TimeStep> aggregate(
             Date startDate, Date endDate, TemporalResolution temporalResolution) throws IOException;
 
@@ -73,30 +117,108 @@ public abstract class AbstractAggregator {
         logger.fine(String.format("Reading source grid(s) took %d ms", stopWatch.getElapsedMillis()));
     }
 
-    protected static <C extends SpatialAggregationCell> void aggregateSourcePixels(AggregationContext context,
-                                                                                   RegionMask regionMask,
-                                                                                   CellGrid<C> targetGrid) {
+    protected final <C extends SpatialAggregationCell> void aggregateSourcePixels(final AggregationContext context,
+                                                                                  final RegionMask regionMask,
+                                                                                  final CellGrid<C> targetGrid) {
         final GridDef sourceGridDef = context.getSourceGridDef();
         final GridDef targetGridDef = regionMask.getGridDef();
 
         final int w = regionMask.getWidth();
         final int h = regionMask.getHeight();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (regionMask.getSampleBoolean(x, y)) {
-                    final Rectangle sourceRectangle = sourceGridDef.getGridRectangle(x, y, targetGridDef);
-                    C targetCell = targetGrid.getCell(x, y);
-                    if (targetCell != null) {
-                        targetCell.accumulate(context, sourceRectangle);
-                    } else {
-                        targetCell = targetGrid.createCell(x, y);
-                        targetCell.accumulate(context, sourceRectangle);
-                        if (!targetCell.isEmpty()) {
-                            targetGrid.setCell(targetCell);
-                        }
+        aggregateRows(h, new RowAggregator() {
+            @Override
+            public void aggregateRow(int y) {
+                for (int x = 0; x < w; x++) {
+                    if (regionMask.getSampleBoolean(x, y)) {
+                        final Rectangle sourceRectangle = sourceGridDef.getGridRectangle(x, y, targetGridDef);
+                        accumulate(context, sourceRectangle, targetGrid, x, y);
                     }
                 }
             }
+        });
+    }
+
+    /**
+     * Accumulates a source rectangle into a target cell. The target cell is created if it does not
+     * exist and added to the target grid, if it is not empty after accumulation.
+     *
+     * @param context         The aggregation context.
+     * @param sourceRectangle The source rectangle.
+     * @param targetGrid      The target grid.
+     * @param x               The x coordinate of the target cell.
+     * @param y               The y coordinate of the target cell.
+     */
+    protected static <C extends SpatialAggregationCell> void accumulate(AggregationContext context,
+                                                                        Rectangle sourceRectangle,
+                                                                        CellGrid<C> targetGrid, int x, int y) {
+        C targetCell = targetGrid.getCell(x, y);
+        if (targetCell != null) {
+            targetCell.accumulate(context, sourceRectangle);
+        } else {
+            targetCell = targetGrid.createCell(x, y);
+            targetCell.accumulate(context, sourceRectangle);
+            if (!targetCell.isEmpty()) {
+                targetGrid.setCell(targetCell);
+            }
+        }
+    }
+
+    /**
+     * Aggregates the rows of a target cell grid in parallel. Different rows must refer to
+     * different target cells.
+     *
+     * @param rowCount      The number of rows.
+     * @param rowAggregator The row aggregator.
+     */
+    protected final void aggregateRows(int rowCount, RowAggregator rowAggregator) {
+        final ForkJoinPool pool = getForkJoinPool();
+        if (pool.getParallelism() == 1 || rowCount == 1) {
+            for (int y = 0; y < rowCount; y++) {
+                rowAggregator.aggregateRow(y);
+            }
+        } else {
+            final int rowsPerTask = Math.max(1, rowCount / (8 * pool.getParallelism()));
+            pool.invoke(new RowAction(rowAggregator, 0, rowCount, rowsPerTask));
+        }
+    }
+
+    /**
+     * Returns a sequence of source files, which are read ahead in the background.
+     *
+     * @param files     The source files.
+     * @param readDates If {@code true}, the date of each source file is read, too.
+     *
+     * @return the sequence of source files.
+     */
+    protected final SourceFileSequence createSourceFileSequence(List<File> files, boolean readDates) {
+        return new SourceFileSequence(files, readDates);
+    }
+
+    /**
+     * Sets the source grids, which have been read from a source file, to an aggregation context.
+     *
+     * @param context     The aggregation context.
+     * @param sourceGrids The source grids.
+     */
+    protected static void setSourceGrids(AggregationContext context, AggregationContext sourceGrids) {
+        context.setSstGrid(sourceGrids.getSstGrid());
+        if (sourceGrids.getQualityGrid() != null) {
+            context.setQualityGrid(sourceGrids.getQualityGrid());
+        }
+        if (sourceGrids.getRandomUncertaintyGrid() != null) {
+            context.setRandomUncertaintyGrid(sourceGrids.getRandomUncertaintyGrid());
+        }
+        if (sourceGrids.getLargeScaleUncertaintyGrid() != null) {
+            context.setLargeScaleUncertaintyGrid(sourceGrids.getLargeScaleUncertaintyGrid());
+        }
+        if (sourceGrids.getAdjustmentUncertaintyGrid() != null) {
+            context.setAdjustmentUncertaintyGrid(sourceGrids.getAdjustmentUncertaintyGrid());
+        }
+        if (sourceGrids.getSynopticUncertaintyGrid() != null) {
+            context.setSynopticUncertaintyGrid(sourceGrids.getSynopticUncertaintyGrid());
+        }
+        if (sourceGrids.getSeaIceFractionGrid() != null) {
+            context.setSeaIceFractionGrid(sourceGrids.getSeaIceFractionGrid());
         }
     }
 
@@ -111,4 +233,182 @@ public abstract class AbstractAggregator {
     protected final FileType getFileType() {
         return fileType;
     }
+
+    private synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(threadCount);
+        }
+        return forkJoinPool;
+    }
+
+    private synchronized ExecutorService getReaderService() {
+        if (readerService == null) {
+            // the reader thread is terminated when idle, so aggregators need not be disposed
+            readerService = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                   new ThreadFactory() {
+                                                       @Override
+                                                       public Thread newThread(Runnable r) {
+                                                           final Thread thread = new Thread(r, "source-reader");
+                                                           thread.setDaemon(true);
+                                                           return thread;
+                                                       }
+                                                   });
+        }
+        return readerService;
+    }
+
+    private SourceFile readSourceFile(File file, boolean readDate) throws IOException {
+        final NetcdfFile dataFile = NetcdfFile.open(file.getPath());
+        try {
+            final Date date = readDate ? fileType.readDate(dataFile) : null;
+            final AggregationContext sourceGrids = new AggregationContext();
+            readSourceGrids(dataFile, sourceGrids);
+            return new SourceFile(file, date, sourceGrids);
+        } finally {
+            try {
+                dataFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Aggregates a single row of a target cell grid.
+     */
+    protected interface RowAggregator {
+
+        void aggregateRow(int y);
+    }
+
+    /**
+     * A source file, which has been read.
+     */
+    protected static final class SourceFile {
+
+        private final File file;
+        private final Date date;
+        private final AggregationContext sourceGrids;
+
+        private SourceFile(File file, Date date, AggregationContext sourceGrids) {
+            this.file = file;
+            this.date = date;
+            this.sourceGrids = sourceGrids;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return the date of the source file or {@code null}, if the date has not been read.
+         */
+        public Date getDate() {
+            return date;
+        }
+
+        public AggregationContext getSourceGrids() {
+            return sourceGrids;
+        }
+    }
+
+    /**
+     * A sequence of source files. When a source file is obtained from the sequence, the next
+     * source file is read in the background.
+     */
+    protected final class SourceFileSequence {
+
+        private final List<File> files;
+        private final boolean readDates;
+        private int index;
+        private Future<SourceFile> next;
+
+        private SourceFileSequence(List<File> files, boolean readDates) {
+            this.files = files;
+            this.readDates = readDates;
+            if (!files.isEmpty()) {
+                next = submit(files.get(0));
+            }
+        }
+
+        public boolean hasNext() {
+            return index < files.size();
+        }
+
+        /**
+         * Returns the next file in this sequence.
+         *
+         * @return the next file.
+         *
+         * @throws IOException if the next file could not be read. The sequence proceeds with the file after.
+         */
+        public SourceFile next() throws IOException {
+            final File file = files.get(index);
+            final Future<SourceFile> current = next;
+            index++;
+            next = hasNext() ? submit(files.get(index)) : null;
+            try {
+                return current.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(String.format("Interrupted while reading file '%s'.", file), e);
+            } catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IOException(cause);
+            }
+        }
+
+        /**
+         * Cancels reading files ahead.
+         */
+        public void close() {
+            if (next != null) {
+                next.cancel(true);
+                next = null;
+            }
+            index = files.size();
+        }
+
+        private Future<SourceFile> submit(final File file) {
+            return getReaderService().submit(new Callable<SourceFile>() {
+                @Override
+                public SourceFile call() throws IOException {
+                    return readSourceFile(file, readDates);
+                }
+            });
+        }
+    }
+
+    private static final class RowAction extends RecursiveAction {
+
+        private final RowAggregator rowAggregator;
+        private final int minY;
+        private final int maxY;
+        private final int rowsPerTask;
+
+        private RowAction(RowAggregator rowAggregator, int minY, int maxY, int rowsPerTask) {
+            this.rowAggregator = rowAggregator;
+            this.minY = minY;
+            this.maxY = maxY;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (maxY - minY <= rowsPerTask) {
+                for (int y = minY; y < maxY; y++) {
+                    rowAggregator.aggregateRow(y);
+                }
+            } else {
+                final int midY = (minY + maxY) >>> 1;
+                invokeAll(new RowAction(rowAggregator, minY, midY, rowsPerTask),
+                          new RowAction(rowAggregator, midY, maxY, rowsPerTask));
+            }
+        }
+    }
 }
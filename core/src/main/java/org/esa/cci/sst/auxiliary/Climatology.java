@@ -26,15 +26,38 @@ import ucar.nc2.NetcdfFile;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * OSTIA monthly SST climatology.
+ * <p/>
+ * The SST grids of the most recently used days are kept in memory and the grid of the day
+ * following the most recently used day is read ahead. Optionally, the SST grids are cached
+ * in a binary cache directory, already transformed to the target grid. Cached grids are
+ * memory-mapped instead of being read from the climatology files.
  *
  * @author Norman Fomferra
  * @author Ralf Quast
@@ -45,19 +68,46 @@ public class Climatology {
     private static final GridDef TARGET_5D_GRID_DEF = GridDef.createGlobal(5.0);
     private static final GridDef TARGET_90D_GRID_DEF = GridDef.createGlobal(90.0);
 
+    private static final int DAY_CACHE_SIZE = 3;
+    private static final int CACHE_FILE_MAGIC = 0x53535444; // "SSTD"
+    // magic, grid width and height, source file length and modification time, source file path length
+    private static final int CACHE_FILE_HEADER_LENGTH = 32;
+    private static final Charset CACHE_FILE_CHARSET = Charset.forName("UTF-8");
+
     private static final Logger logger = SstLogging.getLogger();
 
     private final File[] dailyClimatologyFiles;
     private final GridDef targetGridDef;
+    private final File cacheDir;
 
-    private Grid sstGrid;
-    private int dayOfYear;
+    private final Map<Integer, Future<Grid>> sstGrids;
+    private ExecutorService prefetchService;
 
-    private Grid seaCoverageGrid; // 0.1° or 0.05° same as input files
-    private Grid seaCoverageCell5Grid;
-    private Grid seaCoverageCell90Grid;
+    private volatile Grid seaCoverageGrid; // 0.1° or 0.05° same as input files
+    private volatile Grid seaCoverageCell5Grid;
+    private volatile Grid seaCoverageCell90Grid;
 
     public static Climatology create(File dir, GridDef targetGridDef) throws ToolException {
+        return create(dir, targetGridDef, null);
+    }
+
+    /**
+     * Creates a new climatology.
+     *
+     * @param dir           The climatology directory.
+     * @param targetGridDef The target grid definition.
+     * @param cacheDir      The directory of the binary cache. May be {@code null}, if no cache shall be used.
+     *                      The cache directory is created, if it does not exist.
+     *
+     * @return the climatology.
+     *
+     * @throws ToolException if the climatology directory is invalid or the cache directory cannot be created.
+     */
+    public static Climatology create(File dir, GridDef targetGridDef, File cacheDir) throws ToolException {
+        if (cacheDir != null && !cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+            throw new ToolException("Cannot create climatology cache directory: " + cacheDir,
+                                    ToolException.TOOL_USAGE_ERROR);
+        }
         if (!dir.isDirectory()) {
             throw new ToolException("Not a directory or directory not found: " + dir, ToolException.TOOL_USAGE_ERROR);
         }
@@ -82,10 +132,10 @@ public class Climatology {
                     throw new ToolException("An internal error occurred.", ToolException.TOOL_INTERNAL_ERROR);
                 }
             }
-            return new Climatology(dailyClimatologyFiles, targetGridDef);
+            return new Climatology(dailyClimatologyFiles, targetGridDef, cacheDir);
         } else if (files.length == 1) {
             final File[] dailyClimatologyFiles = new File[]{files[0]};
-            return new Climatology(dailyClimatologyFiles, targetGridDef);
+            return new Climatology(dailyClimatologyFiles, targetGridDef, cacheDir);
         } else {
             final String[] missingDays = getMissingDays(files);
             final String message = String.format("Climatology directory is expected to contain 365 or 366 files, but found %d. Missing %s.",
@@ -95,12 +145,60 @@ public class Climatology {
         }
     }
 
+    /**
+     * Returns the SST grid for a given day of year. This method may be called concurrently.
+     *
+     * @param dayOfYear The day of year.
+     *
+     * @return the SST grid.
+     *
+     * @throws IOException if the SST grid could not be read.
+     */
     public Grid getSstGrid(int dayOfYear) throws IOException {
-        synchronized (this) {
-            if (this.dayOfYear != dayOfYear) {
-                readGrids(dayOfYear);
+        if (dayOfYear < 1) {
+            throw new IllegalArgumentException("dayOfYear < 1");
+        } else if (dayOfYear > 366) {
+            throw new IllegalArgumentException("dayOfYear > 366");
+        }
+        final int doy = Math.min(dayOfYear, dailyClimatologyFiles.length);
+
+        final FutureTask<Grid> task;
+        final Future<Grid> future;
+        synchronized (sstGrids) {
+            final Future<Grid> existing = sstGrids.get(doy);
+            if (existing != null) {
+                task = null;
+                future = existing;
+            } else {
+                task = createReadTask(doy);
+                future = task;
+                sstGrids.put(doy, task);
+            }
+        }
+        if (task != null) {
+            task.run();
+        }
+        prefetch(doy % dailyClimatologyFiles.length + 1);
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            synchronized (sstGrids) {
+                if (sstGrids.get(doy) == future) {
+                    sstGrids.remove(doy);
+                }
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            return sstGrid;
+            throw new IOException(cause);
         }
     }
 
@@ -116,42 +214,90 @@ public class Climatology {
         return seaCoverageCell90Grid;
     }
 
-    private void readGrids(int doy) throws IOException {
-        if (doy < 1) {
-            throw new IllegalArgumentException("dayOfYear < 1");
-        } else if (doy > 366) {
-            throw new IllegalArgumentException("dayOfYear > 366");
+    private void prefetch(int doy) {
+        final FutureTask<Grid> task;
+        synchronized (sstGrids) {
+            if (sstGrids.containsKey(doy)) {
+                return;
+            }
+            task = createReadTask(doy);
+            sstGrids.put(doy, task);
         }
-        if (doy > dailyClimatologyFiles.length) {
-            doy = dailyClimatologyFiles.length;
+        getPrefetchService().execute(task);
+    }
+
+    private FutureTask<Grid> createReadTask(final int doy) {
+        return new FutureTask<>(new Callable<Grid>() {
+            @Override
+            public Grid call() throws Exception {
+                return readSstGrid(doy);
+            }
+        });
+    }
+
+    private synchronized ExecutorService getPrefetchService() {
+        if (prefetchService == null) {
+            // the prefetch thread is terminated when idle, so climatologies need not be disposed
+            prefetchService = new ThreadPoolExecutor(0, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                                                     new ThreadFactory() {
+                                                         @Override
+                                                         public Thread newThread(Runnable r) {
+                                                             final Thread thread = new Thread(r, "climatology-reader");
+                                                             thread.setDaemon(true);
+                                                             return thread;
+                                                         }
+                                                     });
         }
+        return prefetchService;
+    }
+
+    private Grid readSstGrid(int doy) throws IOException {
         final File file = dailyClimatologyFiles[doy - 1];
+        final File cacheFile = getCacheFile(doy);
+
+        Grid sstGrid = null;
+        if (cacheFile != null && cacheFile.isFile()) {
+            sstGrid = mapCacheFile(cacheFile, file);
+        }
+        if (sstGrid == null || seaCoverageGrid == null) {
+            final Grid readGrid = readClimatologyFile(file, doy, sstGrid == null);
+            if (sstGrid == null) {
+                sstGrid = readGrid;
+                if (cacheFile != null) {
+                    writeCacheFile(sstGrid, cacheFile, file);
+                }
+            }
+        }
+        return sstGrid;
+    }
 
+    // reads the sea coverage grids, unless read before, and returns the SST grid, if requested, or null
+    // package access for testing only
+    Grid readClimatologyFile(File file, int doy, boolean readSst) throws IOException {
         final StopWatch stopWatch = new StopWatch();
         logger.info(String.format("Processing input climatology file '%s' for day of year %d", file.getPath(), doy));
         stopWatch.start();
 
+        Grid sstGrid = null;
         final NetcdfFile netcdfFile = NetcdfFile.open("file:" + file.getPath().replace('\\', '/'));
         try {
-            readGrids(netcdfFile, doy);
+            if (readSst) {
+                sstGrid = readAnalysedSstGrid(netcdfFile);
+            }
+            readSeaCoverageGrids(netcdfFile);
+            // for debugging only
+            // writeMaskImage();
         } finally {
             netcdfFile.close();
         }
 
         stopWatch.stop();
         logger.fine(String.format("Processing input climatology file took %d ms", stopWatch.getElapsedMillis()));
-    }
 
-    private void readGrids(NetcdfFile netcdfFile, int dayOfYear) throws IOException {
-        readAnalysedSstGrid(netcdfFile, dayOfYear);
-        if (seaCoverageGrid == null) {
-            readSeaCoverageGrids(netcdfFile);
-            // for debugging only
-            // writeMaskImage();
-        }
+        return sstGrid;
     }
 
-    private void readAnalysedSstGrid(NetcdfFile netcdfFile, int dayOfYear) throws IOException {
+    private Grid readAnalysedSstGrid(NetcdfFile netcdfFile) throws IOException {
         final StopWatch stopWatch = new StopWatch();
 
         logger.fine("Reading 'analysed_sst'...");
@@ -170,11 +316,95 @@ public class Climatology {
         stopWatch.stop();
         logger.fine(String.format("Transforming 'analysed_sst' took %d ms", stopWatch.getElapsedMillis()));
 
-        this.sstGrid = YFlip.create(sstGrid);
-        this.dayOfYear = dayOfYear;
+        return YFlip.create(sstGrid);
+    }
+
+    private File getCacheFile(int doy) {
+        if (cacheDir == null) {
+            return null;
+        }
+        return new File(cacheDir, String.format("D%03d-%dx%d.dat", doy, targetGridDef.getWidth(),
+                                                targetGridDef.getHeight()));
+    }
+
+    // returns null if the cache file is invalid or not made from the given climatology file
+    private Grid mapCacheFile(File cacheFile, File file) throws IOException {
+        final int w = targetGridDef.getWidth();
+        final int h = targetGridDef.getHeight();
+        final byte[] path = getSourcePath(file);
+        final int headerLength = CACHE_FILE_HEADER_LENGTH + path.length;
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() != headerLength + 4L * w * h) {
+                logger.fine(String.format("Ignoring outdated climatology cache file '%s'.", cacheFile.getPath()));
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.getInt(0) != CACHE_FILE_MAGIC || buffer.getInt(4) != w || buffer.getInt(8) != h) {
+                logger.warning(String.format("Ignoring invalid climatology cache file '%s'.", cacheFile.getPath()));
+                return null;
+            }
+            final byte[] cachedPath = new byte[path.length];
+            buffer.position(CACHE_FILE_HEADER_LENGTH);
+            buffer.get(cachedPath);
+            if (buffer.getLong(12) != file.length() || buffer.getLong(20) != file.lastModified() ||
+                buffer.getInt(28) != path.length || !Arrays.equals(cachedPath, path)) {
+                logger.fine(String.format("Ignoring outdated climatology cache file '%s'.", cacheFile.getPath()));
+                return null;
+            }
+            logger.fine(String.format("Mapping climatology cache file '%s'.", cacheFile.getPath()));
+            buffer.position(headerLength);
+            return new FloatBufferGrid(targetGridDef, buffer.slice().asFloatBuffer());
+        }
     }
 
-    private void readSeaCoverageGrids(NetcdfFile netcdfFile) throws IOException {
+    // the header of a cache file identifies the climatology file by its path, length and modification time
+    private void writeCacheFile(Grid sstGrid, File cacheFile, File file) throws IOException {
+        final int w = targetGridDef.getWidth();
+        final int h = targetGridDef.getHeight();
+        final byte[] path = getSourcePath(file);
+        // the cache file is renamed when complete, so that concurrent processes never map a partial file
+        final File tempFile = File.createTempFile(cacheFile.getName(), ".tmp", cacheDir);
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw")) {
+                final FileChannel channel = raf.getChannel();
+                final ByteBuffer header = ByteBuffer.allocate(CACHE_FILE_HEADER_LENGTH + path.length);
+                header.putInt(CACHE_FILE_MAGIC).putInt(w).putInt(h);
+                header.putLong(file.length()).putLong(file.lastModified()).putInt(path.length).put(path).flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                final ByteBuffer row = ByteBuffer.allocate(4 * w);
+                for (int y = 0; y < h; y++) {
+                    row.clear();
+                    for (int x = 0; x < w; x++) {
+                        row.putFloat((float) sstGrid.getSampleDouble(x, y));
+                    }
+                    row.flip();
+                    while (row.hasRemaining()) {
+                        channel.write(row);
+                    }
+                }
+            }
+            if (!tempFile.renameTo(cacheFile)) {
+                logger.warning(String.format("Cannot create climatology cache file '%s'.", cacheFile.getPath()));
+            }
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    private static byte[] getSourcePath(File file) {
+        return file.getAbsolutePath().getBytes(CACHE_FILE_CHARSET);
+    }
+
+    private synchronized void readSeaCoverageGrids(NetcdfFile netcdfFile) throws IOException {
+        if (seaCoverageGrid != null) {
+            return;
+        }
         final StopWatch stopWatch = new StopWatch();
 
         logger.fine("Reading 'mask'...");
@@ -186,12 +416,13 @@ public class Climatology {
         logger.fine(String.format("Reading 'mask' took %d ms", stopWatch.getElapsedMillis()));
 
         stopWatch.start();
-        seaCoverageGrid = YFlip.create(Mask.create(maskGrid, 0x01));
+        Grid seaCoverageGrid = YFlip.create(Mask.create(maskGrid, 0x01));
         if (!SOURCE_GRID_DEF.equals(targetGridDef)) {
             seaCoverageGrid = Downscaling.create(seaCoverageGrid, targetGridDef);
         }
         seaCoverageCell5Grid = Downscaling.create(seaCoverageGrid, TARGET_5D_GRID_DEF);
         seaCoverageCell90Grid = Downscaling.create(seaCoverageCell5Grid, TARGET_90D_GRID_DEF);
+        this.seaCoverageGrid = seaCoverageGrid;
 
         stopWatch.stop();
         logger.fine(String.format("Transforming 'mask' took %d ms", stopWatch.getElapsedMillis()));
@@ -226,8 +457,49 @@ public class Climatology {
 //        ImageIO.write(image, "PNG", new File("sea-coverage-grid.png"));
 //    }
 
-    private Climatology(File[] dailyClimatologyFiles, GridDef targetGridDef) {
+    // package access for testing only
+    Climatology(File[] dailyClimatologyFiles, GridDef targetGridDef, File cacheDir) {
         this.dailyClimatologyFiles = dailyClimatologyFiles;
         this.targetGridDef = targetGridDef;
+        this.cacheDir = cacheDir;
+        sstGrids = new LinkedHashMap<Integer, Future<Grid>>(DAY_CACHE_SIZE + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Future<Grid>> eldest) {
+                return size() > DAY_CACHE_SIZE;
+            }
+        };
+    }
+
+    private static final class FloatBufferGrid implements Grid {
+
+        private final GridDef gridDef;
+        private final FloatBuffer buffer;
+        private final int width;
+
+        private FloatBufferGrid(GridDef gridDef, FloatBuffer buffer) {
+            this.gridDef = gridDef;
+            this.buffer = buffer;
+            width = gridDef.getWidth();
+        }
+
+        @Override
+        public GridDef getGridDef() {
+            return gridDef;
+        }
+
+        @Override
+        public double getSampleDouble(int x, int y) {
+            return buffer.get(y * width + x);
+        }
+
+        @Override
+        public int getSampleInt(int x, int y) {
+            return (int) getSampleDouble(x, y);
+        }
+
+        @Override
+        public boolean getSampleBoolean(int x, int y) {
+            return getSampleInt(x, y) != 0;
+        }
     }
 }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.cell;
+
+import org.esa.cci.sst.aggregate.Aggregation;
+import org.esa.cci.sst.aggregate.AggregationContext;
+import org.esa.cci.sst.grid.Grid;
+import org.esa.cci.sst.grid.GridDef;
+
+/**
+ * A grid of single-day aggregations, where each grid cell corresponds to a single source pixel.
+ * <p/>
+ * Equivalent to a {@link CellGrid} of {@link SingleDayAggregationCell}s, but the sums and sample
+ * counts of all cells are stored in flat arrays indexed by cell instead of individual accumulator
+ * objects. The aggregation results are exposed as grids.
+ */
+public final class SingleDayAggregationGrid {
+
+    private final GridDef gridDef;
+    private final int width;
+
+    private final double[] sstSumX;
+    private final double[] sstSumW;
+    private final int[] sstCount;
+
+    private final double[] randomUncertaintySumXX;
+    private final double[] randomUncertaintySumW;
+    private final int[] randomUncertaintyCount;
+
+    private final double[] largeScaleUncertaintySumX;
+    private final double[] largeScaleUncertaintySumW;
+    private final int[] largeScaleUncertaintyCount;
+
+    private final double[] adjustmentUncertaintySumXX;
+    private final double[] adjustmentUncertaintySumW;
+    private final int[] adjustmentUncertaintyCount;
+
+    private final double[] synopticUncertaintySumXX;
+    private final double[] synopticUncertaintySumW;
+    private final int[] synopticUncertaintyCount;
+
+    private final double[] seaIceFractionSumX;
+    private final int[] seaIceFractionCount;
+
+    /**
+     * Creates a new grid of single-day aggregations. Like for a {@link SingleDayAggregationCell}, the
+     * optional uncertainties and the sea ice fraction are aggregated only if the corresponding source
+     * grid is set in the aggregation context.
+     *
+     * @param gridDef            The grid definition.
+     * @param aggregationContext The aggregation context.
+     *
+     * @return the grid of single-day aggregations.
+     */
+    public static SingleDayAggregationGrid create(GridDef gridDef, AggregationContext aggregationContext) {
+        return new SingleDayAggregationGrid(gridDef,
+                                            aggregationContext.getLargeScaleUncertaintyGrid() != null,
+                                            aggregationContext.getAdjustmentUncertaintyGrid() != null,
+                                            aggregationContext.getSynopticUncertaintyGrid() != null,
+                                            aggregationContext.getSeaIceFractionGrid() != null);
+    }
+
+    private SingleDayAggregationGrid(GridDef gridDef, boolean largeScaleUncertainty, boolean adjustmentUncertainty,
+                                     boolean synopticUncertainty, boolean seaIceFraction) {
+        this.gridDef = gridDef;
+        width = gridDef.getWidth();
+
+        final int cellCount = width * gridDef.getHeight();
+        sstSumX = new double[cellCount];
+        sstSumW = new double[cellCount];
+        sstCount = new int[cellCount];
+
+        randomUncertaintySumXX = new double[cellCount];
+        randomUncertaintySumW = new double[cellCount];
+        randomUncertaintyCount = new int[cellCount];
+
+        largeScaleUncertaintySumX = largeScaleUncertainty ? new double[cellCount] : null;
+        largeScaleUncertaintySumW = largeScaleUncertainty ? new double[cellCount] : null;
+        largeScaleUncertaintyCount = largeScaleUncertainty ? new int[cellCount] : null;
+
+        adjustmentUncertaintySumXX = adjustmentUncertainty ? new double[cellCount] : null;
+        adjustmentUncertaintySumW = adjustmentUncertainty ? new double[cellCount] : null;
+        adjustmentUncertaintyCount = adjustmentUncertainty ? new int[cellCount] : null;
+
+        synopticUncertaintySumXX = synopticUncertainty ? new double[cellCount] : null;
+        synopticUncertaintySumW = synopticUncertainty ? new double[cellCount] : null;
+        synopticUncertaintyCount = synopticUncertainty ? new int[cellCount] : null;
+
+        seaIceFractionSumX = seaIceFraction ? new double[cellCount] : null;
+        seaIceFractionCount = seaIceFraction ? new int[cellCount] : null;
+    }
+
+    public GridDef getGridDef() {
+        return gridDef;
+    }
+
+    /**
+     * Accumulates a single row of source pixels into the corresponding row of cells. Different
+     * rows may be accumulated concurrently.
+     *
+     * @param aggregationContext The aggregation context providing the source grids.
+     * @param y                  The row index.
+     */
+    public void accumulate(AggregationContext aggregationContext, int y) {
+        final Grid sstGrid = aggregationContext.getSstGrid();
+        final Grid qualityGrid = aggregationContext.getQualityGrid();
+        final Grid randomUncertaintyGrid = aggregationContext.getRandomUncertaintyGrid();
+        final Grid largeScaleUncertaintyGrid = aggregationContext.getLargeScaleUncertaintyGrid();
+        final Grid adjustmentUncertaintyGrid = aggregationContext.getAdjustmentUncertaintyGrid();
+        final Grid synopticUncertaintyGrid = aggregationContext.getSynopticUncertaintyGrid();
+
+        final Grid seaCoverageGrid = aggregationContext.getSeaCoverageGrid();
+        final Grid seaIceFractionGrid = aggregationContext.getSeaIceFractionGrid();
+
+        final boolean largeScale = largeScaleUncertaintySumX != null && largeScaleUncertaintyGrid != null;
+        final boolean adjustment = adjustmentUncertaintySumXX != null && adjustmentUncertaintyGrid != null;
+        final boolean synoptic = synopticUncertaintySumXX != null && synopticUncertaintyGrid != null;
+        final boolean seaIce = seaIceFractionSumX != null && seaIceFractionGrid != null;
+
+        final int offset = y * width;
+        for (int x = 0; x < width; x++) {
+            final int i = offset + x;
+            final double seaCoverage = seaCoverageGrid.getSampleDouble(x, y);
+            final double sst = sstGrid.getSampleDouble(x, y);
+            final boolean valid = seaCoverage > 0.0 && sst > 0.0 &&
+                                  (qualityGrid == null || qualityGrid.getSampleInt(x, y) == 5);
+            if (valid) {
+                sstSumX[i] += seaCoverage * sst;
+                sstSumW[i] += seaCoverage;
+                sstCount[i]++;
+
+                final double randomUncertainty = randomUncertaintyGrid.getSampleDouble(x, y);
+                if (!Double.isNaN(randomUncertainty)) {
+                    final double weightedSample = seaCoverage * randomUncertainty;
+                    randomUncertaintySumXX[i] += weightedSample * weightedSample;
+                    randomUncertaintySumW[i] += seaCoverage;
+                    randomUncertaintyCount[i]++;
+                }
+                if (largeScale) {
+                    final double sample = largeScaleUncertaintyGrid.getSampleDouble(x, y);
+                    if (!Double.isNaN(sample)) {
+                        largeScaleUncertaintySumX[i] += seaCoverage * sample;
+                        largeScaleUncertaintySumW[i] += seaCoverage;
+                        largeScaleUncertaintyCount[i]++;
+                    }
+                }
+                if (adjustment) {
+                    final double sample = adjustmentUncertaintyGrid.getSampleDouble(x, y);
+                    if (!Double.isNaN(sample)) {
+                        final double weightedSample = seaCoverage * sample;
+                        adjustmentUncertaintySumXX[i] += weightedSample * weightedSample;
+                        adjustmentUncertaintySumW[i] += seaCoverage;
+                        adjustmentUncertaintyCount[i]++;
+                    }
+                }
+                if (synoptic) {
+                    final double sample = synopticUncertaintyGrid.getSampleDouble(x, y);
+                    if (!Double.isNaN(sample)) {
+                        final double weightedSample = seaCoverage * sample;
+                        synopticUncertaintySumXX[i] += weightedSample * weightedSample;
+                        synopticUncertaintySumW[i] += seaCoverage;
+                        synopticUncertaintyCount[i]++;
+                    }
+                }
+            }
+            // an empty cell is not retained in a cell grid, so the sea ice fraction of an empty cell is discarded
+            if (seaIce && sstCount[i] != 0) {
+                final double sample = seaIceFractionGrid.getSampleDouble(x, y);
+                if (!Double.isNaN(sample)) {
+                    seaIceFractionSumX[i] += sample;
+                    seaIceFractionCount[i]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the sample count of a cell.
+     *
+     * @param x The x coordinate of the cell.
+     * @param y The y coordinate of the cell.
+     *
+     * @return the sample count.
+     */
+    public long getSampleCount(int x, int y) {
+        return sstCount[y * width + x];
+    }
+
+    /**
+     * Returns a grid view of an aggregation result. The result of an empty cell is {@code NaN}.
+     *
+     * @param index The index of the aggregation result, like {@link Aggregation#SST}.
+     *
+     * @return the grid view of the aggregation result.
+     */
+    public Grid getResultGrid(int index) {
+        return new ResultGrid(index);
+    }
+
+    private double getResult(int index, int i) {
+        if (sstCount[i] == 0) {
+            return Double.NaN;
+        }
+        switch (index) {
+            case Aggregation.SST:
+                return mean(sstSumX[i], sstSumW[i], sstCount[i]);
+            case Aggregation.RANDOM_UNCERTAINTY:
+                return weightedUncertainty(randomUncertaintySumXX[i], randomUncertaintySumW[i],
+                                           randomUncertaintyCount[i]);
+            case Aggregation.LARGE_SCALE_UNCERTAINTY:
+                if (largeScaleUncertaintySumX != null) {
+                    return mean(largeScaleUncertaintySumX[i], largeScaleUncertaintySumW[i],
+                                largeScaleUncertaintyCount[i]);
+                }
+                return Double.NaN;
+            case Aggregation.ADJUSTMENT_UNCERTAINTY:
+                if (adjustmentUncertaintySumXX != null) {
+                    return weightedUncertainty(adjustmentUncertaintySumXX[i], adjustmentUncertaintySumW[i],
+                                               adjustmentUncertaintyCount[i]);
+                }
+                return Double.NaN;
+            case Aggregation.SYNOPTIC_UNCERTAINTY:
+                if (synopticUncertaintySumXX != null) {
+                    return weightedUncertainty(synopticUncertaintySumXX[i], synopticUncertaintySumW[i],
+                                               synopticUncertaintyCount[i]);
+                }
+                return Double.NaN;
+            case Aggregation.SEA_ICE_FRACTION:
+                if (seaIceFractionSumX != null) {
+                    return mean(seaIceFractionSumX[i], seaIceFractionCount[i], seaIceFractionCount[i]);
+                }
+                return Double.NaN;
+            default:
+                return Double.NaN;
+        }
+    }
+
+    // same as ArithmeticMeanAccumulator#combine
+    private static double mean(double sumX, double sumW, int sampleCount) {
+        if (sampleCount == 0) {
+            return Double.NaN;
+        }
+        if (sumX == 0.0) {
+            return 0.0;
+        }
+        if (sumW == 0.0) {
+            return Double.NaN;
+        }
+        return sumX / sumW;
+    }
+
+    // same as WeightedUncertaintyAccumulator#combine
+    private static double weightedUncertainty(double sumXX, double sumW, int sampleCount) {
+        if (sampleCount == 0) {
+            return Double.NaN;
+        }
+        if (sumXX == 0.0) {
+            return 0.0;
+        }
+        if (sumW == 0.0) {
+            return Double.NaN;
+        }
+        final double variance = sumXX / (sumW * sumW);
+        return variance > 0.0 ? Math.sqrt(variance) : 0.0;
+    }
+
+    private final class ResultGrid implements Grid {
+
+        private final int index;
+
+        private ResultGrid(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public GridDef getGridDef() {
+            return gridDef;
+        }
+
+        @Override
+        public double getSampleDouble(int x, int y) {
+            return getResult(index, y * width + x);
+        }
+
+        @Override
+        public int getSampleInt(int x, int y) {
+            return (int) getSampleDouble(x, y);
+        }
+
+        @Override
+        public boolean getSampleBoolean(int x, int y) {
+            return getSampleInt(x, y) != 0;
+        }
+    }
+}
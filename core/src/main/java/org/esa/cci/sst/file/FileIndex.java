@@ -0,0 +1,335 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.file;
+
+import org.esa.cci.sst.log.SstLogging;
+import org.esa.cci.sst.product.ProductType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the input files of a {@link FileStore}.
+ * <p/>
+ * The index records, for each scanned directory, its modification time, its subdirectories and
+ * the dates of its input files. When an index file is used, the index is loaded from and saved
+ * to this file. A directory is listed again only if its modification time has changed since the
+ * directory was indexed, all other directories are taken from the index. Since the dates are
+ * parsed from the filenames, the files themselves need not be checked. Directories are scanned
+ * in parallel.
+ */
+final class FileIndex {
+
+    private static final int MAGIC = 0x53535449; // "SSTI"
+    private static final int VERSION = 1;
+
+    // scanning is bound by I/O latency on networked storage, not by CPU
+    private static final int SCAN_THREAD_COUNT = 16;
+    // directories modified this close to the scan time are scanned again, because the modification time is coarse
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000L;
+
+    private static final Logger logger = SstLogging.getLogger();
+
+    private final ProductType productType;
+    private final String filenameRegex;
+    private final Pattern filenamePattern;
+    private final Map<String, Directory> directories;
+    private long scanTime;
+
+    FileIndex(ProductType productType, String filenameRegex) {
+        this.productType = productType;
+        this.filenameRegex = filenameRegex;
+        filenamePattern = Pattern.compile(filenameRegex);
+        directories = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the index from a file. If the file does not exist or has been created for a different
+     * product type or filename pattern, the index remains empty.
+     *
+     * @param indexFile The index file.
+     */
+    void load(File indexFile) {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                logger.warning("Ignoring invalid file index: " + indexFile.getPath());
+                return;
+            }
+            if (!productType.name().equals(dis.readUTF()) || !filenameRegex.equals(dis.readUTF())) {
+                logger.info("Ignoring file index created for a different product type or filename pattern: " +
+                            indexFile.getPath());
+                return;
+            }
+            final Map<String, Directory> loadedDirectories = new HashMap<>();
+            final long loadedScanTime = dis.readLong();
+            final int directoryCount = dis.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                final String path = dis.readUTF();
+                final long lastModified = dis.readLong();
+                final int subdirectoryCount = dis.readInt();
+                final List<String> subdirectoryNames = new ArrayList<>(subdirectoryCount);
+                for (int k = 0; k < subdirectoryCount; k++) {
+                    subdirectoryNames.add(dis.readUTF());
+                }
+                final int fileCount = dis.readInt();
+                final List<String> fileNames = new ArrayList<>(fileCount);
+                final long[] dates = new long[fileCount];
+                for (int k = 0; k < fileCount; k++) {
+                    fileNames.add(dis.readUTF());
+                    dates[k] = dis.readLong();
+                }
+                loadedDirectories.put(path, new Directory(lastModified, subdirectoryNames, fileNames, dates));
+            }
+            directories.putAll(loadedDirectories);
+            scanTime = loadedScanTime;
+        } catch (IOException e) {
+            logger.warning("Ignoring unreadable file index: " + indexFile.getPath());
+        }
+    }
+
+    /**
+     * Saves the index to a file. The file is replaced as a whole, so concurrent readers never see
+     * a partially written index.
+     *
+     * @param indexFile The index file.
+     */
+    void save(File indexFile) {
+        final File parentDir = indexFile.getAbsoluteFile().getParentFile();
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile(indexFile.getName(), ".tmp", parentDir);
+            try (DataOutputStream dos = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeUTF(productType.name());
+                dos.writeUTF(filenameRegex);
+                dos.writeLong(scanTime);
+                dos.writeInt(directories.size());
+                for (final Map.Entry<String, Directory> entry : directories.entrySet()) {
+                    final Directory directory = entry.getValue();
+                    dos.writeUTF(entry.getKey());
+                    dos.writeLong(directory.lastModified);
+                    dos.writeInt(directory.subdirectoryNames.size());
+                    for (final String name : directory.subdirectoryNames) {
+                        dos.writeUTF(name);
+                    }
+                    dos.writeInt(directory.fileNames.size());
+                    for (int k = 0; k < directory.fileNames.size(); k++) {
+                        dos.writeUTF(directory.fileNames.get(k));
+                        dos.writeLong(directory.dates[k]);
+                    }
+                }
+            }
+            // readers of the index see either the old or the new index, but never none
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("Cannot write file index: " + indexFile.getPath());
+        } finally {
+            if (tempFile != null && tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Updates the index for the given input paths and returns the input files organized by date.
+     * Within a day, the files are ordered by path.
+     *
+     * @param inputPaths The input paths, which may refer to directories or files.
+     *
+     * @return the input files organized by date.
+     */
+    FileTree scan(String... inputPaths) {
+        final long previousScanTime = scanTime;
+        final Map<String, Directory> previousDirectories = new HashMap<>(directories);
+        directories.clear();
+        scanTime = System.currentTimeMillis();
+
+        final List<RecursiveAction> actions = new ArrayList<>(inputPaths.length);
+        for (final String inputPath : inputPaths) {
+            final Path path = Paths.get(inputPath);
+            if (Files.isDirectory(path)) {
+                actions.add(new DirectoryAction(path, previousDirectories, previousScanTime));
+            }
+        }
+        final ForkJoinPool pool = new ForkJoinPool(SCAN_THREAD_COUNT);
+        try {
+            for (final RecursiveAction action : actions) {
+                pool.invoke(action);
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        final FileTree fileTree = new FileTree();
+        for (final String inputPath : inputPaths) {
+            final Path path = Paths.get(inputPath);
+            if (Files.isDirectory(path)) {
+                addFiles(path, fileTree);
+            } else if (Files.isRegularFile(path)) {
+                final Date date = parseDate(path.toFile());
+                if (date != null) {
+                    fileTree.add(date, path.toFile());
+                }
+            }
+        }
+        return fileTree;
+    }
+
+    private void addFiles(Path dir, FileTree fileTree) {
+        final Directory directory = directories.get(dir.toString());
+        if (directory == null) {
+            return;
+        }
+        for (int k = 0; k < directory.fileNames.size(); k++) {
+            fileTree.add(new Date(directory.dates[k]), dir.resolve(directory.fileNames.get(k)).toFile());
+        }
+        for (final String name : directory.subdirectoryNames) {
+            addFiles(dir.resolve(name), fileTree);
+        }
+    }
+
+    private Date parseDate(File file) {
+        try {
+            final Date date = productType.parseDate(file);
+            if (date == null) {
+                logger.warning("Ignoring input file with unknown naming convention: " + file.getPath());
+            }
+            return date;
+        } catch (ParseException e) {
+            logger.warning("Ignoring input file because date can't be parsed from filename: " + file.getPath());
+            return null;
+        }
+    }
+
+    private Directory readDirectory(Path dir, long lastModified) throws IOException {
+        final List<String> subdirectoryNames = new ArrayList<>();
+        final List<String> fileNames = new ArrayList<>();
+        final List<Date> fileDates = new ArrayList<>();
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (final Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+        for (final Path entry : entries) {
+            final String name = entry.getFileName().toString();
+            if (Files.isDirectory(entry)) {
+                subdirectoryNames.add(name);
+            } else if (Files.isRegularFile(entry) && filenamePattern.matcher(name).matches()) {
+                final Date date = parseDate(entry.toFile());
+                if (date != null) {
+                    fileNames.add(name);
+                    fileDates.add(date);
+                }
+            }
+        }
+        final long[] dates = new long[fileDates.size()];
+        for (int k = 0; k < dates.length; k++) {
+            dates[k] = fileDates.get(k).getTime();
+        }
+        return new Directory(lastModified, subdirectoryNames, fileNames, dates);
+    }
+
+    private final class DirectoryAction extends RecursiveAction {
+
+        private final Path dir;
+        private final Map<String, Directory> previousDirectories;
+        private final long previousScanTime;
+
+        private DirectoryAction(Path dir, Map<String, Directory> previousDirectories, long previousScanTime) {
+            this.dir = dir;
+            this.previousDirectories = previousDirectories;
+            this.previousScanTime = previousScanTime;
+        }
+
+        @Override
+        protected void compute() {
+            final String key = dir.toString();
+            if (directories.containsKey(key)) {
+                return;
+            }
+            final Directory directory;
+            try {
+                final long lastModified = Files.readAttributes(dir, BasicFileAttributes.class)
+                        .lastModifiedTime().toMillis();
+                final Directory previousDirectory = previousDirectories.get(key);
+                if (previousDirectory != null && previousDirectory.lastModified == lastModified &&
+                    lastModified < previousScanTime - MODIFICATION_TIME_RESOLUTION) {
+                    directory = previousDirectory;
+                } else {
+                    directory = readDirectory(dir, lastModified);
+                }
+            } catch (IOException e) {
+                logger.warning("Ignoring unreadable input directory: " + key);
+                return;
+            }
+            directories.put(key, directory);
+
+            final List<DirectoryAction> actions = new ArrayList<>(directory.subdirectoryNames.size());
+            for (final String name : directory.subdirectoryNames) {
+                actions.add(new DirectoryAction(dir.resolve(name), previousDirectories, previousScanTime));
+            }
+            invokeAll(actions);
+        }
+    }
+
+    private static final class Directory {
+
+        private final long lastModified;
+        private final List<String> subdirectoryNames;
+        private final List<String> fileNames;
+        private final long[] dates;
+
+        private Directory(long lastModified, List<String> subdirectoryNames, List<String> fileNames, long[] dates) {
+            this.lastModified = lastModified;
+            this.subdirectoryNames = subdirectoryNames;
+            this.fileNames = fileNames;
+            this.dates = dates;
+        }
+    }
+}
@@ -16,18 +16,14 @@
 
 package org.esa.cci.sst.file;
 
-import org.esa.cci.sst.log.SstLogging;
 import org.esa.cci.sst.product.ProductType;
 import org.esa.cci.sst.util.TimeUtil;
 
 import java.io.File;
-import java.io.FileFilter;
-import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
-import java.util.regex.Pattern;
 
 /**
  * A product store.
@@ -41,7 +37,31 @@ public class FileStore {
     private FileTree fileTree;
 
     public static FileStore create(ProductType productType, String filenameRegex, String... inputPaths) {
-        return new FileStore(productType, inputPaths, scanFiles(productType, new InputFileFilter(filenameRegex), inputPaths));
+        return create(productType, filenameRegex, null, inputPaths);
+    }
+
+    /**
+     * Creates a new product store.
+     *
+     * @param productType   The product type.
+     * @param filenameRegex The regular expression matching the names of input files.
+     * @param indexFile     The file used for persisting the index of input files between runs. May be
+     *                      {@code null}, if the index shall not be persisted.
+     * @param inputPaths    The input paths.
+     *
+     * @return the product store.
+     */
+    public static FileStore create(ProductType productType, String filenameRegex, File indexFile,
+                                   String... inputPaths) {
+        final FileIndex fileIndex = new FileIndex(productType, filenameRegex);
+        if (indexFile != null) {
+            fileIndex.load(indexFile);
+        }
+        final FileTree fileTree = fileIndex.scan(inputPaths);
+        if (indexFile != null) {
+            fileIndex.save(indexFile);
+        }
+        return new FileStore(productType, inputPaths, fileTree);
     }
 
     private FileStore(ProductType productType, String[] inputPaths, FileTree fileTree) {
@@ -79,49 +99,4 @@ public class FileStore {
 
         return files;
     }
-
-    private static FileTree scanFiles(ProductType productType, FileFilter fileFilter, String... inputPaths) {
-        final FileTree fileTree = new FileTree();
-        for (String inputPath : inputPaths) {
-            scanFiles(productType, fileFilter, new File(inputPath), fileTree);
-        }
-        return fileTree;
-    }
-
-    private static void scanFiles(ProductType productType, FileFilter fileFilter, File entry, FileTree fileTree) {
-        if (entry.isDirectory()) {
-            File[] files = entry.listFiles(fileFilter);
-            if (files != null) {
-                for (File file : files) {
-                    scanFiles(productType, fileFilter, file, fileTree);
-                }
-            }
-        } else if (entry.isFile()) {
-            try {
-                Date date = productType.parseDate(entry);
-                if (date != null) {
-                    fileTree.add(date, entry);
-                } else {
-                    SstLogging.getLogger().warning("Ignoring input file with unknown naming convention: " + entry.getPath());
-                }
-            } catch (ParseException e) {
-                SstLogging.getLogger().warning("Ignoring input file because date can't be parsed from filename: " + entry.getPath());
-            }
-        }
-    }
-
-    private static class InputFileFilter implements FileFilter {
-        private final Pattern filenamePattern;
-
-        private InputFileFilter(String filenameRegex) {
-            this.filenamePattern = Pattern.compile(filenameRegex);
-        }
-
-        @Override
-        public boolean accept(File file) {
-            return file.isDirectory() || file.isFile() &&
-                    filenamePattern.matcher(file.getName()).matches();
-        }
-    }
-
 }
@@ -27,8 +27,10 @@ import java.awt.geom.Point2D;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -37,6 +39,9 @@ import static java.lang.Math.*;
 
 /**
  * For doing a re-projection of full-orbit AVHRR L2P products.
+ * <p/>
+ * The target grid is divided into tiles, which are projected in parallel by a worker pool shared
+ * by all projectors. The projected tiles are written directly into the target data.
  *
  * @author Bettina Scholze
  * @author Sabine Embacher
@@ -44,6 +49,10 @@ import static java.lang.Math.*;
  */
 public class Projector {
 
+    private static final int TILE_SIZE = 256;
+    private static int threadCount = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool forkJoinPool;
+
     private final GridDef gridDef;
     private final Logger logger;
 
@@ -52,6 +61,28 @@ public class Projector {
         this.logger = logger;
     }
 
+    /**
+     * Sets the number of threads of the worker pool shared by all projectors.
+     *
+     * @param threadCount The number of threads.
+     */
+    public static synchronized void setThreadCount(int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount < 1");
+        }
+        if (threadCount != Projector.threadCount) {
+            Projector.threadCount = threadCount;
+            if (forkJoinPool != null) {
+                forkJoinPool.shutdown();
+                forkJoinPool = null;
+            }
+        }
+    }
+
+    public static synchronized int getThreadCount() {
+        return threadCount;
+    }
+
     public float[][] createProjectedData(NetcdfFile datafile, List<String> variableNames) throws IOException {
         final Variable lat = NcTools.getVariable(datafile, "lat");
         final Variable lon = NcTools.getVariable(datafile, "lon");
@@ -60,7 +91,6 @@ public class Projector {
         final GridDef sourceRaster = GridDef.createRaster(lat.getShape(rank - 1), lat.getShape(rank - 2));
         final Grid lonGrid = NcTools.readGrid(datafile, lon, sourceRaster, 0);
         final Grid latGrid = NcTools.readGrid(datafile, lat, sourceRaster, 0);
-        final PixelLocator sourcePixelLocator = new PixelLocator(lonGrid, latGrid);
 
         final int variableCount = variableNames.size();
         final Grid[] sourceGrids = new Grid[variableCount];
@@ -68,106 +98,118 @@ public class Projector {
             sourceGrids[i] = NcTools.readGrid(datafile, variableNames.get(i), sourceRaster);
         }
 
+        return createProjectedData(datafile.getLocation(), lonGrid, latGrid, sourceGrids);
+    }
+
+    // package access for testing only
+    float[][] createProjectedData(String location, Grid lonGrid, Grid latGrid, Grid[] sourceGrids) {
+        // the pixel locator of a full-orbit product is not kept beyond a single projection
+        final PixelLocator sourcePixelLocator = new PixelLocator(lonGrid, latGrid);
+
+        final int variableCount = sourceGrids.length;
         final int w = gridDef.getWidth();
         final int h = gridDef.getHeight();
         final float[][] projectedData = new float[variableCount][w * h];
 
-        /*
-            TODO - to exploit parallelism on CEMS use '-n' option
-            The job needs to be submitted with a request for the same number of
-            CPU slots (-n) as
-            the number of SMP threads that the main jobs will spool off in parallel. At the
-            minute that number of spooled threads is bigger than the maximum CPU
-            slots on the host which is leading to overloading.
-
-            Could you please have a look at your code. It should be limited to a
-            smaller number
-            of threads, and then submitted to LOTUS requesting that number of
-            threads (with the –n flag).
-         */
-        final int threadCount = Runtime.getRuntime().availableProcessors();
-        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
-        final List<Future<float[][]>> futures = new ArrayList<>(h);
-        for (int y = 0; y < h; y++) {
-            final RowTask rowTask = new RowTask(sourceGrids, y, sourcePixelLocator);
-            futures.add(executorService.submit(rowTask));
-        }
-        executorService.shutdown();
-
-        try {
-            final boolean completed = executorService.awaitTermination(30, TimeUnit.MINUTES);
-            if (!completed) {
-                if (logger != null && logger.isLoggable(Level.WARNING)) {
-                    logger.warning(MessageFormat.format("Projecting file ''{0}'' was not completed in time.",
-                            datafile.getLocation()));
-                }
-            }
-        } catch (InterruptedException ignored) {
-            // ignore, cannot happen
-        }
-
-        for (int y = 0; y < h; y++) {
-            try {
-                final float[][] rowData = futures.get(y).get();
-                for (int i = 0; i < variableCount; i++) {
-                    System.arraycopy(rowData[i], 0, projectedData[i], y * w, w);
-                }
-            } catch (InterruptedException ignored) {
-                // ignore, cannot happen
-            } catch (ExecutionException e) {
-                if (logger != null && logger.isLoggable(Level.WARNING)) {
-                    logger.warning(
-                            MessageFormat.format("An error has occurred while projecting file ''{0}''.",
-                                    datafile.getLocation())
-                    );
-                }
-            }
-        }
+        final int tileCountX = (w + TILE_SIZE - 1) / TILE_SIZE;
+        final int tileCountY = (h + TILE_SIZE - 1) / TILE_SIZE;
+        final TileAction action = new TileAction(location, sourceGrids, sourcePixelLocator,
+                                                 projectedData, tileCountX, 0, tileCountX * tileCountY);
+        getForkJoinPool().invoke(action);
 
         return projectedData;
     }
 
-    private class RowTask implements Callable<float[][]> {
+    private static synchronized ForkJoinPool getForkJoinPool() {
+        if (forkJoinPool == null) {
+            forkJoinPool = new ForkJoinPool(threadCount);
+        }
+        return forkJoinPool;
+    }
+
+    private final class TileAction extends RecursiveAction {
 
+        private final String location;
         private final Grid[] sourceGrids;
-        private final int y;
-        private PixelLocator pixelLocator;
-
-        public RowTask(Grid[] sourceGrids, int y, PixelLocator pixelLocator) {
+        private final PixelLocator pixelLocator;
+        private final float[][] projectedData;
+        private final int tileCountX;
+        private final int minTile;
+        private final int maxTile;
+
+        private TileAction(String location, Grid[] sourceGrids, PixelLocator pixelLocator, float[][] projectedData,
+                           int tileCountX, int minTile, int maxTile) {
+            this.location = location;
             this.sourceGrids = sourceGrids;
-            this.y = y;
             this.pixelLocator = pixelLocator;
+            this.projectedData = projectedData;
+            this.tileCountX = tileCountX;
+            this.minTile = minTile;
+            this.maxTile = maxTile;
         }
 
         @Override
-        public float[][] call() throws Exception {
-            if (logger != null && logger.isLoggable(Level.FINE)) {
-                logger.fine(MessageFormat.format("Starting computing projection for row {0}.", y));
+        protected void compute() {
+            if (maxTile - minTile == 1) {
+                final int tileX = minTile % tileCountX;
+                final int tileY = minTile / tileCountX;
+                final int minX = tileX * TILE_SIZE;
+                final int minY = tileY * TILE_SIZE;
+                final int maxX = Math.min(minX + TILE_SIZE, gridDef.getWidth());
+                final int maxY = Math.min(minY + TILE_SIZE, gridDef.getHeight());
+                try {
+                    projectTile(minX, minY, maxX, maxY);
+                } catch (RuntimeException e) {
+                    if (logger != null && logger.isLoggable(Level.WARNING)) {
+                        logger.warning(MessageFormat.format("An error has occurred while projecting file ''{0}''.",
+                                                            location));
+                    }
+                    final int w = gridDef.getWidth();
+                    for (final float[] data : projectedData) {
+                        for (int y = minY; y < maxY; y++) {
+                            Arrays.fill(data, y * w + minX, y * w + maxX, Float.NaN);
+                        }
+                    }
+                }
+            } else {
+                final int midTile = (minTile + maxTile) >>> 1;
+                invokeAll(new TileAction(location, sourceGrids, pixelLocator, projectedData, tileCountX,
+                                         minTile, midTile),
+                          new TileAction(location, sourceGrids, pixelLocator, projectedData, tileCountX,
+                                         midTile, maxTile));
             }
-            final float[][] data = new float[sourceGrids.length][gridDef.getWidth()];
+        }
 
+        private void projectTile(int minX, int minY, int maxX, int maxY) {
+            if (logger != null && logger.isLoggable(Level.FINE)) {
+                logger.fine(MessageFormat.format("Starting computing projection for tile at ({0}, {1}).",
+                                                 minX, minY));
+            }
+            final int w = gridDef.getWidth();
             final Point2D p = new Point2D.Double();
-            for (int x = 0; x < gridDef.getWidth(); x++) {
-                final double lon = gridDef.getCenterLon(x);
+            for (int y = minY; y < maxY; y++) {
                 final double lat = gridDef.getCenterLat(y);
-                final double cellRadius = gridDef.getDiagonal(x, y) / 12742.0;
-                pixelLocator.getPixelLocation(lon, lat, p, cellRadius);
-                if (Double.isNaN(p.getX()) || Double.isNaN(p.getY())) {
-                    for (int i = 0; i < sourceGrids.length; ++i) {
-                        data[i][x] = Float.NaN; // todo - use no-data value?
-                    }
-                } else {
-                    for (int i = 0; i < sourceGrids.length; ++i) {
-                        data[i][x] = (float) sourceGrids[i].getSampleDouble((int) p.getX(), (int) p.getY());
+                for (int x = minX; x < maxX; x++) {
+                    final double lon = gridDef.getCenterLon(x);
+                    final double cellRadius = gridDef.getDiagonal(x, y) / 12742.0;
+                    pixelLocator.getPixelLocation(lon, lat, p, cellRadius);
+                    final int index = y * w + x;
+                    if (Double.isNaN(p.getX()) || Double.isNaN(p.getY())) {
+                        for (final float[] data : projectedData) {
+                            data[index] = Float.NaN; // todo - use no-data value?
+                        }
+                    } else {
+                        for (int i = 0; i < sourceGrids.length; ++i) {
+                            projectedData[i][index] = (float) sourceGrids[i].getSampleDouble((int) p.getX(),
+                                                                                             (int) p.getY());
+                        }
                     }
                 }
             }
-
             if (logger != null && logger.isLoggable(Level.FINE)) {
-                logger.fine(MessageFormat.format("Finished computing projection for row {0}.", y));
+                logger.fine(MessageFormat.format("Finished computing projection for tile at ({0}, {1}).",
+                                                 minX, minY));
             }
-
-            return data;
         }
     }
 
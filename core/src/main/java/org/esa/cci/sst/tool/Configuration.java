@@ -32,6 +32,9 @@ public class Configuration {
     public static final String KEY_MMS_ARCHIVE_ROOT = "mms.archive.root";
     public static final String KEY_MMS_CONFIGURATION = "mms.configuration";
     public static final String KEY_MMS_IO_TMPDELETEONEXIT = "mms.io.tmpdeleteonexit";
+    public static final String KEY_MMS_IO_GUNZIPCACHE_DIR = "mms.io.gunzipcache.dir";
+    public static final String KEY_MMS_IO_GUNZIPCACHE_SIZE = "mms.io.gunzipcache.size";
+    public static final String KEY_MMS_IO_MDCACHE_SIZE = "mms.io.mdcache.size";
     public static final String KEY_MMS_PATTERN_PREFIX = "mms.pattern.";
     public static final String KEY_MMS_DIRTY_MASK_PREFIX = "mms.dirty.";
     public static final String KEY_MMS_USECASE = "mms.usecase";
@@ -39,10 +42,16 @@ public class Configuration {
     public static final String KEY_MMS_INGESTION_CLEANUPINTERVAL = "mms.ingestion.cleanupinterval";
     public static final String KEY_MMS_INGESTION_START_TIME = "mms.source.startTime";
     public static final String KEY_MMS_INGESTION_STOP_TIME = "mms.source.stopTime";
+    public static final String KEY_MMS_INGESTION_THREADS = "mms.ingestion.threads";
 
     public static final String KEY_MMS_MATCHUP_START_TIME = "mms.matchup.startTime";
     public static final String KEY_MMS_MATCHUP_STOP_TIME = "mms.matchup.stopTime";
     public static final String KEY_MMS_MATCHUP_PRIMARY_SENSOR = "mms.matchup.primarysensor";
+    public static final String KEY_MMS_MATCHUP_BATCHED_COINCIDENCE = "mms.matchup.batchedcoincidence";
+    public static final String KEY_MMS_MATCHUP_CHUNK_SIZE = "mms.matchup.chunksize";
+    public static final String KEY_MMS_MATCHUP_STREAMING = "mms.matchup.streaming";
+    public static final String KEY_MMS_MATCHUP_INMEMORY = "mms.matchup.inmemory";
+    public static final String KEY_MMS_MATCHUP_THREADS = "mms.matchup.threads";
 
     public static final String KEY_MMS_MMD_DIMENSIONS = "mms.target.dimensions";
     public static final String KEY_MMS_MMD_TARGET_DIR = "mms.target.dir";
@@ -50,6 +59,10 @@ public class Configuration {
     public static final String KEY_MMS_MMD_TARGET_VARIABLES = "mms.target.variables";
     public static final String KEY_MMS_MMD_SENSORS = "mms.mmd.sensors";
     public static final String KEY_MMS_MMD_READER_CACHE_SIZE = "mms.target.readercachesize";
+    public static final String KEY_MMS_MMD_READER_POOL_MEGABYTES = "mms.target.readerpoolmegabytes";
+    public static final String KEY_MMS_MMD_THREADS = "mms.target.threads";
+    public static final String KEY_MMS_MMD_MEGABYTES_IN_FLIGHT = "mms.target.megabytesinflight";
+    public static final String KEY_MMS_MMD_WRITE_BUFFER_SIZE = "mms.target.writebuffersize";
     public static final String KEY_MMS_MMD_TARGET_START_TIME = "mms.target.startTime";
     public static final String KEY_MMS_MMD_TARGET_STOP_TIME = "mms.target.stopTime";
 
@@ -75,6 +88,8 @@ public class Configuration {
     public static final String KEY_MMS_SAMPLING_MIZ_ONLY = "mms.sampling.mizonly";
     public static final String KEY_MMS_SAMPLING_OVERLAPPING_WANTED = "mms.sampling.overlappingwanted";
     public static final String KEY_MMS_SAMPLING_MAX_SAMPLE_COUNT = "mms.sampling.maxsamplecount";
+    public static final String KEY_MMS_SAMPLING_BINARY_FORMAT = "mms.sampling.binaryformat";
+    public static final String KEY_MMS_SAMPLING_THREADS = "mms.sampling.threads";
 
     public static final String KEY_MMS_MAPPLOT_STATEGY = "mms.mapplot.strategy";
     public static final String KEY_MMS_MAPPLOT_TARGET_DIR = "mms.mapplot.target.dir";
@@ -91,6 +106,7 @@ public class Configuration {
     public static final String KEY_MMS_NWP_FOR_SENSOR = "mms.nwp.forsensor";
     public static final String KEY_MMS_NWP_SENSOR = "mms.nwp.sensor";
     public static final String KEY_MMS_NWP_NWP_TARGET = "mms.nwp.nwp.target";
+    public static final String KEY_MMS_NWP_THREADS = "mms.nwp.threads";
 
     public static final String KEY_MMS_GBCS_INTELVERSION = "mms.gbcs.intelversion";
     public static final String KEY_MMS_GBCS_VERSION = "mms.gbcs.version";
@@ -107,6 +123,7 @@ public class Configuration {
     public static final String KEY_MMS_REINGESTION_SOURCE = "mms.reingestion.source";
     public static final String KEY_MMS_SELECTION_MMD_SOURCE = "mms.selection.source";
     public static final String KEY_MMS_SELECTION_MMD_TARGET = "mms.selection.target";
+    public static final String KEY_MMS_SELECTION_THREADS = "mms.selection.threads";
 
     private final Properties properties;
     private String toolHome;
@@ -16,48 +16,46 @@
 
 package org.esa.cci.sst.util;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Generic cache.
+ * Generic cache with least-recently-used eviction. All operations take constant
+ * time and are synchronized.
  *
  * @author Ralf Quast.
  */
-@SuppressWarnings("CollectionDeclaredAsConcreteClass")
 public class Cache<K, V> {
 
     private final int capacity;
-    private final LinkedList<K> keyList;
-    private Map<K, V> itemMap;
+    private final Map<K, V> itemMap;
 
     public Cache(int capacity) {
         this.capacity = capacity;
-        keyList = new LinkedList<>();
-        itemMap = new ConcurrentHashMap<>(capacity);
+        itemMap = new LinkedHashMap<>(16, 0.75f, true);
     }
 
-    public V add(K key, V item) {
+    public synchronized V add(K key, V item) {
         if (!itemMap.containsKey(key)) {
             itemMap.put(key, item);
-            keyList.addLast(key);
-            if (keyList.size() > capacity) {
-                final K removedKey = keyList.removeFirst();
-                final V removedItem = itemMap.get(removedKey);
-                itemMap.remove(removedKey);
+            if (itemMap.size() > capacity) {
+                final Iterator<Map.Entry<K, V>> iterator = itemMap.entrySet().iterator();
+                final V removedItem = iterator.next().getValue();
+                iterator.remove();
                 return removedItem;
             }
         }
         return null;
     }
 
-    public boolean contains(K key) {
+    public synchronized boolean contains(K key) {
         return itemMap.containsKey(key);
     }
 
-    public V get(K key) {
+    public synchronized V get(K key) {
         final V result = itemMap.get(key);
         if (result == null) {
             throw new IllegalArgumentException("Object with key '" + key + "' not contained in cache");
@@ -65,21 +63,14 @@ public class Cache<K, V> {
         return result;
     }
 
-    public Collection<V> clear() {
-        final Collection<V> removedItems = itemMap.values();
-
-        keyList.clear();
-        itemMap = new ConcurrentHashMap<>(capacity);
+    public synchronized Collection<V> clear() {
+        final Collection<V> removedItems = new ArrayList<>(itemMap.values());
+        itemMap.clear();
 
         return removedItems;
     }
 
-    public V remove(K key) {
-        V item = itemMap.get(key);
-        if (item != null) {
-            keyList.remove(key);
-            itemMap.remove(key);
-        }
-        return item;
+    public synchronized V remove(K key) {
+        return itemMap.remove(key);
     }
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.aggregate;
+
+import org.esa.cci.sst.common.SstDepth;
+import org.esa.cci.sst.common.TemporalResolution;
+import org.esa.cci.sst.common.TimeStep;
+import org.esa.cci.sst.file.FileStore;
+import org.esa.cci.sst.grid.ArrayGrid;
+import org.esa.cci.sst.grid.Grid;
+import org.esa.cci.sst.grid.GridDef;
+import org.esa.cci.sst.product.ProductType;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class AbstractAggregatorTest {
+
+    @Test
+    public void testAggregateRows_everyRowIsAggregatedOnce() {
+        final TestAggregator aggregator = new TestAggregator();
+        aggregator.setThreadCount(4);
+
+        final AtomicIntegerArray counts = new AtomicIntegerArray(1000);
+        aggregator.aggregateRows(counts.length(), new AbstractAggregator.RowAggregator() {
+            @Override
+            public void aggregateRow(int y) {
+                counts.incrementAndGet(y);
+            }
+        });
+
+        for (int y = 0; y < counts.length(); y++) {
+            assertEquals(1, counts.get(y));
+        }
+    }
+
+    @Test
+    public void testAggregateRows_singleThread() {
+        final TestAggregator aggregator = new TestAggregator();
+        aggregator.setThreadCount(1);
+
+        final Thread thread = Thread.currentThread();
+        final AtomicIntegerArray counts = new AtomicIntegerArray(10);
+        aggregator.aggregateRows(counts.length(), new AbstractAggregator.RowAggregator() {
+            @Override
+            public void aggregateRow(int y) {
+                assertSame(thread, Thread.currentThread());
+                counts.incrementAndGet(y);
+            }
+        });
+
+        for (int y = 0; y < counts.length(); y++) {
+            assertEquals(1, counts.get(y));
+        }
+    }
+
+    @Test
+    public void testSetThreadCount_throwsOnInvalidThreadCount() {
+        try {
+            new TestAggregator().setThreadCount(0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testSetSourceGrids_gridsMissingInSourceAreRetained() {
+        final GridDef gridDef = GridDef.createGlobal(90.0);
+        final Grid sstGrid = ArrayGrid.create(gridDef, new float[8]);
+        final Grid adjustmentUncertaintyGrid = ArrayGrid.create(gridDef, new float[8]);
+        final AggregationContext context = new AggregationContext();
+        context.setSstGrid(ArrayGrid.create(gridDef, new float[8]));
+        context.setAdjustmentUncertaintyGrid(adjustmentUncertaintyGrid);
+
+        final AggregationContext sourceGrids = new AggregationContext();
+        sourceGrids.setSstGrid(sstGrid);
+        AbstractAggregator.setSourceGrids(context, sourceGrids);
+
+        assertSame(sstGrid, context.getSstGrid());
+        assertSame(adjustmentUncertaintyGrid, context.getAdjustmentUncertaintyGrid());
+        assertNull(context.getRandomUncertaintyGrid());
+    }
+
+    @Test
+    public void testSourceFileSequence_failureDoesNotStopSequence() throws Exception {
+        final TestAggregator aggregator = new TestAggregator();
+        final File file = new File("does-not-exist.nc");
+        final AbstractAggregator.SourceFileSequence sequence =
+                aggregator.createSourceFileSequence(Collections.nCopies(2, file), false);
+        try {
+            for (int i = 0; i < 2; i++) {
+                assertTrue(sequence.hasNext());
+                try {
+                    sequence.next();
+                    fail("IOException expected");
+                } catch (IOException expected) {
+                }
+            }
+            assertFalse(sequence.hasNext());
+        } finally {
+            sequence.close();
+        }
+    }
+
+    private static final class TestAggregator extends AbstractAggregator {
+
+        private TestAggregator() {
+            super(FileStore.create(ProductType.CCI_L3U, ProductType.CCI_L3U.getDefaultFilenameRegex()), null,
+                  SstDepth.skin);
+        }
+
+        @Override
+        public List<? extends TimeStep> aggregate(Date startDate, Date endDate,
+                                                  TemporalResolution temporalResolution) {
+            return Collections.emptyList();
+        }
+    }
+}
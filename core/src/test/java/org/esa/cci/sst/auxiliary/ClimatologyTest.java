@@ -0,0 +1,188 @@
+package org.esa.cci.sst.auxiliary;
+
+import org.esa.cci.sst.grid.ArrayGrid;
+import org.esa.cci.sst.grid.Grid;
+import org.esa.cci.sst.grid.GridDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ClimatologyTest {
+
+    private static final GridDef GRID_DEF = GridDef.createGlobal(30.0);
+
+    private File tempDir;
+
+    @Before
+    public void setUp() throws Exception {
+        tempDir = Files.createTempDirectory("climatology").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(tempDir);
+    }
+
+    @Test
+    public void testGetSstGrid_recentlyUsedAndPrefetchedDays() throws Exception {
+        final File[] files = new File[365];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(tempDir, String.format("D%03d.nc", i + 1));
+        }
+        final TestClimatology climatology = new TestClimatology(files, null, 0.0f);
+
+        assertSstGrid(10.0, climatology.getSstGrid(10));
+        assertEquals(1, climatology.getReadCount(10));
+        // day 11 has been prefetched
+        assertSstGrid(11.0, climatology.getSstGrid(11));
+        assertEquals(1, climatology.getReadCount(11));
+        // day 12 has been prefetched, day 10 is evicted by prefetching day 13
+        assertSstGrid(12.0, climatology.getSstGrid(12));
+        assertEquals(1, climatology.getReadCount(12));
+        // day 11 is still kept
+        assertSstGrid(11.0, climatology.getSstGrid(11));
+        assertEquals(1, climatology.getReadCount(11));
+        // day 10 must be read again
+        assertSstGrid(10.0, climatology.getSstGrid(10));
+        assertEquals(2, climatology.getReadCount(10));
+    }
+
+    @Test
+    public void testGetSstGrid_cacheFile() throws Exception {
+        final File file = createClimatologyFile("D001.nc", 10);
+        final File cacheDir = new File(tempDir, "cache");
+
+        final TestClimatology climatology1 = new TestClimatology(new File[]{file}, cacheDir, 1.0f);
+        assertSstGrid(1.0, climatology1.getSstGrid(1));
+        assertEquals(1, climatology1.getReadCount(1));
+        assertEquals(1, countCacheFiles(cacheDir));
+
+        // the grid is mapped from the cache file instead of being read
+        final TestClimatology climatology2 = new TestClimatology(new File[]{file}, cacheDir, 2.0f);
+        assertSstGrid(1.0, climatology2.getSstGrid(1));
+        assertEquals(0, climatology2.getReadCount(1));
+    }
+
+    @Test
+    public void testGetSstGrid_cacheFileIsInvalidatedWhenSourceChanges() throws Exception {
+        final File file = createClimatologyFile("D001.nc", 10);
+        final File cacheDir = new File(tempDir, "cache");
+
+        final TestClimatology climatology1 = new TestClimatology(new File[]{file}, cacheDir, 1.0f);
+        assertSstGrid(1.0, climatology1.getSstGrid(1));
+
+        // a modification of the climatology file changes its length and modification time
+        writeFile(file, 20);
+        assertTrue(file.setLastModified(file.lastModified() - 60000L));
+        final TestClimatology climatology2 = new TestClimatology(new File[]{file}, cacheDir, 2.0f);
+        assertSstGrid(2.0, climatology2.getSstGrid(1));
+        assertEquals(1, climatology2.getReadCount(1));
+
+        // the cache file has been replaced
+        final TestClimatology climatology3 = new TestClimatology(new File[]{file}, cacheDir, 3.0f);
+        assertSstGrid(2.0, climatology3.getSstGrid(1));
+        assertEquals(0, climatology3.getReadCount(1));
+        assertEquals(1, countCacheFiles(cacheDir));
+    }
+
+    @Test
+    public void testGetSstGrid_cacheFileIsInvalidatedForOtherSource() throws Exception {
+        final File file = createClimatologyFile("D001.nc", 10);
+        final File otherDir = new File(tempDir, "other");
+        assertTrue(otherDir.mkdir());
+        final File otherFile = new File(otherDir, "D001.nc");
+        writeFile(otherFile, 10);
+        assertTrue(otherFile.setLastModified(file.lastModified()));
+        final File cacheDir = new File(tempDir, "cache");
+
+        final TestClimatology climatology1 = new TestClimatology(new File[]{file}, cacheDir, 1.0f);
+        assertSstGrid(1.0, climatology1.getSstGrid(1));
+
+        // the other file has the same name, length and modification time, but a different path
+        final TestClimatology climatology2 = new TestClimatology(new File[]{otherFile}, cacheDir, 2.0f);
+        assertSstGrid(2.0, climatology2.getSstGrid(1));
+        assertEquals(1, climatology2.getReadCount(1));
+    }
+
+    private File createClimatologyFile(String name, int length) throws IOException {
+        final File file = new File(tempDir, name);
+        writeFile(file, length);
+        return file;
+    }
+
+    private static void writeFile(File file, int length) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(new byte[length]);
+        }
+    }
+
+    private static int countCacheFiles(File cacheDir) {
+        final String[] names = cacheDir.list();
+        assertNotNull(names);
+        return names.length;
+    }
+
+    private static void assertSstGrid(double expectedValue, Grid sstGrid) {
+        for (int y = 0; y < GRID_DEF.getHeight(); y++) {
+            for (int x = 0; x < GRID_DEF.getWidth(); x++) {
+                assertEquals(expectedValue, sstGrid.getSampleDouble(x, y), 0.0);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                delete(f);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    // counts the SST grids read from climatology files, whose values are the day of year or a given value
+    private static final class TestClimatology extends Climatology {
+
+        private final float value;
+        private final Map<Integer, Integer> readCounts = new HashMap<>();
+
+        private TestClimatology(File[] files, File cacheDir, float value) {
+            super(files, GRID_DEF, cacheDir);
+            if (cacheDir != null) {
+                assertTrue(cacheDir.isDirectory() || cacheDir.mkdirs());
+            }
+            this.value = value;
+        }
+
+        @Override
+        Grid readClimatologyFile(File file, int doy, boolean readSst) throws IOException {
+            if (!readSst) {
+                return null;
+            }
+            synchronized (readCounts) {
+                readCounts.put(doy, getReadCount(doy) + 1);
+            }
+            final float[] data = new float[GRID_DEF.getWidth() * GRID_DEF.getHeight()];
+            Arrays.fill(data, value != 0.0f ? value : doy);
+            return ArrayGrid.create(GRID_DEF, data);
+        }
+
+        private int getReadCount(int doy) {
+            synchronized (readCounts) {
+                final Integer count = readCounts.get(doy);
+                return count != null ? count : 0;
+            }
+        }
+    }
+}
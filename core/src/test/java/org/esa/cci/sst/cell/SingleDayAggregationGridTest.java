@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.cell;
+
+import org.esa.cci.sst.aggregate.Aggregation;
+import org.esa.cci.sst.aggregate.AggregationContext;
+import org.esa.cci.sst.grid.ArrayGrid;
+import org.esa.cci.sst.grid.Grid;
+import org.esa.cci.sst.grid.GridDef;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SingleDayAggregationGridTest {
+
+    private static final GridDef GRID_DEF = GridDef.createGlobal(10.0);
+    private static final int W = GRID_DEF.getWidth();
+    private static final int H = GRID_DEF.getHeight();
+
+    @Test
+    public void testAccumulate_resultsEqualSingleDayAggregationCells() {
+        final Random random = new Random(5);
+        final AggregationContext context = new AggregationContext();
+        context.setSeaCoverageGrid(createGrid(random, 0.5, 1.0));
+
+        SingleDayAggregationGrid grid = null;
+        final SingleDayAggregationCell[] cells = new SingleDayAggregationCell[W * H];
+        for (int i = 0; i < 3; i++) {
+            context.setSstGrid(createGrid(random, 0.3, 300.0));
+            context.setRandomUncertaintyGrid(createGrid(random, 0.2, 1.0));
+            context.setLargeScaleUncertaintyGrid(createGrid(random, 0.2, 1.0));
+            context.setAdjustmentUncertaintyGrid(createGrid(random, 0.2, 1.0));
+            context.setSynopticUncertaintyGrid(createGrid(random, 0.2, 1.0));
+            context.setSeaIceFractionGrid(createGrid(random, 0.2, 1.0));
+            if (grid == null) {
+                grid = SingleDayAggregationGrid.create(GRID_DEF, context);
+            }
+
+            for (int y = 0; y < H; y++) {
+                grid.accumulate(context, y);
+                for (int x = 0; x < W; x++) {
+                    SingleDayAggregationCell cell = cells[y * W + x];
+                    if (cell != null) {
+                        cell.accumulate(context, new Rectangle(x, y, 1, 1));
+                    } else {
+                        cell = new SingleDayAggregationCell(context, x, y);
+                        cell.accumulate(context, new Rectangle(x, y, 1, 1));
+                        if (!cell.isEmpty()) {
+                            cells[y * W + x] = cell;
+                        }
+                    }
+                }
+            }
+        }
+
+        final int[] indexes = {
+                Aggregation.SST,
+                Aggregation.SST_ANOMALY,
+                Aggregation.RANDOM_UNCERTAINTY,
+                Aggregation.COVERAGE_UNCERTAINTY,
+                Aggregation.LARGE_SCALE_UNCERTAINTY,
+                Aggregation.ADJUSTMENT_UNCERTAINTY,
+                Aggregation.SYNOPTIC_UNCERTAINTY,
+                Aggregation.SEA_ICE_FRACTION
+        };
+        int nonEmptyCount = 0;
+        for (int y = 0; y < H; y++) {
+            for (int x = 0; x < W; x++) {
+                final SingleDayAggregationCell cell = cells[y * W + x];
+                if (cell == null) {
+                    assertEquals(0, grid.getSampleCount(x, y));
+                } else {
+                    assertEquals(cell.getSampleCount(), grid.getSampleCount(x, y));
+                    nonEmptyCount++;
+                }
+                for (final int index : indexes) {
+                    final double expected = cell == null ? Double.NaN : cell.getResults()[index].doubleValue();
+                    assertEquals(expected, grid.getResultGrid(index).getSampleDouble(x, y), 0.0);
+                }
+            }
+        }
+        assertTrue(nonEmptyCount > 0);
+    }
+
+    @Test
+    public void testAccumulate_optionalGridsMissing() {
+        final AggregationContext context = new AggregationContext();
+        context.setSeaCoverageGrid(ArrayGrid.create(GRID_DEF, filled(1.0)));
+        context.setSstGrid(ArrayGrid.create(GRID_DEF, filled(290.0)));
+        context.setRandomUncertaintyGrid(ArrayGrid.create(GRID_DEF, filled(0.0)));
+
+        final SingleDayAggregationGrid grid = SingleDayAggregationGrid.create(GRID_DEF, context);
+        grid.accumulate(context, 0);
+
+        assertEquals(290.0, grid.getResultGrid(Aggregation.SST).getSampleDouble(0, 0), 1.0e-10);
+        assertEquals(0.0, grid.getResultGrid(Aggregation.RANDOM_UNCERTAINTY).getSampleDouble(0, 0), 0.0);
+        assertTrue(Double.isNaN(grid.getResultGrid(Aggregation.LARGE_SCALE_UNCERTAINTY).getSampleDouble(0, 0)));
+        assertTrue(Double.isNaN(grid.getResultGrid(Aggregation.SEA_ICE_FRACTION).getSampleDouble(0, 0)));
+        assertTrue(Double.isNaN(grid.getResultGrid(Aggregation.SST).getSampleDouble(0, 1)));
+    }
+
+    private static Grid createGrid(Random random, double nanProbability, double scale) {
+        final double[] data = new double[W * H];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = random.nextDouble() < nanProbability ? Double.NaN : scale * random.nextDouble();
+        }
+        return ArrayGrid.create(GRID_DEF, data);
+    }
+
+    private static double[] filled(double value) {
+        final double[] data = new double[W * H];
+        Arrays.fill(data, value);
+        return data;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.file;
+
+import org.esa.cci.sst.product.ProductType;
+import org.esa.cci.sst.util.TimeUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FileIndexTest {
+
+    private static final ProductType PRODUCT_TYPE = ProductType.CCI_L3U;
+
+    private File rootDir;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        rootDir = Files.createTempDirectory("file-index").toFile();
+        indexFile = new File(rootDir, "index.dat");
+    }
+
+    @After
+    public void tearDown() {
+        delete(rootDir);
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        final File a = createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        final File b = createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-ATSR2-LT-v02.0-fv01.0.nc");
+        final File c = createFile("2010/07/02/20100702000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        createFile("2010/07/02/readme.txt");
+
+        final FileTree fileTree = createIndex().scan(new File(rootDir, "2010").getPath());
+
+        final List<File> files1 = fileTree.get(TimeUtil.parseShortUtcFormat("2010-07-01"));
+        assertEquals(2, files1.size());
+        assertEquals(a, files1.get(0));
+        assertEquals(b, files1.get(1));
+        final List<File> files2 = fileTree.get(TimeUtil.parseShortUtcFormat("2010-07-02"));
+        assertEquals(1, files2.size());
+        assertEquals(c, files2.get(0));
+    }
+
+    @Test
+    public void testScan_unmodifiedDirectoriesAreTakenFromIndexFile() throws Exception {
+        final File a = createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        final File dir = new File(rootDir, "2010/07/01");
+        assertTrue(dir.setLastModified(0L));
+        final String inputPath = new File(rootDir, "2010").getPath();
+
+        final FileIndex index1 = createIndex();
+        index1.scan(inputPath);
+        index1.save(indexFile);
+        assertTrue(indexFile.isFile());
+
+        final File b = createFile("2010/07/02/20100702000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        // a file added to an apparently unmodified directory is not detected
+        createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-ATSR2-LT-v02.0-fv01.0.nc");
+        assertTrue(dir.setLastModified(0L));
+
+        final FileIndex index2 = createIndex();
+        index2.load(indexFile);
+        final FileTree fileTree = index2.scan(inputPath);
+
+        final List<File> files1 = fileTree.get(TimeUtil.parseShortUtcFormat("2010-07-01"));
+        assertEquals(1, files1.size());
+        assertEquals(a, files1.get(0));
+        final List<File> files2 = fileTree.get(TimeUtil.parseShortUtcFormat("2010-07-02"));
+        assertEquals(1, files2.size());
+        assertEquals(b, files2.get(0));
+    }
+
+    @Test
+    public void testLoad_indexOfDifferentProductTypeIsIgnored() throws Exception {
+        createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        assertTrue(new File(rootDir, "2010/07/01").setLastModified(0L));
+        final String inputPath = new File(rootDir, "2010").getPath();
+
+        final FileIndex index1 = new FileIndex(ProductType.CCI_L4, "none");
+        index1.scan(inputPath);
+        index1.save(indexFile);
+
+        final FileIndex index2 = createIndex();
+        index2.load(indexFile);
+        final FileTree fileTree = index2.scan(inputPath);
+        assertEquals(1, fileTree.get(2010).size());
+    }
+
+    @Test
+    public void testSave_replacesExistingIndexFile() throws Exception {
+        createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-AATSR-LT-v02.0-fv01.0.nc");
+        final File dir = new File(rootDir, "2010/07/01");
+        assertTrue(dir.setLastModified(0L));
+        final String inputPath = new File(rootDir, "2010").getPath();
+
+        final FileIndex index1 = new FileIndex(ProductType.CCI_L4, "none");
+        index1.scan(inputPath);
+        index1.save(indexFile);
+        final FileIndex index2 = createIndex();
+        index2.scan(inputPath);
+        index2.save(indexFile);
+        // no temporary files are left behind
+        final String[] names = rootDir.list();
+        Arrays.sort(names);
+        assertArrayEquals(new String[]{"2010", "index.dat"}, names);
+
+        // a file added to an apparently unmodified directory is not detected, if the index has been replaced
+        createFile("2010/07/01/20100701000000-ESACCI-L3U_GHRSST-SSTskin-ATSR2-LT-v02.0-fv01.0.nc");
+        assertTrue(dir.setLastModified(0L));
+        final FileIndex index3 = createIndex();
+        index3.load(indexFile);
+        final FileTree fileTree = index3.scan(inputPath);
+        assertEquals(1, fileTree.get(TimeUtil.parseShortUtcFormat("2010-07-01")).size());
+    }
+
+    private FileIndex createIndex() {
+        return new FileIndex(PRODUCT_TYPE, PRODUCT_TYPE.getDefaultFilenameRegex());
+    }
+
+    private File createFile(String path) throws IOException {
+        final File file = new File(rootDir, path);
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        assertTrue(file.createNewFile());
+        return file;
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (final File child : files) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
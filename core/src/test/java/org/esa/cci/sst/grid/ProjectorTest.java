@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2014 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.grid;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ProjectorTest {
+
+    // 720 x 360 cells, which are divided into 3 x 2 tiles of 256 x 256 cells
+    private static final GridDef TARGET_GRID_DEF = GridDef.createGlobal(0.5);
+    // the first tile column ends at longitude -52.0
+    private static final double TILE_BORDER_LON = -52.0;
+
+    // the source swath covers longitudes from -62.0 to -42.0 and latitudes from -10.0 to 10.0
+    private static final int SOURCE_W = 81;
+    private static final int SOURCE_H = 81;
+    private static final double SOURCE_MIN_LON = -62.0;
+    private static final double SOURCE_MAX_LAT = 10.0;
+    private static final double SOURCE_RESOLUTION = 0.25;
+
+    private int threadCount;
+
+    @Before
+    public void setUp() {
+        threadCount = Projector.getThreadCount();
+        Projector.setThreadCount(3);
+    }
+
+    @After
+    public void tearDown() {
+        Projector.setThreadCount(threadCount);
+    }
+
+    @Test
+    public void testCreateProjectedData() {
+        final GridDef sourceRaster = GridDef.createRaster(SOURCE_W, SOURCE_H);
+        final Grid lonGrid = createSourceGrid(sourceRaster, true);
+        final Grid latGrid = createSourceGrid(sourceRaster, false);
+
+        final Projector projector = new Projector(TARGET_GRID_DEF, null);
+        final float[][] projectedData = projector.createProjectedData("test.nc", lonGrid, latGrid,
+                                                                      new Grid[]{lonGrid, latGrid});
+
+        assertEquals(2, projectedData.length);
+        for (int y = 0; y < TARGET_GRID_DEF.getHeight(); y++) {
+            final double lat = TARGET_GRID_DEF.getCenterLat(y);
+            for (int x = 0; x < TARGET_GRID_DEF.getWidth(); x++) {
+                final double lon = TARGET_GRID_DEF.getCenterLon(x);
+                final int index = y * TARGET_GRID_DEF.getWidth() + x;
+                if (isInside(lon, lat)) {
+                    assertEquals(lon, projectedData[0][index], SOURCE_RESOLUTION);
+                    assertEquals(lat, projectedData[1][index], SOURCE_RESOLUTION);
+                } else if (isOutside(lon, lat)) {
+                    assertTrue(Float.isNaN(projectedData[0][index]));
+                    assertTrue(Float.isNaN(projectedData[1][index]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCreateProjectedData_failingTileIsFilledWithNaN() {
+        final GridDef sourceRaster = GridDef.createRaster(SOURCE_W, SOURCE_H);
+        final Grid lonGrid = createSourceGrid(sourceRaster, true);
+        final Grid latGrid = createSourceGrid(sourceRaster, false);
+        // fails for all source pixels east of the tile border, with some margin
+        final int minFailingX = (int) ((TILE_BORDER_LON - SOURCE_MIN_LON) / SOURCE_RESOLUTION) + 3;
+        final Grid failingGrid = new FailingGrid(latGrid, minFailingX);
+
+        final Projector projector = new Projector(TARGET_GRID_DEF, null);
+        final float[][] projectedData = projector.createProjectedData("test.nc", lonGrid, latGrid,
+                                                                      new Grid[]{lonGrid, failingGrid});
+
+        for (int y = 0; y < TARGET_GRID_DEF.getHeight(); y++) {
+            final double lat = TARGET_GRID_DEF.getCenterLat(y);
+            for (int x = 0; x < TARGET_GRID_DEF.getWidth(); x++) {
+                final double lon = TARGET_GRID_DEF.getCenterLon(x);
+                final int index = y * TARGET_GRID_DEF.getWidth() + x;
+                if (lon < TILE_BORDER_LON && isInside(lon, lat)) {
+                    assertEquals(lon, projectedData[0][index], SOURCE_RESOLUTION);
+                    assertEquals(lat, projectedData[1][index], SOURCE_RESOLUTION);
+                } else if (lon > TILE_BORDER_LON) {
+                    // the whole tile has failed, including the data of the other source grid
+                    assertTrue(Float.isNaN(projectedData[0][index]));
+                    assertTrue(Float.isNaN(projectedData[1][index]));
+                }
+            }
+        }
+    }
+
+    private static boolean isInside(double lon, double lat) {
+        return lon > SOURCE_MIN_LON + 1.0 && lon < SOURCE_MIN_LON + (SOURCE_W - 1) * SOURCE_RESOLUTION - 1.0 &&
+               lat < SOURCE_MAX_LAT - 1.0 && lat > SOURCE_MAX_LAT - (SOURCE_H - 1) * SOURCE_RESOLUTION + 1.0;
+    }
+
+    private static boolean isOutside(double lon, double lat) {
+        return lon < SOURCE_MIN_LON - 1.0 || lon > SOURCE_MIN_LON + (SOURCE_W - 1) * SOURCE_RESOLUTION + 1.0 ||
+               lat > SOURCE_MAX_LAT + 1.0 || lat < SOURCE_MAX_LAT - (SOURCE_H - 1) * SOURCE_RESOLUTION - 1.0;
+    }
+
+    private static Grid createSourceGrid(GridDef sourceRaster, boolean lon) {
+        final double[] data = new double[SOURCE_W * SOURCE_H];
+        for (int y = 0; y < SOURCE_H; y++) {
+            for (int x = 0; x < SOURCE_W; x++) {
+                if (lon) {
+                    data[y * SOURCE_W + x] = SOURCE_MIN_LON + x * SOURCE_RESOLUTION;
+                } else {
+                    data[y * SOURCE_W + x] = SOURCE_MAX_LAT - y * SOURCE_RESOLUTION;
+                }
+            }
+        }
+        return ArrayGrid.create(sourceRaster, data);
+    }
+
+    private static final class FailingGrid implements Grid {
+
+        private final Grid grid;
+        private final int minFailingX;
+
+        private FailingGrid(Grid grid, int minFailingX) {
+            this.grid = grid;
+            this.minFailingX = minFailingX;
+        }
+
+        @Override
+        public GridDef getGridDef() {
+            return grid.getGridDef();
+        }
+
+        @Override
+        public double getSampleDouble(int x, int y) {
+            if (x >= minFailingX) {
+                throw new IllegalStateException("Cannot read sample at (" + x + ", " + y + ").");
+            }
+            return grid.getSampleDouble(x, y);
+        }
+
+        @Override
+        public int getSampleInt(int x, int y) {
+            return (int) getSampleDouble(x, y);
+        }
+
+        @Override
+        public boolean getSampleBoolean(int x, int y) {
+            return getSampleDouble(x, y) != 0.0;
+        }
+    }
+}
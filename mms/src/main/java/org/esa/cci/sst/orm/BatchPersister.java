@@ -0,0 +1,227 @@
+package org.esa.cci.sst.orm;
+
+import org.esa.cci.sst.data.Coincidence;
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.data.Matchup;
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.data.RelatedObservation;
+import org.esa.cci.sst.data.Timeable;
+import org.postgis.PGgeometry;
+import org.postgis.binary.BinaryWriter;
+
+import javax.persistence.DiscriminatorValue;
+import javax.persistence.Entity;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists large numbers of observations, matchups and coincidences by means of JDBC batch
+ * inserts, bypassing the row-by-row flush of the entity manager.
+ * <p/>
+ * The inserts are made on the connection of the current transaction, so they are committed or
+ * rolled back together with the transaction. Identifiers are allocated in ranges from the same
+ * sequences the entity manager uses. Geometries are written as WKB.
+ * <p/>
+ * Persisted entities are not managed by the entity manager. Entities referenced by persisted
+ * entities, like data files, may be managed, because pending changes of the entity manager are
+ * flushed before inserting.
+ */
+public class BatchPersister {
+
+    private static final int BATCH_SIZE = 1000;
+
+    // the tables and columns must be those mapped for the entity classes, package access for testing only
+    static final String SQL_INSERT_OBSERVATION =
+            "insert into mm_observation (id, dtype, name, sensor, datafile_id, recordno, time, timeradius, location," +
+            " point, dataset, referenceflag) values (?, ?, ?, ?, ?, ?, ?, ?, st_geogfromwkb(?), st_geogfromwkb(?), ?, ?)";
+    static final String SQL_INSERT_MATCHUP =
+            "insert into mm_matchup (id, refobs_id, pattern, invalid) values (?, ?, ?, ?)";
+    static final String SQL_INSERT_COINCIDENCE =
+            "insert into mm_coincidence (id, matchup_id, observation_id, timedifference) values (?, ?, ?, ?)";
+
+    private final PersistenceManager persistenceManager;
+
+    BatchPersister(PersistenceManager persistenceManager) {
+        this.persistenceManager = persistenceManager;
+    }
+
+    /**
+     * Persists observations of any kind. Observations without identifier are assigned a new
+     * identifier.
+     *
+     * @param observations The observations.
+     *
+     * @throws SQLException when the observations cannot be inserted.
+     */
+    public void persistObservations(List<? extends Observation> observations) throws SQLException {
+        persistenceManager.flush();
+        assignIds(observations);
+
+        final BinaryWriter wkbWriter = new BinaryWriter();
+        final Map<Class<?>, String> discriminatorValues = new HashMap<>();
+        try (Connection connection = persistenceManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SQL_INSERT_OBSERVATION)) {
+            int count = 0;
+            for (final Observation o : observations) {
+                statement.setInt(1, o.getId());
+                String discriminatorValue = discriminatorValues.get(o.getClass());
+                if (discriminatorValue == null) {
+                    discriminatorValue = getDiscriminatorValue(o.getClass());
+                    discriminatorValues.put(o.getClass(), discriminatorValue);
+                }
+                statement.setString(2, discriminatorValue);
+                statement.setString(3, o.getName());
+                statement.setString(4, o.getSensor());
+                final DataFile datafile = o.getDatafile();
+                if (datafile != null) {
+                    statement.setInt(5, datafile.getId());
+                } else {
+                    statement.setNull(5, Types.INTEGER);
+                }
+                statement.setInt(6, o.getRecordNo());
+                final Date time = o instanceof Timeable ? ((Timeable) o).getTime() : null;
+                if (time != null) {
+                    statement.setTimestamp(7, new Timestamp(time.getTime()));
+                } else {
+                    statement.setNull(7, Types.TIMESTAMP);
+                }
+                if (o instanceof RelatedObservation) {
+                    final RelatedObservation r = (RelatedObservation) o;
+                    statement.setDouble(8, r.getTimeRadius());
+                    setGeometry(statement, 9, r.getLocation(), wkbWriter);
+                } else {
+                    statement.setNull(8, Types.DOUBLE);
+                    statement.setNull(9, Types.BINARY);
+                }
+                if (o instanceof ReferenceObservation) {
+                    final ReferenceObservation r = (ReferenceObservation) o;
+                    setGeometry(statement, 10, r.getPoint(), wkbWriter);
+                    statement.setByte(11, r.getDataset());
+                    statement.setByte(12, r.getReferenceFlag());
+                } else {
+                    statement.setNull(10, Types.BINARY);
+                    statement.setNull(11, Types.SMALLINT);
+                    statement.setNull(12, Types.SMALLINT);
+                }
+                addBatch(statement, ++count);
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Persists matchups. The identifier of a matchup is the identifier of its reference observation,
+     * so matchups are not assigned a new identifier.
+     *
+     * @param matchups The matchups.
+     *
+     * @throws SQLException when the matchups cannot be inserted.
+     */
+    public void persistMatchups(List<Matchup> matchups) throws SQLException {
+        persistenceManager.flush();
+        try (Connection connection = persistenceManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SQL_INSERT_MATCHUP)) {
+            int count = 0;
+            for (final Matchup m : matchups) {
+                statement.setInt(1, m.getId());
+                statement.setInt(2, m.getRefObs().getId());
+                statement.setLong(3, m.getPattern());
+                statement.setBoolean(4, m.isInvalid());
+                addBatch(statement, ++count);
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Persists coincidences. Coincidences are assigned a new identifier.
+     *
+     * @param coincidences The coincidences.
+     *
+     * @throws SQLException when the coincidences cannot be inserted.
+     */
+    public void persistCoincidences(List<Coincidence> coincidences) throws SQLException {
+        persistenceManager.flush();
+        final int[] ids = persistenceManager.allocateIds(Coincidence.class, coincidences.size());
+        try (Connection connection = persistenceManager.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SQL_INSERT_COINCIDENCE)) {
+            int count = 0;
+            for (final Coincidence c : coincidences) {
+                c.setId(ids[count]);
+                statement.setInt(1, c.getId());
+                statement.setInt(2, c.getMatchup().getId());
+                statement.setInt(3, c.getObservation().getId());
+                statement.setDouble(4, c.getTimeDifference());
+                addBatch(statement, ++count);
+            }
+            statement.executeBatch();
+        }
+    }
+
+    /**
+     * Returns the discriminator value of an entity class. The discriminator value is the value
+     * declared for the class or, by default, the entity name.
+     *
+     * @param entityClass The entity class.
+     *
+     * @return the discriminator value.
+     */
+    static String getDiscriminatorValue(Class<?> entityClass) {
+        final DiscriminatorValue discriminatorValue = entityClass.getAnnotation(DiscriminatorValue.class);
+        if (discriminatorValue != null) {
+            return discriminatorValue.value();
+        }
+        final Entity entity = entityClass.getAnnotation(Entity.class);
+        if (entity == null) {
+            throw new IllegalArgumentException("Class '" + entityClass.getName() + "' is not an entity class.");
+        }
+        if (!entity.name().isEmpty()) {
+            return entity.name();
+        }
+        return entityClass.getSimpleName();
+    }
+
+    @SuppressWarnings("deprecation")
+    private void assignIds(List<? extends Observation> observations) {
+        int count = 0;
+        for (final Observation o : observations) {
+            if (o.getId() == 0) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        final int[] ids = persistenceManager.allocateIds(Observation.class, count);
+        int i = 0;
+        for (final Observation o : observations) {
+            if (o.getId() == 0) {
+                o.setId(ids[i++]);
+            }
+        }
+    }
+
+    private static void addBatch(PreparedStatement statement, int count) throws SQLException {
+        statement.addBatch();
+        if (count % BATCH_SIZE == 0) {
+            statement.executeBatch();
+        }
+    }
+
+    private static void setGeometry(PreparedStatement statement, int index, PGgeometry geometry,
+                                    BinaryWriter wkbWriter) throws SQLException {
+        if (geometry != null) {
+            statement.setBytes(index, wkbWriter.writeBinary(geometry.getGeometry()));
+        } else {
+            statement.setNull(index, Types.BINARY);
+        }
+    }
+}
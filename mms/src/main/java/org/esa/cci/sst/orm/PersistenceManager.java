@@ -16,7 +16,14 @@
 
 package org.esa.cci.sst.orm;
 
+import org.apache.openjpa.persistence.Generator;
+import org.apache.openjpa.persistence.OpenJPAEntityManager;
+import org.apache.openjpa.persistence.OpenJPAPersistence;
+
 import javax.persistence.*;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.List;
 import java.util.Map;
 
@@ -66,6 +73,10 @@ public class PersistenceManager {
         return new JpaColumnStorage(this);
     }
 
+    public BatchPersister getBatchPersister() {
+        return new BatchPersister(this);
+    }
+
     public EntityTransaction transaction() {
         final EntityTransaction transaction = entityManager.getTransaction();
         transaction.begin();
@@ -80,6 +91,36 @@ public class PersistenceManager {
         entityManager.getTransaction().rollback();
     }
 
+    /**
+     * Sets a savepoint in the current transaction. Rolling back to the savepoint undoes a failed
+     * statement without ending the transaction.
+     *
+     * @return the savepoint.
+     */
+    public Savepoint setSavepoint() {
+        try (Connection connection = getConnection()) {
+            return connection.setSavepoint();
+        } catch (SQLException e) {
+            throw new PersistenceException("Cannot set savepoint.", e);
+        }
+    }
+
+    public void rollback(Savepoint savepoint) {
+        try (Connection connection = getConnection()) {
+            connection.rollback(savepoint);
+        } catch (SQLException e) {
+            throw new PersistenceException("Cannot roll back to savepoint.", e);
+        }
+    }
+
+    public void releaseSavepoint(Savepoint savepoint) {
+        try (Connection connection = getConnection()) {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            throw new PersistenceException("Cannot release savepoint.", e);
+        }
+    }
+
     public void persist(Object data) {
         entityManager.persist(data);
     }
@@ -96,6 +137,10 @@ public class PersistenceManager {
         return entityManager.createNativeQuery(queryString, resultClass);
     }
 
+    public void flush() {
+        entityManager.flush();
+    }
+
     public void detach(Object entity) {
         entityManager.detach(entity);
     }
@@ -104,6 +149,42 @@ public class PersistenceManager {
         entityManager.clear();
     }
 
+    /**
+     * Returns the JDBC connection of the current transaction. Closing the connection returns
+     * it to the entity manager, but does not end the transaction.
+     *
+     * @return the JDBC connection of the current transaction.
+     */
+    Connection getConnection() {
+        final OpenJPAEntityManager openJpaEntityManager = OpenJPAPersistence.cast(entityManager);
+        // an optimistic transaction has no connection of its own until a store transaction is begun
+        if (!openJpaEntityManager.isStoreActive()) {
+            openJpaEntityManager.beginStore();
+        }
+        return (Connection) openJpaEntityManager.getConnection();
+    }
+
+    /**
+     * Allocates a range of identifiers from the sequence used for generating the identifiers
+     * of an entity class.
+     *
+     * @param entityClass The entity class.
+     * @param count       The number of identifiers.
+     *
+     * @return the identifiers allocated.
+     */
+    int[] allocateIds(Class<?> entityClass, int count) {
+        final int[] ids = new int[count];
+        if (count > 0) {
+            final Generator generator = OpenJPAPersistence.cast(entityManager).getFieldGenerator(entityClass, "id");
+            generator.allocate(count);
+            for (int i = 0; i < count; i++) {
+                ids[i] = ((Number) generator.next()).intValue();
+            }
+        }
+        return ids;
+    }
+
     Object pick(String queryString, Object... parameter) {
         final Query query = createQuery(queryString);
         for (int i = 0; i < parameter.length; ++i) {
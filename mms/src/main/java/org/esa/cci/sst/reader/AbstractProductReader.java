@@ -50,6 +50,8 @@ import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -62,6 +64,10 @@ import java.util.logging.Logger;
  */
 abstract class AbstractProductReader implements Reader {
 
+    // sub-scenes are merged into bands of at most this number of scan lines and pixels
+    private static final int MAX_BAND_HEIGHT = 512;
+    private static final long MAX_BAND_PIXELS = 1L << 22;
+
     private final String sensorName;
     private final String[] formatNames;
 
@@ -69,6 +75,11 @@ abstract class AbstractProductReader implements Reader {
     private Product product;
     private File archiveRoot;
 
+    // the pixel position of the last reference point, which is shared by all roles extracted for a record
+    private double locatedLon = Double.NaN;
+    private double locatedLat = Double.NaN;
+    private PixelPos locatedPixelPos;
+
     static {
         System.setProperty("beam.pixelGeoCoding.useTiling", "true");
         System.setProperty("beam.pixelGeoCoding.fractionAccuracy", "true");
@@ -95,6 +106,7 @@ abstract class AbstractProductReader implements Reader {
         }
         datafile = null;
         product = null;
+        locatedPixelPos = null;
     }
 
     @Override
@@ -130,14 +142,7 @@ abstract class AbstractProductReader implements Reader {
         Assert.argument(extractDefinition != null, "extractDefinition == null");
         Assert.state(product != null, "product == null");
 
-        final RasterDataNode node;
-        if (product.containsBand(role)) {
-            node = product.getBand(role);
-        } else if (product.containsTiePointGrid(role)) {
-            node = product.getTiePointGrid(role);
-        } else {
-            node = product.getMaskGroup().get(role);
-        }
+        final RasterDataNode node = getRasterDataNode(role);
         if (node == null) {
             return null;
         }
@@ -153,6 +158,79 @@ abstract class AbstractProductReader implements Reader {
         return readSubsceneData(node, shape, rectangle, fillValue);
     }
 
+    @Override
+    public Array[] read(String[] roles, ExtractDefinition extractDefinition) {
+        Assert.argument(roles != null, "roles == null");
+        Assert.argument(extractDefinition != null, "extractDefinition == null");
+        Assert.state(product != null, "product == null");
+
+        @SuppressWarnings({"ConstantConditions"})
+        final int[] shape = extractDefinition.getShape();
+        final Number fillValue = extractDefinition.getFillValue();
+
+        final Array[] arrays = new Array[roles.length];
+        Rectangle rectangle = null;
+        for (int i = 0; i < roles.length; i++) {
+            final RasterDataNode node = getRasterDataNode(roles[i]);
+            if (node != null) {
+                if (rectangle == null) {
+                    final PixelPos p = findPixelPos(extractDefinition.getLon(), extractDefinition.getLat());
+                    rectangle = createSubsceneRectangle(p, shape);
+                }
+                arrays[i] = readSubsceneData(node, shape, rectangle, fillValue);
+            }
+        }
+        return arrays;
+    }
+
+    /**
+     * Locates the sub-scenes of all extract definitions, merges sub-scenes of neighbouring scan
+     * lines into bands, and reads each band of a raster only once.
+     */
+    @Override
+    public Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) {
+        Assert.argument(roles != null, "roles == null");
+        Assert.argument(extractDefinitions != null, "extractDefinitions == null");
+        Assert.state(product != null, "product == null");
+
+        final Array[][] arrays = new Array[roles.length][extractDefinitions.length];
+        List<List<Integer>> bands = null;
+        Rectangle[] rectangles = null;
+        for (int i = 0; i < roles.length; i++) {
+            final RasterDataNode node = getRasterDataNode(roles[i]);
+            if (node == null) {
+                continue;
+            }
+            if (rectangles == null) {
+                rectangles = new Rectangle[extractDefinitions.length];
+                for (int j = 0; j < extractDefinitions.length; j++) {
+                    final ExtractDefinition extractDefinition = extractDefinitions[j];
+                    final PixelPos p = findPixelPos(extractDefinition.getLon(), extractDefinition.getLat());
+                    rectangles[j] = createSubsceneRectangle(p, extractDefinition.getShape());
+                }
+                bands = createBands(rectangles);
+            }
+
+            final RenderedImage sourceImage = node.getSourceImage().getImage(0);
+            final Rectangle imageRectangle = new Rectangle(sourceImage.getMinX(), sourceImage.getMinY(),
+                                                           sourceImage.getWidth(), sourceImage.getHeight());
+            for (final List<Integer> band : bands) {
+                final Rectangle bandRectangle = new Rectangle(rectangles[band.get(0)]);
+                for (final int j : band) {
+                    bandRectangle.add(rectangles[j]);
+                }
+                final Rectangle validRectangle = imageRectangle.intersection(bandRectangle);
+                final Raster raster = validRectangle.isEmpty() ? null : sourceImage.getData(validRectangle);
+                for (final int j : band) {
+                    final ExtractDefinition extractDefinition = extractDefinitions[j];
+                    arrays[i][j] = extractSubsceneData(node, extractDefinition.getShape(), rectangles[j],
+                                                       extractDefinition.getFillValue(), imageRectangle, raster);
+                }
+            }
+        }
+        return arrays;
+    }
+
     @Override
     public List<SamplingPoint> readSamplingPoints() {
         return new ArrayList<>();
@@ -302,7 +380,26 @@ abstract class AbstractProductReader implements Reader {
         return builder.build();
     }
 
+    private RasterDataNode getRasterDataNode(String role) {
+        if (product.containsBand(role)) {
+            return product.getBand(role);
+        } else if (product.containsTiePointGrid(role)) {
+            return product.getTiePointGrid(role);
+        } else {
+            return product.getMaskGroup().get(role);
+        }
+    }
+
     private PixelPos findPixelPos(double lon, double lat) {
+        if (locatedPixelPos == null || lon != locatedLon || lat != locatedLat) {
+            locatedPixelPos = locatePixelPos(lon, lat);
+            locatedLon = lon;
+            locatedLat = lat;
+        }
+        return locatedPixelPos;
+    }
+
+    private PixelPos locatePixelPos(double lon, double lat) {
         final GeoPos geoPos = new GeoPos((float) lat, (float) lon);
         if (!geoPos.isValid()) {
             throw new ToolException("Geo-location of reference point is invalid.", ToolException.TOOL_ERROR);
@@ -329,14 +426,52 @@ abstract class AbstractProductReader implements Reader {
         return new Rectangle(x, y, w, h);
     }
 
-    private static Array readSubsceneData(RasterDataNode node, int[] shape, Rectangle rectangle, Number fillValue) {
-        final Array targetArray = Array.factory(DataTypeUtils.getNetcdfDataType(node.getDataType()), shape);
+    // groups the indexes of the rectangles into bands of neighbouring scan lines
+    private static List<List<Integer>> createBands(final Rectangle[] rectangles) {
+        final Integer[] indexes = new Integer[rectangles.length];
+        for (int j = 0; j < indexes.length; j++) {
+            indexes[j] = j;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(rectangles[o1].y, rectangles[o2].y);
+            }
+        });
+        final List<List<Integer>> bands = new ArrayList<>();
+        List<Integer> band = null;
+        Rectangle bandRectangle = null;
+        for (final Integer j : indexes) {
+            if (band != null) {
+                final Rectangle union = bandRectangle.union(rectangles[j]);
+                if (union.height <= MAX_BAND_HEIGHT && (long) union.width * union.height <= MAX_BAND_PIXELS) {
+                    band.add(j);
+                    bandRectangle = union;
+                    continue;
+                }
+            }
+            band = new ArrayList<>();
+            band.add(j);
+            bands.add(band);
+            bandRectangle = rectangles[j];
+        }
+        return bands;
+    }
 
+    private static Array readSubsceneData(RasterDataNode node, int[] shape, Rectangle rectangle, Number fillValue) {
         final RenderedImage sourceImage = node.getSourceImage().getImage(0);
-        final int minX = sourceImage.getMinX();
-        final int minY = sourceImage.getMinY();
+        final Rectangle imageRectangle = new Rectangle(sourceImage.getMinX(), sourceImage.getMinY(),
+                                                       sourceImage.getWidth(), sourceImage.getHeight());
+        final Rectangle validRectangle = imageRectangle.intersection(rectangle);
+        final Raster raster = validRectangle.isEmpty() ? null : sourceImage.getData(validRectangle);
+        return extractSubsceneData(node, shape, rectangle, fillValue, imageRectangle, raster);
+    }
+
+    // the raster must contain the intersection of the sub-scene rectangle with the image rectangle
+    private static Array extractSubsceneData(RasterDataNode node, int[] shape, Rectangle rectangle, Number fillValue,
+                                             Rectangle imageRectangle, Raster raster) {
+        final Array targetArray = Array.factory(DataTypeUtils.getNetcdfDataType(node.getDataType()), shape);
 
-        final Rectangle imageRectangle = new Rectangle(minX, minY, sourceImage.getWidth(), sourceImage.getHeight());
         final Rectangle validRectangle = imageRectangle.intersection(rectangle);
         if (validRectangle.isEmpty()) {
             for (int i = 0; i < targetArray.getSize(); i++) {
@@ -344,13 +479,14 @@ abstract class AbstractProductReader implements Reader {
                 targetArray.setObject(i, fillValue);
             }
         } else {
-            final Raster raster = sourceImage.getData(validRectangle);
             if (validRectangle.equals(rectangle)) {
                 raster.getDataElements(rectangle.x, rectangle.y, rectangle.width, rectangle.height,
                                        targetArray.getStorage());
             } else {
-                final int maxX = minX + sourceImage.getWidth() - 1;
-                final int maxY = minY + sourceImage.getHeight() - 1;
+                final int minX = imageRectangle.x;
+                final int minY = imageRectangle.y;
+                final int maxX = minX + imageRectangle.width - 1;
+                final int maxY = minY + imageRectangle.height - 1;
                 for (int i = rectangle.y, k = 0; i < rectangle.y + rectangle.height; i++) {
                     for (int j = rectangle.x; j < rectangle.x + rectangle.width; j++, k++) {
                         final Number value;
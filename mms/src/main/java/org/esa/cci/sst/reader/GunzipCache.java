@@ -0,0 +1,377 @@
+package org.esa.cci.sst.reader;
+
+import org.esa.cci.sst.tool.Configuration;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A cache of decompressed gzip files, which is shared by all readers of a JVM and by all tools
+ * using the same cache directory.
+ * <p/>
+ * A decompressed file is stored in a subdirectory of the cache directory, which is named after
+ * the path, the modification time and the size of the compressed file. The name of the
+ * decompressed file is the name of the compressed file without the ".gz" extension. Files are
+ * decompressed into a temporary file first and then moved into place, so other tools never see
+ * a partially decompressed file.
+ * <p/>
+ * While a decompressed file is in use, a shared lock is held on a lock file next to it. When the
+ * size of all decompressed files exceeds the size limit of the cache, the least recently used files
+ * are deleted, unless they are in use by a reader of this JVM or locked by another process. With a
+ * size limit of zero, which is the default, a decompressed file is deleted as soon as it is released.
+ */
+final class GunzipCache {
+
+    private static final long DEFAULT_SIZE_LIMIT_MB = 0;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final String LOCK_FILE_NAME = ".lock";
+
+    private static final Map<File, GunzipCache> instances = new HashMap<>();
+
+    private final File cacheDir;
+    private final Map<String, Integer> referenceCounts;
+    private final Map<String, Object> locks;
+    private final Map<String, FileLock> fileLocks;
+    private final long sizeLimit;
+
+    /**
+     * Returns the cache for the cache directory and size limit of a configuration. There is a single
+     * cache per cache directory, whose size limit is set when the cache is looked up for the first
+     * time and never changed afterwards.
+     *
+     * @param config The configuration.
+     *
+     * @return the cache.
+     */
+    static GunzipCache getInstance(Configuration config) {
+        final String defaultPath = new File(System.getProperty("java.io.tmpdir"),
+                                            "mms-gunzip-cache-" + System.getProperty("user.name")).getPath();
+        final File cacheDir = new File(config.getStringValue(Configuration.KEY_MMS_IO_GUNZIPCACHE_DIR, defaultPath));
+        final long sizeLimit = config.getIntValue(Configuration.KEY_MMS_IO_GUNZIPCACHE_SIZE,
+                                                  (int) DEFAULT_SIZE_LIMIT_MB) * 1024L * 1024L;
+        return getInstance(cacheDir, sizeLimit);
+    }
+
+    /**
+     * Returns the cache for the default cache directory and size limit.
+     *
+     * @return the cache.
+     */
+    static GunzipCache getInstance() {
+        return getInstance(new Configuration());
+    }
+
+    static GunzipCache getInstance(File cacheDir, long sizeLimit) {
+        final File key = cacheDir.getAbsoluteFile();
+        synchronized (instances) {
+            GunzipCache instance = instances.get(key);
+            if (instance == null) {
+                instance = new GunzipCache(key, sizeLimit);
+                instances.put(key, instance);
+            }
+            return instance;
+        }
+    }
+
+    // package access for testing only
+    GunzipCache(File cacheDir, long sizeLimit) {
+        this.cacheDir = cacheDir;
+        this.sizeLimit = sizeLimit;
+        referenceCounts = new HashMap<>();
+        locks = new HashMap<>();
+        fileLocks = new HashMap<>();
+    }
+
+    /**
+     * Returns the decompressed file for a gzip file, decompressing the gzip file unless the
+     * decompressed file is already in the cache. The decompressed file must be released when
+     * it is no longer used.
+     *
+     * @param gzipFile The gzip file.
+     *
+     * @return the decompressed file.
+     *
+     * @throws IOException if the gzip file cannot be decompressed.
+     */
+    File acquire(File gzipFile) throws IOException {
+        final String key = createKey(gzipFile);
+        final Object lock;
+        synchronized (this) {
+            final Integer count = referenceCounts.get(key);
+            referenceCounts.put(key, count == null ? 1 : count + 1);
+            lock = locks.containsKey(key) ? locks.get(key) : new Object();
+            locks.put(key, lock);
+        }
+        final File keyDir = new File(cacheDir, key);
+        final File targetFile = new File(keyDir, getTargetName(gzipFile));
+        try {
+            synchronized (lock) {
+                lockKeyDir(key, keyDir);
+                if (targetFile.isFile()) {
+                    // the modification time of a decompressed file is its time of last use
+                    //noinspection ResultOfMethodCallIgnored
+                    targetFile.setLastModified(System.currentTimeMillis());
+                } else {
+                    decompress(gzipFile, keyDir, targetFile);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release(key);
+            throw e;
+        }
+        evict();
+        return targetFile;
+    }
+
+    /**
+     * Releases a decompressed file.
+     *
+     * @param file The decompressed file, as returned by {@link #acquire(File)}.
+     */
+    void release(File file) {
+        release(file.getParentFile().getName());
+        evict();
+    }
+
+    File getCacheDir() {
+        return cacheDir;
+    }
+
+    private synchronized void release(String key) {
+        final Integer count = referenceCounts.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            referenceCounts.put(key, count - 1);
+        } else {
+            referenceCounts.remove(key);
+            locks.remove(key);
+            final FileLock fileLock = fileLocks.remove(key);
+            if (fileLock != null) {
+                close(fileLock.channel());
+            }
+        }
+    }
+
+    // holds a shared lock on the lock file of a key directory, until the key is released
+    private void lockKeyDir(String key, File keyDir) throws IOException {
+        synchronized (this) {
+            if (fileLocks.containsKey(key)) {
+                return;
+            }
+        }
+        final File lockFile = new File(keyDir, LOCK_FILE_NAME);
+        while (true) {
+            createDirectory(keyDir);
+            final FileChannel channel;
+            try {
+                channel = new RandomAccessFile(lockFile, "rw").getChannel();
+            } catch (FileNotFoundException e) {
+                if (keyDir.isDirectory()) {
+                    throw e;
+                }
+                // the key directory has just been evicted by another process
+                continue;
+            }
+            boolean locked = false;
+            try {
+                final FileLock fileLock = channel.lock(0, Long.MAX_VALUE, true);
+                // the lock file may have been deleted by another process while waiting for the lock
+                if (lockFile.isFile()) {
+                    synchronized (this) {
+                        fileLocks.put(key, fileLock);
+                    }
+                    locked = true;
+                    return;
+                }
+            } finally {
+                if (!locked) {
+                    close(channel);
+                }
+            }
+        }
+    }
+
+    // the cache directory is scanned, because decompressed files may have been added by other tools
+    private synchronized void evict() {
+        final File[] keyDirs = cacheDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isDirectory();
+            }
+        });
+        if (keyDirs == null) {
+            return;
+        }
+        final List<File> files = new ArrayList<>(keyDirs.length);
+        long size = 0;
+        for (final File keyDir : keyDirs) {
+            final File[] keyFiles = keyDir.listFiles(new FileFilter() {
+                @Override
+                public boolean accept(File file) {
+                    return file.isFile() && !file.getName().startsWith(".");
+                }
+            });
+            if (keyFiles != null) {
+                for (final File file : keyFiles) {
+                    files.add(file);
+                    size += file.length();
+                }
+            }
+        }
+        if (size <= sizeLimit) {
+            return;
+        }
+        final Map<File, Long> lastModified = new HashMap<>(files.size());
+        for (final File file : files) {
+            lastModified.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(lastModified.get(o1), lastModified.get(o2));
+            }
+        });
+        for (final File file : files) {
+            if (size <= sizeLimit) {
+                break;
+            }
+            final File keyDir = file.getParentFile();
+            if (referenceCounts.containsKey(keyDir.getName())) {
+                continue;
+            }
+            final long length = file.length();
+            if (delete(file)) {
+                size -= length;
+            }
+        }
+    }
+
+    // deletes a decompressed file and its key directory, unless the file is locked by another process
+    private static boolean delete(File file) {
+        final File keyDir = file.getParentFile();
+        final File lockFile = new File(keyDir, LOCK_FILE_NAME);
+        final FileChannel channel;
+        try {
+            channel = new RandomAccessFile(lockFile, "rw").getChannel();
+        } catch (FileNotFoundException e) {
+            // the key directory has been evicted by another process
+            return false;
+        }
+        try {
+            final FileLock fileLock = channel.tryLock();
+            if (fileLock == null) {
+                return false;
+            }
+            final boolean deleted = file.delete();
+            //noinspection ResultOfMethodCallIgnored
+            lockFile.delete();
+            //noinspection ResultOfMethodCallIgnored
+            keyDir.delete();
+            return deleted;
+        } catch (IOException | OverlappingFileLockException e) {
+            // the file is locked by another cache of this JVM
+            return false;
+        } finally {
+            close(channel);
+        }
+    }
+
+    private static void close(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // releasing the lock is all that matters
+        }
+    }
+
+    private static void createDirectory(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+            throw new IOException("Cannot create directory '" + dir.getPath() + "'.");
+        }
+    }
+
+    private static void decompress(File gzipFile, File keyDir, File targetFile) throws IOException {
+        createDirectory(keyDir);
+        final File tmpFile = File.createTempFile(".gunzip", ".part", keyDir);
+        try {
+            try (InputStream in = new GZIPInputStream(new FileInputStream(gzipFile), BUFFER_SIZE);
+                 FileChannel out = new FileOutputStream(tmpFile).getChannel()) {
+                final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                final byte[] bytes = buffer.array();
+                int n;
+                while ((n = in.read(bytes, buffer.position(), buffer.remaining())) != -1) {
+                    buffer.position(buffer.position() + n);
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        writeFully(out, buffer);
+                    }
+                }
+                buffer.flip();
+                writeFully(out, buffer);
+            }
+            Files.move(tmpFile.toPath(), targetFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            if (tmpFile.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                tmpFile.delete();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static String getTargetName(File gzipFile) {
+        final String name = gzipFile.getName();
+        return name.endsWith(".gz") ? name.substring(0, name.length() - ".gz".length()) : name;
+    }
+
+    // package access for testing only
+    static String createKey(File gzipFile) throws IOException {
+        if (!gzipFile.isFile()) {
+            throw new IOException("File '" + gzipFile.getPath() + "' does not exist.");
+        }
+        final String identity = gzipFile.getCanonicalPath() + '\n' + gzipFile.lastModified() + '\n' +
+                                gzipFile.length();
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(identity.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -22,16 +22,17 @@ import org.esa.cci.sst.common.ExtractDefinition;
 import org.esa.cci.sst.data.DataFile;
 import org.esa.cci.sst.data.Item;
 import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.tool.Configuration;
 import org.esa.cci.sst.util.SamplingPoint;
 import ucar.ma2.Array;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 /**
- * A decorator for readers that deflates a gzip-compressed input file into
- * a temporary directory but otherwise forwards operations to the decorated
+ * A decorator for readers that decompresses a gzip-compressed input file into
+ * a {@link GunzipCache} but otherwise forwards operations to the decorated
  * reader.
  * <p/>
  * Compressed input file are recognized due to the ".gz" file extension. The
@@ -43,14 +44,49 @@ import java.util.zip.GZIPInputStream;
 public class GunzipDecorator implements Reader {
 
     private final Reader delegate;
+    private GunzipCache cache;
     private File tmpFile;
 
+    /**
+     * Creates a decorator, which uses the cache of the default configuration, unless
+     * another cache is set before the reader is opened.
+     *
+     * @param delegate The decorated reader.
+     */
     public GunzipDecorator(Reader delegate) {
+        this(delegate, (GunzipCache) null);
+    }
+
+    /**
+     * Creates a decorator, which uses the cache of a configuration.
+     *
+     * @param delegate      The decorated reader.
+     * @param configuration The configuration.
+     */
+    public GunzipDecorator(Reader delegate, Configuration configuration) {
+        this(delegate, GunzipCache.getInstance(configuration));
+    }
+
+    GunzipDecorator(Reader delegate, GunzipCache cache) {
         this.delegate = delegate;
+        this.cache = cache;
     }
 
     /**
-     * Maybe deflates gz files, initialises reader.
+     * Sets the cache used for decompressing gzip files. Must be called before the reader is opened.
+     *
+     * @param cache The cache.
+     */
+    void setCache(GunzipCache cache) {
+        this.cache = cache;
+    }
+
+    Reader getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Maybe decompresses gz files, initialises reader.
      *
      * @param dataFile The file to be read.
      * @throws IOException if decompressing or opening the file with the decorated reader fails.
@@ -58,24 +94,29 @@ public class GunzipDecorator implements Reader {
     @Override
     public final void open(DataFile dataFile, File archiveRoot) throws IOException {
         if (dataFile.getPath().endsWith(".gz")) {
-            // deflate product to tmp file in tmp dir
             String path;
             if (archiveRoot == null || dataFile.getPath().startsWith(File.separator)) {
                 path = dataFile.getPath();
             } else {
                 path = archiveRoot.getPath() + File.separator + dataFile.getPath();
             }
-            tmpFile = tmpFileFor(path);
-            decompress(new File(path), tmpFile);
+            if (cache == null) {
+                cache = GunzipCache.getInstance();
+            }
+            final File decompressedFile = cache.acquire(new File(path));
 
-            // temporarily read from tmp path
+            // temporarily read from decompressed path
             final String origPath = dataFile.getPath();
             try {
-                dataFile.setPath(tmpFile.getPath());
+                dataFile.setPath(decompressedFile.getPath());
                 delegate.open(dataFile, null);
+            } catch (IOException | RuntimeException e) {
+                cache.release(decompressedFile);
+                throw e;
             } finally {
                 dataFile.setPath(origPath);
             }
+            tmpFile = decompressedFile;
         } else {
             tmpFile = null;
             delegate.open(dataFile, archiveRoot);
@@ -83,14 +124,13 @@ public class GunzipDecorator implements Reader {
     }
 
     /**
-     * Closes the product and deletes the tmp file.
+     * Closes the product and releases the decompressed file.
      */
     @Override
     public final void close() {
         delegate.close();
-        if (tmpFile != null && tmpFile.exists()) {
-            //noinspection ResultOfMethodCallIgnored
-            tmpFile.delete();
+        if (tmpFile != null) {
+            cache.release(tmpFile);
         }
         tmpFile = null;
     }
@@ -126,6 +166,16 @@ public class GunzipDecorator implements Reader {
         return delegate.read(role, extractDefinition);
     }
 
+    @Override
+    public final Array[] read(String[] roles, ExtractDefinition extractDefinition) throws IOException {
+        return delegate.read(roles, extractDefinition);
+    }
+
+    @Override
+    public final Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) throws IOException {
+        return delegate.read(roles, extractDefinitions);
+    }
+
     @Override
     public final Item getColumn(String role) {
         return delegate.getColumn(role);
@@ -187,65 +237,4 @@ public class GunzipDecorator implements Reader {
     public Product getProduct() {
         return delegate.getProduct();
     }
-
-    /**
-     * Constructs File with suffix of original file without "dotgz" in tmp dir.
-     * The tmp dir can be configured with property java.io.tmpdir.
-     * Else, it is a system default.
-     *
-     * @param dataFilePath path of the .gz file
-     * @return File in tmp dir
-     * @throws IOException if the tmp file could not be created
-     */
-    private static File tmpFileFor(String dataFilePath) throws IOException {
-        // chop of path before filename and ".gz" suffix to determine filename
-        final int slashPosition = dataFilePath.lastIndexOf(File.separator);
-        final int dotGzPosition = dataFilePath.length() - ".gz".length();
-        final String fileName = dataFilePath.substring(slashPosition + 1, dotGzPosition);
-
-        // use filename without suffix as prefix and "." + suffix as suffix
-        final int dotPosition = fileName.lastIndexOf('.');
-        final String prefix = (dotPosition > -1) ? fileName.substring(0, dotPosition) : fileName;
-        final String suffix = (dotPosition > -1) ? fileName.substring(dotPosition) : null;
-
-        // create temporary file in tmp dir, either property java.io.tmpdir or system default
-        final File tempFile = File.createTempFile(prefix, suffix);
-        tempFile.deleteOnExit();
-        return tempFile;
-    }
-
-    /**
-     * Uncompresses a file in gzip format to a tmp file.
-     *
-     * @param gzipFile existing file in gzip format
-     * @param tmpFile  new file for the uncompressed content
-     * @throws IOException if reading the input, decompression, or writing the output fails
-     */
-    private static void decompress(File gzipFile, File tmpFile) throws IOException {
-        final byte[] buffer = new byte[8192];
-
-        InputStream in = null;
-        OutputStream out = null;
-        try {
-            in = new GZIPInputStream(new FileInputStream(gzipFile), 8192);
-            out = new BufferedOutputStream(new FileOutputStream(tmpFile));
-            int noOfBytesRead;
-            while ((noOfBytesRead = in.read(buffer)) > 0) {
-                out.write(buffer, 0, noOfBytesRead);
-            }
-        } finally {
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException ignored) {
-                }
-            }
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException ignored) {
-                }
-            }
-        }
-    }
 }
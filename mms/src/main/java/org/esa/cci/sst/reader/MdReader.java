@@ -38,6 +38,8 @@ import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -49,18 +51,41 @@ import java.util.logging.Logger;
  * to read. The buffer is organised as a map of variables, each having an array
  * of at least one dimension as value. The first dimension of the array specifies
  * the record.
+ * <p/>
+ * Records are read in blocks of contiguous records, which are kept in a cache
+ * of limited size and evicted in least-recently-used order. So records can be
+ * accessed in random order without reading each record separately. Pixel
+ * locators are cached for the most recently used records.
  *
  * @author Martin Boettcher
  */
 abstract class MdReader extends NetcdfReader {
 
+    static final long DEFAULT_CACHE_SIZE = 32L * 1024L * 1024L;
+
+    // the approximate number of bytes of a block of records
+    private static final long BLOCK_SIZE = 1024L * 1024L;
+    private static final int MAX_PIXEL_LOCATORS = 32;
+
     private final Map<String, Array> arrayMap = new HashMap<>();
     private final Map<String, Integer> indexMap = new HashMap<>();
+    private final Map<String, Array> blockMap = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Integer, PixelLocator> pixelLocatorMap = new LinkedHashMap<Integer, PixelLocator>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, PixelLocator> eldest) {
+            return size() > MAX_PIXEL_LOCATORS;
+        }
+    };
 
     private int numRecords;
+    private long cacheSize = DEFAULT_CACHE_SIZE;
+    private long blockMapBytes;
 
-    private int cachedRecordNo = Integer.MAX_VALUE;
-    private PixelLocator cachedPixelLocator = null;
+    // the pixel location of the last reference point, which is shared by all variables extracted for a record
+    private int locatedRecordNo = Integer.MAX_VALUE;
+    private double locatedLon = Double.NaN;
+    private double locatedLat = Double.NaN;
+    private Point2D locatedPoint = null;
 
     protected MdReader(String sensorName) {
         super(sensorName);
@@ -84,6 +109,11 @@ abstract class MdReader extends NetcdfReader {
         numRecords = 0;
         indexMap.clear();
         arrayMap.clear();
+        blockMap.clear();
+        blockMapBytes = 0;
+        pixelLocatorMap.clear();
+        locatedRecordNo = Integer.MAX_VALUE;
+        locatedPoint = null;
         super.close();
     }
 
@@ -104,12 +134,9 @@ abstract class MdReader extends NetcdfReader {
             }
         }
 
-        final PixelLocator pixelLocator = getPixelLocator(recordNo);
-        final Point2D p = new Point2D.Double();
         final Number fillValue = getAttribute(variable, "_FillValue", Double.NEGATIVE_INFINITY);
-        final boolean success = pixelLocator.getPixelLocation(extractDefinition.getLon(),
-                                                              extractDefinition.getLat(), p);
-        if (success) {
+        final Point2D p = getPixelLocation(recordNo, extractDefinition.getLon(), extractDefinition.getLat());
+        if (p != null) {
             final Array targetArray = Array.factory(variable.getDataType(), extractDefinition.getShape());
             final Array sourceArray = getData(variable, recordNo);
             if (variable.getRank() == 3) {
@@ -136,6 +163,21 @@ abstract class MdReader extends NetcdfReader {
         return numRecords;
     }
 
+    /**
+     * Sets the maximum number of bytes of the record blocks cached by this reader. Blocks of
+     * records are not cached when the size is zero.
+     *
+     * @param cacheSize The cache size (bytes).
+     */
+    public final void setCacheSize(long cacheSize) {
+        this.cacheSize = cacheSize;
+        evictBlocks();
+    }
+
+    final long getCacheSize() {
+        return cacheSize;
+    }
+
     /**
      * Reads a record value of a variable of rank 2 and type char.
      *
@@ -348,32 +390,94 @@ abstract class MdReader extends NetcdfReader {
                 return cachedArray;
             }
         }
+        final Array array = readRecord(variable, recordNo);
+        arrayMap.put(role, array);
+        indexMap.put(role, recordNo);
+        return array;
+    }
+
+    private Array readRecord(Variable variable, int recordNo) throws IOException {
         final int[] shape = variable.getShape();
-        shape[0] = 1;
-        final int[] start = new int[shape.length];
-        start[0] = recordNo;
+        final int recordCount = shape[0];
+        final int blockRecordCount = getBlockRecordCount(variable);
         try {
-            final Array array = variable.read(start, shape);
-            arrayMap.put(role, array);
-            indexMap.put(role, recordNo);
-            return array;
+            if (blockRecordCount == 1 || cacheSize == 0 || recordNo < 0 || recordNo >= recordCount) {
+                final int[] start = new int[shape.length];
+                start[0] = recordNo;
+                shape[0] = 1;
+                return variable.read(start, shape);
+            }
+            final int blockIndex = recordNo / blockRecordCount;
+            final int blockStart = blockIndex * blockRecordCount;
+            final String key = variable.getShortName() + "#" + blockIndex;
+            Array block = blockMap.get(key);
+            if (block == null) {
+                final int[] start = new int[shape.length];
+                start[0] = blockStart;
+                shape[0] = Math.min(blockRecordCount, recordCount - blockStart);
+                block = variable.read(start, shape);
+                blockMap.put(key, block);
+                blockMapBytes += block.getSizeBytes();
+                evictBlocks();
+            }
+            final int[] origin = new int[shape.length];
+            origin[0] = recordNo - blockStart;
+            shape[0] = 1;
+            // the section is copied, because the element accessors of arrays ignore the offset of views
+            return block.section(origin, shape).copy();
         } catch (InvalidRangeException e) {
             throw new IOException(e);
         }
     }
 
+    private static int getBlockRecordCount(Variable variable) {
+        final int[] shape = variable.getShape();
+        long recordSize = variable.getElementSize();
+        for (int i = 1; i < shape.length; i++) {
+            recordSize *= shape[i];
+        }
+        return (int) Math.max(1, Math.min(BLOCK_SIZE / Math.max(1, recordSize), shape[0]));
+    }
+
+    // the most recently used block is not evicted, unless the cache size is zero
+    private void evictBlocks() {
+        final Iterator<Array> iterator = blockMap.values().iterator();
+        while (blockMapBytes > cacheSize && blockMap.size() > 1) {
+            blockMapBytes -= iterator.next().getSizeBytes();
+            iterator.remove();
+        }
+        if (cacheSize == 0) {
+            blockMap.clear();
+            blockMapBytes = 0;
+        }
+    }
+
+    // returns null if the pixel cannot be located
+    private Point2D getPixelLocation(int recordNo, double lon, double lat) throws IOException {
+        if (recordNo != locatedRecordNo || lon != locatedLon || lat != locatedLat) {
+            final PixelLocator pixelLocator = getPixelLocator(recordNo);
+            final Point2D p = new Point2D.Double();
+            locatedPoint = pixelLocator.getPixelLocation(lon, lat, p) ? p : null;
+            locatedRecordNo = recordNo;
+            locatedLon = lon;
+            locatedLat = lat;
+        }
+        return locatedPoint;
+    }
+
     private PixelLocator getPixelLocator(int recordNo) throws IOException {
-        if (recordNo == cachedRecordNo) {
-            return cachedPixelLocator;
+        PixelLocator pixelLocator = pixelLocatorMap.get(recordNo);
+        if (pixelLocator == null) {
+            final Variable lon = getVariable("lon");
+            final Variable lat = getVariable("lat");
+            final Array lonArray = getData(lon, recordNo);
+            final Array latArray = getData(lat, recordNo);
+            final SampleSource lonSource = SampleSourceFactory.forVariable(lon, lonArray);
+            final SampleSource latSource = SampleSourceFactory.forVariable(lat, latArray);
+            pixelLocator = PixelLocatorFactory.forSubscene(lonSource, latSource);
+            pixelLocatorMap.put(recordNo, pixelLocator);
         }
-        final Variable lon = getVariable("lon");
-        final Variable lat = getVariable("lat");
-        final Array lonArray = getData(lon, recordNo);
-        final Array latArray = getData(lat, recordNo);
-        final SampleSource lonSource = SampleSourceFactory.forVariable(lon, lonArray);
-        final SampleSource latSource = SampleSourceFactory.forVariable(lat, latArray);
-        cachedRecordNo = recordNo;
-        return cachedPixelLocator = PixelLocatorFactory.forSubscene(lonSource, latSource);
+        return pixelLocator;
     }
 
     private Variable validateArguments(String role, int expectedRank, DataType expectedDataType, int recordNo) {
@@ -204,6 +204,26 @@ public class MmdReader implements Reader {
         return readData(variable, origin, shape);
     }
 
+    @Override
+    public final Array[] read(String[] roles, ExtractDefinition extractDefinition) throws IOException {
+        final Array[] arrays = new Array[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            arrays[i] = read(roles[i], extractDefinition);
+        }
+        return arrays;
+    }
+
+    @Override
+    public final Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) throws IOException {
+        final Array[][] arrays = new Array[roles.length][extractDefinitions.length];
+        for (final int j : NetcdfReader.sortByRecordNo(extractDefinitions)) {
+            for (int i = 0; i < roles.length; i++) {
+                arrays[i][j] = read(roles[i], extractDefinitions[j]);
+            }
+        }
+        return arrays;
+    }
+
     @Override
     public void close() {
         delegateReader = null;
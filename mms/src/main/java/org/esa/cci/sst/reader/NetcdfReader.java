@@ -18,9 +18,11 @@ package org.esa.cci.sst.reader;
 
 import com.bc.ceres.core.Assert;
 import org.esa.beam.framework.datamodel.Product;
+import org.esa.cci.sst.common.ExtractDefinition;
 import org.esa.cci.sst.data.DataFile;
 import org.esa.cci.sst.data.Item;
 import org.esa.cci.sst.util.IoUtil;
+import ucar.ma2.Array;
 import ucar.nc2.Attribute;
 import ucar.nc2.NetcdfFile;
 import ucar.nc2.Variable;
@@ -119,6 +121,52 @@ abstract public class NetcdfReader implements Reader {
         return datafile;
     }
 
+    /**
+     * Reads the variables one by one. Overrides shall locate the section only once for all variables.
+     */
+    @Override
+    public Array[] read(String[] roles, ExtractDefinition extractDefinition) throws IOException {
+        final Array[] arrays = new Array[roles.length];
+        for (int i = 0; i < roles.length; i++) {
+            arrays[i] = read(roles[i], extractDefinition);
+        }
+        return arrays;
+    }
+
+    /**
+     * Reads the sections in the order of their record numbers and all variables of a record
+     * before proceeding to the next record.
+     */
+    @Override
+    public Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) throws IOException {
+        final Array[][] arrays = new Array[roles.length][extractDefinitions.length];
+        for (final int j : sortByRecordNo(extractDefinitions)) {
+            for (int i = 0; i < roles.length; i++) {
+                arrays[i][j] = read(roles[i], extractDefinitions[j]);
+            }
+        }
+        return arrays;
+    }
+
+    // returns the indexes of the extract definitions in the order of their record numbers
+    static int[] sortByRecordNo(final ExtractDefinition[] extractDefinitions) {
+        final Integer[] indexes = new Integer[extractDefinitions.length];
+        for (int j = 0; j < indexes.length; j++) {
+            indexes[j] = j;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(extractDefinitions[o1].getRecordNo(), extractDefinitions[o2].getRecordNo());
+            }
+        });
+        final int[] order = new int[indexes.length];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = indexes[j];
+        }
+        return order;
+    }
+
     @Override
     public int getLineSkip() {
         return 0;
@@ -90,6 +90,38 @@ public interface Reader extends Closeable {
      */
     Array read(String role, ExtractDefinition extractDefinition) throws IOException;
 
+    /**
+     * Reads actual data from the variables given by <code>roles</code>. All variables are read from
+     * the section specified by a common {@link org.esa.cci.sst.common.ExtractDefinition}, so the
+     * section is located only once for all variables.
+     *
+     * @param roles             The names of the variables to read from.
+     * @param extractDefinition The extract definition specifying the section from which to read.
+     *
+     * @return Actual data, in the order of the given variable names. An element is {@code null}
+     *         when {@link #read(String, ExtractDefinition)} would return {@code null} for the variable.
+     *
+     * @throws IOException If a variable could not be read in the specified section.
+     */
+    Array[] read(String[] roles, ExtractDefinition extractDefinition) throws IOException;
+
+    /**
+     * Reads actual data from the variables given by <code>roles</code> for many sections of the
+     * data file, e.g. for all matchups falling into the same orbit. Each section is located only
+     * once, and the sections may be read in any order, so implementations can sort and merge
+     * neighbouring sections into a few sequential reads.
+     *
+     * @param roles              The names of the variables to read from.
+     * @param extractDefinitions The extract definitions specifying the sections from which to read.
+     *
+     * @return Actual data, indexed by variable name first and by extract definition second. An
+     *         element is {@code null} when {@link #read(String, ExtractDefinition)} would return
+     *         {@code null} for the variable and extract definition.
+     *
+     * @throws IOException If a variable could not be read in one of the specified sections.
+     */
+    Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) throws IOException;
+
     /**
      * Returns the column for the given variable name.
      *
@@ -60,11 +60,40 @@ public class ReaderFactory {
         final File archiveRoot = new File(archiveRootPath);
 
         final Reader reader = createReader(readerSpec, sensorName, dirtyMaskExpression);
+        configure(reader, configuration);
         reader.open(datafile, archiveRoot);
 
         return reader;
     }
 
+    /**
+     * Returns the maximum number of bytes held by the caches of a reader, which are not part
+     * of the product of the reader.
+     *
+     * @param reader The reader.
+     * @return the maximum number of bytes held by the caches of the reader.
+     */
+    public static long getCacheSize(Reader reader) {
+        if (reader instanceof GunzipDecorator) {
+            return getCacheSize(((GunzipDecorator) reader).getDelegate());
+        } else if (reader instanceof MdReader) {
+            return ((MdReader) reader).getCacheSize();
+        }
+        return 0;
+    }
+
+    private static void configure(Reader reader, Configuration configuration) {
+        if (reader instanceof GunzipDecorator) {
+            final GunzipDecorator decorator = (GunzipDecorator) reader;
+            decorator.setCache(GunzipCache.getInstance(configuration));
+            configure(decorator.getDelegate(), configuration);
+        } else if (reader instanceof MdReader) {
+            final int cacheSize = configuration.getIntValue(Configuration.KEY_MMS_IO_MDCACHE_SIZE,
+                                                            (int) (MdReader.DEFAULT_CACHE_SIZE / (1024L * 1024L)));
+            ((MdReader) reader).setCacheSize(cacheSize * 1024L * 1024L);
+        }
+    }
+
     /**
      * Factory method for getting the correct reader, according to given schema and sensor names.
      *
@@ -78,7 +107,25 @@ public class ReaderFactory {
     public static Reader createReader(String readerSpec, String sensorName) {
         Assert.argument(readerSpec != null, "readerSpec == null");
         Assert.argument(sensorName != null, "sensorName == null");
-        return createReader(readerSpec, sensorName, null);
+        return createReader(readerSpec, sensorName, (String) null);
+    }
+
+    /**
+     * Factory method for getting the correct reader, according to given schema and sensor names,
+     * which is configured like the readers opened by {@link #open(DataFile, Configuration)}.
+     *
+     * @param readerSpec    The reader specification, in the form <code>Reader2,Reader1</code>,
+     *                      where <code>Reader1</code> is constructor argument for <code>Reader2</code>.
+     * @param sensorName    The sensor name.
+     * @param configuration The tool configuration.
+     * @return a new instance of <code>Reader</code>.
+     * @throws IllegalArgumentException when the reader specification is incorrect.
+     */
+    public static Reader createReader(String readerSpec, String sensorName, Configuration configuration) {
+        Assert.argument(configuration != null, "configuration == null");
+        final Reader reader = createReader(readerSpec, sensorName);
+        configure(reader, configuration);
+        return reader;
     }
 
     // package public for testing only
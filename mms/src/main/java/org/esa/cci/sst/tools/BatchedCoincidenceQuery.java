@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.util.TimeUtil;
+
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Determines the temporally nearest coinciding observations of a sensor for a whole
+ * chunk of reference observations by a single database query.
+ * <p/>
+ * The reference observations are sent to the database as a {@code VALUES} list
+ * {@code r(id, time, point, name)}, which is joined laterally with a per-reference
+ * subquery. The subquery is the coincidence criterion known from the single-observation
+ * queries, where the reference time, point and name are referred to as {@code r.time},
+ * {@code r.point} and {@code r.name}, and the sensor name is bound to parameter {@code ?1}.
+ * <p/>
+ * Since a query may not bind more than {@value #MAX_PARAMETER_COUNT} parameters, larger
+ * chunks are split into several queries. The same applies to loading the coinciding
+ * observations by their IDs.
+ */
+class BatchedCoincidenceQuery {
+
+    // the maximum number of parameters of a PostgreSQL statement
+    static final int MAX_PARAMETER_COUNT = 32767;
+    static final int VALUES_PER_ROW = 4;
+    static final int MAX_ROW_COUNT = (MAX_PARAMETER_COUNT - 1) / VALUES_PER_ROW;
+
+    static final String OBSERVATIONS_BY_ID_QUERY = "select o from Observation o where o.id in ?1";
+
+    private final PersistenceManager persistenceManager;
+    private final int maxRowCount;
+
+    BatchedCoincidenceQuery(PersistenceManager persistenceManager) {
+        this(persistenceManager, MAX_ROW_COUNT);
+    }
+
+    // package access for testing only
+    BatchedCoincidenceQuery(PersistenceManager persistenceManager, int maxRowCount) {
+        this.persistenceManager = persistenceManager;
+        this.maxRowCount = maxRowCount;
+    }
+
+    /**
+     * Executes the coincidence criterion for a chunk of reference observations.
+     *
+     * @param refObsList The reference observations.
+     * @param criterion  The lateral subquery selecting coinciding observation IDs, ordered by preference.
+     * @param sensorName The name of the sensor of the coinciding observations.
+     * @return the map of reference observation IDs onto the ID of the temporally nearest coinciding observation.
+     * Reference observations without any coincidence are not contained in the map.
+     */
+    Map<Integer, Integer> execute(List<ReferenceObservation> refObsList, String criterion, String sensorName) {
+        final Map<Integer, Integer> observationIds = new HashMap<>(refObsList.size());
+        for (int i = 0; i < refObsList.size(); i += maxRowCount) {
+            final int j = Math.min(i + maxRowCount, refObsList.size());
+            execute(refObsList.subList(i, j), criterion, sensorName, observationIds);
+        }
+        return observationIds;
+    }
+
+    private void execute(List<ReferenceObservation> refObsList, String criterion, String sensorName,
+                         Map<Integer, Integer> observationIds) {
+        final Query query = persistenceManager.createNativeQuery(createQueryString(criterion, refObsList.size()));
+        query.setParameter(1, sensorName);
+        int parameterIndex = 2;
+        for (final ReferenceObservation refObs : refObsList) {
+            query.setParameter(parameterIndex, refObs.getId());
+            // since binding a date to a parameter failed ...
+            query.setParameter(parameterIndex + 1, TimeUtil.formatCcsdsUtcFormat(refObs.getTime()));
+            query.setParameter(parameterIndex + 2, refObs.getPoint().toString());
+            query.setParameter(parameterIndex + 3, refObs.getName());
+            parameterIndex += VALUES_PER_ROW;
+        }
+
+        @SuppressWarnings("unchecked")
+        final List<Object[]> rows = query.getResultList();
+        for (final Object[] row : rows) {
+            observationIds.put(((Number) row[0]).intValue(), ((Number) row[1]).intValue());
+        }
+    }
+
+    /**
+     * Loads the common observations for a map of reference observation IDs onto common
+     * observation IDs.
+     *
+     * @param persistenceManager The persistence manager.
+     * @param observationIds     The map of reference observation IDs onto common observation IDs.
+     * @return the map of reference observation IDs onto the common observations.
+     */
+    static Map<Integer, Observation> resolveObservations(PersistenceManager persistenceManager,
+                                                         Map<Integer, Integer> observationIds) {
+        return resolveObservations(persistenceManager, observationIds, MAX_PARAMETER_COUNT);
+    }
+
+    // package access for testing only
+    static Map<Integer, Observation> resolveObservations(PersistenceManager persistenceManager,
+                                                         Map<Integer, Integer> observationIds, int maxIdCount) {
+        final Map<Integer, Observation> observations = new HashMap<>(observationIds.size());
+        if (observationIds.isEmpty()) {
+            return observations;
+        }
+        // the IDs of a collection parameter are bound as individual parameters
+        final List<Integer> ids = new ArrayList<>(new HashSet<>(observationIds.values()));
+        final Map<Integer, Observation> observationMap = new HashMap<>(ids.size());
+        for (int i = 0; i < ids.size(); i += maxIdCount) {
+            final Query query = persistenceManager.createQuery(OBSERVATIONS_BY_ID_QUERY);
+            query.setParameter(1, new ArrayList<>(ids.subList(i, Math.min(i + maxIdCount, ids.size()))));
+            @SuppressWarnings("unchecked")
+            final List<Observation> resultList = query.getResultList();
+            for (final Observation observation : resultList) {
+                observationMap.put(observation.getId(), observation);
+            }
+        }
+        for (final Map.Entry<Integer, Integer> entry : observationIds.entrySet()) {
+            final Observation observation = observationMap.get(entry.getValue());
+            if (observation != null) {
+                observations.put(entry.getKey(), observation);
+            }
+        }
+        return observations;
+    }
+
+    // package access for testing only
+    static String createQueryString(String criterion, int refObsCount) {
+        final StringBuilder sb = new StringBuilder(256 + 96 * refObsCount);
+        sb.append("select r.id, c.id from (values ");
+        for (int i = 0; i < refObsCount; i++) {
+            final int p = 2 + i * VALUES_PER_ROW;
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append("(cast(?").append(p).append(" as integer)");
+            sb.append(", cast(?").append(p + 1).append(" as timestamp)");
+            sb.append(", cast(?").append(p + 2).append(" as text)");
+            sb.append(", cast(?").append(p + 3).append(" as text))");
+        }
+        sb.append(") as r(id, time, point, name)");
+        sb.append(" cross join lateral (");
+        sb.append(criterion);
+        sb.append(" limit 1) as c");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,519 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.tool.ToolException;
+import org.esa.cci.sst.tools.overlap.PolarOrbitingPolygon;
+import org.esa.cci.sst.util.GeometryUtil;
+import org.postgis.Geometry;
+import org.postgis.MultiPolygon;
+import org.postgis.PGgeometry;
+import org.postgis.Point;
+import org.postgis.Polygon;
+
+import javax.persistence.Query;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * In-memory index of the candidate observations of related sensors, which answers
+ * the coincidence criteria of the {@link MatchupTool} without database round trips.
+ * <p/>
+ * The candidates of a sensor are bulk-loaded once for the whole matchup time range
+ * (extended by the search window) and kept in primitive arrays sorted by time. Point
+ * locations are hashed into a regular latitude-longitude grid, extended locations are
+ * converted into {@link PolarOrbitingPolygon}s with precomputed latitude bands, and
+ * names are indexed for the call sign and in-situ criteria. A search visits the
+ * candidates in the order of increasing temporal distance to the reference time and
+ * stops at the first candidate fulfilling the criterion. Ties are broken by the lower
+ * observation ID, like in the database queries.
+ * <p/>
+ * Reference observations of a chunk are searched in parallel. The spatial test is the
+ * planar point-in-polygon test of {@link PolarOrbitingPolygon}, which may differ from
+ * the geodesic {@code st_intersects} of the database for points very close to a border.
+ */
+class CoincidenceIndex {
+
+    enum Criterion {
+        /**
+         * Within +/- 12 hours, location intersects reference point.
+         */
+        SPATIAL,
+        /**
+         * Within +/- 12 hours, same name (call sign).
+         */
+        CALLSIGN,
+        /**
+         * Within +/- 12 hours.
+         */
+        GLOBAL,
+        /**
+         * Same name, temporal distance not greater than the time radius of the candidate.
+         */
+        INSITU
+    }
+
+    static final long SEARCH_WINDOW_MILLIS = 12L * 60L * 60L * 1000L;
+
+    private static final String CANDIDATE_QUERY =
+            "select o.id, o.time, o.name, o.timeradius, st_asewkt(o.location)"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.time >= ?2 and o.time < ?3"
+                    + " order by o.time, o.id";
+
+    private static final String INSITU_CANDIDATE_QUERY =
+            "select o.id, o.time, o.name, o.timeradius, null"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.time - o.timeradius * interval '1 second' < ?3"
+                    + " and o.time + o.timeradius * interval '1 second' >= ?2"
+                    + " order by o.time, o.id";
+
+    private static final double CELL_SIZE = 1.0;
+    private static final int CELLS_PER_ROW = (int) (360.0 / CELL_SIZE);
+    private static final double POINT_TOLERANCE = 1.0e-8;
+    private static final int MIN_SLICE_SIZE = 64;
+
+    private final PersistenceManager persistenceManager;
+    private final Date startDate;
+    private final Date stopDate;
+    private final int threadCount;
+    private final ExecutorService executorService;
+    private final Map<String, Candidates> candidatesMap = new HashMap<>();
+
+    CoincidenceIndex(PersistenceManager persistenceManager, Date startDate, Date stopDate, int threadCount) {
+        this.persistenceManager = persistenceManager;
+        this.startDate = startDate;
+        this.stopDate = stopDate;
+        this.threadCount = Math.max(1, threadCount);
+        executorService = Executors.newFixedThreadPool(this.threadCount);
+    }
+
+    /**
+     * Determines the temporally nearest observations of a sensor fulfilling a coincidence
+     * criterion for a chunk of reference observations.
+     *
+     * @param refObsList The reference observations.
+     * @param criterion  The coincidence criterion.
+     * @param sensorName The name of the sensor of the coinciding observations.
+     * @return the map of reference observation IDs onto the ID of the temporally nearest coinciding observation.
+     * Reference observations without any coincidence are not contained in the map.
+     */
+    Map<Integer, Integer> findObservationIds(List<ReferenceObservation> refObsList, Criterion criterion,
+                                             String sensorName) {
+        final Candidates candidates = getCandidates(sensorName, criterion);
+        final References references = new References(refObsList, criterion == Criterion.SPATIAL);
+        final int[] observationIds = search(candidates, references, criterion);
+
+        final Map<Integer, Integer> observationIdMap = new HashMap<>(refObsList.size());
+        for (int i = 0; i < observationIds.length; i++) {
+            if (observationIds[i] != -1) {
+                observationIdMap.put(references.ids[i], observationIds[i]);
+            }
+        }
+        return observationIdMap;
+    }
+
+    void dispose() {
+        executorService.shutdown();
+        candidatesMap.clear();
+    }
+
+    private int[] search(final Candidates candidates, final References references, final Criterion criterion) {
+        final int refCount = references.ids.length;
+        final int[] observationIds = new int[refCount];
+        final int sliceSize = Math.max(MIN_SLICE_SIZE, (refCount + threadCount - 1) / threadCount);
+        if (threadCount == 1 || refCount <= sliceSize) {
+            searchSlice(candidates, references, criterion, 0, refCount, observationIds);
+            return observationIds;
+        }
+
+        final List<Future<?>> futures = new ArrayList<>(threadCount);
+        for (int start = 0; start < refCount; start += sliceSize) {
+            final int sliceStart = start;
+            final int sliceStop = Math.min(start + sliceSize, refCount);
+            futures.add(executorService.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    searchSlice(candidates, references, criterion, sliceStart, sliceStop, observationIds);
+                    return null;
+                }
+            }));
+        }
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ToolException("Coincidence search interrupted.", e, ToolException.TOOL_ERROR);
+            } catch (ExecutionException e) {
+                throw new ToolException(e.getCause().getMessage(), e.getCause(), ToolException.TOOL_ERROR);
+            }
+        }
+        return observationIds;
+    }
+
+    private static void searchSlice(Candidates candidates, References references, Criterion criterion,
+                                    int start, int stop, int[] observationIds) {
+        for (int i = start; i < stop; i++) {
+            observationIds[i] = candidates.findNearest(references, i, criterion);
+        }
+    }
+
+    private Candidates getCandidates(String sensorName, Criterion criterion) {
+        final String key = criterion == Criterion.INSITU ? sensorName + "#insitu" : sensorName;
+        Candidates candidates = candidatesMap.get(key);
+        if (candidates == null) {
+            candidates = loadCandidates(sensorName, criterion == Criterion.INSITU);
+            candidatesMap.put(key, candidates);
+        }
+        return candidates;
+    }
+
+    private Candidates loadCandidates(String sensorName, boolean insitu) {
+        final Query query;
+        if (insitu) {
+            query = persistenceManager.createNativeQuery(INSITU_CANDIDATE_QUERY);
+            query.setParameter(2, startDate);
+            query.setParameter(3, stopDate);
+        } else {
+            query = persistenceManager.createNativeQuery(CANDIDATE_QUERY);
+            query.setParameter(2, new Date(startDate.getTime() - SEARCH_WINDOW_MILLIS));
+            query.setParameter(3, new Date(stopDate.getTime() + SEARCH_WINDOW_MILLIS));
+        }
+        query.setParameter(1, sensorName);
+
+        @SuppressWarnings("unchecked")
+        final List<Object[]> rows = query.getResultList();
+        final Candidates candidates = new Candidates(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            final Object[] row = rows.get(i);
+            candidates.ids[i] = ((Number) row[0]).intValue();
+            candidates.times[i] = ((Date) row[1]).getTime();
+            candidates.names[i] = (String) row[2];
+            candidates.timeRadii[i] = row[3] != null ? ((Number) row[3]).doubleValue() : 0.0;
+            if (row[4] != null) {
+                try {
+                    candidates.setLocation(i, PGgeometry.geomFromString((String) row[4]));
+                } catch (SQLException e) {
+                    throw new ToolException("Unable to parse location of observation " + candidates.ids[i] + ".", e,
+                                            ToolException.TOOL_DB_ERROR);
+                }
+            }
+        }
+        candidates.buildIndexes();
+        return candidates;
+    }
+
+    // package access for testing only
+    static long truncateToSeconds(long millis) {
+        // the database queries compare with the reference time formatted without milliseconds
+        return millis - ((millis % 1000L) + 1000L) % 1000L;
+    }
+
+    private static int cellIndex(double lat, double lon) {
+        int row = (int) Math.floor((lat + 90.0) / CELL_SIZE);
+        int col = (int) Math.floor((GeometryUtil.normalizeLongitude(lon) + 180.0) / CELL_SIZE);
+        row = Math.min(Math.max(row, 0), (int) (180.0 / CELL_SIZE) - 1);
+        col = Math.min(Math.max(col, 0), CELLS_PER_ROW - 1);
+        return row * CELLS_PER_ROW + col;
+    }
+
+    /**
+     * The reference data of a chunk, extracted into arrays for access by worker threads.
+     */
+    private static final class References {
+
+        private final int[] ids;
+        private final long[] times;
+        private final String[] names;
+        private final double[] lats;
+        private final double[] lons;
+
+        private References(List<ReferenceObservation> refObsList, boolean spatial) {
+            final int n = refObsList.size();
+            ids = new int[n];
+            times = new long[n];
+            names = new String[n];
+            lats = new double[n];
+            lons = new double[n];
+            for (int i = 0; i < n; i++) {
+                final ReferenceObservation refObs = refObsList.get(i);
+                ids[i] = refObs.getId();
+                times[i] = truncateToSeconds(refObs.getTime().getTime());
+                names[i] = refObs.getName();
+                if (spatial) {
+                    final Point point = refObs.getPoint().getGeometry().getFirstPoint();
+                    lats[i] = point.getY();
+                    lons[i] = point.getX();
+                }
+            }
+        }
+    }
+
+    // package access for testing only
+    static final class Candidates {
+
+        final int[] ids;
+        final long[] times;
+        final String[] names;
+        final double[] timeRadii;
+
+        private final double[] pointLats;
+        private final double[] pointLons;
+        private final PolarOrbitingPolygon[][] polygons;
+        private final double[] minLats;
+        private final double[] maxLats;
+
+        private int[] all;
+        private int[] extended;
+        private Map<Integer, int[]> cells;
+        private Map<String, int[]> nameIndex;
+
+        Candidates(int count) {
+            ids = new int[count];
+            times = new long[count];
+            names = new String[count];
+            timeRadii = new double[count];
+            pointLats = new double[count];
+            pointLons = new double[count];
+            polygons = new PolarOrbitingPolygon[count][];
+            minLats = new double[count];
+            maxLats = new double[count];
+            Arrays.fill(pointLats, Double.NaN);
+            Arrays.fill(pointLons, Double.NaN);
+        }
+
+        void setLocation(int i, Geometry geometry) {
+            if (geometry instanceof Point) {
+                pointLats[i] = ((Point) geometry).getY();
+                pointLons[i] = ((Point) geometry).getX();
+            } else if (geometry instanceof Polygon) {
+                setPolygons(i, (Polygon) geometry);
+            } else if (geometry instanceof MultiPolygon) {
+                setPolygons(i, ((MultiPolygon) geometry).getPolygons());
+            }
+        }
+
+        private void setPolygons(int i, Polygon... parts) {
+            polygons[i] = new PolarOrbitingPolygon[parts.length];
+            double minLat = 90.0;
+            double maxLat = -90.0;
+            for (int k = 0; k < parts.length; k++) {
+                polygons[i][k] = new PolarOrbitingPolygon(ids[i], times[i], parts[k]);
+                for (int p = 0; p < parts[k].numPoints(); p++) {
+                    final double lat = parts[k].getPoint(p).getY();
+                    minLat = Math.min(minLat, lat);
+                    maxLat = Math.max(maxLat, lat);
+                }
+            }
+            minLats[i] = minLat;
+            maxLats[i] = maxLat;
+        }
+
+        /**
+         * Builds the secondary indexes. The candidates must be sorted by time and ID.
+         */
+        void buildIndexes() {
+            final int count = ids.length;
+            all = new int[count];
+            final List<Integer> extendedList = new ArrayList<>();
+            final Map<Integer, List<Integer>> cellLists = new HashMap<>();
+            final Map<String, List<Integer>> nameLists = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+                if (polygons[i] != null) {
+                    extendedList.add(i);
+                } else if (!Double.isNaN(pointLats[i])) {
+                    addTo(cellLists, cellIndex(pointLats[i], pointLons[i]), i);
+                }
+                if (names[i] != null) {
+                    addTo(nameLists, names[i], i);
+                }
+            }
+            extended = toArray(extendedList);
+            cells = new HashMap<>(cellLists.size());
+            for (final Map.Entry<Integer, List<Integer>> entry : cellLists.entrySet()) {
+                cells.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            nameIndex = new HashMap<>(nameLists.size());
+            for (final Map.Entry<String, List<Integer>> entry : nameLists.entrySet()) {
+                nameIndex.put(entry.getKey(), toArray(entry.getValue()));
+            }
+        }
+
+        /**
+         * Finds the candidate fulfilling the criterion that is temporally nearest to a reference.
+         *
+         * @return the candidate observation ID, or -1 if there is no such candidate.
+         */
+        int findNearest(References references, int r, Criterion criterion) {
+            final long time = references.times[r];
+            switch (criterion) {
+                case SPATIAL: {
+                    final double lat = references.lats[r];
+                    final double lon = references.lons[r];
+                    final int nearestExtended = findNearest(extended, time, criterion, lat, lon, null);
+                    final int nearestPoint = findNearest(cells.get(cellIndex(lat, lon)), time, criterion, lat, lon,
+                                                         null);
+                    return toId(nearer(nearestExtended, nearestPoint, time));
+                }
+                case CALLSIGN:
+                case INSITU: {
+                    final String name = references.names[r];
+                    if (name == null) {
+                        return -1;
+                    }
+                    return toId(findNearest(nameIndex.get(name), time, criterion, Double.NaN, Double.NaN, name));
+                }
+                default:
+                    return toId(findNearest(all, time, criterion, Double.NaN, Double.NaN, null));
+            }
+        }
+
+        private int findNearest(int[] order, long time, Criterion criterion, double lat, double lon, String name) {
+            if (order == null || order.length == 0) {
+                return -1;
+            }
+            // visit candidates in order of increasing temporal distance, starting at the reference time
+            int after = lowerBound(order, time);
+            int before = after - 1;
+            int nearest = -1;
+            long nearestDelta = Long.MAX_VALUE;
+            while (before >= 0 || after < order.length) {
+                final long deltaBefore = before >= 0 ? time - times[order[before]] : Long.MAX_VALUE;
+                final long deltaAfter = after < order.length ? times[order[after]] - time : Long.MAX_VALUE;
+                final int i;
+                final long delta;
+                if (deltaBefore <= deltaAfter) {
+                    i = order[before--];
+                    delta = deltaBefore;
+                } else {
+                    i = order[after++];
+                    delta = deltaAfter;
+                }
+                if (delta > nearestDelta) {
+                    break;
+                }
+                if (criterion != Criterion.INSITU && delta > SEARCH_WINDOW_MILLIS) {
+                    break;
+                }
+                if (accept(i, time, criterion, lat, lon)) {
+                    if (nearest == -1 || ids[i] < ids[nearest]) {
+                        nearest = i;
+                        nearestDelta = delta;
+                    }
+                }
+            }
+            return nearest;
+        }
+
+        private boolean accept(int i, long time, Criterion criterion, double lat, double lon) {
+            switch (criterion) {
+                case SPATIAL:
+                    return isInWindow(i, time) && intersects(i, lat, lon);
+                case INSITU:
+                    return Math.abs(times[i] - time) / 1000.0 <= timeRadii[i];
+                default:
+                    return isInWindow(i, time);
+            }
+        }
+
+        private boolean isInWindow(int i, long time) {
+            return times[i] >= time - SEARCH_WINDOW_MILLIS && times[i] < time + SEARCH_WINDOW_MILLIS;
+        }
+
+        private boolean intersects(int i, double lat, double lon) {
+            if (polygons[i] != null) {
+                if (lat < minLats[i] || lat > maxLats[i]) {
+                    return false;
+                }
+                for (final PolarOrbitingPolygon polygon : polygons[i]) {
+                    if (polygon.isPointInPolygon(lat, lon)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return Math.abs(pointLats[i] - lat) <= POINT_TOLERANCE &&
+                   Math.abs(GeometryUtil.normalizeLongitude(pointLons[i] - lon)) <= POINT_TOLERANCE;
+        }
+
+        private int nearer(int i, int k, long time) {
+            if (i == -1) {
+                return k;
+            }
+            if (k == -1) {
+                return i;
+            }
+            final long deltaI = Math.abs(times[i] - time);
+            final long deltaK = Math.abs(times[k] - time);
+            if (deltaI != deltaK) {
+                return deltaI < deltaK ? i : k;
+            }
+            return ids[i] < ids[k] ? i : k;
+        }
+
+        private int toId(int i) {
+            return i == -1 ? -1 : ids[i];
+        }
+
+        private int lowerBound(int[] order, long time) {
+            int low = 0;
+            int high = order.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (times[order[mid]] < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static <K> void addTo(Map<K, List<Integer>> lists, K key, int i) {
+            List<Integer> list = lists.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                lists.put(key, list);
+            }
+            list.add(i);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            final int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.orm.PersistenceManager;
+
+import javax.persistence.PersistenceException;
+import java.sql.Savepoint;
+import java.util.logging.Logger;
+
+/**
+ * Executes coincidence queries, which fail for some geometries with the PostGIS error
+ * "BOOM! Could not generate outside point!", and recovers the transaction when they do.
+ * <p/>
+ * A failed query aborts the transaction in the database. By default, the aborted transaction
+ * is ended and a new transaction is begun. A streaming scan of reference observations requires
+ * that the transaction is not ended until the scan is exhausted, so while streaming, each query
+ * is preceded by a savepoint, and a failed query is undone by rolling back to the savepoint.
+ */
+class CoincidenceQueryGuard {
+
+    static final String OUTSIDE_POINT_ERROR = "ERROR: BOOM! Could not generate outside point!";
+
+    interface Query<T> {
+
+        T execute();
+    }
+
+    private final PersistenceManager persistenceManager;
+    private final boolean streaming;
+    private final Logger logger;
+
+    CoincidenceQueryGuard(PersistenceManager persistenceManager, boolean streaming, Logger logger) {
+        this.persistenceManager = persistenceManager;
+        this.streaming = streaming;
+        this.logger = logger;
+    }
+
+    /**
+     * Executes a query.
+     *
+     * @param query   The query.
+     * @param warning The warning logged when the query fails with the outside point error.
+     *
+     * @return the result of the query, or {@code null} if the query failed with the outside point error.
+     */
+    <T> T execute(Query<T> query, String warning) {
+        final Savepoint savepoint = streaming ? persistenceManager.setSavepoint() : null;
+        final T result;
+        try {
+            result = query.execute();
+        } catch (PersistenceException e) {
+            final String message = e.getMessage();
+            if (message == null || !message.startsWith(OUTSIDE_POINT_ERROR)) {
+                throw e;
+            }
+            if (logger != null) {
+                logger.warning(warning + ": " + message);
+            }
+            recover(savepoint);
+            return null;
+        }
+        if (savepoint != null) {
+            persistenceManager.releaseSavepoint(savepoint);
+        }
+        return result;
+    }
+
+    private void recover(Savepoint savepoint) {
+        if (savepoint != null) {
+            persistenceManager.rollback(savepoint);
+        } else {
+            try {
+                persistenceManager.commit();
+            } catch (Exception ignored) {
+                // the transaction has been aborted
+            }
+            persistenceManager.transaction();
+        }
+    }
+}
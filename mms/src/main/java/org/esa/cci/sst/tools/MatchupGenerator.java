@@ -8,6 +8,7 @@ import org.esa.cci.sst.data.Observation;
 import org.esa.cci.sst.data.ReferenceObservation;
 import org.esa.cci.sst.data.RelatedObservation;
 import org.esa.cci.sst.data.Sensor;
+import org.esa.cci.sst.orm.BatchPersister;
 import org.esa.cci.sst.orm.PersistenceManager;
 import org.esa.cci.sst.orm.Storage;
 import org.esa.cci.sst.tool.Configuration;
@@ -28,6 +29,7 @@ import org.postgis.PGgeometry;
 import javax.persistence.EntityTransaction;
 import javax.persistence.Query;
 import java.io.IOException;
+import java.sql.SQLException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -130,11 +132,9 @@ public class MatchupGenerator extends BasicTool {
             removeWrongTimeSamples(samples);
         }
 
-        int w = overlappingWanted ? 1 : subSceneWidth1;
-        int h = overlappingWanted ? 1 : subSceneHeight1;
-        do {
-            removeOverlappingSamples(logger, samples, w++, h++);
-        } while (maxSampleCount != 0 && samples.size() > maxSampleCount);
+        final int w = overlappingWanted ? 1 : subSceneWidth1;
+        final int h = overlappingWanted ? 1 : subSceneHeight1;
+        removeOverlappingSamples(logger, samples, w, h);
 
         createMatchups(logger, samples);
     }
@@ -212,15 +212,10 @@ public class MatchupGenerator extends BasicTool {
             logInfo(logger, "Starting persisting matchups and coincidences...");
 
             rollbackStack.push(pm.transaction());
-            for (InsituObservation insituObservation : insituObservations) {
-                storage.store(insituObservation);
-            }
-            for (Matchup m : matchups) {
-                pm.persist(m);
-            }
-            for (Coincidence c : coincidences) {
-                pm.persist(c);
-            }
+            final BatchPersister batchPersister = pm.getBatchPersister();
+            batchPersister.persistObservations(insituObservations);
+            batchPersister.persistMatchups(matchups);
+            batchPersister.persistCoincidences(coincidences);
             pm.commit();
 
             logInfo(logger, "Finished persisting matchups and coincidences...");
@@ -294,11 +289,9 @@ public class MatchupGenerator extends BasicTool {
 
     // package access for testing only tb 2014-04-03
     static void persistReferenceObservations(List<ReferenceObservation> referenceObservations, PersistenceManager pm,
-                                             Stack<EntityTransaction> rollbackStack) {
+                                             Stack<EntityTransaction> rollbackStack) throws SQLException {
         rollbackStack.push(pm.transaction());
-        for (final ReferenceObservation r : referenceObservations) {
-            pm.persist(r);
-        }
+        pm.getBatchPersister().persistObservations(referenceObservations);
         pm.commit();
     }
 
@@ -430,7 +423,11 @@ public class MatchupGenerator extends BasicTool {
     private void removeOverlappingSamples(Logger logger, List<SamplingPoint> samples, int w, int h) {
         logInfo(logger, "Starting removing overlapping samples...");
         final OverlapRemover overlapRemover = createOverlapRemover(w, h);
-        overlapRemover.removeSamples(samples);
+        if (maxSampleCount != 0) {
+            overlapRemover.removeSamples(samples, maxSampleCount);
+        } else {
+            overlapRemover.removeSamples(samples);
+        }
         // TODO - remove duplicated samples (i.e. samples that have the same in-situ measurement and same satellite coordinates)
         logInfo(logger, "Finished removing overlapping samples (" + samples.size() + " samples left)");
     }
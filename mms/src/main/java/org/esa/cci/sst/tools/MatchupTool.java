@@ -18,6 +18,7 @@ package org.esa.cci.sst.tools;
 
 import com.bc.ceres.core.Assert;
 import org.esa.cci.sst.data.*;
+import org.esa.cci.sst.orm.BatchPersister;
 import org.esa.cci.sst.orm.PersistenceManager;
 import org.esa.cci.sst.orm.Storage;
 import org.esa.cci.sst.tool.Configuration;
@@ -27,7 +28,6 @@ import org.esa.cci.sst.util.ConfigUtil;
 import org.esa.cci.sst.util.StopWatch;
 import org.esa.cci.sst.util.TimeUtil;
 
-import javax.persistence.PersistenceException;
 import javax.persistence.Query;
 import java.text.MessageFormat;
 import java.util.*;
@@ -107,6 +107,37 @@ public class MatchupTool extends BasicTool {
                     + " and abs(extract(epoch from o.time) - extract(epoch from timestamp ?2)) <= o.timeRadius"
                     + " order by abs(extract(epoch from o.time) - extract(epoch from timestamp ?2))";
 
+    private static final String BATCHED_COINCIDING_OBSERVATION_CRITERION =
+            "select o.id"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.time >= r.time - interval '12:00:00' and o.time < r.time + interval '12:00:00'"
+                    + " and st_intersects(o.location, st_geomfromewkt(r.point))"
+                    + " order by abs(extract(epoch from o.time) - extract(epoch from r.time)), o.id";
+
+    private static final String BATCHED_COINCIDING_CALLSIGN_CRITERION =
+            "select o.id"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.time >= r.time - interval '12:00:00' and o.time < r.time + interval '12:00:00'"
+                    + " and o.name = r.name"
+                    + " order by abs(extract(epoch from o.time) - extract(epoch from r.time)), o.id";
+
+    private static final String BATCHED_COINCIDING_GLOBALOBS_CRITERION =
+            "select o.id"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.time >= r.time - interval '12:00:00' and o.time < r.time + interval '12:00:00'"
+                    + " order by abs(extract(epoch from o.time) - extract(epoch from r.time)), o.id";
+
+    private static final String BATCHED_COINCIDING_INSITUOBS_CRITERION =
+            "select o.id"
+                    + " from mm_observation o"
+                    + " where o.sensor = ?1"
+                    + " and o.name = r.name"
+                    + " and abs(extract(epoch from o.time) - extract(epoch from r.time)) <= o.timeRadius"
+                    + " order by abs(extract(epoch from o.time) - extract(epoch from r.time)), o.id";
+
     private static final String DUPLICATES_QUERY = "update mm_observation o set referenceflag = 5 " +
             "where o.sensor=?1 " +
             "and o.time >= ?2 and o.time < ?3 " +
@@ -125,13 +156,15 @@ public class MatchupTool extends BasicTool {
             "and p.time > o.time - interval '00:02:00' and p.time < o.time + interval '00:02:00' " +
             "and (p.timeradius < o.timeradius or (p.timeradius = o.timeradius and p.id < o.id)) )";
 
-    private static final int CHUNK_SIZE = 1024; //*16;
+    private static final int DEFAULT_CHUNK_SIZE = 1024; //*16;
 
     private static final String ATSR_MD = "atsr_md";
     private static final String METOP = "metop";
     private static final String SEVIRI = "seviri";
     private static final String AVHRR_MD = "avhrr_md";
     private static final Map<Class<? extends Observation>, String> OBSERVATION_QUERY_MAP = new HashMap<>(12);
+    private static final Map<String, String> BATCHED_CRITERION_MAP = new HashMap<>(12);
+    private static final Map<String, CoincidenceIndex.Criterion> INDEX_CRITERION_MAP = new HashMap<>(12);
 
     private Sensor atsrSensor;
     private Sensor metopSensor;
@@ -146,9 +179,24 @@ public class MatchupTool extends BasicTool {
         OBSERVATION_QUERY_MAP.put(RelatedObservation.class, COINCIDING_OBSERVATION_QUERY);
         OBSERVATION_QUERY_MAP.put(GlobalObservation.class, COINCIDING_GLOBALOBS_QUERY);
         OBSERVATION_QUERY_MAP.put(InsituObservation.class, COINCIDING_INSITUOBS_QUERY);
+
+        BATCHED_CRITERION_MAP.put(COINCIDING_OBSERVATION_QUERY, BATCHED_COINCIDING_OBSERVATION_CRITERION);
+        BATCHED_CRITERION_MAP.put(COINCIDING_CALLSIGN_QUERY, BATCHED_COINCIDING_CALLSIGN_CRITERION);
+        BATCHED_CRITERION_MAP.put(COINCIDING_GLOBALOBS_QUERY, BATCHED_COINCIDING_GLOBALOBS_CRITERION);
+        BATCHED_CRITERION_MAP.put(COINCIDING_INSITUOBS_QUERY, BATCHED_COINCIDING_INSITUOBS_CRITERION);
+
+        INDEX_CRITERION_MAP.put(COINCIDING_OBSERVATION_QUERY, CoincidenceIndex.Criterion.SPATIAL);
+        INDEX_CRITERION_MAP.put(COINCIDING_CALLSIGN_QUERY, CoincidenceIndex.Criterion.CALLSIGN);
+        INDEX_CRITERION_MAP.put(COINCIDING_GLOBALOBS_QUERY, CoincidenceIndex.Criterion.GLOBAL);
+        INDEX_CRITERION_MAP.put(COINCIDING_INSITUOBS_QUERY, CoincidenceIndex.Criterion.INSITU);
     }
 
     private TimeRange timeRange;
+    private BatchedCoincidenceQuery batchedCoincidenceQuery;
+    private CoincidenceIndex coincidenceIndex;
+    private CoincidenceQueryGuard coincidenceQueryGuard;
+    private int chunkSize;
+    private boolean streaming;
 
     public static void main(String[] args) {
         final MatchupTool tool = new MatchupTool();
@@ -180,9 +228,31 @@ public class MatchupTool extends BasicTool {
         seviriSensor = storage.getSensor(SEVIRI);
         avhrrSensor = storage.getSensor(AVHRR_MD);
         setTimeRange();
+        chunkSize = getConfig().getIntValue(Configuration.KEY_MMS_MATCHUP_CHUNK_SIZE, DEFAULT_CHUNK_SIZE);
+        streaming = getConfig().getBooleanValue(Configuration.KEY_MMS_MATCHUP_STREAMING, false);
+        coincidenceQueryGuard = new CoincidenceQueryGuard(getPersistenceManager(), streaming, logger);
+        if (getConfig().getBooleanValue(Configuration.KEY_MMS_MATCHUP_BATCHED_COINCIDENCE, true)) {
+            batchedCoincidenceQuery = new BatchedCoincidenceQuery(getPersistenceManager());
+        }
+        if (getConfig().getBooleanValue(Configuration.KEY_MMS_MATCHUP_INMEMORY, false)) {
+            final int threadCount = getConfig().getIntValue(Configuration.KEY_MMS_MATCHUP_THREADS,
+                    Runtime.getRuntime().availableProcessors());
+            coincidenceIndex = new CoincidenceIndex(getPersistenceManager(),
+                    timeRange.getStartDate(), timeRange.getStopDate(), threadCount);
+        }
     }
 
     private void run() {
+        try {
+            findMatchups();
+        } finally {
+            if (coincidenceIndex != null) {
+                coincidenceIndex.dispose();
+            }
+        }
+    }
+
+    private void findMatchups() {
         final Configuration config = getConfig();
 
         if (config.getBooleanValue("mms.matchup.cleanup")) {
@@ -355,14 +425,19 @@ public class MatchupTool extends BasicTool {
             final StopWatch stopWatch = new StopWatch();
             stopWatch.start();
 
-            final Query query = createIncrementalQuery(ATSR_MD, SENSOR_OBSERVATION_QUERY);
-            for (int cursor = 0; ; ) {
-                @SuppressWarnings("unchecked")
-                final List<ReferenceObservation> atsrObservations = query.setFirstResult(cursor).getResultList();
+            final ReferenceObservationScan scan = createIncrementalScan(ATSR_MD, SENSOR_OBSERVATION_QUERY);
+            while (true) {
+                final List<ReferenceObservation> atsrObservations = scan.next();
                 if (atsrObservations.size() == 0) {
                     break;
                 }
-                cursor += atsrObservations.size();
+
+                final Map<Integer, Observation> metopObservations =
+                        findCoincidingObservations(atsrObservations, metopSensor);
+                final Map<Integer, Observation> seviriObservations =
+                        findCoincidingObservations(atsrObservations, seviriSensor);
+                final Map<Integer, Observation> avhrrObservations =
+                        findCoincidingCallsigns(atsrObservations, avhrrSensor);
 
                 for (final ReferenceObservation atsrObservation : atsrObservations) {
                     //System.out.println(TimeUtil.formatCcsdsUtcMillisFormat(new Date()) + " " + atsrObservation.getId() + " ...");
@@ -370,7 +445,7 @@ public class MatchupTool extends BasicTool {
 
                     // determine corresponding metop observation if any
                     if (metopSensor != null) {
-                        final Observation metopObservation = findCoincidingObservation(atsrObservation, metopSensor);
+                        final Observation metopObservation = metopObservations.get(atsrObservation.getId());
                         if (metopObservation != null) {
                             matchup = createMatchup(atsrObservation,
                                     atsrSensor.getPattern() | metopSensor.getPattern());
@@ -381,7 +456,7 @@ public class MatchupTool extends BasicTool {
 
                     // determine corresponding seviri observation if any
                     if (seviriSensor != null) {
-                        final Observation seviriObservation = findCoincidingObservation(atsrObservation, seviriSensor);
+                        final Observation seviriObservation = seviriObservations.get(atsrObservation.getId());
                         if (seviriObservation != null) {
                             if (matchup == null) {
                                 matchup = createMatchup(atsrObservation,
@@ -396,7 +471,7 @@ public class MatchupTool extends BasicTool {
 
                     // determine corresponding avhrr_md observation if any
                     if (avhrrSensor != null) {
-                        final Observation avhrrObservation = findCoincidingCallsign(atsrObservation, avhrrSensor);
+                        final Observation avhrrObservation = avhrrObservations.get(atsrObservation.getId());
                         if (avhrrObservation != null) {
                             if (matchup == null) {
                                 matchup = createMatchup(atsrObservation,
@@ -411,8 +486,10 @@ public class MatchupTool extends BasicTool {
 
                     ++count;
                     if (count % 1024 == 0) {
-                        getPersistenceManager().commit();
-                        getPersistenceManager().transaction();
+                        if (!scan.isStreaming()) {
+                            getPersistenceManager().commit();
+                            getPersistenceManager().transaction();
+                        }
                         stopWatch.stop();
                         logger.info(MessageFormat.format("{0} {1} processed in {2} ms.",
                                 count,
@@ -431,12 +508,9 @@ public class MatchupTool extends BasicTool {
                     atsrSensor.getName(),
                     stopWatch.getElapsedMillis()));
             stopWatch.start();
-            for (Matchup m : matchupAccu) {
-                getPersistenceManager().persist(m);
-            }
-            for (Coincidence c : coincidenceAccu) {
-                getPersistenceManager().persist(c);
-            }
+            final BatchPersister batchPersister = getPersistenceManager().getBatchPersister();
+            batchPersister.persistMatchups(matchupAccu);
+            batchPersister.persistCoincidences(coincidenceAccu);
             stopWatch.stop();
             logger.info(MessageFormat.format("{0} matchups and {1} coincidences stored in {2} ms.",
                     matchupAccu.size(),
@@ -468,19 +542,20 @@ public class MatchupTool extends BasicTool {
             int count = 0;
             final StopWatch stopWatch = new StopWatch();
             stopWatch.start();
-            final Query query = createIncrementalQuery(METOP, SECONDARY_OBSERVATION_QUERY);
-            for (int cursor = 0; ; ) {
-                @SuppressWarnings("unchecked")
-                final List<ReferenceObservation> metopObservations = query.setFirstResult(cursor).getResultList();
+            final ReferenceObservationScan scan = createIncrementalScan(METOP, SECONDARY_OBSERVATION_QUERY);
+            while (true) {
+                final List<ReferenceObservation> metopObservations = scan.next();
                 if (metopObservations.isEmpty()) {
                     break;
                 }
-                cursor += metopObservations.size();
+
+                final Map<Integer, Observation> seviriObservations =
+                        findCoincidingObservations(metopObservations, seviriSensor);
 
                 for (final ReferenceObservation metopObservation : metopObservations) {
                     // determine corresponding seviri observation if any
                     if (seviriSensor != null) {
-                        final Observation seviriObservation = findCoincidingObservation(metopObservation, seviriSensor);
+                        final Observation seviriObservation = seviriObservations.get(metopObservation.getId());
                         if (seviriObservation != null) {
                             final Matchup matchup = createMatchup(metopObservation,
                                     metopSensor.getPattern() | seviriSensor.getPattern());
@@ -490,8 +565,10 @@ public class MatchupTool extends BasicTool {
                     }
                     ++count;
                     if (count % 1024 == 0) {
-                        getPersistenceManager().commit();
-                        getPersistenceManager().transaction();
+                        if (!scan.isStreaming()) {
+                            getPersistenceManager().commit();
+                            getPersistenceManager().transaction();
+                        }
                         stopWatch.stop();
                         logger.info(MessageFormat.format("{0} {1} processed in {2} ms.",
                                 count,
@@ -511,12 +588,9 @@ public class MatchupTool extends BasicTool {
                     metopSensor.getName(),
                     stopWatch.getElapsedMillis()));
             stopWatch.start();
-            for (Matchup m : matchupAccu) {
-                getPersistenceManager().persist(m);
-            }
-            for (Coincidence c : coincidenceAccu) {
-                getPersistenceManager().persist(c);
-            }
+            final BatchPersister batchPersister = getPersistenceManager().getBatchPersister();
+            batchPersister.persistMatchups(matchupAccu);
+            batchPersister.persistCoincidences(coincidenceAccu);
 
             stopWatch.stop();
             logger.info(MessageFormat.format("{0} matchups and {1} coincidences stored in {2} ms.",
@@ -540,21 +614,21 @@ public class MatchupTool extends BasicTool {
             int count = 0;
             final StopWatch stopWatch = new StopWatch();
             stopWatch.start();
-            final Query query = createIncrementalQuery(sensorName, SINGLE_SENSOR_OBSERVATION_QUERY);
-            for (int cursor = 0; ; ) {
-                @SuppressWarnings("unchecked")
-                final List<ReferenceObservation> observations = query.setFirstResult(cursor).getResultList();
+            final ReferenceObservationScan scan = createIncrementalScan(sensorName, SINGLE_SENSOR_OBSERVATION_QUERY);
+            while (true) {
+                final List<ReferenceObservation> observations = scan.next();
                 if (observations.isEmpty()) {
                     break;
                 }
-                cursor += observations.size();
 
                 for (final ReferenceObservation observation : observations) {
                     createMatchup(observation, sensor.getPattern());
                     ++count;
                     if (count % 1024 == 0) {
-                        getPersistenceManager().commit();
-                        getPersistenceManager().transaction();
+                        if (!scan.isStreaming()) {
+                            getPersistenceManager().commit();
+                            getPersistenceManager().transaction();
+                        }
                         stopWatch.stop();
                         logger.info(MessageFormat.format("{0} {1} processed in {2} ms.",
                                 count,
@@ -573,9 +647,7 @@ public class MatchupTool extends BasicTool {
                     sensor.getName(),
                     stopWatch.getElapsedMillis()));
             stopWatch.start();
-            for (Matchup m : matchupAccu) {
-                getPersistenceManager().persist(m);
-            }
+            getPersistenceManager().getBatchPersister().persistMatchups(matchupAccu);
             stopWatch.stop();
             logger.info(MessageFormat.format("{0} matchups stored in {1} ms.",
                     matchupAccu.size(),
@@ -621,19 +693,22 @@ public class MatchupTool extends BasicTool {
                 @SuppressWarnings("unchecked")
                 final List<Matchup> matchups = query.getResultList();
 
-                for (final Matchup matchup : matchups) {
-                    for (String sensorName : sensorNames) {
-                        final Sensor sensor = getStorage().getSensor(sensorName);
-                        final Class<? extends Observation> observationClass = getObservationClass(sensor);
-                        final String queryString = OBSERVATION_QUERY_MAP.get(observationClass);
-                        addCoincidence(matchup, sensorName, queryString, sensor.getPattern(), observationClass);
+                for (int i = 0; i < matchups.size(); i += chunkSize) {
+                    final List<Matchup> matchupChunk = matchups.subList(i, Math.min(i + chunkSize, matchups.size()));
+                    final Map<String, Map<Integer, Observation>> sensorObservations =
+                            findRelatedObservations(matchupChunk, sensorNames);
+
+                    for (final Matchup matchup : matchupChunk) {
+                        for (String sensorName : sensorNames) {
+                            final Sensor sensor = getStorage().getSensor(sensorName);
+                            final Observation sensorObs = sensorObservations.get(sensorName).get(matchup.getRefObs().getId());
+                            addCoincidence(matchup, sensorObs, sensor.getPattern());
+                        }
                     }
                     getPersistenceManager().commit();
                     getPersistenceManager().transaction();
 
-                    for (Coincidence c : coincidenceAccu) {
-                        getPersistenceManager().persist(c);
-                    }
+                    getPersistenceManager().getBatchPersister().persistCoincidences(coincidenceAccu);
                     coincidenceAccu.clear();
 
                     getPersistenceManager().commit();
@@ -703,13 +778,9 @@ public class MatchupTool extends BasicTool {
         return -1;
     }
 
-    private Query createIncrementalQuery(String sensorName, String queryString) {
-        final Query query = getPersistenceManager().createQuery(queryString);
-        query.setParameter(1, sensorName);
-        query.setParameter(2, timeRange.getStartDate());
-        query.setParameter(3, timeRange.getStopDate());
-        query.setMaxResults(CHUNK_SIZE);
-        return query;
+    private ReferenceObservationScan createIncrementalScan(String sensorName, String queryString) {
+        return new ReferenceObservationScan(getPersistenceManager(), queryString, sensorName,
+                timeRange.getStartDate(), timeRange.getStopDate(), chunkSize, streaming);
     }
 
     @SuppressWarnings({"unchecked"})
@@ -722,13 +793,35 @@ public class MatchupTool extends BasicTool {
         }
     }
 
-    private void addCoincidence(Matchup matchup, String sensorName, String queryString,
-                                long pattern, Class<? extends Observation> observationClass) {
-        if (coincidenceAlreadyExists(matchup, sensorName)) {
-            return;
+    /**
+     * Determines the temporally nearest observations of the related sensors for a chunk of matchups.
+     * Matchups which already have a coincidence with a related sensor are not inquired for this sensor.
+     *
+     * @param matchups    The matchups.
+     * @param sensorNames The names of the related sensors.
+     * @return the map of sensor names onto the maps of reference observation IDs onto coinciding observations.
+     */
+    private Map<String, Map<Integer, Observation>> findRelatedObservations(List<Matchup> matchups,
+                                                                           List<String> sensorNames) {
+        final Map<String, Map<Integer, Observation>> sensorObservations = new HashMap<>(sensorNames.size());
+        for (final String sensorName : sensorNames) {
+            final Sensor sensor = getStorage().getSensor(sensorName);
+            final Class<? extends Observation> observationClass = getObservationClass(sensor);
+            final String queryString = OBSERVATION_QUERY_MAP.get(observationClass);
+
+            final List<ReferenceObservation> refObsList = new ArrayList<>(matchups.size());
+            for (final Matchup matchup : matchups) {
+                if (!coincidenceAlreadyExists(matchup, sensorName)) {
+                    refObsList.add(matchup.getRefObs());
+                }
+            }
+            sensorObservations.put(sensorName,
+                    findCoincidingObservations(refObsList, queryString, observationClass, sensorName));
         }
-        final ReferenceObservation refObs = matchup.getRefObs();
-        final Observation sensorObs = findCoincidingObservation(refObs, queryString, observationClass, sensorName);
+        return sensorObservations;
+    }
+
+    private void addCoincidence(Matchup matchup, Observation sensorObs, long pattern) {
         if (sensorObs != null) {
             final Coincidence coincidence = createCoincidence(matchup, sensorObs);
             coincidenceAccu.add(coincidence);
@@ -747,24 +840,76 @@ public class MatchupTool extends BasicTool {
     }
 
     /**
-     * Determines temporally nearest common observation of a specific sensor
-     * for a reference observation.
+     * Determines temporally nearest common observations of a specific sensor
+     * for a chunk of reference observations.
      *
-     * @param refObs The reference observation.
-     * @param sensor The sensor.
-     * @return common observation of sensor with coincidence to reference observation
-     * that is temporally closest to reference observation, null if no
-     * observation of the specified sensor has a coincidence with the
-     * reference observation
+     * @param refObsList The reference observations.
+     * @param sensor     The sensor.
+     * @return the map of reference observation IDs onto the common observation of
+     * the sensor that is temporally closest to the reference observation. Reference
+     * observations without coincidence are not contained in the map.
      */
-    private Observation findCoincidingObservation(ReferenceObservation refObs, Sensor sensor) {
+    private Map<Integer, Observation> findCoincidingObservations(List<ReferenceObservation> refObsList,
+                                                                 Sensor sensor) {
+        if (sensor == null) {
+            return Collections.emptyMap();
+        }
         final Class<? extends Observation> observationClass = getObservationClass(sensor);
-        return findCoincidingObservation(refObs, COINCIDING_OBSERVATION_QUERY, observationClass, sensor.getName());
+        return findCoincidingObservations(refObsList, COINCIDING_OBSERVATION_QUERY, observationClass,
+                sensor.getName());
     }
 
-    private Observation findCoincidingCallsign(ReferenceObservation refObs, Sensor sensor) {
+    private Map<Integer, Observation> findCoincidingCallsigns(List<ReferenceObservation> refObsList, Sensor sensor) {
+        if (sensor == null) {
+            return Collections.emptyMap();
+        }
         final Class<? extends Observation> observationClass = getObservationClass(sensor);
-        return findCoincidingObservation(refObs, COINCIDING_CALLSIGN_QUERY, observationClass, sensor.getName());
+        return findCoincidingObservations(refObsList, COINCIDING_CALLSIGN_QUERY, observationClass, sensor.getName());
+    }
+
+    /**
+     * Determines temporally nearest common observations of a specific sensor
+     * for a chunk of reference observations. Uses a single batched query for
+     * the whole chunk unless batching is switched off or the batched query fails
+     * for a chunk, in which case each reference observation is inquired individually.
+     *
+     * @param refObsList       The reference observations.
+     * @param queryString      The single-observation coincidence query.
+     * @param observationClass The class of the common observations.
+     * @param sensorName       The sensor name.
+     * @return the map of reference observation IDs onto the common observations.
+     */
+    private Map<Integer, Observation> findCoincidingObservations(final List<ReferenceObservation> refObsList,
+                                                                 String queryString,
+                                                                 Class observationClass,
+                                                                 final String sensorName) {
+        if (coincidenceIndex != null) {
+            final CoincidenceIndex.Criterion criterion = INDEX_CRITERION_MAP.get(queryString);
+            final Map<Integer, Integer> observationIds = coincidenceIndex.findObservationIds(refObsList, criterion,
+                                                                                             sensorName);
+            return BatchedCoincidenceQuery.resolveObservations(getPersistenceManager(), observationIds);
+        }
+        if (batchedCoincidenceQuery != null) {
+            final String criterion = BATCHED_CRITERION_MAP.get(queryString);
+            final Map<Integer, Integer> observationIds = coincidenceQueryGuard.execute(
+                    new CoincidenceQueryGuard.Query<Map<Integer, Integer>>() {
+                        @Override
+                        public Map<Integer, Integer> execute() {
+                            return batchedCoincidenceQuery.execute(refObsList, criterion, sensorName);
+                        }
+                    }, "falling back to single queries for chunk of " + sensorName);
+            if (observationIds != null) {
+                return BatchedCoincidenceQuery.resolveObservations(getPersistenceManager(), observationIds);
+            }
+        }
+        final Map<Integer, Observation> observations = new HashMap<>(refObsList.size());
+        for (final ReferenceObservation refObs : refObsList) {
+            final Observation observation = findCoincidingObservation(refObs, queryString, observationClass, sensorName);
+            if (observation != null) {
+                observations.put(refObs.getId(), observation);
+            }
+        }
+        return observations;
     }
 
     private Observation findCoincidingObservation(ReferenceObservation refObs, String queryString,
@@ -778,31 +923,19 @@ public class MatchupTool extends BasicTool {
         query.setParameter(3, refObs.getPoint().toString());
         query.setParameter(4, refObs.getName());
         query.setMaxResults(1);
-        try {
-            @SuppressWarnings({"unchecked"})
-            final List<? extends Observation> observations = query.getResultList();
-            if (!observations.isEmpty()) {
-                // select temporally nearest common observation
-                return observations.get(0);
-            } else {
-                return null;
-            }
-        } catch (PersistenceException e) {
-            if (e.getMessage().startsWith("ERROR: BOOM! Could not generate outside point!")) {
-                logger.warning(
-                        "skipping chunk up to " + sensorName + " for matchup " + refObs.getId() + ": " + e.getMessage());
-                try {
-                    //getPersistenceManager().rollback();
-                    getPersistenceManager().commit();
-                } catch (Exception _) {
-                    // ignore
+        return coincidenceQueryGuard.execute(new CoincidenceQueryGuard.Query<Observation>() {
+            @Override
+            public Observation execute() {
+                @SuppressWarnings({"unchecked"})
+                final List<? extends Observation> observations = query.getResultList();
+                if (!observations.isEmpty()) {
+                    // select temporally nearest common observation
+                    return observations.get(0);
+                } else {
+                    return null;
                 }
-                getPersistenceManager().transaction();
-                return null;
-            } else {
-                throw e;
             }
-        }
+        }, "skipping chunk up to " + sensorName + " for matchup " + refObs.getId());
     }
 
 
@@ -63,7 +63,7 @@ public class MizSelectionTool extends BasicTool {
 
     private void run() throws IOException {
         /*
-        TODO - implement what is defined below: include only those sub-scenes that satisfy both 1) and 2)
+        TODO - implement what is defined below as RecordFilter.Predicate, like in the SelectionTool: include only those sub-scenes that satisfy both 1) and 2)
 
         So Ralf, our definition of the marginal ice zone is:
 
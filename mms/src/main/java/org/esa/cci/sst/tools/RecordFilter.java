@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.tool.ToolException;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Selects and copies matchup records of an MMD file column by column.
+ * <p/>
+ * The variables needed for selecting records are read in large blocks of records, and the
+ * predicates are evaluated for the records of several blocks in parallel. The size of the blocks
+ * is chosen so that all blocks held in memory at once fit into a buffer of bounded size, which
+ * does not depend on the number of threads. The accepted records
+ * are copied block by block, where the accepted records of a block are gathered into a single
+ * write per variable.
+ */
+final class RecordFilter {
+
+    // the approximate number of bytes of all blocks of records held in memory at once
+    private static final long DEFAULT_BUFFER_SIZE = 64L * 1024L * 1024L;
+
+    /**
+     * A predicate on matchup records.
+     */
+    interface Predicate {
+
+        /**
+         * Returns the variables needed for evaluating this predicate.
+         *
+         * @return the variables.
+         */
+        Variable[] getVariables();
+
+        /**
+         * Tests a record.
+         *
+         * @param block       The block of records.
+         * @param recordIndex The index of the record within the block.
+         *
+         * @return {@code true} if the record is accepted, {@code false} otherwise.
+         */
+        boolean accept(Block block, int recordIndex);
+    }
+
+    /**
+     * A block of contiguous records of the variables needed by the predicates. Values are
+     * scaled and fill values are replaced with NaN.
+     */
+    static final class Block {
+
+        private final int start;
+        private final int recordCount;
+        private final Map<Variable, double[]> dataMap;
+
+        Block(int start, int recordCount) {
+            this.start = start;
+            this.recordCount = recordCount;
+            dataMap = new HashMap<>();
+        }
+
+        int getStart() {
+            return start;
+        }
+
+        int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * Returns the values of a variable for a record.
+         *
+         * @param variable    The variable.
+         * @param recordIndex The index of the record within this block.
+         *
+         * @return the values.
+         */
+        double[] getRecord(Variable variable, int recordIndex) {
+            final double[] data = dataMap.get(variable);
+            final int recordSize = data.length / recordCount;
+            return Arrays.copyOfRange(data, recordIndex * recordSize, (recordIndex + 1) * recordSize);
+        }
+
+        void put(Variable variable, double[] data) {
+            dataMap.put(variable, data);
+        }
+    }
+
+    private final int recordCount;
+    private final int threadCount;
+    private final long bufferSize;
+
+    RecordFilter(int recordCount, int threadCount) {
+        this(recordCount, threadCount, DEFAULT_BUFFER_SIZE);
+    }
+
+    // package access for testing only
+    RecordFilter(int recordCount, int threadCount, long bufferSize) {
+        this.recordCount = recordCount;
+        this.threadCount = threadCount;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Selects the records accepted by all predicates.
+     *
+     * @param predicates The predicates.
+     *
+     * @return the indexes of the accepted records.
+     *
+     * @throws IOException if the variables cannot be read.
+     */
+    BitSet select(final List<Predicate> predicates) throws IOException {
+        final Set<Variable> variableSet = new LinkedHashSet<>();
+        for (final Predicate predicate : predicates) {
+            variableSet.addAll(Arrays.asList(predicate.getVariables()));
+        }
+        final Variable[] variables = variableSet.toArray(new Variable[variableSet.size()]);
+        long recordSize = 0;
+        for (final Variable variable : variables) {
+            recordSize += getRecordLength(variable) * 8L;
+        }
+        final int blockRecordCount = getBlockRecordCount(recordSize, getMaxBlockCount());
+
+        final BitSet accepted = new BitSet(recordCount);
+        final Deque<Future<BitSet>> futures = new ArrayDeque<>();
+        final Deque<Integer> starts = new ArrayDeque<>();
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (int start = 0; start < recordCount; start += blockRecordCount) {
+                // blocks are read by the calling thread, because NetCDF files must not be read concurrently
+                final Block block = readBlock(variables, start, Math.min(blockRecordCount, recordCount - start));
+                futures.add(executorService.submit(new Callable<BitSet>() {
+                    @Override
+                    public BitSet call() {
+                        return evaluate(block, predicates);
+                    }
+                }));
+                starts.add(start);
+                // the number of blocks held in memory is bounded
+                while (futures.size() >= getMaxBlockCount()) {
+                    collect(futures.remove().get(), starts.remove(), accepted);
+                }
+            }
+            while (!futures.isEmpty()) {
+                collect(futures.remove().get(), starts.remove(), accepted);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ToolException("Record selection interrupted.", e, ToolException.TOOL_ERROR);
+        } catch (ExecutionException e) {
+            throw new ToolException(e.getCause().getMessage(), e.getCause(), ToolException.TOOL_ERROR);
+        } finally {
+            executorService.shutdownNow();
+        }
+        return accepted;
+    }
+
+    /**
+     * Copies the accepted records of all source variables into the target variables.
+     *
+     * @param accepted  The indexes of the accepted records.
+     * @param targetMmd The target MMD file.
+     * @param mapping   The mapping from target variables to source variables.
+     *
+     * @throws IOException           if a variable cannot be read or written.
+     * @throws InvalidRangeException if a variable cannot be read or written.
+     */
+    void copy(BitSet accepted, NetcdfFileWriter targetMmd, Map<Variable, Variable> mapping) throws IOException,
+                                                                                                 InvalidRangeException {
+        for (final Map.Entry<Variable, Variable> entry : mapping.entrySet()) {
+            final Variable t = entry.getKey();
+            final Variable s = entry.getValue();
+            final int recordLength = getRecordLength(s);
+            final int blockRecordCount = getBlockRecordCount((long) recordLength * s.getElementSize(), 1);
+
+            int targetRecord = 0;
+            for (int start = 0; start < recordCount; start += blockRecordCount) {
+                final int end = Math.min(start + blockRecordCount, recordCount);
+                final int first = accepted.nextSetBit(start);
+                if (first < 0 || first >= end) {
+                    continue;
+                }
+                final int last = accepted.previousSetBit(end - 1);
+                final int count = accepted.get(first, last + 1).cardinality();
+
+                final int[] origin = new int[s.getRank()];
+                origin[0] = first;
+                final int[] shape = s.getShape();
+                shape[0] = last - first + 1;
+                final Array sourceData = s.read(origin, shape);
+                final Array targetData;
+                if (count == shape[0]) {
+                    targetData = sourceData;
+                } else {
+                    shape[0] = count;
+                    targetData = Array.factory(s.getDataType(), shape);
+                    for (int i = first, k = 0; i >= 0 && i <= last; i = accepted.nextSetBit(i + 1), k++) {
+                        Array.arraycopy(sourceData, (i - first) * recordLength, targetData, k * recordLength,
+                                        recordLength);
+                    }
+                }
+                origin[0] = targetRecord;
+                targetMmd.write(t, origin, targetData);
+                targetRecord += count;
+            }
+        }
+    }
+
+    // package access for testing only
+    static BitSet evaluate(Block block, List<Predicate> predicates) {
+        final BitSet accepted = new BitSet(block.getRecordCount());
+        for (int i = 0; i < block.getRecordCount(); i++) {
+            boolean recordAccepted = true;
+            for (final Predicate predicate : predicates) {
+                if (!predicate.accept(block, i)) {
+                    recordAccepted = false;
+                    break;
+                }
+            }
+            if (recordAccepted) {
+                accepted.set(i);
+            }
+        }
+        return accepted;
+    }
+
+    private static void collect(BitSet blockAccepted, int start, BitSet accepted) {
+        for (int i = blockAccepted.nextSetBit(0); i >= 0; i = blockAccepted.nextSetBit(i + 1)) {
+            accepted.set(start + i);
+        }
+    }
+
+    private static Block readBlock(Variable[] variables, int start, int count) throws IOException {
+        final Block block = new Block(start, count);
+        for (final Variable variable : variables) {
+            final int[] origin = new int[variable.getRank()];
+            origin[0] = start;
+            final int[] shape = variable.getShape();
+            shape[0] = count;
+            try {
+                block.put(variable, enhance(variable, variable.read(origin, shape)));
+            } catch (InvalidRangeException e) {
+                throw new IOException(e);
+            }
+        }
+        return block;
+    }
+
+    // applies scaling and replaces fill values with NaN
+    private static double[] enhance(Variable v, Array data) {
+        final double addOffset = getAttribute(v, "add_offset", 0.0);
+        final double scaleFactor = getAttribute(v, "scale_factor", 0.0);
+        final Number fillValue = getAttribute(v, "_FillValue");
+        final double[] enhancedData = new double[(int) data.getSize()];
+        for (int k = 0; k < enhancedData.length; ++k) {
+            final double value = data.getDouble(k);
+            if (fillValue == null || value != fillValue.doubleValue()) {
+                enhancedData[k] = scaleFactor * value + addOffset;
+            } else {
+                enhancedData[k] = Double.NaN;
+            }
+        }
+        return enhancedData;
+    }
+
+    private static Number getAttribute(Variable v, String name) {
+        final Attribute attribute = v.findAttribute(name);
+        if (attribute == null) {
+            return null;
+        }
+        return attribute.getNumericValue();
+    }
+
+    private static double getAttribute(Variable v, String name, double defaultValue) {
+        final Attribute attribute = v.findAttribute(name);
+        if (attribute == null) {
+            return defaultValue;
+        }
+        return attribute.getNumericValue().doubleValue();
+    }
+
+    private static int getRecordLength(Variable variable) {
+        final int[] shape = variable.getShape();
+        int length = 1;
+        for (int i = 1; i < shape.length; i++) {
+            length *= shape[i];
+        }
+        return length;
+    }
+
+    // the blocks being evaluated or waiting to be collected, and the block being read
+    private int getMaxBlockCount() {
+        return 2 * threadCount + 1;
+    }
+
+    // package access for testing only
+    int getBlockRecordCount(long recordSize, int blockCount) {
+        final long blockSize = bufferSize / blockCount;
+        return (int) Math.max(1, Math.min(blockSize / Math.max(1, recordSize), recordCount));
+    }
+}
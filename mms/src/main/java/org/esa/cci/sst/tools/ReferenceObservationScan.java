@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Scans the reference observations of a sensor within a time interval in chunks,
+ * in the order of observation time and ID.
+ * <p/>
+ * By default, the scan uses keyset pagination: each chunk is selected by a query that
+ * continues after the (time, ID) of the last observation of the previous chunk, so that
+ * the database never has to skip the rows already delivered. Alternatively, the scan can
+ * stream all observations through a single forward-only server-side cursor. Streaming
+ * requires that the transaction is not committed until the scan is exhausted.
+ * <p/>
+ * The query string must select reference observations {@code o} of the sensor {@code ?1}
+ * within the time interval {@code [?2, ?3)} and end with {@code order by o.time, o.id}.
+ */
+class ReferenceObservationScan {
+
+    private static final String ORDER_BY_CLAUSE = " order by o.time, o.id";
+    private static final String KEYSET_CONDITION = " and (o.time > ?4 or (o.time = ?4 and o.id > ?5))";
+
+    private final PersistenceManager persistenceManager;
+    private final String queryString;
+    private final String sensorName;
+    private final Date startDate;
+    private final Date stopDate;
+    private final int chunkSize;
+    private final boolean streaming;
+
+    private Date lastTime;
+    private int lastId;
+    private boolean exhausted;
+    private Iterator<?> cursor;
+
+    ReferenceObservationScan(PersistenceManager persistenceManager, String queryString, String sensorName,
+                             Date startDate, Date stopDate, int chunkSize, boolean streaming) {
+        if (!queryString.endsWith(ORDER_BY_CLAUSE)) {
+            throw new IllegalArgumentException("Query must be ordered by observation time and ID.");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive.");
+        }
+        this.persistenceManager = persistenceManager;
+        this.queryString = queryString;
+        this.sensorName = sensorName;
+        this.startDate = startDate;
+        this.stopDate = stopDate;
+        this.chunkSize = chunkSize;
+        this.streaming = streaming;
+    }
+
+    boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Returns the next chunk of reference observations.
+     *
+     * @return the next chunk of reference observations, an empty list if the scan is exhausted.
+     */
+    List<ReferenceObservation> next() {
+        if (exhausted) {
+            return Collections.emptyList();
+        }
+        final List<ReferenceObservation> observations;
+        if (streaming) {
+            observations = nextFromCursor();
+        } else {
+            observations = nextFromKeyset();
+        }
+        if (observations.size() < chunkSize) {
+            exhausted = true;
+        }
+        return observations;
+    }
+
+    // package access for testing only
+    static String createKeysetQueryString(String queryString) {
+        final int index = queryString.lastIndexOf(ORDER_BY_CLAUSE);
+        return queryString.substring(0, index) + KEYSET_CONDITION + ORDER_BY_CLAUSE;
+    }
+
+    private List<ReferenceObservation> nextFromKeyset() {
+        final Query query;
+        if (lastTime == null) {
+            query = persistenceManager.createQuery(queryString);
+        } else {
+            query = persistenceManager.createQuery(createKeysetQueryString(queryString));
+            query.setParameter(4, lastTime);
+            query.setParameter(5, lastId);
+        }
+        query.setParameter(1, sensorName);
+        query.setParameter(2, startDate);
+        query.setParameter(3, stopDate);
+        query.setMaxResults(chunkSize);
+
+        @SuppressWarnings("unchecked")
+        final List<ReferenceObservation> observations = query.getResultList();
+        if (!observations.isEmpty()) {
+            final ReferenceObservation last = observations.get(observations.size() - 1);
+            lastTime = last.getTime();
+            lastId = last.getId();
+        }
+        return observations;
+    }
+
+    private List<ReferenceObservation> nextFromCursor() {
+        if (cursor == null) {
+            final Query query = persistenceManager.createQuery(queryString);
+            query.setParameter(1, sensorName);
+            query.setParameter(2, startDate);
+            query.setParameter(3, stopDate);
+            query.setHint("openjpa.FetchPlan.ResultSetType", "forward-only");
+            query.setHint("openjpa.FetchPlan.FetchDirection", "forward");
+            query.setHint("openjpa.FetchPlan.FetchBatchSize", chunkSize);
+            cursor = query.getResultList().iterator();
+        }
+        final List<ReferenceObservation> observations = new ArrayList<>(chunkSize);
+        while (observations.size() < chunkSize && cursor.hasNext()) {
+            observations.add((ReferenceObservation) cursor.next());
+        }
+        return observations;
+    }
+}
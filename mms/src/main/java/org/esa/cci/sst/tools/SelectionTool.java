@@ -2,8 +2,6 @@ package org.esa.cci.sst.tools;
 
 import org.esa.cci.sst.tool.Configuration;
 import org.esa.cci.sst.tool.ToolException;
-import ucar.ma2.Array;
-import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
 import ucar.nc2.Attribute;
 import ucar.nc2.Dimension;
@@ -15,7 +13,9 @@ import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -30,6 +30,7 @@ public class SelectionTool extends BasicTool {
 
     private String sourceMmdLocation;
     private String targetMmdLocation;
+    private int threadCount;
 
     protected SelectionTool() {
         super("selection-tool", "1.0");
@@ -60,6 +61,8 @@ public class SelectionTool extends BasicTool {
 
         sourceMmdLocation = config.getStringValue(Configuration.KEY_MMS_SELECTION_MMD_SOURCE);
         targetMmdLocation = config.getStringValue(Configuration.KEY_MMS_SELECTION_MMD_TARGET);
+        threadCount = config.getIntValue(Configuration.KEY_MMS_SELECTION_THREADS,
+                                         Runtime.getRuntime().availableProcessors());
     }
 
     private void run() throws IOException {
@@ -68,51 +71,10 @@ public class SelectionTool extends BasicTool {
             final Dimension matchupDimension = findDimension(sourceMmd, "matchup");
             final int sourceMatchupCount = matchupDimension.getLength();
 
-            final Variable[] zenithAngles = findViewZenithAngles(sourceMmd);
-            final Variable[] brightnessTemperatures = findBrightnessTemperatures(sourceMmd);
-            final Variable[] nadirBrightnessTemperatures = findNadirBrightnessTemperatures(sourceMmd);
-            final Variable[] forwardBrightnessTemperatures = findForwardBrightnessTemperatures(sourceMmd);
-
-            final ArrayList<Integer> sourceMatchupIndexes = new ArrayList<>(sourceMatchupCount);
-            for (int i = 0; i < sourceMatchupCount; i++) {
-                boolean accepted;
-
-                final double[] vza1 = readRecordEnhanced(i, zenithAngles[0]);
-                final double[] vza2 = readRecordEnhanced(i, zenithAngles[1]);
-                accepted = acceptZenithAngles(vza1, vza2);
-                if (accepted) {
-                    for (final Variable brightnessTemperature : brightnessTemperatures) {
-                        final double[] data = readRecordEnhanced(i, brightnessTemperature);
-                        accepted = acceptBrightnessTemperatures(data);
-                        if (!accepted) {
-                            break;
-                        }
-                    }
-                }
-                if (accepted) {
-                    for (final Variable brightnessTemperature : nadirBrightnessTemperatures) {
-                        final double[] data = readRecordEnhanced(i, brightnessTemperature);
-                        accepted = acceptBrightnessTemperatures(data);
-                        if (!accepted) {
-                            break;
-                        }
-                    }
-                    if (!accepted) {
-                        for (final Variable brightnessTemperature : forwardBrightnessTemperatures) {
-                            final double[] data = readRecordEnhanced(i, brightnessTemperature);
-                            accepted = acceptBrightnessTemperatures(data);
-                            if (!accepted) {
-                                break;
-                            }
-                        }
-                    }
-                }
-                if (accepted) {
-                    sourceMatchupIndexes.add(i);
-                }
-            }
+            final RecordFilter recordFilter = new RecordFilter(sourceMatchupCount, Math.max(1, threadCount));
+            final BitSet sourceMatchupIndexes = recordFilter.select(createPredicates(sourceMmd));
 
-            final int targetMatchupCount = sourceMatchupIndexes.size();
+            final int targetMatchupCount = sourceMatchupIndexes.cardinality();
             final NetcdfFileWriter targetMmd = createNew(targetMmdLocation);
             try {
                 // copy MMD structure
@@ -143,13 +105,7 @@ public class SelectionTool extends BasicTool {
                 }
                 targetMmd.create();
                 // copy matchup records
-                for (int i = 0; i < targetMatchupCount; i++) {
-                    for (final Variable t : mapping.keySet()) {
-                        final Variable s = mapping.get(t);
-                        final Array sourceData = readRecord(sourceMatchupIndexes.get(i), s);
-                        targetMmd.write(t, createSingleRecordOrigin(i, t.getRank()), sourceData);
-                    }
-                }
+                recordFilter.copy(sourceMatchupIndexes, targetMmd, mapping);
                 mapping.clear();
             } finally {
                 try {
@@ -169,6 +125,70 @@ public class SelectionTool extends BasicTool {
         }
     }
 
+    private List<RecordFilter.Predicate> createPredicates(NetcdfFile sourceMmd) throws IOException {
+        final Variable[] zenithAngles = findViewZenithAngles(sourceMmd);
+        final Variable[] brightnessTemperatures = findBrightnessTemperatures(sourceMmd);
+        final Variable[] nadirBrightnessTemperatures = findNadirBrightnessTemperatures(sourceMmd);
+        final Variable[] forwardBrightnessTemperatures = findForwardBrightnessTemperatures(sourceMmd);
+
+        final List<RecordFilter.Predicate> predicates = new ArrayList<>(3);
+        predicates.add(new RecordFilter.Predicate() {
+            @Override
+            public Variable[] getVariables() {
+                return zenithAngles;
+            }
+
+            @Override
+            public boolean accept(RecordFilter.Block block, int recordIndex) {
+                return acceptZenithAngles(block.getRecord(zenithAngles[0], recordIndex),
+                                          block.getRecord(zenithAngles[1], recordIndex));
+            }
+        });
+        predicates.add(new RecordFilter.Predicate() {
+            @Override
+            public Variable[] getVariables() {
+                return brightnessTemperatures;
+            }
+
+            @Override
+            public boolean accept(RecordFilter.Block block, int recordIndex) {
+                return acceptBrightnessTemperatures(block, recordIndex, brightnessTemperatures);
+            }
+        });
+        // either all nadir or all forward brightness temperatures must be accepted, if there are no forward
+        // brightness temperatures all nadir brightness temperatures must be accepted
+        final Variable[] nadirAndForwardBrightnessTemperatures =
+                new Variable[nadirBrightnessTemperatures.length + forwardBrightnessTemperatures.length];
+        System.arraycopy(nadirBrightnessTemperatures, 0, nadirAndForwardBrightnessTemperatures, 0,
+                         nadirBrightnessTemperatures.length);
+        System.arraycopy(forwardBrightnessTemperatures, 0, nadirAndForwardBrightnessTemperatures,
+                         nadirBrightnessTemperatures.length, forwardBrightnessTemperatures.length);
+        predicates.add(new RecordFilter.Predicate() {
+            @Override
+            public Variable[] getVariables() {
+                return nadirAndForwardBrightnessTemperatures;
+            }
+
+            @Override
+            public boolean accept(RecordFilter.Block block, int recordIndex) {
+                return acceptBrightnessTemperatures(block, recordIndex, nadirBrightnessTemperatures) ||
+                       forwardBrightnessTemperatures.length > 0 &&
+                       acceptBrightnessTemperatures(block, recordIndex, forwardBrightnessTemperatures);
+            }
+        });
+        return predicates;
+    }
+
+    private boolean acceptBrightnessTemperatures(RecordFilter.Block block, int recordIndex,
+                                                 Variable[] brightnessTemperatures) {
+        for (final Variable brightnessTemperature : brightnessTemperatures) {
+            if (!acceptBrightnessTemperatures(block.getRecord(brightnessTemperature, recordIndex))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     static NetcdfFileWriter createNew(String path) throws IOException {
         final File file = new File(path);
         if (file.exists()) {
@@ -209,55 +229,6 @@ public class SelectionTool extends BasicTool {
     }
 
 
-    static Array readRecord(int i, Variable v) throws IOException, InvalidRangeException {
-        return v.read(createSingleRecordOrigin(i, v.getRank()), createSingleRecordShape(v));
-    }
-
-    private double[] readRecordEnhanced(int i, Variable v) throws IOException, InvalidRangeException {
-        final Array data = readRecord(i, v);
-        final Array enhancedData = Array.factory(DataType.DOUBLE, data.getShape());
-        final double addOffset = getAttribute(v, "add_offset", 0.0);
-        final double scaleFactor = getAttribute(v, "scale_factor", 0.0);
-        final Number fillValue = getAttribute(v, "_FillValue");
-        for (int k = 0; k < data.getSize(); ++k) {
-            final double value = data.getDouble(k);
-            if (fillValue == null || value != fillValue.doubleValue()) {
-                enhancedData.setDouble(k, scaleFactor * value + addOffset);
-            } else {
-                enhancedData.setDouble(k, Double.NaN);
-            }
-        }
-        return (double[]) enhancedData.getStorage();
-    }
-
-    private static Number getAttribute(Variable v, String name) {
-        final Attribute attribute = v.findAttribute(name);
-        if (attribute == null) {
-            return null;
-        }
-        return attribute.getNumericValue();
-    }
-
-    private static double getAttribute(Variable v, String name, double defaultValue) {
-        final Attribute attribute = v.findAttribute(name);
-        if (attribute == null) {
-            return defaultValue;
-        }
-        return attribute.getNumericValue().doubleValue();
-    }
-
-    static int[] createSingleRecordOrigin(int i, int rank) {
-        final int[] origin = new int[rank];
-        origin[0] = i;
-        return origin;
-    }
-
-    static int[] createSingleRecordShape(Variable v) {
-        final int[] shape = v.getShape();
-        shape[0] = 1;
-        return shape;
-    }
-
     static Variable[] findBrightnessTemperatures(NetcdfFile file) throws IOException {
         final ArrayList<Variable> variables = new ArrayList<>(2);
         final String part = "brightness_temperature";
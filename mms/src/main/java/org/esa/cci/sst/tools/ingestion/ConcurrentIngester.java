@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.ingestion;
+
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.data.Item;
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.Sensor;
+import org.esa.cci.sst.log.SstLogging;
+import org.esa.cci.sst.orm.BatchPersister;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.orm.Storage;
+import org.esa.cci.sst.reader.Reader;
+import org.esa.cci.sst.tool.Configuration;
+import org.esa.cci.sst.tool.ToolException;
+import org.esa.cci.sst.tools.ErrorHandler;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Ingests input files concurrently. Several reader threads read and decode the input files,
+ * while the calling thread writes the observations to the database by means of batch inserts.
+ * <p/>
+ * The input files are written in the order given, each in its own transaction, like in
+ * sequential ingestion. Reading is ahead of writing by at most a few batches of observations
+ * per reader thread.
+ */
+class ConcurrentIngester {
+
+    private static final int BATCH_SIZE = 4096;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int CHECKPOINT_INTERVAL = 65536;
+
+    private final PersistenceManager persistenceManager;
+    private final Storage storage;
+    private final ErrorHandler errorHandler;
+    private final Ingester ingester;
+    private final Configuration configuration;
+    private final File archiveRoot;
+    private final int threadCount;
+    private final int batchSize;
+    private final int checkpointInterval;
+    private final Logger logger;
+
+    ConcurrentIngester(PersistenceManager persistenceManager, Storage storage, ErrorHandler errorHandler,
+                       Ingester ingester, Configuration configuration, File archiveRoot, int threadCount) {
+        this(persistenceManager, storage, errorHandler, ingester, configuration, archiveRoot, threadCount,
+             BATCH_SIZE, CHECKPOINT_INTERVAL);
+    }
+
+    // package access for testing only
+    ConcurrentIngester(PersistenceManager persistenceManager, Storage storage, ErrorHandler errorHandler,
+                       Ingester ingester, Configuration configuration, File archiveRoot, int threadCount,
+                       int batchSize, int checkpointInterval) {
+        this.persistenceManager = persistenceManager;
+        this.storage = storage;
+        this.errorHandler = errorHandler;
+        this.ingester = ingester;
+        this.configuration = configuration;
+        this.archiveRoot = archiveRoot;
+        this.threadCount = threadCount;
+        this.batchSize = batchSize;
+        this.checkpointInterval = checkpointInterval;
+        logger = SstLogging.getLogger();
+    }
+
+    void ingest(List<IngestionJob> jobs) {
+        final List<BlockingQueue<Batch>> queues = new ArrayList<>(jobs.size());
+        final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            // jobs are started in the order given, so the job written next is always running or done
+            for (final IngestionJob job : jobs) {
+                final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                queues.add(queue);
+                executorService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            read(job, queue);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+            for (int i = 0; i < jobs.size(); i++) {
+                write(jobs.get(i), queues.get(i));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ToolException("Ingestion interrupted.", e, ToolException.TOOL_ERROR);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void read(IngestionJob job, BlockingQueue<Batch> queue) throws InterruptedException {
+        Exception failure = null;
+        try (Reader reader = createReader(job)) {
+            final Sensor sensor = ingester.createSensor(job.getSensorName(), job.getObservationType(),
+                                                        job.getPattern());
+            reader.open(new DataFile(job.getPath(), sensor), archiveRoot);
+            queue.put(new Batch(reader.getColumns()));
+
+            List<Observation> observations = new ArrayList<>(batchSize);
+            for (int recordNo = 0; recordNo < reader.getNumRecords() && !job.isCancelled(); ++recordNo) {
+                final Observation observation = ingester.readObservation(reader, recordNo);
+                // incomplete observations are skipped here, because they would fail the whole batch insert
+                if (observation != null && ingester.checkObservation(observation, recordNo) &&
+                    ingester.checkTime(observation)) {
+                    observations.add(observation);
+                    if (observations.size() == batchSize) {
+                        queue.put(new Batch(observations));
+                        observations = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+            if (!observations.isEmpty()) {
+                queue.put(new Batch(observations));
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            failure = e;
+        }
+        queue.put(new Batch(failure));
+    }
+
+    // package access for testing only
+    Reader createReader(IngestionJob job) {
+        return IngestionTool.getReader(job.getReaderSpec(), job.getSensorName(), configuration);
+    }
+
+    private void write(IngestionJob job, BlockingQueue<Batch> queue) throws InterruptedException {
+        final String path = job.getPath();
+        logger.info(MessageFormat.format("Ingesting file ''{0}''.", path));
+
+        Batch batch = queue.take();
+        try {
+            persistenceManager.transaction();
+
+            final String sensorName = job.getSensorName();
+            Sensor sensor = storage.getSensor(sensorName);
+            if (sensor == null) {
+                sensor = ingester.createSensor(sensorName, job.getObservationType(), job.getPattern());
+                persistenceManager.persist(sensor);
+            }
+            final DataFile dataFile = new DataFile(path, sensor);
+            persistenceManager.persist(dataFile);
+
+            final BatchPersister batchPersister = persistenceManager.getBatchPersister();
+            int recordsInTimeInterval = 0;
+            while (true) {
+                if (batch.isLast()) {
+                    if (batch.failure != null) {
+                        throw batch.failure;
+                    }
+                    break;
+                }
+                if (batch.columns != null) {
+                    ingester.persistColumns(sensorName, batch.columns);
+                } else {
+                    for (final Observation observation : batch.observations) {
+                        observation.setDatafile(dataFile);
+                    }
+                    batchPersister.persistObservations(batch.observations);
+                    final int previousCount = recordsInTimeInterval;
+                    recordsInTimeInterval += batch.observations.size();
+                    if (recordsInTimeInterval / checkpointInterval > previousCount / checkpointInterval) {
+                        persistenceManager.commit();
+                        persistenceManager.transaction();
+                    }
+                }
+                batch = queue.take();
+            }
+            // make changes in database
+            persistenceManager.commit();
+            logger.info(MessageFormat.format("{0} {1} records in time interval.", sensorName,
+                                             recordsInTimeInterval));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // do not make any change in case of errors
+            try {
+                persistenceManager.rollback();
+            } catch (Exception ignored) {
+                // ignored, because surrounding exception is propagated
+            }
+            errorHandler.warn(e, MessageFormat.format("Failed to ingest file ''{0}''.", path));
+
+            job.cancel();
+            while (!batch.isLast()) {
+                batch = queue.take();
+            }
+        }
+    }
+
+    private static final class Batch {
+
+        private final Item[] columns;
+        private final List<Observation> observations;
+        private final boolean last;
+        private final Exception failure;
+
+        private Batch(Item[] columns) {
+            this(columns, null, false, null);
+        }
+
+        private Batch(List<Observation> observations) {
+            this(null, observations, false, null);
+        }
+
+        // the last batch of a job, which carries the failure of the job, if any
+        private Batch(Exception failure) {
+            this(null, null, true, failure);
+        }
+
+        private Batch(Item[] columns, List<Observation> observations, boolean last, Exception failure) {
+            this.columns = columns;
+            this.observations = observations;
+            this.last = last;
+            this.failure = failure;
+        }
+
+        private boolean isLast() {
+            return last;
+        }
+    }
+}
@@ -22,7 +22,9 @@ import org.esa.cci.sst.orm.ColumnStorage;
 import org.esa.cci.sst.orm.PersistenceManager;
 import org.esa.cci.sst.reader.Reader;
 import org.esa.cci.sst.tool.Configuration;
+import org.esa.cci.sst.tool.ToolException;
 import org.esa.cci.sst.tools.BasicTool;
+import org.esa.cci.sst.tools.ErrorHandler;
 import org.esa.cci.sst.tools.samplepoint.TimeRange;
 import org.esa.cci.sst.util.ConfigUtil;
 import org.esa.cci.sst.util.TimeUtil;
@@ -56,14 +58,17 @@ class Ingester {
                         observation.getId(),
                         recordNo,
                         e.getMessage());
-                tool.getErrorHandler().warn(e, message);
+                getErrorHandler().warn(e, message);
             }
         }
         return hasPersisted;
     }
 
     void persistColumns(final String sensorName, final Reader reader) throws IOException {
-        final Item[] columns = reader.getColumns();
+        persistColumns(sensorName, reader.getColumns());
+    }
+
+    void persistColumns(final String sensorName, final Item[] columns) {
         final Logger logger = SstLogging.getLogger();
         logger.info(MessageFormat.format("Number of columns for sensor ''{0}'' = {1}.", sensorName, columns.length));
         final ColumnStorage columnStorage = tool.getPersistenceManager().getColumnStorage();
@@ -85,7 +90,72 @@ class Ingester {
         return builder.build();
     }
 
-    private boolean checkTime(Observation observation) {
+    /**
+     * Checks that an observation has all properties needed for persisting it by means of a batch
+     * insert. Incomplete observations are reported and must be skipped.
+     *
+     * @param observation The observation.
+     * @param recordNo    The record number of the observation.
+     *
+     * @return {@code true} if the observation is complete, {@code false} otherwise.
+     */
+    boolean checkObservation(Observation observation, int recordNo) {
+        final String missingProperty;
+        if (observation.getSensor() == null) {
+            missingProperty = "sensor";
+        } else if (observation instanceof Timeable && ((Timeable) observation).getTime() == null) {
+            missingProperty = "time";
+        } else if (observation instanceof ReferenceObservation &&
+                   ((ReferenceObservation) observation).getPoint() == null) {
+            missingProperty = "point";
+        } else {
+            return true;
+        }
+        final String message = MessageFormat.format("Observation {0} {1} is incomplete: missing {2}.",
+                observation.getId(),
+                recordNo,
+                missingProperty);
+        getErrorHandler().warn(new IllegalArgumentException(message), message);
+        return false;
+    }
+
+    /**
+     * Reads the observation of a record. Records, which cannot be read for other reasons than
+     * an I/O error, are reported and must be ignored.
+     *
+     * @param reader   The reader.
+     * @param recordNo The record number.
+     *
+     * @return the observation, or {@code null} if the record must be ignored.
+     *
+     * @throws IOException if the record cannot be read due to an I/O error.
+     */
+    Observation readObservation(Reader reader, int recordNo) throws IOException {
+        final Logger logger = SstLogging.getLogger();
+        try {
+            return reader.readObservation(recordNo);
+        } catch (ToolException | IOException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            logger.warning(e.getMessage());
+        } catch (Exception e) {
+            StringBuilder messageBuilder = new StringBuilder();
+            messageBuilder.append(MessageFormat.format("Ignoring observation for record number {0}: {1}.\n",
+                    recordNo, e.getMessage()));
+            for (StackTraceElement stackTraceElement : e.getStackTrace()) {
+                messageBuilder.append(stackTraceElement.toString());
+                messageBuilder.append('\n');
+            }
+            logger.warning(messageBuilder.toString());
+        }
+        return null;
+    }
+
+    ErrorHandler getErrorHandler() {
+        return tool.getErrorHandler();
+    }
+
+    boolean checkTime(Observation observation) {
         if (observation instanceof Timeable) {
             final Date time = ((Timeable) observation).getTime();
             final double timeRadius;
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.ingestion;
+
+/**
+ * An input file to be ingested.
+ */
+final class IngestionJob {
+
+    private final String path;
+    private final String readerSpec;
+    private final String sensorName;
+    private final String observationType;
+    private final long pattern;
+
+    private volatile boolean cancelled;
+
+    IngestionJob(String path, String readerSpec, String sensorName, String observationType, long pattern) {
+        this.path = path;
+        this.readerSpec = readerSpec;
+        this.sensorName = sensorName;
+        this.observationType = observationType;
+        this.pattern = pattern;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getReaderSpec() {
+        return readerSpec;
+    }
+
+    String getSensorName() {
+        return sensorName;
+    }
+
+    String getObservationType() {
+        return observationType;
+    }
+
+    long getPattern() {
+        return pattern;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+    }
+}
@@ -112,7 +112,7 @@ public class IngestionTool extends BasicTool {
         logger.info(MessageFormat.format("Ingesting file ''{0}''.", path));
         final PersistenceManager persistenceManager = getPersistenceManager();
 
-        try (Reader reader = getReader(readerSpec, sensorName)) {
+        try (Reader reader = getReader(readerSpec, sensorName, getConfig())) {
             // open database
             persistenceManager.transaction();
 
@@ -143,10 +143,10 @@ public class IngestionTool extends BasicTool {
         }
     }
 
-    private Reader getReader(final String readerSpec, final String sensor) {
+    static Reader getReader(final String readerSpec, final String sensor, final Configuration configuration) {
         final Reader reader;
         try {
-            reader = ReaderFactory.createReader(readerSpec, sensor);
+            reader = ReaderFactory.createReader(readerSpec, sensor, configuration);
         } catch (Exception e) {
             final String message = MessageFormat.format("Cannot create reader for sensor ''{0}''.", sensor);
             throw new ToolException(message, e, ToolException.TOOL_CONFIGURATION_ERROR);
@@ -156,7 +156,8 @@ public class IngestionTool extends BasicTool {
 
     /**
      * Ingests all input files and creates observation entries in the database
-     * for all records contained in input file.
+     * for all records contained in input file. When more than one ingestion
+     * thread is configured, the input files are read concurrently.
      */
     private void ingest() {
         ingester = new Ingester(this);
@@ -164,6 +165,8 @@ public class IngestionTool extends BasicTool {
         final String archiveRootPath = config.getStringValue(Configuration.KEY_MMS_ARCHIVE_ROOT);
         final File archiveRoot = new File(archiveRootPath);
 
+        final List<IngestionJob> jobs = new ArrayList<>();
+        final Set<String> jobPaths = new HashSet<>();
         int directoryCount = 0;
         for (int i = 0; i < 100; i++) {
             final String inputDirKey = String.format("mms.source.%d.inputDirectory", i);
@@ -204,12 +207,22 @@ public class IngestionTool extends BasicTool {
                     path = inputFile.getPath();
                 }
                 final DataFile datafile = getStorage().getDatafile(path);
-                if (datafile == null) {
-                    ingest(path, archiveRoot, readerSpec, sensor, observationType, pattern);
+                if (datafile == null && jobPaths.add(path)) {
+                    jobs.add(new IngestionJob(path, readerSpec, sensor, observationType, pattern));
                 }
                 directoryCount++;
             }
         }
+        final int threadCount = config.getIntValue(Configuration.KEY_MMS_INGESTION_THREADS, 1);
+        if (threadCount > 1 && jobs.size() > 1) {
+            new ConcurrentIngester(getPersistenceManager(), getStorage(), getErrorHandler(), ingester, config,
+                                   archiveRoot, threadCount).ingest(jobs);
+        } else {
+            for (final IngestionJob job : jobs) {
+                ingest(job.getPath(), archiveRoot, job.getReaderSpec(), job.getSensorName(), job.getObservationType(),
+                       job.getPattern());
+            }
+        }
         if (directoryCount == 0) {
             final String message = new StringBuilder("No input sets given.\n")
                     .append("Input sets are specified as configuration properties as follows:\n")
@@ -232,25 +245,12 @@ public class IngestionTool extends BasicTool {
                 logger.fine(MessageFormat.format("Reading record {0} {1}.", sensorName, recordNo));
             }
             try {
-                final Observation observation = reader.readObservation(recordNo);
-                if (ingester.persistObservation(observation, recordNo)) {
+                final Observation observation = ingester.readObservation(reader, recordNo);
+                if (observation != null && ingester.persistObservation(observation, recordNo)) {
                     recordsInTimeInterval++;
                 }
-            } catch (ToolException e) {
-                throw e;
             } catch (IOException e) {
                 throw new ToolException(e.getMessage(), e, ToolException.TOOL_IO_ERROR);
-            } catch (IllegalArgumentException e) {
-                logger.warning(e.getMessage());
-            } catch (Exception e) {
-                StringBuilder messageBuilder = new StringBuilder();
-                messageBuilder.append(MessageFormat.format("Ignoring observation for record number {0}: {1}.\n",
-                        recordNo, e.getMessage()));
-                for (StackTraceElement stackTraceElement : e.getStackTrace()) {
-                    messageBuilder.append(stackTraceElement.toString());
-                    messageBuilder.append('\n');
-                }
-                logger.warning(messageBuilder.toString());
             }
             if (recordNo % 65536 == 65535) {
                 persistenceManager.commit();
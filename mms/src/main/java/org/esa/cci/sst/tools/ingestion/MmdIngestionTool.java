@@ -215,7 +215,7 @@ public class MmdIngestionTool extends BasicTool {
 
     private void initReader(final DataFile dataFile, File archiveRoot) {
         reader = new MmdReader(dataFile.getSensor().getName());
-        final GunzipDecorator decorator = new GunzipDecorator(reader);
+        final GunzipDecorator decorator = new GunzipDecorator(reader, getConfig());
         reader.setConfiguration(getConfig());
         try {
             decorator.open(dataFile, archiveRoot);
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.mmdgeneration;
+
+import org.esa.cci.sst.tool.ToolException;
+import org.esa.cci.sst.util.ReaderCache;
+import org.esa.cci.sst.util.ReaderPool;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Extraction pipeline for writing the matchup data file with several threads.
+ * <p/>
+ * The producer (the calling thread) submits one task per batch of matchup records. A number of
+ * extraction workers execute the tasks, each worker using its own reader cache, which leases the readers
+ * from a reader pool shared by all workers. A reader is never leased to more than one worker at a time,
+ * because readers are not thread-safe. The extracted arrays are
+ * passed as blocks to a single writer thread, which writes them to the MMD in the order of their
+ * arrival. The number of bytes of extracted blocks not yet written is bounded: workers wait
+ * until the writer has caught up.
+ */
+class MmdPipeline {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final MmdWriter mmdWriter;
+    private final long maxBytesInFlight;
+    private final BlockingQueue<Task> taskQueue;
+    private final BlockingQueue<Block> blockQueue;
+    private final List<Thread> workerThreads;
+    private final List<ReaderCache> readerCaches;
+    private final Thread writerThread;
+    private final AtomicReference<Throwable> failure;
+    private final Object inFlightLock;
+
+    private long bytesInFlight;
+
+    /**
+     * A unit of work carried out by an extraction worker.
+     */
+    interface Task {
+
+        /**
+         * Runs the task.
+         *
+         * @param readerCache The reader cache owned by the executing worker.
+         * @param sink        The sink receiving the extracted arrays.
+         *
+         * @throws IOException if an I/O error occurred.
+         */
+        void run(ReaderCache readerCache, Sink sink) throws IOException;
+    }
+
+    /**
+     * Receives the arrays to be written into the matchup data file.
+     */
+    interface Sink {
+
+        void write(Variable variable, int recordNo, Array array) throws IOException, InvalidRangeException;
+    }
+
+    MmdPipeline(MmdWriter mmdWriter, int workerCount, long maxBytesInFlight, ReaderPool readerPool,
+                int readerCacheSize) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive.");
+        }
+        this.mmdWriter = mmdWriter;
+        this.maxBytesInFlight = maxBytesInFlight;
+        taskQueue = new ArrayBlockingQueue<>(4 * workerCount);
+        blockQueue = new LinkedBlockingQueue<>();
+        workerThreads = new ArrayList<>(workerCount);
+        readerCaches = new ArrayList<>(workerCount);
+        failure = new AtomicReference<>();
+        inFlightLock = new Object();
+
+        for (int i = 0; i < workerCount; i++) {
+            final ReaderCache readerCache = new ReaderCache(readerPool, readerCacheSize);
+            readerCaches.add(readerCache);
+            final Thread thread = new Thread(new Worker(readerCache), "mmd-extraction-" + i);
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+        }
+        writerThread = new Thread(new Writer(), "mmd-writer");
+        writerThread.setDaemon(true);
+    }
+
+    void start() {
+        writerThread.start();
+        for (final Thread thread : workerThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Submits a task. Blocks while all workers are busy and the task queue is full.
+     *
+     * @param task The task.
+     */
+    void submit(Task task) {
+        try {
+            while (!taskQueue.offer(task, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+            checkFailure();
+        } catch (InterruptedException e) {
+            abort(e);
+            checkFailure();
+        }
+    }
+
+    /**
+     * Waits until all submitted tasks have been carried out and all extracted blocks have been written.
+     */
+    void finish() {
+        try {
+            for (int i = 0; i < workerThreads.size(); i++) {
+                while (!taskQueue.offer(END_OF_TASKS, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                }
+            }
+            for (final Thread thread : workerThreads) {
+                thread.join();
+            }
+            blockQueue.put(Block.END_OF_BLOCKS);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            abort(e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Terminates all threads and releases the readers used by the workers.
+     */
+    void dispose() {
+        for (final Thread thread : workerThreads) {
+            thread.interrupt();
+        }
+        writerThread.interrupt();
+        try {
+            for (final Thread thread : workerThreads) {
+                thread.join();
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final ReaderCache readerCache : readerCaches) {
+            readerCache.clear();
+        }
+    }
+
+    // package access for testing only
+    long getBytesInFlight() {
+        synchronized (inFlightLock) {
+            return bytesInFlight;
+        }
+    }
+
+    private void abort(Throwable t) {
+        failure.compareAndSet(null, t);
+        for (final Thread thread : workerThreads) {
+            if (thread != Thread.currentThread()) {
+                thread.interrupt();
+            }
+        }
+        if (writerThread != Thread.currentThread()) {
+            writerThread.interrupt();
+        }
+    }
+
+    private void checkFailure() {
+        final Throwable t = failure.get();
+        if (t != null) {
+            if (t instanceof ToolException) {
+                throw (ToolException) t;
+            }
+            throw new ToolException(t.getMessage(), t, ToolException.TOOL_ERROR);
+        }
+    }
+
+    private void acquire(long bytes) throws InterruptedException {
+        synchronized (inFlightLock) {
+            // a single block larger than the limit is admitted when nothing else is in flight
+            while (bytesInFlight > 0 && bytesInFlight + bytes > maxBytesInFlight) {
+                inFlightLock.wait();
+            }
+            bytesInFlight += bytes;
+        }
+    }
+
+    private void release(long bytes) {
+        synchronized (inFlightLock) {
+            bytesInFlight -= bytes;
+            inFlightLock.notifyAll();
+        }
+    }
+
+    private static final Task END_OF_TASKS = new Task() {
+        @Override
+        public void run(ReaderCache readerCache, Sink sink) {
+        }
+    };
+
+    private static final class Block {
+
+        private static final Block END_OF_BLOCKS = new Block(null, 0, null);
+
+        private final Variable variable;
+        private final int recordNo;
+        private final Array array;
+
+        private Block(Variable variable, int recordNo, Array array) {
+            this.variable = variable;
+            this.recordNo = recordNo;
+            this.array = array;
+        }
+    }
+
+    private final class Worker implements Runnable, Sink {
+
+        private final ReaderCache readerCache;
+
+        private Worker(ReaderCache readerCache) {
+            this.readerCache = readerCache;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Task task = taskQueue.take();
+                    if (task == END_OF_TASKS) {
+                        break;
+                    }
+                    task.run(readerCache, this);
+                }
+            } catch (InterruptedException ignored) {
+                // terminated by abort or dispose
+            } catch (Throwable t) {
+                abort(t);
+            }
+        }
+
+        @Override
+        public void write(Variable variable, int recordNo, Array array) {
+            try {
+                acquire(array.getSizeBytes());
+                blockQueue.put(new Block(variable, recordNo, array));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ToolException("Extraction has been interrupted.", e, ToolException.TOOL_ERROR);
+            }
+        }
+    }
+
+    private final class Writer implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final Block block = blockQueue.take();
+                    if (block == Block.END_OF_BLOCKS) {
+                        break;
+                    }
+                    final int[] origin = new int[block.variable.getRank()];
+                    origin[0] = block.recordNo;
+                    try {
+                        mmdWriter.write(block.variable, origin, block.array);
+                    } finally {
+                        release(block.array.getSizeBytes());
+                    }
+                }
+            } catch (InterruptedException ignored) {
+                // terminated by abort or dispose
+            } catch (IOException e) {
+                abort(new ToolException(e.getMessage(), e, ToolException.TOOL_IO_ERROR));
+            } catch (Throwable t) {
+                abort(t);
+            }
+        }
+    }
+}
@@ -36,6 +36,7 @@ import org.esa.cci.sst.tools.BasicTool;
 import org.esa.cci.sst.tools.Constants;
 import org.esa.cci.sst.util.LocationTest;
 import org.esa.cci.sst.util.ReaderCache;
+import org.esa.cci.sst.util.ReaderPool;
 import org.postgis.Point;
 import ucar.ma2.Array;
 import ucar.ma2.InvalidRangeException;
@@ -59,10 +60,16 @@ import static ucar.nc2.NetcdfFileWriter.Version;
  */
 public class MmdTool extends BasicTool {
 
+    // the maximum number of matchup records extracted from the same input file in a single batch
+    private static final int MAX_BATCH_SIZE = 128;
+    // the maximum size (bytes) of the source data of a batch, which is held until the batch is written
+    private static final long MAX_BATCH_BYTES = 16L * 1024L * 1024L;
+
     private final ColumnRegistry columnRegistry;
     private Map<String, Integer> dimensionConfiguration;
     private final List<String> targetColumnNames;
 
+    private ReaderPool readerPool;
     private ReaderCache readerCache;
     private int matchupCount;
 
@@ -94,7 +101,9 @@ public class MmdTool extends BasicTool {
         dimensionConfiguration = DimensionConfigurationInitializer.initialize(dimensionNames, config);
 
         final int readerCacheSize = config.getIntValue(Configuration.KEY_MMS_MMD_READER_CACHE_SIZE, 10);
-        readerCache = new ReaderCache(readerCacheSize, config, logger);
+        final long readerPoolMemory = config.getIntValue(Configuration.KEY_MMS_MMD_READER_POOL_MEGABYTES, 0) * 1024L * 1024L;
+        readerPool = new ReaderPool(readerCacheSize, readerPoolMemory, config, logger);
+        readerCache = new ReaderCache(readerPool, readerCacheSize);
     }
 
     private void run(String[] args) {
@@ -121,18 +130,28 @@ public class MmdTool extends BasicTool {
         } catch (Throwable t) {
             getErrorHandler().terminate(new ToolException(t.getMessage(), t, ToolException.UNKNOWN_ERROR));
         } finally {
-            readerCache.clear();
+            if (readerCache != null) {
+                readerCache.clear();
+                readerPool.clear();
+                logger.info(String.format("reader pool: %d hits, %d misses, %d evictions",
+                                          readerPool.getHitCount(), readerPool.getMissCount(),
+                                          readerPool.getEvictionCount()));
+            }
             getPersistenceManager().close();
         }
     }
 
     /**
      * Writes MMD by having the input files in the outermost loop to avoid re-opening them.
+     * <p/>
+     * Consecutive matchup records with observations in the same input file are extracted in
+     * batches. When more than one thread is configured, the batches are extracted by the
+     * {@link MmdPipeline}, otherwise they are extracted and written sequentially.
      *
      * @param mmdWriter                 The MMD writer.
      * @param matchupIdToRecordIndexMap The mapping from matchup ID to MMD record index.
      */
-    void writeMmdFile(MmdWriter mmdWriter, Map<Integer, Integer> matchupIdToRecordIndexMap) {
+    void writeMmdFile(final MmdWriter mmdWriter, Map<Integer, Integer> matchupIdToRecordIndexMap) {
         final List<Variable> mmdVariables = mmdWriter.getVariables();
 
         // group variables by sensors
@@ -144,11 +163,34 @@ public class MmdTool extends BasicTool {
         final MatchupStorage matchupStorage = persistenceManager.getMatchupStorage();
         final Configuration config = getConfig();
 
-        for (String sensorName : sensorNames) {
-            final List<Matchup> matchups = getMatchupsFromDb(matchupStorage, config, sensorName);
+        final int threadCount = config.getIntValue(Configuration.KEY_MMS_MMD_THREADS, 1);
+        final MmdPipeline pipeline;
+        if (threadCount > 1) {
+            final long maxBytesInFlight = config.getIntValue(Configuration.KEY_MMS_MMD_MEGABYTES_IN_FLIGHT, 256) * 1024L * 1024L;
+            final int readerCacheSize = config.getIntValue(Configuration.KEY_MMS_MMD_READER_CACHE_SIZE, 10);
+            pipeline = new MmdPipeline(mmdWriter, threadCount, maxBytesInFlight, readerPool, readerCacheSize);
+            pipeline.start();
+        } else {
+            pipeline = null;
+        }
+        final MmdPipeline.Sink sink = new MmdPipeline.Sink() {
+            @Override
+            public void write(Variable variable, int recordNo, Array array) throws IOException, InvalidRangeException {
+                final int[] targetStart = new int[variable.getRank()];
+                targetStart[0] = recordNo;
+                mmdWriter.write(variable, targetStart, array);
+            }
+        };
 
-            for (final Matchup matchup : matchups) {
-                try {
+        try {
+            for (String sensorName : sensorNames) {
+                final List<Matchup> matchups = getMatchupsFromDb(matchupStorage, config, sensorName);
+                final List<Variable> variables = sensorMap.get(sensorName);
+
+                // consecutive matchups of the same input file are extracted in batches
+                final int maxBatchSize = getMaxBatchSize(getSourceRecordSize(variables));
+                RecordBatch batch = new RecordBatch(variables, maxBatchSize);
+                for (final Matchup matchup : matchups) {
                     final Integer recordNo = matchupIdToRecordIndexMap.get(matchup.getId());
                     if (recordNo == null) {
                         logger.warning(
@@ -156,55 +198,64 @@ public class MmdTool extends BasicTool {
                         continue;
                     }
 
-                    final int targetRecordNo = recordNo;
-
                     final ReferenceObservation referenceObservation = matchup.getRefObs();
                     final Observation observation = findObservation(sensorName, matchup, getPersistenceManager());
-                    final List<Variable> variables = sensorMap.get(sensorName);
-                    final boolean accurateCoincidence = observation != null && isAccurateCoincidence(referenceObservation, observation);
-
-                    for (final Variable variable : variables) {
-                        if (observation != null) {
-                            if (!accurateCoincidence) {
-                                continue;
-                            }
-                        }
-                        final Item targetColumn = columnRegistry.getColumn(variable.getShortName());
-                        final Item sourceColumn = columnRegistry.getSourceColumn(targetColumn);
-                        if ("Implicit".equals(sourceColumn.getName())) {
-                            final Context context = new ContextBuilder(readerCache)
-                                    .matchup(matchup)
-                                    .observation(observation)
-                                    .targetVariable(variable)
-                                    .dimensionConfiguration(dimensionConfiguration)
-                                    .configuration(getConfig())
-                                    .build();
-                            writeImplicitColumn(mmdWriter, variable, targetRecordNo, targetColumn, context);
-                        } else {
-                            if (observation != null) {
-                                writeColumn(mmdWriter, variable, targetRecordNo, targetColumn, sourceColumn,
-                                        observation,
-                                        referenceObservation);
-                            }
-                        }
+                    final RecordExtraction extraction = new RecordExtraction(matchup, referenceObservation,
+                                                                             observation, variables, recordNo);
+                    if (batch.isFull() || !batch.accepts(observation)) {
+                        execute(batch, pipeline, sink);
+                        batch = new RecordBatch(variables, maxBatchSize);
                     }
-                    persistenceManager.detach(matchup);
-                    if (observation != null) {
-                        persistenceManager.detach(observation);
-                    }
-                    if (referenceObservation != null) {
-                        persistenceManager.detach(referenceObservation);
+                    if (pipeline != null) {
+                        // the entities are detached before being handed over to the extraction workers
+                        extraction.loadEntityState();
+                        detach(persistenceManager, matchup, observation, referenceObservation);
                     }
-                } catch (IOException e) {
-                    final String message = MessageFormat.format("matchup {0}: {1}",
-                            matchup.getId(),
-                            e.getMessage());
-                    throw new ToolException(message, e, ToolException.TOOL_IO_ERROR);
+                    batch.add(extraction);
                 }
+                execute(batch, pipeline, sink);
+            }
+            if (pipeline != null) {
+                pipeline.finish();
+            }
+        } finally {
+            if (pipeline != null) {
+                pipeline.dispose();
             }
         }
     }
 
+    private void execute(RecordBatch batch, MmdPipeline pipeline, MmdPipeline.Sink sink) {
+        if (batch.size() == 0) {
+            return;
+        }
+        if (pipeline != null) {
+            pipeline.submit(batch);
+        } else {
+            try {
+                batch.run(readerCache, sink);
+            } catch (IOException e) {
+                throw new ToolException(e.getMessage(), e, ToolException.TOOL_IO_ERROR);
+            }
+            final PersistenceManager persistenceManager = getPersistenceManager();
+            for (final RecordExtraction extraction : batch.extractions) {
+                detach(persistenceManager, extraction.matchup, extraction.observation,
+                       extraction.referenceObservation);
+            }
+        }
+    }
+
+    private static void detach(PersistenceManager persistenceManager, Matchup matchup, Observation observation,
+                               ReferenceObservation referenceObservation) {
+        persistenceManager.detach(matchup);
+        if (observation != null) {
+            persistenceManager.detach(observation);
+        }
+        if (referenceObservation != null) {
+            persistenceManager.detach(referenceObservation);
+        }
+    }
+
     private List<Matchup> getMatchupsFromDb(MatchupStorage matchupStorage, Configuration config, String sensorName) {
         logger.info(String.format("going to retrieve matchups for %s", sensorName));
 
@@ -256,7 +307,8 @@ public class MmdTool extends BasicTool {
         registerTargetColumns(config);
     }
 
-    private boolean isAccurateCoincidence(ReferenceObservation refObs, Observation observation) throws IOException {
+    private boolean isAccurateCoincidence(ReferenceObservation refObs, Observation observation,
+                                          ReaderCache readerCache) throws IOException {
         final Reader observationReader = readerCache.getReader(observation.getDatafile());
         final GeoCoding geoCoding;
         try {
@@ -285,16 +337,14 @@ public class MmdTool extends BasicTool {
         return true;
     }
 
-    private void writeImplicitColumn(MmdWriter mmdWriter, Variable variable, int targetRecordNo, Item targetColumn,
+    private void writeImplicitColumn(MmdPipeline.Sink sink, Variable variable, int targetRecordNo, Item targetColumn,
                                      Context context) {
         try {
             final Converter converter = columnRegistry.getConverter(targetColumn);
             converter.setContext(context);
             final Array targetArray = converter.apply(null);
             if (targetArray != null) {
-                final int[] targetStart = new int[variable.getRank()];
-                targetStart[0] = targetRecordNo;
-                mmdWriter.write(variable, targetStart, targetArray);
+                sink.write(variable, targetRecordNo, targetArray);
             }
         } catch (IOException e) {
             final String message = MessageFormat.format("matchup {0}: {1}", context.getMatchup().getId(), e.getMessage());
@@ -305,22 +355,128 @@ public class MmdTool extends BasicTool {
         }
     }
 
-    private void writeColumn(MmdWriter mmdWriter, Variable variable, int i, Item targetColumn, Item sourceColumn,
-                             Observation observation, ReferenceObservation refObs) {
+    private ExtractDefinition createExtractDefinition(Variable variable, Item targetColumn, Observation observation,
+                                                      ReferenceObservation refObs) {
+        final ExtractDefinitionBuilder builder = new ExtractDefinitionBuilder()
+                .referenceObservation(refObs)
+                .recordNo(observation.getRecordNo())
+                .shape(variable.getShape())
+                .fillValue(targetColumn.getFillValue());
+        if (observation instanceof InsituObservation) {
+            final int halfExtractDuration = getConfig().getIntValue(Configuration.KEY_MMS_SAMPLING_EXTRACTION_TIME);
+            builder.halfExtractDuration(halfExtractDuration);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the approximate size (bytes) of the source data read in batches for a single matchup record.
+     */
+    private long getSourceRecordSize(List<Variable> variables) {
+        long size = 0;
+        for (final Variable variable : variables) {
+            final Item targetColumn = columnRegistry.getColumn(variable.getShortName());
+            final Item sourceColumn = columnRegistry.getSourceColumn(targetColumn);
+            if (!"Implicit".equals(sourceColumn.getName())) {
+                size += getRecordSize(variable.getShape(), variable.getElementSize());
+            }
+        }
+        return size;
+    }
+
+    // package access for testing only
+    static long getRecordSize(int[] shape, int elementSize) {
+        long size = elementSize;
+        // the first dimension is the matchup dimension
+        for (int i = 1; i < shape.length; i++) {
+            size *= shape[i];
+        }
+        return size;
+    }
+
+    // package access for testing only
+    static int getMaxBatchSize(long recordSize) {
+        if (recordSize <= 0) {
+            return MAX_BATCH_SIZE;
+        }
+        return (int) Math.max(1, Math.min(MAX_BATCH_SIZE, MAX_BATCH_BYTES / recordSize));
+    }
+
+    /**
+     * Reads the source data of the given variables for a batch of matchup records with observations
+     * in the same input file. All variables of equal shape and fill value are read for all records
+     * at once, so each sub-scene is located only once, and the reader can merge neighbouring
+     * sub-scenes. When a batch cannot be read, its variables are omitted from the maps returned
+     * and are read one by one later.
+     */
+    private List<Map<Variable, Array>> readSourceArrays(List<Variable> variables, List<RecordExtraction> extractions,
+                                                        ReaderCache readerCache) {
+        final Map<String, List<Variable>> batches = new LinkedHashMap<>();
+        for (final Variable variable : variables) {
+            final Item targetColumn = columnRegistry.getColumn(variable.getShortName());
+            final Item sourceColumn = columnRegistry.getSourceColumn(targetColumn);
+            if ("Implicit".equals(sourceColumn.getName())) {
+                continue;
+            }
+            final String key = Arrays.toString(variable.getShape()) + " " + targetColumn.getFillValue();
+            if (!batches.containsKey(key)) {
+                batches.put(key, new ArrayList<Variable>());
+            }
+            batches.get(key).add(variable);
+        }
+
+        final List<Map<Variable, Array>> sourceArrays = new ArrayList<>(extractions.size());
+        for (int j = 0; j < extractions.size(); j++) {
+            sourceArrays.add(new IdentityHashMap<Variable, Array>());
+        }
+        if (extractions.isEmpty()) {
+            return sourceArrays;
+        }
+        for (final List<Variable> batch : batches.values()) {
+            final String[] roles = new String[batch.size()];
+            for (int i = 0; i < roles.length; i++) {
+                final Item targetColumn = columnRegistry.getColumn(batch.get(i).getShortName());
+                roles[i] = columnRegistry.getSourceColumn(targetColumn).getRole();
+            }
+            final Variable variable = batch.get(0);
+            final Item targetColumn = columnRegistry.getColumn(variable.getShortName());
+            final ExtractDefinition[] extractDefinitions = new ExtractDefinition[extractions.size()];
+            for (int j = 0; j < extractDefinitions.length; j++) {
+                final RecordExtraction extraction = extractions.get(j);
+                extractDefinitions[j] = createExtractDefinition(variable, targetColumn, extraction.observation,
+                                                                extraction.referenceObservation);
+            }
+            final Observation observation = extractions.get(0).observation;
+            try {
+                final Reader reader = readerCache.getReader(observation.getDatafile());
+                final Array[][] arrays = reader.read(roles, extractDefinitions);
+                for (int i = 0; i < roles.length; i++) {
+                    for (int j = 0; j < extractDefinitions.length; j++) {
+                        sourceArrays.get(j).put(batch.get(i), arrays[i][j]);
+                    }
+                }
+            } catch (IOException e) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(MessageFormat.format("datafile {0}: {1}", observation.getDatafile().getPath(),
+                                                     e.getMessage()));
+                }
+            }
+        }
+        return sourceArrays;
+    }
+
+    private void writeColumn(MmdPipeline.Sink sink, Variable variable, int i, Item targetColumn, Item sourceColumn,
+                             Observation observation, ReferenceObservation refObs, ReaderCache readerCache,
+                             Map<Variable, Array> sourceArrays) {
         try {
             final Reader reader = readerCache.getReader(observation.getDatafile());
             final String role = sourceColumn.getRole();
-            final ExtractDefinitionBuilder builder = new ExtractDefinitionBuilder()
-                    .referenceObservation(refObs)
-                    .recordNo(observation.getRecordNo())
-                    .shape(variable.getShape())
-                    .fillValue(targetColumn.getFillValue());
-            if (observation instanceof InsituObservation) {
-                final int halfExtractDuration = getConfig().getIntValue(Configuration.KEY_MMS_SAMPLING_EXTRACTION_TIME);
-                builder.halfExtractDuration(halfExtractDuration);
+            final Array sourceArray;
+            if (sourceArrays.containsKey(variable)) {
+                sourceArray = sourceArrays.get(variable);
+            } else {
+                sourceArray = reader.read(role, createExtractDefinition(variable, targetColumn, observation, refObs));
             }
-            final ExtractDefinition extractDefinition = builder.build();
-            final Array sourceArray = reader.read(role, extractDefinition);
             if (sourceArray != null) {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine(MessageFormat.format("source column: {0}, {1}", sourceColumn.getName(), sourceColumn.getRole()));
@@ -333,9 +489,7 @@ public class MmdTool extends BasicTool {
                 final Converter converter = columnRegistry.getConverter(targetColumn, sourceColumn);
                 final Array targetArray = converter.apply(sourceArray);
 
-                final int[] targetStart = new int[variable.getRank()];
-                targetStart[0] = i;
-                mmdWriter.write(variable, targetStart, targetArray);
+                sink.write(variable, i, targetArray);
             }
         } catch (IOException e) {
             final String message = MessageFormat.format("observation {0}: {1}", observation.getId(), e.getMessage());
@@ -346,6 +500,150 @@ public class MmdTool extends BasicTool {
         }
     }
 
+    /**
+     * Extracts and writes the variables of a single sensor for a batch of matchup records, where the
+     * observations of all records are contained in the same input file.
+     */
+    private final class RecordBatch implements MmdPipeline.Task {
+
+        private final List<Variable> variables;
+        private final List<RecordExtraction> extractions;
+        private final int maxSize;
+
+        private RecordBatch(List<Variable> variables, int maxSize) {
+            this.variables = variables;
+            this.maxSize = maxSize;
+            extractions = new ArrayList<>(maxSize);
+        }
+
+        private int size() {
+            return extractions.size();
+        }
+
+        private boolean isFull() {
+            return extractions.size() >= maxSize;
+        }
+
+        private boolean accepts(Observation observation) {
+            if (extractions.isEmpty()) {
+                return true;
+            }
+            final Observation first = extractions.get(0).observation;
+            if (first == null || observation == null) {
+                return first == observation;
+            }
+            return first.getDatafile().getId() == observation.getDatafile().getId();
+        }
+
+        private void add(RecordExtraction extraction) {
+            extractions.add(extraction);
+        }
+
+        @Override
+        public void run(ReaderCache readerCache, MmdPipeline.Sink sink) throws IOException {
+            final boolean[] accurateCoincidences = new boolean[extractions.size()];
+            final List<RecordExtraction> accurateExtractions = new ArrayList<>(extractions.size());
+            for (int j = 0; j < extractions.size(); j++) {
+                final RecordExtraction extraction = extractions.get(j);
+                try {
+                    accurateCoincidences[j] = extraction.isAccurateCoincidence(readerCache);
+                } catch (IOException e) {
+                    throw extraction.createException(e);
+                }
+                if (accurateCoincidences[j]) {
+                    accurateExtractions.add(extraction);
+                }
+            }
+            final List<Map<Variable, Array>> sourceArrays = readSourceArrays(variables, accurateExtractions,
+                                                                             readerCache);
+            for (int j = 0, k = 0; j < extractions.size(); j++) {
+                final RecordExtraction extraction = extractions.get(j);
+                final Map<Variable, Array> recordSourceArrays;
+                if (accurateCoincidences[j]) {
+                    recordSourceArrays = sourceArrays.get(k++);
+                } else {
+                    recordSourceArrays = Collections.emptyMap();
+                }
+                try {
+                    extraction.run(readerCache, sink, accurateCoincidences[j], recordSourceArrays);
+                } catch (IOException e) {
+                    throw extraction.createException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Extracts and writes the variables of a single sensor for a single matchup record.
+     */
+    private final class RecordExtraction {
+
+        private final Matchup matchup;
+        private final ReferenceObservation referenceObservation;
+        private final Observation observation;
+        private final List<Variable> variables;
+        private final int targetRecordNo;
+
+        private RecordExtraction(Matchup matchup, ReferenceObservation referenceObservation, Observation observation,
+                                 List<Variable> variables, int targetRecordNo) {
+            this.matchup = matchup;
+            this.referenceObservation = referenceObservation;
+            this.observation = observation;
+            this.variables = variables;
+            this.targetRecordNo = targetRecordNo;
+        }
+
+        /**
+         * Loads the (lazy) entity state accessed during extraction, so that the
+         * entities can be detached and used from another thread.
+         */
+        private void loadEntityState() {
+            referenceObservation.getPoint();
+            referenceObservation.getDatafile();
+            if (observation != null) {
+                observation.getDatafile();
+            }
+        }
+
+        private boolean isAccurateCoincidence(ReaderCache readerCache) throws IOException {
+            return observation != null && MmdTool.this.isAccurateCoincidence(referenceObservation, observation,
+                                                                             readerCache);
+        }
+
+        private IOException createException(IOException e) {
+            final String message = MessageFormat.format("matchup {0}: {1}", matchup.getId(), e.getMessage());
+            return new IOException(message, e);
+        }
+
+        private void run(ReaderCache readerCache, MmdPipeline.Sink sink, boolean accurateCoincidence,
+                         Map<Variable, Array> sourceArrays) throws IOException {
+            for (final Variable variable : variables) {
+                if (observation != null) {
+                    if (!accurateCoincidence) {
+                        continue;
+                    }
+                }
+                final Item targetColumn = columnRegistry.getColumn(variable.getShortName());
+                final Item sourceColumn = columnRegistry.getSourceColumn(targetColumn);
+                if ("Implicit".equals(sourceColumn.getName())) {
+                    final Context context = new ContextBuilder(readerCache)
+                            .matchup(matchup)
+                            .observation(observation)
+                            .targetVariable(variable)
+                            .dimensionConfiguration(dimensionConfiguration)
+                            .configuration(getConfig())
+                            .build();
+                    writeImplicitColumn(sink, variable, targetRecordNo, targetColumn, context);
+                } else {
+                    if (observation != null) {
+                        writeColumn(sink, variable, targetRecordNo, targetColumn, sourceColumn, observation,
+                                    referenceObservation, readerCache, sourceArrays);
+                    }
+                }
+            }
+        }
+    }
+
     static TreeSet<String> getDimensionNames(List<String> targetColumnNames, ColumnRegistry columnRegistry) {
         final TreeSet<String> dimensionNames = new TreeSet<>();
         for (final String name : targetColumnNames) {
@@ -368,7 +666,9 @@ public class MmdTool extends BasicTool {
     private MmdWriter createMmdWriter(NetcdfFileWriter fileWriter) throws IOException {
         final List<Item> variableList = extractVariableList(targetColumnNames, columnRegistry);
 
-        return new MmdWriter(fileWriter, matchupCount, dimensionConfiguration, variableList);
+        final MmdWriter mmdWriter = new MmdWriter(fileWriter, matchupCount, dimensionConfiguration, variableList);
+        mmdWriter.setBufferSize(getConfig().getIntValue(Configuration.KEY_MMS_MMD_WRITE_BUFFER_SIZE, 0));
+        return mmdWriter;
     }
 
 
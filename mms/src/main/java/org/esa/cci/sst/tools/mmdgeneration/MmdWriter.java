@@ -13,17 +13,34 @@ import ucar.nc2.Variable;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Writes the matchup data file.
+ * <p/>
+ * In buffered mode, arrays comprising a complete record of a variable are not written
+ * immediately. They are gathered per variable until the number of buffered records
+ * reaches the buffer size, and then written as hyperslabs spanning runs of contiguous
+ * records. Records which have not been written are left at the fill value, as in
+ * unbuffered mode.
+ */
 class MmdWriter implements Closeable {
 
     private final NetcdfFileWriter fileWriter;
+    private final Map<Variable, TreeMap<Integer, Array>> recordBuffers;
+
+    private int bufferSize;
 
     MmdWriter(NetcdfFileWriter fileWriter, int matchupCount, Map<String, Integer> dimensions, List<Item> variables) throws IOException {
         this.fileWriter = fileWriter;
+        this.recordBuffers = new HashMap<>();
         this.fileWriter.setLargeFile(true);
         this.fileWriter.setFill(true);
 
@@ -36,7 +53,25 @@ class MmdWriter implements Closeable {
 
     @Override
     public void close() throws IOException {
-        fileWriter.close();
+        try {
+            flush();
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        } finally {
+            fileWriter.close();
+        }
+    }
+
+    /**
+     * Sets the number of records buffered per variable. A value of zero disables buffering.
+     *
+     * @param bufferSize The number of records.
+     */
+    void setBufferSize(int bufferSize) {
+        if (bufferSize < 0) {
+            throw new IllegalArgumentException("Buffer size must not be negative.");
+        }
+        this.bufferSize = bufferSize;
     }
 
     List<Variable> getVariables() {
@@ -45,7 +80,93 @@ class MmdWriter implements Closeable {
     }
 
     void write(Variable variable, int[] origin, Array array) throws IOException, InvalidRangeException {
-        fileWriter.write(variable, origin, array);
+        if (bufferSize > 0 && isCompleteRecord(variable, origin, array)) {
+            TreeMap<Integer, Array> records = recordBuffers.get(variable);
+            if (records == null) {
+                records = new TreeMap<>();
+                recordBuffers.put(variable, records);
+            } else if (!records.isEmpty() && records.firstEntry().getValue().getElementType() != array.getElementType()) {
+                flush(variable);
+            }
+            records.put(origin[0], array);
+            if (records.size() >= bufferSize) {
+                flush(variable);
+            }
+        } else {
+            flush(variable);
+            fileWriter.write(variable, origin, array);
+        }
+    }
+
+    /**
+     * Writes all buffered records.
+     *
+     * @throws IOException           if an I/O error occurred.
+     * @throws InvalidRangeException if a record does not fit into its variable.
+     */
+    void flush() throws IOException, InvalidRangeException {
+        for (final Variable variable : new ArrayList<>(recordBuffers.keySet())) {
+            flush(variable);
+        }
+    }
+
+    private void flush(Variable variable) throws IOException, InvalidRangeException {
+        final TreeMap<Integer, Array> records = recordBuffers.get(variable);
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        final List<Array> run = new ArrayList<>();
+        int runStart = -1;
+        for (final Map.Entry<Integer, Array> entry : records.entrySet()) {
+            if (!run.isEmpty() && entry.getKey() != runStart + run.size()) {
+                writeRun(variable, runStart, run);
+                run.clear();
+            }
+            if (run.isEmpty()) {
+                runStart = entry.getKey();
+            }
+            run.add(entry.getValue());
+        }
+        writeRun(variable, runStart, run);
+        records.clear();
+    }
+
+    private void writeRun(Variable variable, int runStart, List<Array> run) throws IOException,
+                                                                                    InvalidRangeException {
+        final int[] origin = new int[variable.getRank()];
+        origin[0] = runStart;
+        if (run.size() == 1) {
+            fileWriter.write(variable, origin, run.get(0));
+            return;
+        }
+        final Array first = run.get(0);
+        final int[] shape = first.getShape();
+        shape[0] = run.size();
+        final Array slab = Array.factory(first.getElementType(), shape);
+        final int recordSize = (int) first.getSize();
+        for (int i = 0; i < run.size(); i++) {
+            Array.arraycopy(run.get(i), 0, slab, i * recordSize, recordSize);
+        }
+        fileWriter.write(variable, origin, slab);
+    }
+
+    // package access for testing only
+    static boolean isCompleteRecord(Variable variable, int[] origin, Array array) {
+        final int rank = variable.getRank();
+        if (rank == 0 || origin.length != rank || array.getRank() != rank) {
+            return false;
+        }
+        final int[] variableShape = variable.getShape();
+        final int[] arrayShape = array.getShape();
+        if (arrayShape[0] != 1) {
+            return false;
+        }
+        for (int i = 1; i < rank; i++) {
+            if (origin[i] != 0) {
+                return false;
+            }
+        }
+        return Arrays.equals(Arrays.copyOfRange(variableShape, 1, rank), Arrays.copyOfRange(arrayShape, 1, rank));
     }
 
     private void addVariables(List<Item> variableList) {
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.nwp;
+
+/**
+ * Samples fields given on a latitude-longitude grid at a fixed set of geo-locations
+ * by means of bilinear interpolation.
+ * <p/>
+ * The grid axes must be monotonic, but need not be equidistant (e.g. Gaussian latitudes).
+ * Longitudes covering the full circle are treated as cyclic. Locations beyond the
+ * outermost latitudes are assigned the values of the outermost latitude. The
+ * interpolation indexes and weights are computed once, so that sampling a field
+ * just takes a single pass over the geo-locations. When some of the four grid
+ * points surrounding a geo-location are missing, the weights of the remaining
+ * grid points are renormalized.
+ */
+class BilinearSampler {
+
+    private final int nx;
+    private final int[] i0;
+    private final int[] i1;
+    private final int[] j0;
+    private final int[] j1;
+    private final float[] wx;
+    private final float[] wy;
+
+    /**
+     * Creates a new sampler.
+     *
+     * @param latAxis The latitudes of the grid rows.
+     * @param lonAxis The longitudes of the grid columns.
+     * @param lats    The latitudes of the geo-locations.
+     * @param lons    The longitudes of the geo-locations.
+     */
+    BilinearSampler(double[] latAxis, double[] lonAxis, float[] lats, float[] lons) {
+        final int pointCount = lats.length;
+        nx = lonAxis.length;
+        i0 = new int[pointCount];
+        i1 = new int[pointCount];
+        j0 = new int[pointCount];
+        j1 = new int[pointCount];
+        wx = new float[pointCount];
+        wy = new float[pointCount];
+
+        final boolean cyclic = isCyclic(lonAxis);
+        final double[] index = new double[2];
+        for (int p = 0; p < pointCount; p++) {
+            final float lat = lats[p];
+            final float lon = lons[p];
+            if (!(lat >= -90.0f && lat <= 90.0f && lon >= -180.0f && lon <= 360.0f)) {
+                i0[p] = -1;
+                continue;
+            }
+            locate(latAxis, lat, false, index);
+            j0[p] = (int) index[0];
+            j1[p] = Math.min(j0[p] + 1, latAxis.length - 1);
+            wy[p] = (float) index[1];
+
+            locate(lonAxis, lon, cyclic, index);
+            i0[p] = (int) index[0];
+            i1[p] = cyclic ? (i0[p] + 1) % nx : Math.min(i0[p] + 1, nx - 1);
+            wx[p] = (float) index[1];
+        }
+    }
+
+    /**
+     * Samples a field.
+     *
+     * @param field     The field, missing values are NaN.
+     * @param fillValue The value assigned to geo-locations where the field cannot be interpolated.
+     *
+     * @return the values at the geo-locations.
+     */
+    float[] sample(float[] field, float fillValue) {
+        final float[] values = new float[i0.length];
+        for (int p = 0; p < values.length; p++) {
+            if (i0[p] < 0) {
+                values[p] = fillValue;
+                continue;
+            }
+            final int row0 = j0[p] * nx;
+            final int row1 = j1[p] * nx;
+            final float fx = wx[p];
+            final float fy = wy[p];
+            final float v00 = field[row0 + i0[p]];
+            final float v01 = field[row0 + i1[p]];
+            final float v10 = field[row1 + i0[p]];
+            final float v11 = field[row1 + i1[p]];
+            final float w00 = (1.0f - fx) * (1.0f - fy);
+            final float w01 = fx * (1.0f - fy);
+            final float w10 = (1.0f - fx) * fy;
+            final float w11 = fx * fy;
+
+            float sum = 0.0f;
+            float weight = 0.0f;
+            if (!Float.isNaN(v00)) {
+                sum += w00 * v00;
+                weight += w00;
+            }
+            if (!Float.isNaN(v01)) {
+                sum += w01 * v01;
+                weight += w01;
+            }
+            if (!Float.isNaN(v10)) {
+                sum += w10 * v10;
+                weight += w10;
+            }
+            if (!Float.isNaN(v11)) {
+                sum += w11 * v11;
+                weight += w11;
+            }
+            values[p] = weight > 0.0f ? sum / weight : fillValue;
+        }
+        return values;
+    }
+
+    /**
+     * Returns {@code true} if an ascending longitude axis covers the full circle.
+     *
+     * @param lonAxis The longitude axis.
+     *
+     * @return {@code true} if the axis is cyclic.
+     */
+    // package access for testing only
+    static boolean isCyclic(double[] lonAxis) {
+        final int n = lonAxis.length;
+        if (n < 2 || lonAxis[n - 1] <= lonAxis[0]) {
+            return false;
+        }
+        final double step = (lonAxis[n - 1] - lonAxis[0]) / (n - 1);
+        return Math.abs(lonAxis[n - 1] - lonAxis[0] + step - 360.0) < 0.5 * step;
+    }
+
+    /**
+     * Locates a value on a monotonic axis.
+     *
+     * @param axis   The axis.
+     * @param value  The value.
+     * @param cyclic {@code true} if the axis is an ascending cyclic longitude axis.
+     * @param index  On return, the lower index and the fractional distance to the next index.
+     */
+    // package access for testing only
+    static void locate(double[] axis, double value, boolean cyclic, double[] index) {
+        final int n = axis.length;
+        if (n == 1) {
+            index[0] = 0;
+            index[1] = 0.0;
+            return;
+        }
+        final boolean ascending = axis[n - 1] > axis[0];
+        if (cyclic) {
+            final double first = axis[0];
+            final double last = axis[n - 1];
+            while (value < first) {
+                value += 360.0;
+            }
+            while (value >= first + 360.0) {
+                value -= 360.0;
+            }
+            if (value > last) {
+                // between the last and the first column
+                index[0] = n - 1;
+                index[1] = (value - last) / (first + 360.0 - last);
+                return;
+            }
+        }
+        if (ascending ? value <= axis[0] : value >= axis[0]) {
+            index[0] = 0;
+            index[1] = 0.0;
+            return;
+        }
+        if (ascending ? value >= axis[n - 1] : value <= axis[n - 1]) {
+            index[0] = n - 2;
+            index[1] = 1.0;
+            return;
+        }
+        int lo = 0;
+        int hi = n - 1;
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (ascending ? axis[mid] <= value : axis[mid] >= value) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        index[0] = lo;
+        index[1] = (value - axis[lo]) / (axis[lo + 1] - axis[lo]);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.nwp;
+
+import org.esa.cci.sst.util.TimeUtil;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+import ucar.nc2.units.DateUnit;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Extracts NWP time series at a set of geo-locations from NWP files given on a
+ * regular or Gaussian latitude-longitude grid.
+ * <p/>
+ * The NWP fields are interpolated bilinearly in space, time steps are merged in
+ * chronological order. The result is written to a netCDF file with the same layout
+ * as the file resulting from the CDO operators {@code mergetime}, {@code remapbil}
+ * and {@code setreftime,1978-01-01,00:00:00,seconds}, i.e. all variables have the
+ * dimensions {@code (time, lev, y, x)}, where {@code lev} is of length one. Since the
+ * NWP fields are read once per time step and are only evaluated at the geo-locations,
+ * no intermediate files are needed.
+ * <p/>
+ * The time axis is defined by the first source. Variables of further sources are
+ * written at the time steps matching those of the first source.
+ */
+class NwpExtractor {
+
+    static final float FILL_VALUE = 2.0E20F;
+
+    private static final String TIME_UNITS = "seconds since 1978-01-01 00:00:00";
+
+    private final List<Source> sources;
+
+    NwpExtractor() {
+        sources = new ArrayList<>();
+    }
+
+    /**
+     * Adds a source of NWP fields.
+     *
+     * @param files         The NWP files. Each file may contain several time steps.
+     * @param variableNames The names of the variables to be extracted.
+     *
+     * @return this extractor.
+     */
+    NwpExtractor addSource(List<File> files, String... variableNames) {
+        sources.add(new Source(files, variableNames));
+        return this;
+    }
+
+    /**
+     * Extracts the NWP time series for a set of geo-locations and writes them to a netCDF file.
+     *
+     * @param lats       The latitudes of the geo-locations.
+     * @param lons       The longitudes of the geo-locations.
+     * @param gx         The number of geo-locations in x direction. The number of geo-locations
+     *                   in y direction is the total number of geo-locations divided by this number.
+     * @param targetPath The path of the target file.
+     *
+     * @throws IOException if an I/O error occurred.
+     */
+    void extract(float[] lats, float[] lons, int gx, String targetPath) throws IOException {
+        if (sources.isEmpty()) {
+            throw new IllegalStateException("No NWP source has been added.");
+        }
+        if (lats.length != lons.length || lats.length % gx != 0) {
+            throw new IllegalArgumentException("Inconsistent number of geo-locations.");
+        }
+        for (final Source source : sources) {
+            source.scanTimeSteps();
+        }
+        final List<TimeStep> timeAxis = sources.get(0).timeSteps;
+        final Map<Integer, Integer> timeIndexes = new HashMap<>();
+        final int[] times = new int[timeAxis.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = timeAxis.get(i).time;
+            timeIndexes.put(times[i], i);
+        }
+
+        final File targetFile = new File(targetPath);
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException(MessageFormat.format("Unable to delete file ''{0}''.", targetPath));
+        }
+        final NetcdfFileWriter writer = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3, targetPath);
+        boolean closed = false;
+        try {
+            writer.setLargeFile(true);
+            writer.addDimension(null, "time", times.length);
+            writer.addDimension(null, "lev", 1);
+            writer.addDimension(null, "y", lats.length / gx);
+            writer.addDimension(null, "x", gx);
+            final Variable timeVariable = writer.addVariable(null, "time", DataType.INT, "time");
+            timeVariable.addAttribute(new Attribute("units", TIME_UNITS));
+            timeVariable.addAttribute(new Attribute("calendar", "standard"));
+            for (final Source source : sources) {
+                source.addVariables(writer);
+            }
+            writer.create();
+            writer.write(timeVariable, Array.factory(times));
+
+            final int[] targetShape = {1, 1, lats.length / gx, gx};
+            for (final Source source : sources) {
+                source.writeVariables(writer, lats, lons, timeIndexes, targetShape);
+            }
+            // closing flushes the target file, failures must not go unnoticed
+            closed = true;
+            writer.close();
+        } catch (InvalidRangeException e) {
+            throw new IOException(e);
+        } finally {
+            if (!closed) {
+                try {
+                    writer.close();
+                } catch (IOException ignored) {
+                    // another exception is thrown already
+                }
+            }
+        }
+    }
+
+    // package access for testing only
+    static int toSecondsSince1978(double value, String units) throws IOException {
+        try {
+            return (int) TimeUtil.toSecondsSince1978(new DateUnit(units).makeDate(value));
+        } catch (Exception e) {
+            throw new IOException(MessageFormat.format("Unable to interpret time units ''{0}''.", units), e);
+        }
+    }
+
+    private static Variable findVariable(NetcdfFile file, String... names) throws IOException {
+        try {
+            return NwpUtil.findVariable(file, names);
+        } catch (IOException e) {
+            throw new IOException(MessageFormat.format("{0} ({1})", e.getMessage(), file.getLocation()), e);
+        }
+    }
+
+    private static double[] readAxis(NetcdfFile file, String... names) throws IOException {
+        final Array values = findVariable(file, names).read();
+        final double[] axis = new double[(int) values.getSize()];
+        for (int i = 0; i < axis.length; i++) {
+            axis[i] = values.getDouble(i);
+        }
+        return axis;
+    }
+
+    private static float[] readField(Variable variable, int timeIndex) throws IOException, InvalidRangeException {
+        final int rank = variable.getRank();
+        if (rank != 3 && rank != 4) {
+            throw new IOException(MessageFormat.format("Expected variable ''{0}'' to have three or four dimensions.",
+                                                       variable.getShortName()));
+        }
+        final int[] start = new int[rank];
+        final int[] shape = variable.getShape();
+        start[0] = timeIndex;
+        shape[0] = 1;
+        if (rank == 4) {
+            shape[1] = 1;
+        }
+        final Array data = variable.read(start, shape);
+
+        final double scale = NwpUtil.getAttribute(variable, "scale_factor", 1.0f);
+        final double offset = NwpUtil.getAttribute(variable, "add_offset", 0.0f);
+        final Attribute fillAttribute = variable.findAttribute("_FillValue");
+        final Attribute missingAttribute = variable.findAttribute("missing_value");
+        final boolean hasFill = fillAttribute != null;
+        final boolean hasMissing = missingAttribute != null;
+        final double fillValue = hasFill ? fillAttribute.getNumericValue().doubleValue() : 0.0;
+        final double missingValue = hasMissing ? missingAttribute.getNumericValue().doubleValue() : 0.0;
+
+        final float[] field = new float[(int) data.getSize()];
+        for (int k = 0; k < field.length; k++) {
+            final double raw = data.getDouble(k);
+            if (hasFill && raw == fillValue || hasMissing && raw == missingValue || Double.isNaN(raw)) {
+                field[k] = Float.NaN;
+            } else {
+                field[k] = (float) (raw * scale + offset);
+            }
+        }
+        return field;
+    }
+
+    private static boolean isTargetAttribute(Attribute attribute) {
+        final String name = attribute.getShortName();
+        return !name.equals("_FillValue") && !name.equals("missing_value") && !name.equals("scale_factor") &&
+               !name.equals("add_offset") && !name.startsWith("valid_") && !name.startsWith("_");
+    }
+
+    private static final class TimeStep {
+
+        private final File file;
+        private final int index;
+        private final int time;
+
+        private TimeStep(File file, int index, int time) {
+            this.file = file;
+            this.index = index;
+            this.time = time;
+        }
+    }
+
+    private static final class Source {
+
+        private final List<File> files;
+        private final String[] variableNames;
+        private final List<TimeStep> timeSteps;
+        private final Map<String, Variable> targetVariables;
+
+        private Source(List<File> files, String[] variableNames) {
+            this.files = files;
+            this.variableNames = variableNames;
+            timeSteps = new ArrayList<>();
+            targetVariables = new HashMap<>();
+        }
+
+        private void scanTimeSteps() throws IOException {
+            if (files.isEmpty()) {
+                throw new IOException(MessageFormat.format("No NWP files found for variables {0}.",
+                                                           Arrays.toString(variableNames)));
+            }
+            timeSteps.clear();
+            for (final File file : files) {
+                final NetcdfFile netcdfFile = NetcdfFile.open(file.getPath());
+                try {
+                    final Variable timeVariable = findVariable(netcdfFile, "time", "t");
+                    final String units = timeVariable.getUnitsString();
+                    final Array values = timeVariable.read();
+                    for (int i = 0; i < values.getSize(); i++) {
+                        timeSteps.add(new TimeStep(file, i, toSecondsSince1978(values.getDouble(i), units)));
+                    }
+                } finally {
+                    netcdfFile.close();
+                }
+            }
+            // stable sort, time steps of the same file remain in order
+            Collections.sort(timeSteps, new Comparator<TimeStep>() {
+                @Override
+                public int compare(TimeStep o1, TimeStep o2) {
+                    return Integer.compare(o1.time, o2.time);
+                }
+            });
+        }
+
+        private void addVariables(NetcdfFileWriter writer) throws IOException {
+            final NetcdfFile netcdfFile = NetcdfFile.open(files.get(0).getPath());
+            try {
+                for (final String name : variableNames) {
+                    final Variable s = findVariable(netcdfFile, name);
+                    final Variable t = writer.addVariable(null, name, DataType.FLOAT, "time lev y x");
+                    for (final Attribute a : s.getAttributes()) {
+                        if (isTargetAttribute(a)) {
+                            t.addAttribute(a);
+                        }
+                    }
+                    t.addAttribute(new Attribute("_FillValue", FILL_VALUE));
+                    targetVariables.put(name, t);
+                }
+            } finally {
+                netcdfFile.close();
+            }
+        }
+
+        private void writeVariables(NetcdfFileWriter writer, float[] lats, float[] lons,
+                                    Map<Integer, Integer> timeIndexes, int[] targetShape) throws IOException,
+                                                                                                InvalidRangeException {
+            BilinearSampler sampler = null;
+            NetcdfFile netcdfFile = null;
+            boolean closed = false;
+            try {
+                for (final TimeStep timeStep : timeSteps) {
+                    final Integer targetIndex = timeIndexes.get(timeStep.time);
+                    if (targetIndex == null) {
+                        continue;
+                    }
+                    if (netcdfFile == null || !netcdfFile.getLocation().equals(timeStep.file.getPath())) {
+                        if (netcdfFile != null) {
+                            netcdfFile.close();
+                        }
+                        netcdfFile = NetcdfFile.open(timeStep.file.getPath());
+                        if (sampler == null) {
+                            final double[] latAxis = readAxis(netcdfFile, "latitude", "lat");
+                            final double[] lonAxis = readAxis(netcdfFile, "longitude", "lon");
+                            sampler = new BilinearSampler(latAxis, lonAxis, lats, lons);
+                        }
+                    }
+                    final int[] targetStart = {targetIndex, 0, 0, 0};
+                    for (final String name : variableNames) {
+                        final float[] field = readField(findVariable(netcdfFile, name), timeStep.index);
+                        final float[] values = sampler.sample(field, FILL_VALUE);
+                        writer.write(targetVariables.get(name), targetStart, Array.factory(DataType.FLOAT, targetShape, values));
+                    }
+                }
+                closed = true;
+                if (netcdfFile != null) {
+                    netcdfFile.close();
+                }
+            } finally {
+                if (netcdfFile != null && !closed) {
+                    try {
+                        netcdfFile.close();
+                    } catch (IOException ignored) {
+                        // another exception is thrown already
+                    }
+                }
+            }
+        }
+    }
+}
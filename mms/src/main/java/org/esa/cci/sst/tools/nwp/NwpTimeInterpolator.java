@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+package org.esa.cci.sst.tools.nwp;
+
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.ma2.IndexIterator;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Interpolates NWP time series to the times of the matchups.
+ * <p/>
+ * The NWP source variables have the dimensions {@code (time, lev, matchup * gy, gx)}, the
+ * target variables have the dimensions {@code (matchup, [lev,] gy, gx)}. Instead of reading
+ * two time steps per matchup and variable, the source data are read in windows of consecutive
+ * matchups, which cover all time steps needed by the matchups in the window. The values are
+ * interpolated in a single pass over the window and the result is written as a single slab.
+ * Variables are processed in parallel, where each thread reads from its own source file handle
+ * and writing is serialized.
+ */
+class NwpTimeInterpolator {
+
+    private static final long WINDOW_BYTES = 16L << 20;
+
+    private final int[] timeSteps;
+    private final double[] timeFractions;
+    private final int gy;
+    private final int gx;
+
+    /**
+     * Creates a new time interpolator.
+     *
+     * @param timeSteps     For each matchup, the index of the source time step preceding the matchup time
+     *                      or {@code -1}, if the matchup has no valid time.
+     * @param timeFractions For each matchup, the fractional distance of the matchup time to the preceding
+     *                      source time step.
+     * @param gy            The number of NWP grid points per matchup in y direction.
+     * @param gx            The number of NWP grid points per matchup in x direction.
+     */
+    NwpTimeInterpolator(int[] timeSteps, double[] timeFractions, int gy, int gx) {
+        if (timeSteps.length != timeFractions.length) {
+            throw new IllegalArgumentException("Inconsistent number of matchups.");
+        }
+        this.timeSteps = timeSteps;
+        this.timeFractions = timeFractions;
+        this.gy = gy;
+        this.gx = gx;
+    }
+
+    /**
+     * Interpolates the source variables and writes the results to the target variables.
+     *
+     * @param sourceNwp   The source NWP file.
+     * @param map         The map of target variables onto source variables.
+     * @param targetMmd   The target file.
+     * @param threadCount The number of threads.
+     *
+     * @throws IOException          if an I/O error occurred.
+     * @throws InvalidRangeException if a variable has unexpected dimensions.
+     */
+    void interpolate(final NetcdfFile sourceNwp, Map<Variable, Variable> map, final NetcdfFileWriter targetMmd,
+                     int threadCount) throws IOException, InvalidRangeException {
+        if (threadCount <= 1 || map.size() <= 1) {
+            for (final Map.Entry<Variable, Variable> entry : map.entrySet()) {
+                interpolate(entry.getValue(), entry.getKey(), targetMmd);
+            }
+            return;
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(Math.min(threadCount, map.size()));
+        try {
+            final List<Future<Void>> futures = new ArrayList<>(map.size());
+            for (final Map.Entry<Variable, Variable> entry : map.entrySet()) {
+                final String sourceName = entry.getValue().getFullNameEscaped();
+                final Variable targetVariable = entry.getKey();
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        // NetCDF files must not be read concurrently, hence each thread uses its own file handle
+                        final NetcdfFile source = NetcdfFile.open(sourceNwp.getLocation());
+                        try {
+                            final Variable sourceVariable = source.findVariable(sourceName);
+                            if (sourceVariable == null) {
+                                throw new IOException(MessageFormat.format("Missing variable ''{0}''.", sourceName));
+                            }
+                            interpolate(sourceVariable, targetVariable, targetMmd);
+                        } finally {
+                            try {
+                                source.close();
+                            } catch (IOException ignored) {
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InvalidRangeException) {
+                throw (InvalidRangeException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void interpolate(Variable sourceVariable, Variable targetVariable, NetcdfFileWriter targetMmd) throws
+                                                                                                          IOException,
+                                                                                                          InvalidRangeException {
+        final float fillValue = NwpUtil.getAttribute(sourceVariable, "_FillValue", 2.0E+20F);
+        final float validMin = NwpUtil.getAttribute(sourceVariable, "valid_min", Float.NEGATIVE_INFINITY);
+        final float validMax = NwpUtil.getAttribute(sourceVariable, "valid_max", Float.POSITIVE_INFINITY);
+
+        final int timeCount = sourceVariable.getShape(0);
+        final int gz = sourceVariable.getShape(1);
+        final int cellCount = gy * gx;
+        final int recordLength = gz * cellCount;
+        final int matchupCount = timeSteps.length;
+        final int windowSize = (int) Math.max(1, Math.min(matchupCount,
+                                                          WINDOW_BYTES / (4L * timeCount * recordLength)));
+
+        final int[] sourceStart = new int[4];
+        final int[] sourceShape = {0, gz, 0, gx};
+        final int[] targetShape = targetVariable.getShape();
+        final int[] targetStart = new int[targetShape.length];
+        final DataType targetDataType = targetVariable.getDataType();
+
+        for (int m0 = 0; m0 < matchupCount; m0 += windowSize) {
+            final int m1 = Math.min(m0 + windowSize, matchupCount);
+            int t0 = Integer.MAX_VALUE;
+            int t1 = Integer.MIN_VALUE;
+            for (int m = m0; m < m1; m++) {
+                if (timeSteps[m] >= 0) {
+                    t0 = Math.min(t0, timeSteps[m]);
+                    t1 = Math.max(t1, timeSteps[m] + 1);
+                }
+            }
+
+            final int windowLength = m1 - m0;
+            final float[] target = new float[windowLength * recordLength];
+            if (t0 > t1) {
+                Arrays.fill(target, fillValue);
+            } else {
+                sourceStart[0] = t0;
+                sourceStart[2] = m0 * gy;
+                sourceShape[0] = t1 - t0 + 1;
+                sourceShape[2] = windowLength * gy;
+                final float[] source = toFloats(sourceVariable.read(sourceStart, sourceShape));
+
+                final int levelStride = windowLength * cellCount;
+                final int timeStride = gz * levelStride;
+                for (int m = m0; m < m1; m++) {
+                    final int w = m - m0;
+                    final int targetOffset = w * recordLength;
+                    if (timeSteps[m] < 0) {
+                        Arrays.fill(target, targetOffset, targetOffset + recordLength, fillValue);
+                        continue;
+                    }
+                    final int offset1 = (timeSteps[m] - t0) * timeStride + w * cellCount;
+                    for (int z = 0; z < gz; z++) {
+                        interpolate(source, offset1 + z * levelStride, offset1 + timeStride + z * levelStride,
+                                    cellCount, timeFractions[m], fillValue, validMin, validMax,
+                                    target, targetOffset + z * cellCount);
+                    }
+                }
+            }
+
+            targetShape[0] = windowLength;
+            targetStart[0] = m0;
+            final Array targetData = toArray(target, targetDataType, targetShape);
+            synchronized (targetMmd) {
+                targetMmd.write(targetVariable, targetStart, targetData);
+            }
+        }
+    }
+
+    /**
+     * Interpolates linearly between two sequences of values. When only one of two values is
+     * valid, the valid value is taken. When none of two values is valid, the fill value is taken.
+     *
+     * @param source       The source values.
+     * @param offset1      The offset of the first sequence of source values.
+     * @param offset2      The offset of the second sequence of source values.
+     * @param length       The length of the sequences.
+     * @param f            The interpolation weight of the second sequence.
+     * @param fillValue    The fill value.
+     * @param validMin     The minimum valid value.
+     * @param validMax     The maximum valid value.
+     * @param target       The target values.
+     * @param targetOffset The offset of the target values.
+     */
+    // package access for testing only
+    static void interpolate(float[] source, int offset1, int offset2, int length, double f,
+                            float fillValue, float validMin, float validMax, float[] target, int targetOffset) {
+        for (int k = 0; k < length; k++) {
+            final float v1 = source[offset1 + k];
+            final float v2 = source[offset2 + k];
+            final boolean invalid1 = v1 == fillValue || v1 < validMin || v1 > validMax;
+            final boolean invalid2 = v2 == fillValue || v2 < validMin || v2 > validMax;
+            final float v;
+            if (invalid1 && invalid2) {
+                v = fillValue;
+            } else if (invalid1) {
+                v = v2;
+            } else if (invalid2) {
+                v = v1;
+            } else {
+                v = (float) ((1.0 - f) * v1 + f * v2);
+            }
+            target[targetOffset + k] = v;
+        }
+    }
+
+    private static float[] toFloats(Array array) {
+        if (array.getElementType() == float.class) {
+            return (float[]) array.copyTo1DJavaArray();
+        }
+        final float[] values = new float[(int) array.getSize()];
+        final IndexIterator iterator = array.getIndexIterator();
+        for (int k = 0; k < values.length; k++) {
+            values[k] = iterator.getFloatNext();
+        }
+        return values;
+    }
+
+    private static Array toArray(float[] values, DataType dataType, int[] shape) {
+        if (dataType == DataType.FLOAT) {
+            return Array.factory(DataType.FLOAT, shape, values);
+        }
+        final Array array = Array.factory(dataType, shape);
+        final IndexIterator iterator = array.getIndexIterator();
+        for (final float value : values) {
+            iterator.setDoubleNext(value);
+        }
+        return array;
+    }
+}
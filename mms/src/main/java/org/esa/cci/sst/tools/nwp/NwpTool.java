@@ -26,6 +26,7 @@ import org.esa.cci.sst.util.SensorNames;
 import ucar.ma2.Array;
 import ucar.ma2.DataType;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
 import ucar.ma2.Section;
 import ucar.nc2.*;
 
@@ -43,6 +44,8 @@ import java.util.*;
  */
 class NwpTool extends BasicTool {
 
+    // the NWP extraction for a sensor requires reading GRIB files and transforming spectral fields
+    // to the Gaussian grid, which is still done by CDO
     private static final String CDO_NWP_TEMPLATE =
             "#! /bin/sh\n" +
                     "${CDO} ${CDO_OPTS} -f nc2 mergetime ${GGAS_TIMESTEPS} ${GGAS_TIME_SERIES} && " +
@@ -55,18 +58,8 @@ class NwpTool extends BasicTool {
                     "${CDO} ${CDO_OPTS} -f nc2 -R -t ecmwf setreftime,${REFTIME} -remapbil,${GEO} -selname,TP -selhour,0,6,12,18 ${GAFS_TIME_SERIES} ${GAFS_TIME_SERIES_REMAPPED} && " +
                     "${CDO} ${CDO_OPTS} -f nc2 merge -setreftime,${REFTIME} -remapbil,${GEO} -selname,CI,ASN,SSTK,TCWV,MSL,TCC,U10,V10,T2,D2,AL,SKT ${GGAS_TIME_SERIES} ${GGAM_TIME_SERIES_REMAPPED} ${SPAM_TIME_SERIES_REMAPPED} ${GAFS_TIME_SERIES_REMAPPED} ${NWP_TIME_SERIES}\n";
 
-    private static final String CDO_MATCHUP_AN_TEMPLATE =
-            "#! /bin/sh\n" +
-                    "${CDO} ${CDO_OPTS} -f nc2 mergetime ${GGAS_TIMESTEPS} ${GGAS_TIME_SERIES} && " +
-                    "${CDO} ${CDO_OPTS} -f nc2 setreftime,${REFTIME} -remapbil,${GEO} -selname,CI,SSTK,U10,V10 ${GGAS_TIME_SERIES} ${AN_TIME_SERIES}\n";
-
-    private static final String CDO_MATCHUP_FC_TEMPLATE =
-            "#! /bin/sh\n" +
-                    "${CDO} ${CDO_OPTS} -f nc2 mergetime ${GAFS_TIMESTEPS} ${GAFS_TIME_SERIES} && " +
-                    "${CDO} ${CDO_OPTS} -f nc2 mergetime ${GGFS_TIMESTEPS} ${GGFS_TIME_SERIES} && " +
-                    // attention: chaining the operations below results in a loss of the y dimension in the result file
-                    "${CDO} ${CDO_OPTS} -f nc2 setreftime,${REFTIME} -remapbil,${GEO} -selname,SSTK,MSL,BLH,U10,V10,T2,D2 ${GGFS_TIME_SERIES} ${GGFS_TIME_SERIES_REMAPPED} && " +
-                    "${CDO} ${CDO_OPTS} -f nc2 merge -setreftime,${REFTIME} -remapbil,${GEO} -selname,SSHF,SLHF,SSRD,STRD,SSR,STR,EWSS,NSSS,E,TP ${GAFS_TIME_SERIES} ${GGFS_TIME_SERIES_REMAPPED} ${FC_TIME_SERIES}\n";
+    // the maximum size of a block of records read at once
+    private static final long BLOCK_SIZE = 16L * 1024L * 1024L;
 
     private String cdoHome;
     private String sourceMmdLocation;
@@ -77,6 +70,7 @@ class NwpTool extends BasicTool {
     private int sensorPattern;
     private boolean deleteOnExit;
     private boolean forSensor;
+    private int threadCount;
 
     NwpTool() {
         super("nwp-tool", "1.0");
@@ -113,6 +107,7 @@ class NwpTool extends BasicTool {
         sourceNwpLocation = config.getStringValue(Configuration.KEY_MMS_NWP_NWP_SOURCE);
         targetNwpLocation = config.getStringValue(Configuration.KEY_MMS_NWP_NWP_TARGET);
 
+        threadCount = config.getIntValue(Configuration.KEY_MMS_NWP_THREADS, Runtime.getRuntime().availableProcessors());
         forSensor = config.getBooleanValue(Configuration.KEY_MMS_NWP_FOR_SENSOR);
         if (forSensor) {
             sensorName = SensorNames.getStandardName(config.getStringValue(Configuration.KEY_MMS_NWP_SENSOR));
@@ -135,11 +130,11 @@ class NwpTool extends BasicTool {
 
         if (forSensor) {
             logger.info(MessageFormat.format("extracting matchups from source file: {0}", sourceMmdLocation));
-            final String sensorMmdLocation = writeSingleSensorMmdFile(sourceMmdLocation, sensorName, sensorPattern,
-                    deleteOnExit);
+            final SensorSubset sensorSubset = extractSensorSubset(sourceMmdLocation, sensorName, sensorPattern,
+                    dimensions, deleteOnExit);
             logger.info(MessageFormat.format("completed extracting matchups from source file: {0}", sourceMmdLocation));
 
-            if (sensorMmdLocation == null) {
+            if (sensorSubset == null) {
                 logger.warning(MessageFormat.format("no records with pattern {0} found in source file: {1}",
                         sensorPattern, sourceMmdLocation));
                 logger.warning(MessageFormat.format("skipping target file: {0}", targetNwpLocation));
@@ -147,9 +142,9 @@ class NwpTool extends BasicTool {
             }
 
 
-            logger.info(MessageFormat.format("extracting NWP data for source file: {0}", sensorMmdLocation));
-            writeSensorNwpFile(sensorMmdLocation, dimensions);
-            logger.info(MessageFormat.format("completed extracting NWP data for source file: {0}", sensorMmdLocation));
+            logger.info(MessageFormat.format("extracting NWP data for source file: {0}", sourceMmdLocation));
+            writeSensorNwpFile(sensorSubset);
+            logger.info(MessageFormat.format("completed extracting NWP data for source file: {0}", sourceMmdLocation));
         } else {
             final int analysisTimeStepCount = Integer.parseInt(dimensions.getProperty("matchup.nwp.an.time"));
             final int forecastTimeStepCount = Integer.parseInt(dimensions.getProperty("matchup.nwp.fc.time"));
@@ -175,30 +170,20 @@ class NwpTool extends BasicTool {
         }
     }
 
-    String createAnalysisFile(String mmdFileLocation) throws IOException, InterruptedException {
+    String createAnalysisFile(String mmdFileLocation) throws IOException {
         final NetcdfFile mmdFile = NetcdfFile.open(mmdFileLocation);
         final Variable timeVariable = NwpUtil.findVariable(mmdFile, "matchup.time");
         final List<String> subDirectories = NwpUtil.getRelevantNwpDirs(timeVariable, logger);
 
         try {
-            final String geoFileLocation = writeMatchupGeoFile(mmdFile, deleteOnExit);
-
-            final Properties properties = new Properties();
-            properties.setProperty("CDO", cdoHome + "/cdo");
-            properties.setProperty("CDO_OPTS", "-M -R");
-            properties.setProperty("REFTIME", "1978-01-01,00:00:00,seconds");
-
-            properties.setProperty("GEO", geoFileLocation);
-            properties.setProperty("GGAS_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/ggas", subDirectories,
-                            "ggas[0-9]*.nc", 0));
-            properties.setProperty("GGAS_TIME_SERIES", NwpUtil.createTempFile("ggas", ".nc", deleteOnExit).getPath());
+            final float[] lats = readValues(NwpUtil.findVariable(mmdFile, Constants.MATCHUP_LATITUDE));
+            final float[] lons = readValues(NwpUtil.findVariable(mmdFile, Constants.MATCHUP_LONGITUDE));
             final String analysisFileLocation = NwpUtil.createTempFile("analysis", ".nc", deleteOnExit).getPath();
-            properties.setProperty("AN_TIME_SERIES", analysisFileLocation);
 
-            final ProcessRunner runner = new ProcessRunner();
-            final String resolvedTemplate = ProcessRunner.resolveTemplate(CDO_MATCHUP_AN_TEMPLATE, properties);
-            runner.execute(ProcessRunner.writeExecutableScript(resolvedTemplate, "cdo", ".sh", deleteOnExit).getPath());
+            new NwpExtractor()
+                    .addSource(NwpUtil.composeFiles(sourceNwpLocation + "/ggas", subDirectories, "ggas[0-9]*.nc", 0),
+                               "CI", "SSTK", "U10", "V10")
+                    .extract(lats, lons, 1, analysisFileLocation);
 
             return analysisFileLocation;
         } finally {
@@ -209,36 +194,22 @@ class NwpTool extends BasicTool {
         }
     }
 
-    String createForecastFile(String mmdFileLocation) throws IOException, InterruptedException {
+    String createForecastFile(String mmdFileLocation) throws IOException {
         final NetcdfFile mmdFile = NetcdfFile.open(mmdFileLocation);
         final Variable timeVariable = NwpUtil.findVariable(mmdFile, "matchup.time");
         final List<String> subDirectories = NwpUtil.getRelevantNwpDirs(timeVariable, logger);
 
         try {
-            final String geoFileLocation = writeMatchupGeoFile(mmdFile, true);
-
-            final Properties properties = new Properties();
-            properties.setProperty("CDO", "cdo");
-            properties.setProperty("CDO_OPTS", "-M -R");
-            properties.setProperty("REFTIME", "1978-01-01,00:00:00,seconds");
-
-            properties.setProperty("GEO", geoFileLocation);
-            properties.setProperty("GAFS_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/gafs", subDirectories,
-                            "gafs[0-9]*.nc", 0));
-            properties.setProperty("GGFS_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/ggfs", subDirectories,
-                            "ggfs[0-9]*.nc", 0));
-            properties.setProperty("GAFS_TIME_SERIES", NwpUtil.createTempFile("gafs", ".nc", deleteOnExit).getPath());
-            properties.setProperty("GGFS_TIME_SERIES", NwpUtil.createTempFile("ggfs", ".nc", deleteOnExit).getPath());
-            properties.setProperty("GGFS_TIME_SERIES_REMAPPED",
-                    NwpUtil.createTempFile("ggfr", ".nc", deleteOnExit).getPath());
+            final float[] lats = readValues(NwpUtil.findVariable(mmdFile, Constants.MATCHUP_LATITUDE));
+            final float[] lons = readValues(NwpUtil.findVariable(mmdFile, Constants.MATCHUP_LONGITUDE));
             final String forecastFileLocation = NwpUtil.createTempFile("forecast", ".nc", deleteOnExit).getPath();
-            properties.setProperty("FC_TIME_SERIES", forecastFileLocation);
 
-            final ProcessRunner runner = new ProcessRunner();
-            final String resolvedTemplate = ProcessRunner.resolveTemplate(CDO_MATCHUP_FC_TEMPLATE, properties);
-            runner.execute(ProcessRunner.writeExecutableScript(resolvedTemplate, "cdo", ".sh", deleteOnExit).getPath());
+            new NwpExtractor()
+                    .addSource(NwpUtil.composeFiles(sourceNwpLocation + "/gafs", subDirectories, "gafs[0-9]*.nc", 0),
+                               "SSHF", "SLHF", "SSRD", "STRD", "SSR", "STR", "EWSS", "NSSS", "E", "TP")
+                    .addSource(NwpUtil.composeFiles(sourceNwpLocation + "/ggfs", subDirectories, "ggfs[0-9]*.nc", 0),
+                               "SSTK", "MSL", "BLH", "U10", "V10", "T2", "D2")
+                    .extract(lats, lons, 1, forecastFileLocation);
 
             return forecastFileLocation;
         } finally {
@@ -249,73 +220,57 @@ class NwpTool extends BasicTool {
         }
     }
 
-    void writeSensorNwpFile(String mmdFileLocation, Properties dimensions) throws IOException, InterruptedException {
-        final NetcdfFile mmdFile = NetcdfFile.open(mmdFileLocation);
+    void writeSensorNwpFile(SensorSubset sensorSubset) throws IOException, InterruptedException {
+        logger.info("Looking for relevant NWP sub-directories...");
+        final List<String> subDirectories = NwpUtil.getRelevantNwpDirs(sensorSubset.times, sensorSubset.timeFillValue,
+                sensorName + ".time", logger);
+        logger.info("Found NWP sub-directories: " + Arrays.toString(subDirectories.toArray(new String[subDirectories.size()])));
+
+        final String geoFileLocation = sensorSubset.geoFileLocation;
+
+        final Properties properties = new Properties();
+        properties.setProperty("CDO", "cdo");
+        properties.setProperty("CDO_OPTS", "-M -R");
+        properties.setProperty("REFTIME", "1978-01-01,00:00:00,seconds");
+
+        properties.setProperty("GEO", geoFileLocation);
+        properties.setProperty("GGAS_TIMESTEPS",
+                NwpUtil.composeFilesString(sourceNwpLocation + "/ggas", subDirectories,
+                        "ggas[0-9]*.nc", 1));
+        properties.setProperty("GGAM_TIMESTEPS",
+                NwpUtil.composeFilesString(sourceNwpLocation + "/ggam", subDirectories,
+                        "ggam[0-9]*.grb", 1));
+        properties.setProperty("SPAM_TIMESTEPS",
+                NwpUtil.composeFilesString(sourceNwpLocation + "/spam", subDirectories,
+                        "spam[0-9]*.grb", 1));
+        properties.setProperty("GAFS_TIMESTEPS",
+                NwpUtil.composeFilesString(sourceNwpLocation + "/gafs", subDirectories,
+                        "gafs[0-9]*[62].nc", -1));
+        properties.setProperty("GGAS_TIME_SERIES", NwpUtil.createTempFile("ggas", ".nc", deleteOnExit).getPath());
+        properties.setProperty("GGAM_TIME_SERIES", NwpUtil.createTempFile("ggam", ".grb", deleteOnExit).getPath());
+        properties.setProperty("SPAM_TIME_SERIES", NwpUtil.createTempFile("spam", ".grb", deleteOnExit).getPath());
+        properties.setProperty("GAFS_TIME_SERIES", NwpUtil.createTempFile("gafs", ".nc", deleteOnExit).getPath());
+        properties.setProperty("GGAM_TIME_SERIES_REMAPPED",
+                NwpUtil.createTempFile("ggar", ".nc", deleteOnExit).getPath());
+        properties.setProperty("SPAM_TIME_SERIES_REMAPPED",
+                NwpUtil.createTempFile("spar", ".nc", deleteOnExit).getPath());
+        properties.setProperty("GAFS_TIME_SERIES_REMAPPED",
+                NwpUtil.createTempFile("gafr", ".nc", deleteOnExit).getPath());
+        properties.setProperty("NWP_TIME_SERIES", NwpUtil.createTempFile("nwp", ".nc", deleteOnExit).getPath());
+
+        final ProcessRunner runner = new ProcessRunner();
+        final String resolvedTemplate = ProcessRunner.resolveTemplate(CDO_NWP_TEMPLATE, properties);
+        final String path = ProcessRunner.writeExecutableScript(resolvedTemplate, "cdo", ".sh", deleteOnExit).getPath();
+        runner.execute(path);
+
+        final NetcdfFile nwpFile = NetcdfFile.open(properties.getProperty("NWP_TIME_SERIES"));
         try {
-            final Variable timeVariable = NwpUtil.findVariable(mmdFile, sensorName + ".time");
-            logger.info("Looking for relevant NWP sub-directories...");
-            final List<String> subDirectories = NwpUtil.getRelevantNwpDirs(timeVariable, logger);
-            logger.info("Found NWP sub-directories: " + Arrays.toString(subDirectories.toArray(new String[subDirectories.size()])));
-            final String sensorBasename = getSensorBasename(sensorName);
-            final int nx = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nx"));
-            final int ny = Integer.parseInt(dimensions.getProperty(sensorBasename + ".ny"));
-            final int nwpNx = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nwp.nx"));
-            final int nwpNy = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nwp.ny"));
-
-            final int strideX = calculateStride(nx, nwpNx);
-            final int strideY = calculateStride(ny, nwpNy);
-
-            final String geoFileLocation = writeSensorGeoFile(mmdFile, nwpNx, nwpNy, strideX, strideY, sensorName, deleteOnExit);
-
-            final Properties properties = new Properties();
-            properties.setProperty("CDO", "cdo");
-            properties.setProperty("CDO_OPTS", "-M -R");
-            properties.setProperty("REFTIME", "1978-01-01,00:00:00,seconds");
-
-            properties.setProperty("GEO", geoFileLocation);
-            properties.setProperty("GGAS_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/ggas", subDirectories,
-                            "ggas[0-9]*.nc", 1));
-            properties.setProperty("GGAM_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/ggam", subDirectories,
-                            "ggam[0-9]*.grb", 1));
-            properties.setProperty("SPAM_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/spam", subDirectories,
-                            "spam[0-9]*.grb", 1));
-            properties.setProperty("GAFS_TIMESTEPS",
-                    NwpUtil.composeFilesString(sourceNwpLocation + "/gafs", subDirectories,
-                            "gafs[0-9]*[62].nc", -1));
-            properties.setProperty("GGAS_TIME_SERIES", NwpUtil.createTempFile("ggas", ".nc", deleteOnExit).getPath());
-            properties.setProperty("GGAM_TIME_SERIES", NwpUtil.createTempFile("ggam", ".grb", deleteOnExit).getPath());
-            properties.setProperty("SPAM_TIME_SERIES", NwpUtil.createTempFile("spam", ".grb", deleteOnExit).getPath());
-            properties.setProperty("GAFS_TIME_SERIES", NwpUtil.createTempFile("gafs", ".nc", deleteOnExit).getPath());
-            properties.setProperty("GGAM_TIME_SERIES_REMAPPED",
-                    NwpUtil.createTempFile("ggar", ".nc", deleteOnExit).getPath());
-            properties.setProperty("SPAM_TIME_SERIES_REMAPPED",
-                    NwpUtil.createTempFile("spar", ".nc", deleteOnExit).getPath());
-            properties.setProperty("GAFS_TIME_SERIES_REMAPPED",
-                    NwpUtil.createTempFile("gafr", ".nc", deleteOnExit).getPath());
-            properties.setProperty("NWP_TIME_SERIES", NwpUtil.createTempFile("nwp", ".nc", deleteOnExit).getPath());
-
-            final ProcessRunner runner = new ProcessRunner();
-            final String resolvedTemplate = ProcessRunner.resolveTemplate(CDO_NWP_TEMPLATE, properties);
-            final String path = ProcessRunner.writeExecutableScript(resolvedTemplate, "cdo", ".sh", deleteOnExit).getPath();
-            runner.execute(path);
-
-            final NetcdfFile nwpFile = NetcdfFile.open(properties.getProperty("NWP_TIME_SERIES"));
-            try {
-                logger.info(MessageFormat.format("Starting to write NWP MMD file: {0}", targetNwpLocation));
-                merge(mmdFile, nwpFile, sensorName, targetNwpLocation);
-                logger.info(MessageFormat.format("Finished writing NWP MMD file: {0}", targetNwpLocation));
-            } finally {
-                try {
-                    nwpFile.close();
-                } catch (IOException ignored) {
-                }
-            }
+            logger.info(MessageFormat.format("Starting to write NWP MMD file: {0}", targetNwpLocation));
+            merge(sensorSubset, nwpFile, sensorName, targetNwpLocation, threadCount);
+            logger.info(MessageFormat.format("Finished writing NWP MMD file: {0}", targetNwpLocation));
         } finally {
             try {
-                mmdFile.close();
+                nwpFile.close();
             } catch (IOException ignored) {
             }
         }
@@ -494,21 +449,17 @@ class NwpTool extends BasicTool {
         return anT0;
     }
 
-    private static void merge(NetcdfFile sourceMmd, NetcdfFile sourceNwp, String sensorName,
-                              String targetPath) throws IOException {
+    private static void merge(SensorSubset sourceMmd, NetcdfFile sourceNwp, String sensorName,
+                              String targetPath, int threadCount) throws IOException {
         final NetcdfFileWriter targetMmd = createNewLarge(targetPath);
         try {
             // copy MMD structure
-            final Dimension sourceMatchupDimension = NwpUtil.findDimension(sourceMmd, "matchup");
-            final int matchupCount = sourceMatchupDimension.getLength();
-            targetMmd.addDimension(null,
-                    sourceMatchupDimension.getShortName(),
-                    matchupCount);
-            final Variable sourceMatchupId = NwpUtil.findVariable(sourceMmd, "matchup.id");
+            final int matchupCount = sourceMmd.matchupCount;
+            targetMmd.addDimension(null, "matchup", matchupCount);
             final Variable targetMatchupId = targetMmd.addVariable(null,
-                    sourceMatchupId.getShortName(),
-                    sourceMatchupId.getDataType(),
-                    sourceMatchupId.getDimensionsString());
+                    Constants.MATCHUP_ID,
+                    sourceMmd.matchupIds.getDataType(),
+                    "matchup");
 
             // copy NWP structure
             final Dimension yDimension = NwpUtil.findDimension(sourceNwp, "y");
@@ -547,63 +498,27 @@ class NwpTool extends BasicTool {
             targetMmd.create();
 
             // copy MMD matchup IDs
-            targetMmd.write(targetMatchupId, NwpUtil.findVariable(sourceMmd, "matchup.id").read());
+            targetMmd.write(targetMatchupId, sourceMmd.matchupIds);
 
             //copy NWP data;
-            final Variable targetTimesVariable = NwpUtil.findVariable(sourceMmd, sensorName + ".time");
             final Array sourceTimes = NwpUtil.findVariable(sourceNwp, "time", "t").read();
-            final Array targetTimes = targetTimesVariable.read();
-            final float targetTimeFillValue = NwpUtil.getAttribute(targetTimesVariable, "_FillValue",
-                    Integer.MIN_VALUE);
+            final Array targetTimes = sourceMmd.times;
+            final int targetTimeFillValue = sourceMmd.timeFillValue;
 
+            final int[] timeSteps = new int[matchupCount];
+            final double[] timeFractions = new double[matchupCount];
             for (int i = 0; i < matchupCount; i++) {
-                final int[] sourceStart = {0, 0, i * gy, 0};
-                final int[] sourceShape = {1, 0, gy, gx};
-
                 final int targetTime = targetTimes.getInt(i);
-                if (targetTime == (int) targetTimeFillValue) {
+                if (targetTime == targetTimeFillValue) {
+                    timeSteps[i] = -1;
                     continue;
                 }
-
                 final FracIndex fi = NwpUtil.interpolationIndex(sourceTimes, targetTime);
-
-                for (final Map.Entry<Variable, Variable> entry : map.entrySet()) {
-                    final Variable sourceVariable = entry.getValue();
-                    final Variable targetVariable = entry.getKey();
-
-                    final float fillValue = NwpUtil.getAttribute(sourceVariable, "_FillValue", 2.0E+20F);
-                    final float validMin = NwpUtil.getAttribute(sourceVariable, "valid_min", Float.NEGATIVE_INFINITY);
-                    final float validMax = NwpUtil.getAttribute(sourceVariable, "valid_max", Float.POSITIVE_INFINITY);
-
-                    sourceStart[0] = fi.i;
-                    sourceShape[1] = sourceVariable.getShape(1);
-
-                    final Array slice1 = sourceVariable.read(sourceStart, sourceShape);
-                    sourceStart[0] = fi.i + 1;
-                    final Array slice2 = sourceVariable.read(sourceStart, sourceShape);
-                    for (int k = 0; k < slice1.getSize(); k++) {
-                        final float v1 = slice1.getFloat(k);
-                        final float v2 = slice2.getFloat(k);
-                        final boolean invalid1 = v1 == fillValue || v1 < validMin || v1 > validMax;
-                        final boolean invalid2 = v2 == fillValue || v2 < validMin || v2 > validMax;
-                        if (invalid1 && invalid2) {
-                            slice2.setFloat(k, fillValue);
-                        } else if (invalid1) {
-                            // do nothing, value is already set
-                        } else if (invalid2) {
-                            slice2.setFloat(k, v1);
-                        } else {
-                            slice2.setDouble(k, (1.0 - fi.f) * v1 + fi.f * v2);
-                        }
-                    }
-
-                    final int[] targetShape = targetVariable.getShape();
-                    targetShape[0] = 1;
-                    final int[] targetStart = new int[targetShape.length];
-                    targetStart[0] = i;
-                    targetMmd.write(targetVariable, targetStart, slice2.reshape(targetShape));
-                }
+                timeSteps[i] = fi.i;
+                timeFractions[i] = fi.f;
             }
+            new NwpTimeInterpolator(timeSteps, timeFractions, gy, gx).interpolate(sourceNwp, map, targetMmd,
+                                                                                threadCount);
         } catch (IOException | InvalidRangeException e) {
             final String message = MessageFormat.format("Failed to write NWP MMD file: {0} ({1})", targetPath,
                     e.getMessage());
@@ -618,171 +533,74 @@ class NwpTool extends BasicTool {
     }
 
     /**
-     * Writes the latitude, longitude and time for those records in an MMD file that correspond
-     * to a certain sensor to a new MMD file.
+     * Extracts those records in an MMD file that correspond to a certain sensor. The matchup IDs and the
+     * sensor times are kept in memory, while the sensor geo-coordinates are written to a SCRIP compatible
+     * file in the same pass.
+     * <p/>
+     * The sensor pattern is read once. The selected records are read in blocks, each block spanning a
+     * range of selected records, and gathered from the blocks.
      *
      * @param sourceMmdLocation The location of the source (multi-sensor) MMD file.
      * @param sensorName        The sensor name.
      * @param sensorPattern     The sensor pattern.
+     * @param dimensions        The MMD dimensions.
      * @param deleteOnExit      A flag indicating whether temporary files shall be deleted on exit.
-     * @return the location of the netCDF file written.
+     * @return the sensor subset, or {@code null} if there are no records with the sensor pattern.
      * @throws java.io.IOException when an error occurred.
      */
-    private static String writeSingleSensorMmdFile(String sourceMmdLocation, String sensorName,
-                                                   int sensorPattern, boolean deleteOnExit) throws IOException {
+    private static SensorSubset extractSensorSubset(String sourceMmdLocation, String sensorName, int sensorPattern,
+                                                    Properties dimensions, boolean deleteOnExit) throws IOException {
         final NetcdfFile sourceMmd = NetcdfFile.open(sourceMmdLocation);
         try {
-            final Dimension matchupDimension = NwpUtil.findDimension(sourceMmd, "matchup");
-            final String sensorBasename = getSensorBasename(sensorName);
-            final Dimension nyDimension = NwpUtil.findDimension(sourceMmd, sensorBasename + ".ny");
-            final Dimension nxDimension = NwpUtil.findDimension(sourceMmd, sensorBasename + ".nx");
-
             final Array sensorPatterns = NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_DATASET_ID).read();
-            final int matchupCount = getMatchupCount(sensorPatterns, sensorPattern);
-            if (matchupCount == 0) {
+            final int[] matchupIndexes = getMatchupIndexes(sensorPatterns, sensorPattern);
+            if (matchupIndexes.length == 0) {
                 return null;
             }
-            final String sensorMmdLocation = NwpUtil.createTempFile("mmd", ".nc", deleteOnExit).getPath();
-            final NetcdfFileWriter targetMmd = createNewLarge(sensorMmdLocation);
-
-            final int ny = nyDimension.getLength();
-            final int nx = nxDimension.getLength();
-
-            targetMmd.addDimension(null, matchupDimension.getShortName(), matchupCount);
-            targetMmd.addDimension(null, nyDimension.getShortName(), ny);
-            targetMmd.addDimension(null, nxDimension.getShortName(), nx);
-
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_ID));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_TIME));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_LATITUDE));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_LONGITUDE));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, sensorName + ".latitude"));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, sensorName + ".longitude"));
-            NwpUtil.addVariable(targetMmd, NwpUtil.findVariable(sourceMmd, sensorName + ".time"));
-
-            targetMmd.create();
-            try {
-                for (final Variable sourceVariable : sourceMmd.getVariables()) {
-                    final int[] sourceStart = new int[sourceVariable.getRank()];
-                    final int[] sourceShape = sourceVariable.getShape();
-                    final int[] targetStart = new int[sourceVariable.getRank()];
-                    final Variable targetVariable = targetMmd.findVariable(sourceVariable.getFullNameEscaped());
-                    if (targetVariable != null) {
-                        for (int m = 0, n = 0; m < matchupDimension.getLength(); m++) {
-                            if ((sensorPatterns.getInt(m) & sensorPattern) == sensorPattern) {
-                                sourceStart[0] = m;
-                                sourceShape[0] = 1;
-                                targetStart[0] = n;
-                                final Array data = sourceVariable.read(sourceStart, sourceShape);
-                                targetMmd.write(targetVariable, targetStart, data);
-                                n++;
-                            }
-                        }
-                    }
-                }
-            } catch (InvalidRangeException e) {
-                throw new IOException(e);
-            } finally {
-                try {
-                    targetMmd.close();
-                } catch (IOException ignored) {
-                }
-            }
-            return targetMmd.getNetcdfFile().getLocation();
-        } finally {
-            try {
-                sourceMmd.close();
-            } catch (IOException ignored) {
-            }
-        }
-    }
 
-    /**
-     * Writes the match-up geo-coordinates from an MMD file to a SCRIP compatible file.
-     *
-     * @param mmd          The MMD file.
-     * @param deleteOnExit True if intermediate files shall be deleted on exit.
-     * @throws java.io.IOException when an error occurred.
-     */
-    private static String writeMatchupGeoFile(NetcdfFile mmd, boolean deleteOnExit) throws IOException {
-        final Dimension matchupDimension = NwpUtil.findDimension(mmd, "matchup");
-
-        final String location = NwpUtil.createTempFile("geo", ".nc", deleteOnExit).getPath();
-        final NetcdfFileWriter geoFile = createNewLarge(location);
-
-        final int matchupCount = matchupDimension.getLength();
-        geoFile.addDimension(null, "grid_size", matchupCount);
-        geoFile.addDimension(null, "grid_matchup", matchupCount);
-        geoFile.addDimension(null, "grid_ny", 1);
-        geoFile.addDimension(null, "grid_nx", 1);
-        geoFile.addDimension(null, "grid_corners", 4);
-        geoFile.addDimension(null, "grid_rank", 2);
-
-        final Variable gridDims = geoFile.addVariable(null, "grid_dims", DataType.INT, "grid_rank");
-        final Variable gridCenterLat = geoFile.addVariable(null, "grid_center_lat", DataType.FLOAT, "grid_size");
-        gridCenterLat.addAttribute(new Attribute("units", "degrees"));
-        final Variable gridCenterLon = geoFile.addVariable(null, "grid_center_lon", DataType.FLOAT, "grid_size");
-        gridCenterLon.addAttribute(new Attribute("units", "degrees"));
-        final Variable gridMask = geoFile.addVariable(null, "grid_imask", DataType.INT, "grid_size");
-        geoFile.addVariable(null, "grid_corner_lat", DataType.FLOAT, "grid_size grid_corners");
-        geoFile.addVariable(null, "grid_corner_lon", DataType.FLOAT, "grid_size grid_corners");
-        geoFile.addGroupAttribute(null, new Attribute("title", "MMD geo-location in SCRIP format"));
-
-        geoFile.create();
-        try {
-            geoFile.write(gridDims, Array.factory(new int[]{1, matchupCount}));
+            final String sensorBasename = getSensorBasename(sensorName);
+            final int nx = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nx"));
+            final int ny = Integer.parseInt(dimensions.getProperty(sensorBasename + ".ny"));
+            final int nwpNx = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nwp.nx"));
+            final int nwpNy = Integer.parseInt(dimensions.getProperty(sensorBasename + ".nwp.ny"));
 
-            final int[] sourceStart = {0};
-            final int[] sourceShape = {1};
-            final int[] sourceStride = {1};
-            final int[] targetStart = {0};
-            final int[] targetShape = {1};
-            final Array maskData = Array.factory(DataType.INT, targetShape);
+            final int strideX = calculateStride(nx, nwpNx);
+            final int strideY = calculateStride(ny, nwpNy);
 
-            final Variable sourceLat = NwpUtil.findVariable(mmd, Constants.MATCHUP_LATITUDE);
-            final Variable sourceLon = NwpUtil.findVariable(mmd, Constants.MATCHUP_LONGITUDE);
+            final Variable timeVariable = NwpUtil.findVariable(sourceMmd, sensorName + ".time");
+            final Array matchupIds = readRecords(NwpUtil.findVariable(sourceMmd, Constants.MATCHUP_ID),
+                    matchupIndexes);
+            final Array times = readRecords(timeVariable, matchupIndexes);
+            final int timeFillValue = NwpUtil.getAttribute(timeVariable, "_FillValue", Integer.MIN_VALUE);
+            final String geoFileLocation = writeSensorGeoFile(sourceMmd, matchupIndexes, nwpNx, nwpNy, strideX,
+                    strideY, sensorName, deleteOnExit);
 
-            for (int i = 0; i < matchupCount; i++) {
-                sourceStart[0] = i;
-                targetStart[0] = i;
-                final Section sourceSection = new Section(sourceStart, sourceShape, sourceStride);
-                final Array latData = sourceLat.read(sourceSection);
-                final Array lonData = sourceLon.read(sourceSection);
-                for (int k = 0; k < targetShape[0]; k++) {
-                    final float lat = latData.getFloat(k);
-                    final float lon = lonData.getFloat(k);
-                    maskData.setInt(k, lat >= -90.0f && lat <= 90.0f && lon >= -180.0f && lat <= 180.0f ? 1 : 0);
-                }
-                geoFile.write(gridCenterLat, targetStart, latData.reshape(targetShape));
-                geoFile.write(gridCenterLon, targetStart, lonData.reshape(targetShape));
-                geoFile.write(gridMask, targetStart, maskData);
-            }
+            return new SensorSubset(matchupIds, times, timeFillValue, geoFileLocation);
         } catch (InvalidRangeException e) {
             throw new IOException(e);
         } finally {
             try {
-                geoFile.close();
+                sourceMmd.close();
             } catch (IOException ignored) {
             }
         }
-        return geoFile.getNetcdfFile().getLocation();
     }
 
     /**
-     * Writes the sensor geo-coordinates from an MMD file to a SCRIP compatible file.
+     * Writes the sensor geo-coordinates of selected records from an MMD file to a SCRIP compatible file.
      *
-     * @param mmd          The MMD file.
-     * @param gx           The the number of tie points in x direction.
-     * @param gy           The the number of tie points in y direction.
-     * @param strideX      The tie point stride in x direction.
-     * @param strideY      The tie point stride in y direction.
-     * @param sensorName   The sensor name.
-     * @param deleteOnExit True if intermediate files shall be deleted on exit.
+     * @param mmd            The MMD file.
+     * @param matchupIndexes The indexes of the selected records, in ascending order.
+     * @param gx             The the number of tie points in x direction.
+     * @param gy             The the number of tie points in y direction.
+     * @param strideX        The tie point stride in x direction.
+     * @param strideY        The tie point stride in y direction.
+     * @param sensorName     The sensor name.
+     * @param deleteOnExit   True if intermediate files shall be deleted on exit.
      * @throws java.io.IOException when an error occurred.
      */
-    private static String writeSensorGeoFile(NetcdfFile mmd, int gx, int gy, int strideX, int strideY,
-                                             String sensorName, boolean deleteOnExit) throws IOException {
-        final Dimension matchupDimension = NwpUtil.findDimension(mmd, "matchup");
+    private static String writeSensorGeoFile(NetcdfFile mmd, int[] matchupIndexes, int gx, int gy, int strideX,
+                                             int strideY, String sensorName, boolean deleteOnExit) throws IOException {
         final String sensorBasename = getSensorBasename(sensorName);
         final Dimension nyDimension = NwpUtil.findDimension(mmd, sensorBasename + ".ny");
         final Dimension nxDimension = NwpUtil.findDimension(mmd, sensorBasename + ".nx");
@@ -790,7 +608,7 @@ class NwpTool extends BasicTool {
         final String location = NwpUtil.createTempFile("geo", ".nc", deleteOnExit).getPath();
         final NetcdfFileWriter geoFile = createNewLarge(location);
 
-        final int matchupCount = matchupDimension.getLength();
+        final int matchupCount = matchupIndexes.length;
         final int ny = nyDimension.getLength();
         final int nx = nxDimension.getLength();
 
@@ -815,26 +633,28 @@ class NwpTool extends BasicTool {
         try {
             geoFile.write(gridDims, Array.factory(new int[]{gx, gy * matchupCount}));
 
-            final int[] sourceStart = {0, (ny >> 1) - (gy >> 1) * strideY, (nx >> 1) - (gx >> 1) * strideX};
-            final int[] sourceShape = {1, gy * strideY, gx * strideX};
-            final int[] sourceStride = {1, strideY, strideX};
-            final int[] targetStart = {0};
-            final int[] targetShape = {gy * gx};
-            final Array maskData = Array.factory(DataType.INT, targetShape);
+            // only the tie points are read
+            final int y0 = (ny >> 1) - (gy >> 1) * strideY;
+            final int x0 = (nx >> 1) - (gx >> 1) * strideX;
+            final List<Range> tiePointRanges = Arrays.asList(new Range(y0, y0 + gy * strideY - 1, strideY),
+                                                             new Range(x0, x0 + gx * strideX - 1, strideX));
+            final int tiePointCount = gy * gx;
 
             final Variable sourceLat = NwpUtil.findVariable(mmd, sensorName + ".latitude");
             final Variable sourceLon = NwpUtil.findVariable(mmd, sensorName + ".longitude");
-
-            for (int i = 0; i < matchupCount; i++) {
-                sourceStart[0] = i;
-                targetStart[0] = i * gy * gx;
-                final Section sourceSection = new Section(sourceStart, sourceShape, sourceStride);
-                final Array latData = sourceLat.read(sourceSection);
-                final Array lonData = sourceLon.read(sourceSection);
+            final int recordsPerBlock = getRecordsPerBlock((long) tiePointCount * sourceLat.getElementSize());
+
+            for (int from = 0, to; from < matchupCount; from = to) {
+                to = getBlockEnd(matchupIndexes, from, recordsPerBlock);
+                final Array latData = readRecords(sourceLat, tiePointRanges, matchupIndexes, from, to);
+                final Array lonData = readRecords(sourceLon, tiePointRanges, matchupIndexes, from, to);
+                final int[] targetStart = {from * tiePointCount};
+                final int[] targetShape = {(to - from) * tiePointCount};
+                final Array maskData = Array.factory(DataType.INT, targetShape);
                 for (int k = 0; k < targetShape[0]; k++) {
                     final float lat = latData.getFloat(k);
                     final float lon = lonData.getFloat(k);
-                    maskData.setInt(k, lat >= -90.0f && lat <= 90.0f && lon >= -180.0f && lat <= 180.0f ? 1 : 0);
+                    maskData.setInt(k, lat >= -90.0f && lat <= 90.0f && lon >= -180.0f && lon <= 180.0f ? 1 : 0);
                 }
                 geoFile.write(gridCenterLat, targetStart, latData.reshape(targetShape));
                 geoFile.write(gridCenterLon, targetStart, lonData.reshape(targetShape));
@@ -851,6 +671,61 @@ class NwpTool extends BasicTool {
         return geoFile.getNetcdfFile().getLocation();
     }
 
+    // reads the records with the given indexes, in blocks of records
+    private static Array readRecords(Variable variable, int[] indexes) throws IOException, InvalidRangeException {
+        final List<Range> recordRanges = new ArrayList<>(variable.getRanges().subList(1, variable.getRank()));
+        final int[] shape = variable.getShape();
+        shape[0] = indexes.length;
+        final Array records = Array.factory(variable.getDataType(), shape);
+        final int recordLength = (int) (records.getSize() / indexes.length);
+        final int recordsPerBlock = getRecordsPerBlock((long) recordLength * variable.getElementSize());
+
+        for (int from = 0, to; from < indexes.length; from = to) {
+            to = getBlockEnd(indexes, from, recordsPerBlock);
+            final Array block = readRecords(variable, recordRanges, indexes, from, to);
+            Array.arraycopy(block, 0, records, from * recordLength, (to - from) * recordLength);
+        }
+        return records;
+    }
+
+    // reads the records with the indexes from..to, all records spanned are read at once
+    private static Array readRecords(Variable variable, List<Range> recordRanges, int[] indexes, int from, int to)
+            throws IOException, InvalidRangeException {
+        final int first = indexes[from];
+        final int last = indexes[to - 1];
+        final List<Range> ranges = new ArrayList<>(recordRanges.size() + 1);
+        ranges.add(new Range(first, last));
+        ranges.addAll(recordRanges);
+
+        final Array sourceData = variable.read(new Section(ranges));
+        final int count = to - from;
+        if (count == last - first + 1) {
+            return sourceData;
+        }
+        final int[] shape = sourceData.getShape();
+        final int recordLength = (int) (sourceData.getSize() / shape[0]);
+        shape[0] = count;
+        final Array targetData = Array.factory(sourceData.getDataType(), shape);
+        for (int k = 0; k < count; k++) {
+            Array.arraycopy(sourceData, (indexes[from + k] - first) * recordLength, targetData, k * recordLength,
+                            recordLength);
+        }
+        return targetData;
+    }
+
+    private static int getRecordsPerBlock(long recordSize) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1L, BLOCK_SIZE / Math.max(1L, recordSize)));
+    }
+
+    private static float[] readValues(Variable variable) throws IOException {
+        final Array data = variable.read();
+        final float[] values = new float[(int) data.getSize()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = data.getFloat(i);
+        }
+        return values;
+    }
+
     // package public for testing
     static int computeFutureTimeStepCount(int timeStepCount) {
         return ((timeStepCount - 1) / 8) * 3;
@@ -867,14 +742,24 @@ class NwpTool extends BasicTool {
     }
 
     // package access for testing only tb 2015-12-08
-    static int getMatchupCount(Array sensorPatterns, int wantedPattern) {
+    static int[] getMatchupIndexes(Array sensorPatterns, int wantedPattern) {
+        final int[] matchupIndexes = new int[(int) sensorPatterns.getSize()];
         int matchupCount = 0;
-        for (int i = 0; i < sensorPatterns.getSize(); ++i) {
+        for (int i = 0; i < matchupIndexes.length; ++i) {
             if ((sensorPatterns.getInt(i) & wantedPattern) == wantedPattern) {
-                matchupCount++;
+                matchupIndexes[matchupCount++] = i;
             }
         }
-        return matchupCount;
+        return Arrays.copyOf(matchupIndexes, matchupCount);
+    }
+
+    // package access for testing only
+    static int getBlockEnd(int[] indexes, int from, int recordsPerBlock) {
+        int to = from + 1;
+        while (to < indexes.length && indexes[to] - indexes[from] < recordsPerBlock) {
+            to++;
+        }
+        return to;
     }
 
     // package access for testing only tb 2015-12-08
@@ -888,4 +773,21 @@ class NwpTool extends BasicTool {
         return stride;
     }
 
+    // the records of an MMD file that correspond to a certain sensor, as far as needed for the NWP extraction
+    static final class SensorSubset {
+
+        private final int matchupCount;
+        private final Array matchupIds;
+        private final Array times;
+        private final int timeFillValue;
+        private final String geoFileLocation;
+
+        private SensorSubset(Array matchupIds, Array times, int timeFillValue, String geoFileLocation) {
+            this.matchupCount = (int) matchupIds.getSize();
+            this.matchupIds = matchupIds;
+            this.times = times;
+            this.timeFillValue = timeFillValue;
+            this.geoFileLocation = geoFileLocation;
+        }
+    }
 }
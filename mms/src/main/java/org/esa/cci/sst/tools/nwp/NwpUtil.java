@@ -47,12 +47,15 @@ class NwpUtil {
 
     static List<String> getRelevantNwpDirs(Variable timeVariable, Logger logger) throws IOException {
         final Number fillValue = timeVariable.findAttribute("_FillValue").getNumericValue();
+        return getRelevantNwpDirs(timeVariable.read(), fillValue.intValue(), timeVariable.getFullName(), logger);
+    }
+
+    static List<String> getRelevantNwpDirs(Array times, int fillValue, String sourceName, Logger logger) {
         int startTime = Integer.MAX_VALUE;
         int endTime = Integer.MIN_VALUE;
-        final Array times = timeVariable.read();
         for (int i = 0; i < times.getSize(); i++) {
             final int currentTime = times.getInt(i);
-            if (currentTime != fillValue.intValue()) {
+            if (currentTime != fillValue) {
                 if (currentTime < startTime) {
                     startTime = currentTime;
                 }
@@ -67,7 +70,7 @@ class NwpUtil {
         final Date startDate = TimeUtil.secondsSince1978ToDate(startTime - SEVENTY_TWO_HOURS);
         final Date stopDate = TimeUtil.secondsSince1978ToDate(endTime + FORTY_EIGHT_HOURS);
         if (logger != null) {
-            logger.info("NWP time interval from source '" + timeVariable.getFullName() + "': " + startDate + " - " + stopDate);
+            logger.info("NWP time interval from source '" + sourceName + "': " + startDate + " - " + stopDate);
         }
 
         final GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
@@ -181,6 +184,17 @@ class NwpUtil {
     static String composeFilesString(final String dirPath, final List<String> subDirPaths, final String pattern,
                                      int skip) {
         final StringBuilder sb = new StringBuilder();
+        for (final File file : composeFiles(dirPath, subDirPaths, pattern, skip)) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(file.getPath());
+        }
+        return sb.toString();
+    }
+
+    static List<File> composeFiles(final String dirPath, final List<String> subDirPaths, final String pattern,
+                                   int skip) {
         final List<File> allFiles = new ArrayList<>();
         final FilenameFilter filter = new FilenameFilter() {
             @Override
@@ -206,14 +220,7 @@ class NwpUtil {
             m = 0;
             n = allFiles.size() + skip;
         }
-        for (int i = m; i < n; i++) {
-            final File file = allFiles.get(i);
-            if (sb.length() > 0) {
-                sb.append(' ');
-            }
-            sb.append(file.getPath());
-        }
-        return sb.toString();
+        return new ArrayList<>(allFiles.subList(m, Math.max(m, n)));
     }
 
     static void addVariable(NetcdfFileWriter netcdfFile, Variable s) {
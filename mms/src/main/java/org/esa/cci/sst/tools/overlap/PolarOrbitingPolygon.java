@@ -18,11 +18,18 @@ import java.util.List;
  * point and the equator and the number of crossings between this equator point and the 90
  * degree point (using the shorter connection between them). If the number of crossings is
  * odd the point is inside.
+ * <p/>
+ * For each ring, the vertex coordinates are also kept in primitive arrays, together with a
+ * bounding envelope in latitude and (unwrapped) longitude. A point outside the envelope of a ring
+ * is rejected without the crossing test. Rings which enclose a pole have no envelope.
  *
  * @author Martin Boettcher
  */
 public class PolarOrbitingPolygon {
 
+    // accounts for the shifting of zero coordinates in the crossing test
+    private static final double ENVELOPE_MARGIN = 1.0e-6;
+
     public static class Point {
 
         final double lat;
@@ -48,6 +55,13 @@ public class PolarOrbitingPolygon {
     private long time;
     private List<List<Point>> rings = new ArrayList<>();
 
+    private double[][] ringLats;
+    private double[][] ringLons;
+    private double[] minLats;
+    private double[] maxLats;
+    private double[] minLons;
+    private double[] lonExtents;
+
     public int getId() {
         return id;
     }
@@ -73,11 +87,13 @@ public class PolarOrbitingPolygon {
         } else {
             rings.add(collectFirstRing(geometry, 0, geometry.numPoints() - 2));
         }
+        createRingIndex();
     }
 
     public boolean isPointInPolygon(double sampleLat, double sampleLon) {
-        for (List<Point> ring : rings) {
-            if (isPointInRing(sampleLat, sampleLon, ring)) {
+        for (int k = 0; k < ringLats.length; k++) {
+            if (isPointInEnvelope(k, sampleLat, sampleLon) &&
+                isPointInRing(sampleLat, sampleLon, ringLats[k], ringLons[k])) {
                 return true;
             }
         }
@@ -89,19 +105,29 @@ public class PolarOrbitingPolygon {
     }
 
     boolean isPointInRing(double sampleLat, double sampleLon, List<Point> ring) {
+        final double[] lats = new double[ring.size()];
+        final double[] lons = new double[ring.size()];
+        for (int i = 0; i < ring.size(); ++i) {
+            lats[i] = ring.get(i).getLat();
+            lons[i] = ring.get(i).getLon();
+        }
+        return isPointInRing(sampleLat, sampleLon, lats, lons);
+    }
+
+    private boolean isPointInRing(double sampleLat, double sampleLon, double[] lats, double[] lons) {
         final double equatorLat = 0.0;
         double firstEquatorCrossingLonPlus90 = Double.NaN;
         double transformedSampleLon = Double.NaN;
         boolean isInside = false;
 
-        for (int i = 0; i < ring.size() - 1; ++i) {
-            final Point point = ring.get(i);
-            final Point nextPoint = ring.get(i + 1);
+        for (int i = 0; i < lats.length - 1; ++i) {
+            final double pointLon = lons[i];
+            final double nextPointLon = lons[i + 1];
 
-            final double lon1 = shiftIfZero(GeometryUtil.normalizeLongitude(point.getLon() - sampleLon));
-            final double lat1 = shiftIfZero(point.getLat());
-            final double lon2 = shiftIfZero(GeometryUtil.normalizeLongitude(nextPoint.getLon() - sampleLon));
-            final double lat2 = shiftIfZero(nextPoint.getLat());
+            final double lon1 = shiftIfZero(GeometryUtil.normalizeLongitude(pointLon - sampleLon));
+            final double lat1 = shiftIfZero(lats[i]);
+            final double lon2 = shiftIfZero(GeometryUtil.normalizeLongitude(nextPointLon - sampleLon));
+            final double lat2 = shiftIfZero(lats[i + 1]);
 
             if (isEdgeCrossingMeridian(lon1, lon2)) {
                 final double crossingLat = getLatitudeAtMeridian(lat1, lon1, lat2, lon2);
@@ -110,7 +136,7 @@ public class PolarOrbitingPolygon {
                 }
             }
             if (isEdgeCrossingEquator(lat1, lat2)) {
-                final double crossingLon = getLongitudeAtEquator(lat1, point.getLon(), lat2, nextPoint.getLon());
+                final double crossingLon = getLongitudeAtEquator(lat1, pointLon, lat2, nextPointLon);
                 if (Double.isNaN(firstEquatorCrossingLonPlus90)) {
                     firstEquatorCrossingLonPlus90 = GeometryUtil.normalizeLongitude(crossingLon + 90.0);
                     transformedSampleLon = GeometryUtil.normalizeLongitude(sampleLon - firstEquatorCrossingLonPlus90);
@@ -127,6 +153,69 @@ public class PolarOrbitingPolygon {
         return isInside;
     }
 
+    // an envelope is a necessary condition for the crossing test, because edges are interpolated linearly
+    private boolean isPointInEnvelope(int k, double sampleLat, double sampleLon) {
+        final double lonExtent = lonExtents[k];
+        if (Double.isNaN(lonExtent)) {
+            return true;
+        }
+        if (sampleLat < minLats[k] - ENVELOPE_MARGIN || sampleLat > maxLats[k] + ENVELOPE_MARGIN) {
+            return false;
+        }
+        double lonOffset = (sampleLon - minLons[k] + ENVELOPE_MARGIN) % 360.0;
+        if (lonOffset < 0.0) {
+            lonOffset += 360.0;
+        }
+        return lonOffset <= lonExtent + 2.0 * ENVELOPE_MARGIN;
+    }
+
+    private void createRingIndex() {
+        final int ringCount = rings.size();
+        ringLats = new double[ringCount][];
+        ringLons = new double[ringCount][];
+        minLats = new double[ringCount];
+        maxLats = new double[ringCount];
+        minLons = new double[ringCount];
+        lonExtents = new double[ringCount];
+
+        for (int k = 0; k < ringCount; k++) {
+            final List<Point> ring = rings.get(k);
+            final double[] lats = new double[ring.size()];
+            final double[] lons = new double[ring.size()];
+            double minLat = Double.POSITIVE_INFINITY;
+            double maxLat = Double.NEGATIVE_INFINITY;
+            // longitudes are unwrapped along the ring, taking the shorter way between successive points
+            double unwrappedLon = 0.0;
+            double minUnwrappedLon = 0.0;
+            double maxUnwrappedLon = 0.0;
+            for (int i = 0; i < ring.size(); i++) {
+                final Point point = ring.get(i);
+                lats[i] = point.getLat();
+                lons[i] = point.getLon();
+                minLat = Math.min(minLat, lats[i]);
+                maxLat = Math.max(maxLat, lats[i]);
+                if (i > 0) {
+                    unwrappedLon += GeometryUtil.normalizeLongitude(lons[i] - lons[i - 1]);
+                    minUnwrappedLon = Math.min(minUnwrappedLon, unwrappedLon);
+                    maxUnwrappedLon = Math.max(maxUnwrappedLon, unwrappedLon);
+                }
+            }
+            ringLats[k] = lats;
+            ringLons[k] = lons;
+            minLats[k] = minLat;
+            maxLats[k] = maxLat;
+            // a ring which encloses a pole does not return to its unwrapped start longitude
+            final boolean enclosesPole = Math.abs(unwrappedLon) > 180.0;
+            if (ring.isEmpty() || enclosesPole || maxUnwrappedLon - minUnwrappedLon >= 360.0) {
+                minLons[k] = Double.NaN;
+                lonExtents[k] = Double.NaN;
+            } else {
+                minLons[k] = lons[0] + minUnwrappedLon;
+                lonExtents[k] = maxUnwrappedLon - minUnwrappedLon;
+            }
+        }
+    }
+
     // package access for testing only tb 2014-02-04
     static double getLongitudeAtEquator(double lat1, double lon1, double lat2, double lon2) {
         if (lat2 == lat1) {
@@ -3,22 +3,31 @@ package org.esa.cci.sst.tools.overlap;
 import org.esa.cci.sst.util.SamplingPoint;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
-import java.util.TreeSet;
 
+/**
+ * Removes overlapping sampling points from a list of sampling points. Two points of the same orbit
+ * overlap when their sub-scenes overlap.
+ * <p/>
+ * For each orbit, the points are visited in the order of their y and x coordinates. A point is
+ * retained when it does not overlap any point retained before. Points with the same coordinates
+ * are retained once. The retained points are hashed into a grid of cells of sub-scene size, so
+ * each cell holds at most a single retained point and only the neighbouring cells of a point
+ * need to be checked.
+ */
 public class RegionOverlapFilter {
 
-    private final OverlapCalculator overlapCalculator;
+    private final int width;
+    private final int height;
     private final Comparator<SamplingPoint> orderedComparator;
 
     public RegionOverlapFilter(int width, int height) {
-        overlapCalculator = new OverlapCalculator(width, height);
+        this.width = width;
+        this.height = height;
         orderedComparator = new Comparator<SamplingPoint>() {
             @Override
             public final int compare(SamplingPoint o1, SamplingPoint o2) {
@@ -33,32 +42,151 @@ public class RegionOverlapFilter {
     }
 
     public List<SamplingPoint> apply(List<SamplingPoint> points) {
-        final List<SamplingPoint> nonOverlappingPoints = new LinkedList<>();
+        final List<SamplingPoint> nonOverlappingPoints = new ArrayList<>();
         if (points.size() <= 1) {
             nonOverlappingPoints.addAll(points);
             return nonOverlappingPoints;
         }
 
-        final List<List<SamplingPoint>> byOrbit = splitByOrbit(points);
-        for (final List<SamplingPoint> pointsForOrbit : byOrbit) {
-            nonOverlappingPoints.addAll(getNonOverlappingPoints(pointsForOrbit));
+        for (final SamplingPoint[] orbitPoints : sortByOrbit(points)) {
+            filter(orbitPoints, width, height, nonOverlappingPoints);
+        }
+
+        return nonOverlappingPoints;
+    }
+
+    /**
+     * Removes overlapping points like {@link #apply(List)}, but increases the sub-scene width and
+     * height uniformly until no more than a maximum number of points remain. The smallest sufficient
+     * increase is found by bisection. Since the points are sorted only once, each trial is cheap.
+     *
+     * @param points   The sampling points.
+     * @param maxCount The maximum number of remaining points. If the points belong to more orbits,
+     *                 a single point per orbit remains.
+     *
+     * @return the non-overlapping points.
+     */
+    public List<SamplingPoint> apply(List<SamplingPoint> points, int maxCount) {
+        if (points.size() <= 1) {
+            return apply(points);
+        }
+
+        final List<SamplingPoint[]> byOrbit = sortByOrbit(points);
+        int maxIncrement = 1;
+        for (final SamplingPoint[] orbitPoints : byOrbit) {
+            maxIncrement = Math.max(maxIncrement, getExtent(orbitPoints));
+        }
+
+        int increment = 0;
+        if (count(byOrbit, increment) > maxCount) {
+            int lower = 0;
+            int upper = 1;
+            while (upper < maxIncrement && count(byOrbit, upper) > maxCount) {
+                lower = upper;
+                upper = Math.min(2 * upper, maxIncrement);
+            }
+            while (upper - lower > 1) {
+                final int middle = lower + (upper - lower) / 2;
+                if (count(byOrbit, middle) > maxCount) {
+                    lower = middle;
+                } else {
+                    upper = middle;
+                }
+            }
+            increment = upper;
         }
 
+        final List<SamplingPoint> nonOverlappingPoints = new ArrayList<>();
+        for (final SamplingPoint[] orbitPoints : byOrbit) {
+            filter(orbitPoints, width + increment, height + increment, nonOverlappingPoints);
+        }
         return nonOverlappingPoints;
     }
 
-    private Collection<SamplingPoint> getNonOverlappingPoints(Collection<SamplingPoint> points) {
-        final NavigableSet<SamplingPoint> unique = new TreeSet<>(orderedComparator);
-        final NavigableSet<SamplingPoint> result = new TreeSet<>(orderedComparator);
+    private List<SamplingPoint[]> sortByOrbit(List<SamplingPoint> points) {
+        final List<List<SamplingPoint>> byOrbit = splitByOrbit(points);
+        final List<SamplingPoint[]> sortedByOrbit = new ArrayList<>(byOrbit.size());
+        for (final List<SamplingPoint> orbitPoints : byOrbit) {
+            sortedByOrbit.add(sortUnique(orbitPoints));
+        }
+        return sortedByOrbit;
+    }
+
+    // the sort is stable, so the first of several points with the same coordinates is retained
+    private SamplingPoint[] sortUnique(List<SamplingPoint> points) {
+        final SamplingPoint[] sorted = points.toArray(new SamplingPoint[points.size()]);
+        Arrays.sort(sorted, orderedComparator);
+        int count = 0;
+        for (final SamplingPoint point : sorted) {
+            if (count == 0 || orderedComparator.compare(sorted[count - 1], point) != 0) {
+                sorted[count++] = point;
+            }
+        }
+        return Arrays.copyOf(sorted, count);
+    }
+
+    private int count(List<SamplingPoint[]> byOrbit, int increment) {
+        int count = 0;
+        for (final SamplingPoint[] orbitPoints : byOrbit) {
+            count += filter(orbitPoints, width + increment, height + increment, null);
+        }
+        return count;
+    }
+
+    // the increment beyond which all points of an orbit overlap
+    private int getExtent(SamplingPoint[] points) {
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        for (final SamplingPoint point : points) {
+            minX = Math.min(minX, point.getX());
+            maxX = Math.max(maxX, point.getX());
+        }
+        final int extentX = maxX - minX + 1 - width;
+        final int extentY = points[points.length - 1].getY() - points[0].getY() + 1 - height;
+        return Math.max(extentX, extentY);
+    }
 
-        unique.addAll(points);
-        for (final SamplingPoint point : unique) {
-            if (overlapCalculator.areOverlapping(point, result)) {
-                result.add(point);
+    private static int filter(SamplingPoint[] sortedPoints, int width, int height, List<SamplingPoint> target) {
+        final OverlapCalculator overlapCalculator = new OverlapCalculator(width, height);
+        final int cellWidth = Math.max(1, width);
+        final int cellHeight = Math.max(1, height);
+        final Map<Long, SamplingPoint> grid = new HashMap<>();
+
+        int count = 0;
+        for (final SamplingPoint point : sortedPoints) {
+            final int cellX = floorDiv(point.getX(), cellWidth);
+            final int cellY = floorDiv(point.getY(), cellHeight);
+            if (!isOverlapping(point, cellX, cellY, grid, overlapCalculator)) {
+                grid.put(getCellKey(cellX, cellY), point);
+                if (target != null) {
+                    target.add(point);
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isOverlapping(SamplingPoint point, int cellX, int cellY, Map<Long, SamplingPoint> grid,
+                                         OverlapCalculator overlapCalculator) {
+        for (int y = cellY - 1; y <= cellY + 1; y++) {
+            for (int x = cellX - 1; x <= cellX + 1; x++) {
+                final SamplingPoint other = grid.get(getCellKey(x, y));
+                if (other != null && overlapCalculator.areOverlapping(point, other)) {
+                    return true;
+                }
             }
         }
+        return false;
+    }
+
+    private static long getCellKey(int cellX, int cellY) {
+        return (long) cellY << 32 | cellX & 0xFFFFFFFFL;
+    }
 
-        return result;
+    private static int floorDiv(int x, int y) {
+        final int q = x / y;
+        return (x % y != 0 && x < 0) ? q - 1 : q;
     }
 
     // package access for testing only tb 2014-01-17
@@ -41,6 +41,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -103,95 +109,66 @@ public class DirtySubsceneRemover {
 
     public void removeSamples(List<SamplingPoint> samples) {
         logInfo("Starting removing dirty samples...");
+        final long startTime = System.nanoTime();
 
         final Map<Integer, List<SamplingPoint>> samplesByDatafile = splitByFileId(samples, primary);
-        final PixelCounter pixelCounter = new PixelCounter();
         final int maxDirtyPixelCount = (int) Math.floor((subSceneWidth * subSceneHeight) * dirtyPixelFraction);
+        final String archiveRootPath = config.getStringValue(Configuration.KEY_MMS_ARCHIVE_ROOT, ".");
+        final File archiveRoot = new File(archiveRootPath);
 
-        final int[] shape = new int[]{1, subSceneHeight, subSceneWidth};
-        final ExtractDefinitionBuilder builder = new ExtractDefinitionBuilder().shape(shape);
-        final List<SamplingPoint> cleanSamples = new ArrayList<>(samples.size());
-
+        // the storage must not be accessed concurrently, so all data files are looked up in advance
+        final List<DataFile> datafiles = new ArrayList<>(samplesByDatafile.size());
+        final List<List<SamplingPoint>> pointLists = new ArrayList<>(samplesByDatafile.size());
         for (final int id : samplesByDatafile.keySet()) {
-            final List<SamplingPoint> points = samplesByDatafile.get(id);
             final Observation observation = storage.getObservation(id);
             if (observation == null) {
                 continue;
             }
 
             final DataFile datafile = observation.getDatafile();
-            final String datafilePath = datafile.getPath();
-            final String archiveRootPath = config.getStringValue(Configuration.KEY_MMS_ARCHIVE_ROOT, ".");
-            final File archiveRoot = new File(archiveRootPath);
-            final File sourceFile = new File(archiveRoot, datafilePath);
+            final File sourceFile = new File(archiveRoot, datafile.getPath());
             if (!sourceFile.isFile()) {
                 logger.warning("Input file does not exist: " + sourceFile.getAbsolutePath());
                 continue;
             }
+            datafiles.add(datafile);
+            pointLists.add(samplesByDatafile.get(id));
+        }
 
-            try (final Reader reader = ReaderFactory.open(datafile, config)) {
-                logInfo(MessageFormat.format("Starting removing dirty samples: data file ''{0}''...", datafilePath));
-
-                final int numCols = reader.getElementCount();
-                final int numRows = reader.getScanLineCount();
-                final GeoCoding geoCoding = reader.getGeoCoding(0);
-
-                for (final SamplingPoint point : points) {
-                    final double lat = point.getLat();
-                    final double lon = point.getLon();
-                    final LocationTest test = new LocationTest(lon, lat, numCols, numRows, geoCoding).invoke();
-
-                    if (test.isOK()) {
-                        final int pixelX = test.getPixelX();
-                        final int pixelY = test.getPixelY();
-                        final PixelPos pixelPos = test.getPixelPos();
-                        final GeoPos geoPos = test.getGeoPos();
-                        if (primary) {
-                            point.setX(pixelX);
-                            point.setY(pixelY);
-                            point.setReferenceTime(reader.getTime(0, pixelY));
-                            geoCoding.getGeoPos(pixelPos, geoPos);
-                            point.setReferenceLat(geoPos.getLat());
-                            point.setReferenceLon(geoPos.getLon());
-                        } else {
-                            point.setReference2Time(reader.getTime(0, pixelY));
-                        }
-
-                        final ExtractDefinition extractDefinition = builder.lat(lat).lon(lon).build();
-                        final Array maskData = reader.read(Constants.MASK_NAME_MMS_DIRTY, extractDefinition);
-                        final int dirtyPixelCount = pixelCounter.count(maskData);
-                        if (dirtyPixelCount <= maxDirtyPixelCount) {
-                            if (logger != null && logger.isLoggable(Level.FINE)) {
-                                final String message = MessageFormat.format(
-                                        "Adding sample: found {0}/{1} dirty pixels at ({2}, {3}; {4}, {5}).",
-                                        dirtyPixelCount, maxDirtyPixelCount, lon, lat, pixelX, pixelY);
-                                logger.info(message);
-                            }
-                            cleanSamples.add(point);
-                        } else {
-                            if (logger != null && logger.isLoggable(Level.FINE)) {
-                                final String message = MessageFormat.format(
-                                        "Removing sample: found {0}/{1} dirty pixels at ({2}, {3}; {4}, {5}).",
-                                        dirtyPixelCount, maxDirtyPixelCount, lon, lat, pixelX, pixelY);
-                                logger.info(message);
-                            }
+        final StageTimes stageTimes = new StageTimes();
+        final List<SamplingPoint> cleanSamples = new ArrayList<>(samples.size());
+        if (!datafiles.isEmpty()) {
+            final int threadCount = Math.max(1, Math.min(datafiles.size(), config.getIntValue(
+                    Configuration.KEY_MMS_SAMPLING_THREADS, Runtime.getRuntime().availableProcessors())));
+            final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+            try {
+                final List<Future<List<SamplingPoint>>> futures = new ArrayList<>(datafiles.size());
+                for (int i = 0; i < datafiles.size(); i++) {
+                    final DataFile datafile = datafiles.get(i);
+                    final List<SamplingPoint> points = pointLists.get(i);
+                    futures.add(executorService.submit(new Callable<List<SamplingPoint>>() {
+                        @Override
+                        public List<SamplingPoint> call() {
+                            return removeSamples(datafile, points, maxDirtyPixelCount, stageTimes);
                         }
-                    } else {
-                        if (logger != null && logger.isLoggable(Level.FINE)) {
-                            final String message = MessageFormat.format(
-                                    "Could not find pixel at ({0}, {1}) in datafile ''{2}''.", lon, lat,
-                                    datafilePath);
-                            logger.fine(message);
+                    }));
+                }
+                // clean samples are collected in the order of data files, irrespective of the order of completion
+                for (final Future<List<SamplingPoint>> future : futures) {
+                    try {
+                        cleanSamples.addAll(future.get());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new ToolException("Removing dirty samples interrupted.", e, ToolException.TOOL_ERROR);
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof ToolException) {
+                            throw (ToolException) e.getCause();
                         }
+                        throw new ToolException(e.getCause().getMessage(), e.getCause(), ToolException.TOOL_ERROR);
                     }
                 }
-                logInfo(MessageFormat.format(
-                        "Finished removing dirty samples: data file ''{0}'' ({1} clean samples)",
-                        datafilePath, cleanSamples.size()));
-            } catch (IOException e) {
-                throw new ToolException(
-                        MessageFormat.format("Cannot read data file ''{0}''.", datafilePath), e,
-                        ToolException.TOOL_IO_ERROR);
+            } finally {
+                executorService.shutdownNow();
             }
         }
         samples.clear();
@@ -199,6 +176,123 @@ public class DirtySubsceneRemover {
 
         logInfo(MessageFormat.format("Finished removing dirty samples: {0} clean samples found in total",
                 samples.size()));
+        logInfo(MessageFormat.format(
+                "Time taken for removing dirty samples: {0} s in total, locating {1} s, reading {2} s, counting {3} s " +
+                "(summed over all threads)",
+                seconds(System.nanoTime() - startTime), seconds(stageTimes.locating.get()),
+                seconds(stageTimes.reading.get()), seconds(stageTimes.counting.get())));
+    }
+
+    private List<SamplingPoint> removeSamples(DataFile datafile, List<SamplingPoint> points, int maxDirtyPixelCount,
+                                              StageTimes stageTimes) {
+        final String datafilePath = datafile.getPath();
+        final List<SamplingPoint> cleanSamples = new ArrayList<>(points.size());
+
+        try (final Reader reader = ReaderFactory.open(datafile, config)) {
+            logInfo(MessageFormat.format("Starting removing dirty samples: data file ''{0}''...", datafilePath));
+
+            final int numCols = reader.getElementCount();
+            final int numRows = reader.getScanLineCount();
+            final GeoCoding geoCoding = reader.getGeoCoding(0);
+
+            final long time = System.nanoTime();
+            final List<SamplingPoint> locatedPoints = new ArrayList<>(points.size());
+            final int[] pixelXs = new int[points.size()];
+            final int[] pixelYs = new int[points.size()];
+            for (final SamplingPoint point : points) {
+                final double lat = point.getLat();
+                final double lon = point.getLon();
+                final LocationTest test = new LocationTest(lon, lat, numCols, numRows, geoCoding).invoke();
+
+                if (test.isOK()) {
+                    final int pixelX = test.getPixelX();
+                    final int pixelY = test.getPixelY();
+                    final PixelPos pixelPos = test.getPixelPos();
+                    final GeoPos geoPos = test.getGeoPos();
+                    if (primary) {
+                        point.setX(pixelX);
+                        point.setY(pixelY);
+                        point.setReferenceTime(reader.getTime(0, pixelY));
+                        geoCoding.getGeoPos(pixelPos, geoPos);
+                        point.setReferenceLat(geoPos.getLat());
+                        point.setReferenceLon(geoPos.getLon());
+                    } else {
+                        point.setReference2Time(reader.getTime(0, pixelY));
+                    }
+                    pixelXs[locatedPoints.size()] = pixelX;
+                    pixelYs[locatedPoints.size()] = pixelY;
+                    locatedPoints.add(point);
+                } else {
+                    if (logger != null && logger.isLoggable(Level.FINE)) {
+                        final String message = MessageFormat.format(
+                                "Could not find pixel at ({0}, {1}) in datafile ''{2}''.", lon, lat,
+                                datafilePath);
+                        logger.fine(message);
+                    }
+                }
+            }
+            stageTimes.addLocating(time);
+
+            final int[] dirtyPixelCounts = countDirtyPixels(reader, locatedPoints, stageTimes);
+
+            for (int i = 0; i < locatedPoints.size(); i++) {
+                final SamplingPoint point = locatedPoints.get(i);
+                final int dirtyPixelCount = dirtyPixelCounts[i];
+                if (dirtyPixelCount <= maxDirtyPixelCount) {
+                    if (logger != null && logger.isLoggable(Level.FINE)) {
+                        final String message = MessageFormat.format(
+                                "Adding sample: found {0}/{1} dirty pixels at ({2}, {3}; {4}, {5}).",
+                                dirtyPixelCount, maxDirtyPixelCount, point.getLon(), point.getLat(), pixelXs[i],
+                                pixelYs[i]);
+                        logger.info(message);
+                    }
+                    cleanSamples.add(point);
+                } else {
+                    if (logger != null && logger.isLoggable(Level.FINE)) {
+                        final String message = MessageFormat.format(
+                                "Removing sample: found {0}/{1} dirty pixels at ({2}, {3}; {4}, {5}).",
+                                dirtyPixelCount, maxDirtyPixelCount, point.getLon(), point.getLat(), pixelXs[i],
+                                pixelYs[i]);
+                        logger.info(message);
+                    }
+                }
+            }
+            logInfo(MessageFormat.format(
+                    "Finished removing dirty samples: data file ''{0}'' ({1} clean samples)",
+                    datafilePath, cleanSamples.size()));
+        } catch (IOException e) {
+            throw new ToolException(
+                    MessageFormat.format("Cannot read data file ''{0}''.", datafilePath), e,
+                    ToolException.TOOL_IO_ERROR);
+        }
+        return cleanSamples;
+    }
+
+    // reads the sub-scenes of the dirty mask for all points at once, so the reader can read shared scan lines once
+    private int[] countDirtyPixels(Reader reader, List<SamplingPoint> points, StageTimes stageTimes) throws
+                                                                                                      IOException {
+        final PixelCounter pixelCounter = new PixelCounter();
+        final int[] shape = new int[]{1, subSceneHeight, subSceneWidth};
+        final ExtractDefinitionBuilder builder = new ExtractDefinitionBuilder().shape(shape);
+        final ExtractDefinition[] extractDefinitions = new ExtractDefinition[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            final SamplingPoint point = points.get(i);
+            extractDefinitions[i] = builder.lat(point.getLat()).lon(point.getLon()).build();
+        }
+
+        long time = System.nanoTime();
+        final Array[] maskData = reader.read(new String[]{Constants.MASK_NAME_MMS_DIRTY}, extractDefinitions)[0];
+        time = stageTimes.addReading(time);
+        final int[] dirtyPixelCounts = new int[points.size()];
+        for (int i = 0; i < points.size(); i++) {
+            dirtyPixelCounts[i] = pixelCounter.count(maskData[i]);
+        }
+        stageTimes.addCounting(time);
+        return dirtyPixelCounts;
+    }
+
+    private static String seconds(long nanos) {
+        return String.format("%.1f", nanos * 1.0e-9);
     }
 
     private void logInfo(String message) {
@@ -220,4 +314,28 @@ public class DirtySubsceneRemover {
         return samplesByDatafile;
     }
 
+    private static final class StageTimes {
+
+        private final AtomicLong locating = new AtomicLong();
+        private final AtomicLong reading = new AtomicLong();
+        private final AtomicLong counting = new AtomicLong();
+
+        private long addLocating(long startTime) {
+            return add(locating, startTime);
+        }
+
+        private long addReading(long startTime) {
+            return add(reading, startTime);
+        }
+
+        private long addCounting(long startTime) {
+            return add(counting, startTime);
+        }
+
+        private static long add(AtomicLong stageTime, long startTime) {
+            final long time = System.nanoTime();
+            stageTime.addAndGet(time - startTime);
+            return time;
+        }
+    }
 }
@@ -2,6 +2,7 @@ package org.esa.cci.sst.tools.samplepoint;
 
 import org.apache.commons.lang.StringUtils;
 import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.tool.Configuration;
 import org.esa.cci.sst.util.SamplingPoint;
 
 import java.io.IOException;
@@ -67,6 +68,11 @@ public class FindObservationsWorkflow extends Workflow {
         final ObservationFinder.Parameter parameter = new ObservationFinder.Parameter();
         parameter.setStartTime(workflowContext.getStartTime());
         parameter.setStopTime(workflowContext.getStopTime());
+        final Configuration config = workflowContext.getConfig();
+        if (config != null) {
+            parameter.setThreadCount(config.getIntValue(Configuration.KEY_MMS_SAMPLING_THREADS,
+                                                        Runtime.getRuntime().availableProcessors()));
+        }
 
         return parameter;
     }
@@ -4,6 +4,7 @@ package org.esa.cci.sst.tools.samplepoint;
 import org.esa.cci.sst.data.RelatedObservation;
 import org.esa.cci.sst.orm.PersistenceManager;
 import org.esa.cci.sst.orm.Storage;
+import org.esa.cci.sst.tool.ToolException;
 import org.esa.cci.sst.tools.overlap.PolarOrbitingPolygon;
 import org.esa.cci.sst.util.SamplingPoint;
 import org.esa.cci.sst.util.SensorNames;
@@ -13,9 +14,16 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ObservationFinder {
 
+    private static final int MIN_SLICE_SIZE = 1024;
+
     private final PersistenceManager persistenceManager;
 
     public ObservationFinder(PersistenceManager persistenceManager) {
@@ -67,13 +75,22 @@ public class ObservationFinder {
                                                    orbitObservation.getTime().getTime(),
                                                    orbitObservation.getLocation().getGeometry());
         }
-        findObservations(samples, searchTimePastMillis, searchTimeFutureMillis, primarySensor, polygons);
+        findObservations(samples, searchTimePastMillis, searchTimeFutureMillis, primarySensor,
+                         parameter.getThreadCount(), polygons);
     }
 
     // package access for testing only tb 2014-04-02
     static void findObservations(List<SamplingPoint> samples, long searchTimePast, long searchTimeFuture,
                                  boolean primarySensor,
                                  PolarOrbitingPolygon... polygons) {
+        findObservations(samples, searchTimePast, searchTimeFuture, primarySensor,
+                         Runtime.getRuntime().availableProcessors(), polygons);
+    }
+
+    // package access for testing only
+    static void findObservations(List<SamplingPoint> samples, final long searchTimePast, final long searchTimeFuture,
+                                 final boolean primarySensor, int threadCount,
+                                 final PolarOrbitingPolygon... polygons) {
         final List<SamplingPoint> accu = new ArrayList<>(samples.size());
         if (polygons.length > 0) {
             // do not trust database sorting
@@ -88,48 +105,47 @@ public class ObservationFinder {
                 polygonTimes[i] = polygons[i].getTime();
             }
 
-            for (final SamplingPoint point : samples) {
-                final long pointTime = getPointTime(point, primarySensor);
-
-                // binary search for orbit temporally before or at the same time (iBefore) and after (iAfter) point
-                int iBefore = binarySearch(polygonTimes, pointTime);
-                int iAfter = iBefore + 1;
-
-                // find overlapping orbit that is closest in time to the sampling point
-                final double pointLat = point.getLat();
-                final double pointLon = point.getLon();
-                while (iBefore >= 0) {
-                    if (pointTime - polygonTimes[iBefore] <= searchTimePast) {
-                        if (polygons[iBefore].isPointInPolygon(pointLat, pointLon)) {
-                            break;
-                        }
+            // the search for each point is independent, so points are searched in parallel slices; the results
+            // are collected by point index and assigned in the original order afterwards
+            final SamplingPoint[] points = samples.toArray(new SamplingPoint[samples.size()]);
+            final PolarOrbitingPolygon[] matches = new PolarOrbitingPolygon[points.length];
+            final int sliceSize = Math.max(MIN_SLICE_SIZE, (points.length + threadCount - 1) / Math.max(1, threadCount));
+            if (threadCount <= 1 || points.length <= sliceSize) {
+                findPolygons(points, 0, points.length, primarySensor, searchTimePast, searchTimeFuture,
+                             polygonTimes, polygons, matches);
+            } else {
+                final ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+                try {
+                    final List<Future<?>> futures = new ArrayList<>();
+                    for (int start = 0; start < points.length; start += sliceSize) {
+                        final int sliceStart = start;
+                        final int sliceStop = Math.min(start + sliceSize, points.length);
+                        futures.add(executorService.submit(new Callable<Object>() {
+                            @Override
+                            public Object call() {
+                                findPolygons(points, sliceStart, sliceStop, primarySensor, searchTimePast,
+                                             searchTimeFuture, polygonTimes, polygons, matches);
+                                return null;
+                            }
+                        }));
                     }
-                    --iBefore;
-                }
-                while (iAfter < polygons.length) {
-                    if (polygonTimes[iAfter] - pointTime <= searchTimeFuture) {
-                        if (polygons[iAfter].isPointInPolygon(pointLat, pointLon)) {
-                            break;
-                        }
+                    for (final Future<?> future : futures) {
+                        future.get();
                     }
-                    ++iAfter;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new ToolException("Observation search interrupted.", e, ToolException.TOOL_ERROR);
+                } catch (ExecutionException e) {
+                    throw new ToolException(e.getCause().getMessage(), e.getCause(), ToolException.TOOL_ERROR);
+                } finally {
+                    executorService.shutdown();
                 }
-                final boolean foundBefore = iBefore >= 0;
-                final boolean foundAfter = iAfter < polygons.length;
-                if (foundBefore) {
-                    if (foundAfter) {
-                        if (pointTime - polygonTimes[iBefore] < polygonTimes[iAfter] - pointTime) {
-                            assignToSamplingPoint(primarySensor, point, polygons[iBefore]);
-                        } else {
-                            assignToSamplingPoint(primarySensor, point, polygons[iAfter]);
-                        }
-                    } else {
-                        assignToSamplingPoint(primarySensor, point, polygons[iBefore]);
-                    }
-                    accu.add(point);
-                } else if (foundAfter) {
-                    assignToSamplingPoint(primarySensor, point, polygons[iAfter]);
-                    accu.add(point);
+            }
+
+            for (int i = 0; i < points.length; i++) {
+                if (matches[i] != null) {
+                    assignToSamplingPoint(primarySensor, points[i], matches[i]);
+                    accu.add(points[i]);
                 }
             }
         }
@@ -137,6 +153,59 @@ public class ObservationFinder {
         samples.addAll(accu);
     }
 
+    private static void findPolygons(SamplingPoint[] points, int start, int stop, boolean primarySensor,
+                                     long searchTimePast, long searchTimeFuture, long[] polygonTimes,
+                                     PolarOrbitingPolygon[] polygons, PolarOrbitingPolygon[] matches) {
+        for (int i = start; i < stop; i++) {
+            final SamplingPoint point = points[i];
+            final long pointTime = getPointTime(point, primarySensor);
+
+            // binary search for orbit temporally before or at the same time (iBefore) and after (iAfter) point
+            int iBefore = binarySearch(polygonTimes, pointTime);
+            int iAfter = iBefore + 1;
+
+            // find overlapping orbit that is closest in time to the sampling point
+            // orbits are sorted by time, so the search stops at the first orbit outside the search window
+            final double pointLat = point.getLat();
+            final double pointLon = point.getLon();
+            while (iBefore >= 0) {
+                if (pointTime - polygonTimes[iBefore] > searchTimePast) {
+                    iBefore = -1;
+                    break;
+                }
+                if (polygons[iBefore].isPointInPolygon(pointLat, pointLon)) {
+                    break;
+                }
+                --iBefore;
+            }
+            while (iAfter < polygons.length) {
+                if (polygonTimes[iAfter] - pointTime > searchTimeFuture) {
+                    iAfter = polygons.length;
+                    break;
+                }
+                if (polygons[iAfter].isPointInPolygon(pointLat, pointLon)) {
+                    break;
+                }
+                ++iAfter;
+            }
+            final boolean foundBefore = iBefore >= 0;
+            final boolean foundAfter = iAfter < polygons.length;
+            if (foundBefore) {
+                if (foundAfter) {
+                    if (pointTime - polygonTimes[iBefore] < polygonTimes[iAfter] - pointTime) {
+                        matches[i] = polygons[iBefore];
+                    } else {
+                        matches[i] = polygons[iAfter];
+                    }
+                } else {
+                    matches[i] = polygons[iBefore];
+                }
+            } else if (foundAfter) {
+                matches[i] = polygons[iAfter];
+            }
+        }
+    }
+
     // package access for testing only tb 2014-04-01
     static void assignToSamplingPoint(boolean primarySensor, SamplingPoint point, PolarOrbitingPolygon polygon) {
         if (primarySensor) {
@@ -183,6 +252,7 @@ public class ObservationFinder {
         private long stopTime;
         private int searchTimeFuture;
         private int searchTimePast;
+        private int threadCount = Runtime.getRuntime().availableProcessors();
 
         public void setSensorName(String sensorName) {
             this.sensorName = sensorName;
@@ -223,5 +293,13 @@ public class ObservationFinder {
         public int getSearchTimePast() {
             return searchTimePast;
         }
+
+        public void setThreadCount(int threadCount) {
+            this.threadCount = threadCount;
+        }
+
+        public int getThreadCount() {
+            return threadCount;
+        }
     }
 }
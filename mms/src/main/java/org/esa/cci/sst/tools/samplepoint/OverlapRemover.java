@@ -35,4 +35,18 @@ public class OverlapRemover {
         samples.clear();
         samples.addAll(remainingSamples);
     }
+
+    /**
+     * Removes overlapping samples, increasing the sub-scene size as needed such that no more than
+     * a maximum number of samples remain.
+     *
+     * @param samples        The samples.
+     * @param maxSampleCount The maximum number of remaining samples.
+     */
+    public void removeSamples(List<SamplingPoint> samples, int maxSampleCount) {
+        final RegionOverlapFilter regionOverlapFilter = new RegionOverlapFilter(subSceneWidth, subSceneHeight);
+        final List<SamplingPoint> remainingSamples = regionOverlapFilter.apply(samples, maxSampleCount);
+        samples.clear();
+        samples.addAll(remainingSamples);
+    }
 }
@@ -6,6 +6,7 @@ import org.esa.cci.sst.tool.ToolException;
 import org.esa.cci.sst.util.ConfigUtil;
 import org.esa.cci.sst.util.SamplingPoint;
 import org.esa.cci.sst.util.SamplingPointIO;
+import org.esa.cci.sst.util.SamplingPointWriter;
 import org.esa.cci.sst.util.TimeUtil;
 import org.esa.cci.sst.util.Watermask;
 
@@ -61,7 +62,9 @@ public class SamplePointExporter {
         final int year = TimeUtil.getYear(timeRange.getStartDate());
         final int month = TimeUtil.getMonth(timeRange.getStartDate());
 
-        final String targetPath = SamplingPointUtil.createPath(archiveRootPath, sensorName, year, month, key);
+        final boolean binaryFormat = config.getBooleanValue(Configuration.KEY_MMS_SAMPLING_BINARY_FORMAT, false);
+        final String extension = binaryFormat ? SamplingPointUtil.BINARY_EXTENSION : SamplingPointUtil.JSON_EXTENSION;
+        final String targetPath = SamplingPointUtil.createPath(archiveRootPath, sensorName, year, month, key, extension);
         final File targetFile = new File(targetPath);
         final File targetDir = targetFile.getParentFile();
         if (!targetDir.isDirectory()) {
@@ -74,8 +77,14 @@ public class SamplePointExporter {
             logWarning("Overwriting target file: " + targetFile.getAbsolutePath());
         }
 
-        try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(targetFile), 16384)) {
-            SamplingPointIO.write(points, outputStream);
+        if (binaryFormat) {
+            try (SamplingPointWriter writer = new SamplingPointWriter(new FileOutputStream(targetFile))) {
+                writer.write(points);
+            }
+        } else {
+            try (OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(targetFile), 16384)) {
+                SamplingPointIO.write(points, outputStream);
+            }
         }
     }
 
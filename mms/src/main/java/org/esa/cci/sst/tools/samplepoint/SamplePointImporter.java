@@ -3,14 +3,12 @@ package org.esa.cci.sst.tools.samplepoint;
 import org.esa.cci.sst.tool.Configuration;
 import org.esa.cci.sst.util.ConfigUtil;
 import org.esa.cci.sst.util.SamplingPoint;
-import org.esa.cci.sst.util.SamplingPointIO;
+import org.esa.cci.sst.util.SamplingPointReader;
 import org.esa.cci.sst.util.TimeUtil;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -43,30 +41,34 @@ public class SamplePointImporter {
     }
 
     public List<SamplingPoint> load() throws IOException {
-        final File fileA = getInputFile('a');
-        final File fileB = getInputFile('b');
-        final File fileC = getInputFile('c');
-
-        final List<SamplingPoint> listA = loadPointsFrom(fileA);
-        final List<SamplingPoint> listB = loadPointsFrom(fileB);
-        final List<SamplingPoint> listC = loadPointsFrom(fileC);
-
-        listA.addAll(listB);
-        listA.addAll(listC);
-        return listA;
+        final List<SamplingPoint> samplingPoints = new ArrayList<>();
+        loadPointsFrom(getInputFile('a'), samplingPoints);
+        loadPointsFrom(getInputFile('b'), samplingPoints);
+        loadPointsFrom(getInputFile('c'), samplingPoints);
+        return samplingPoints;
     }
 
-    private List<SamplingPoint> loadPointsFrom(File file) throws IOException {
+    private void loadPointsFrom(File file, List<SamplingPoint> samplingPoints) throws IOException {
         if (file == null) {
-            return new ArrayList<>();
+            return;
         }
 
-        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(file), 16384)) {
-            return SamplingPointIO.read(inputStream);
+        try (SamplingPointReader reader = new SamplingPointReader(new FileInputStream(file))) {
+            List<SamplingPoint> chunk;
+            while ((chunk = reader.readChunk()) != null) {
+                samplingPoints.addAll(chunk);
+            }
         }
     }
 
+    // a file in binary format takes precedence over a file in JSON format
     private File getInputFile(char key) {
+        final String binaryPath = SamplingPointUtil.createPath(usecaseRootPath, sensorName, year, month, key,
+                                                               SamplingPointUtil.BINARY_EXTENSION);
+        final File binaryFile = new File(binaryPath);
+        if (binaryFile.isFile()) {
+            return binaryFile;
+        }
         final String path = SamplingPointUtil.createPath(usecaseRootPath, sensorName, year, month, key);
         final File file = new File(path);
         if (!file.isFile()) {
@@ -7,7 +7,14 @@ class SamplingPointUtil {
 
     private static final DecimalFormat monthFormat = new DecimalFormat("00");
 
+    static final String JSON_EXTENSION = ".json";
+    static final String BINARY_EXTENSION = ".smp";
+
     static String createPath(String archivRoot, String sensorName, int year, int month, char key) {
+        return createPath(archivRoot, sensorName, year, month, key, JSON_EXTENSION);
+    }
+
+    static String createPath(String archivRoot, String sensorName, int year, int month, char key, String extension) {
         final StringBuilder builder = new StringBuilder(256);
         builder.append(archivRoot);
         builder.append("/smp/");
@@ -22,7 +29,7 @@ class SamplingPointUtil {
         builder.append(monthFormat.format(month));
         builder.append('-');
         builder.append(key);
-        builder.append(".json");
+        builder.append(extension);
         return builder.toString();
     }
 }
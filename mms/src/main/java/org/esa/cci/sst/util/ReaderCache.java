@@ -16,32 +16,38 @@ package org.esa.cci.sst.util;
  * with this program; if not, see http://www.gnu.org/licenses/
  */
 
-import org.esa.beam.framework.datamodel.Band;
-import org.esa.beam.framework.datamodel.Product;
-import org.esa.beam.framework.gpf.GPF;
 import org.esa.cci.sst.data.DataFile;
 import org.esa.cci.sst.reader.Reader;
-import org.esa.cci.sst.reader.ReaderFactory;
 import org.esa.cci.sst.tool.Configuration;
 
-import javax.media.jai.JAI;
 import java.io.IOException;
-import java.text.MessageFormat;
 import java.util.Collection;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Caches the readers used by a single thread. The readers are leased from a
+ * {@link ReaderPool}, which may be shared by several reader caches, and are
+ * released when they are removed from the cache.
+ */
 public final class ReaderCache {
 
     private final Cache<String, Reader> readerCache;
-    private final Configuration configuration;
-    private final Logger logger;
-
+    private final ReaderPool readerPool;
+    private final boolean ownsReaderPool;
 
     public ReaderCache(int capacity, Configuration configuration, Logger logger) {
+        // readers released to a private pool are closed immediately
+        this(new ReaderPool(0, 0, configuration, logger), capacity, true);
+    }
+
+    public ReaderCache(ReaderPool readerPool, int capacity) {
+        this(readerPool, capacity, false);
+    }
+
+    private ReaderCache(ReaderPool readerPool, int capacity, boolean ownsReaderPool) {
         this.readerCache = new Cache<>(capacity);
-        this.configuration = configuration;
-        this.logger = logger;
+        this.readerPool = readerPool;
+        this.ownsReaderPool = ownsReaderPool;
     }
 
     public Reader getReader(DataFile datafile) throws IOException {
@@ -49,42 +55,29 @@ public final class ReaderCache {
         if (readerCache.contains(path)) {
             return readerCache.get(path);
         } else {
-            final Reader reader;
-            try {
-                if (logger != null && logger.isLoggable(Level.INFO)) {
-                    final String message = MessageFormat.format("Opening input file ''{0}''.", path);
-                    logger.info(message);
-                }
-                reader = ReaderFactory.open(datafile, configuration);
-                if (logger != null && logger.isLoggable(Level.INFO)) {
-                    final String message = MessageFormat.format("Opened input file ''{0}''.", path);
-                    logger.info(message);
-                }
-            } catch (Exception e) {
-                throw new IOException(MessageFormat.format("Unable to open file ''{0}''.", path), e);
-            }
+            final Reader reader = readerPool.lease(datafile);
             final Reader removedReader = readerCache.add(path, reader);
             if (removedReader != null) {
-                removedReader.close();
+                readerPool.release(removedReader);
             }
             return reader;
         }
     }
 
     public void closeReader(DataFile datafile) {
-        final String path = datafile.getPath();
-        if (readerCache.contains(path)) {
-            final Reader removedReader = readerCache.remove(path);
-            if (removedReader != null) {
-                removedReader.close();
-            }
+        final Reader removedReader = readerCache.remove(datafile.getPath());
+        if (removedReader != null) {
+            readerPool.release(removedReader);
         }
     }
 
     public void clear() {
         final Collection<Reader> removedReaders = readerCache.clear();
         for (final Reader reader : removedReaders) {
-            reader.close();
+            readerPool.release(reader);
+        }
+        if (ownsReaderPool) {
+            readerPool.clear();
         }
     }
 }
@@ -0,0 +1,277 @@
+package org.esa.cci.sst.util;
+
+/*
+ * Copyright (C) 2016 Brockmann Consult GmbH (info@brockmann-consult.de)
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option)
+ * any later version.
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this program; if not, see http://www.gnu.org/licenses/
+ */
+
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.reader.Reader;
+import org.esa.cci.sst.reader.ReaderFactory;
+import org.esa.cci.sst.tool.Configuration;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A thread-safe pool of readers, which can be shared by several threads.
+ * <p/>
+ * A reader is obtained by leasing it for a data file and must be released when it is
+ * no longer used. Readers are not thread-safe, so a reader is leased to a single thread
+ * at a time. When a thread leases a reader for a data file whose readers are all leased,
+ * another reader is opened for the same data file. A leased reader is never closed.
+ * Readers which are not leased are kept open and are closed in least-recently-used order,
+ * when either the number of open readers or their approximate memory footprint exceeds
+ * the limits of the pool.
+ */
+public class ReaderPool {
+
+    private final int maxReaderCount;
+    private final long maxMemory;
+    private final Configuration configuration;
+    private final Logger logger;
+
+    private final Map<String, List<Entry>> entries;
+    private final Map<Reader, Entry> leasedEntries;
+    private final LinkedHashSet<Entry> idleEntries;
+
+    private int readerCount;
+    private long memory;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Creates a new pool.
+     *
+     * @param maxReaderCount The maximum number of open readers, which are not leased.
+     * @param maxMemory      The maximum approximate memory (bytes) of all open readers. Not limited if zero.
+     * @param configuration  The configuration used for opening readers.
+     * @param logger         The logger, may be {@code null}.
+     */
+    public ReaderPool(int maxReaderCount, long maxMemory, Configuration configuration, Logger logger) {
+        this.maxReaderCount = maxReaderCount;
+        this.maxMemory = maxMemory;
+        this.configuration = configuration;
+        this.logger = logger;
+
+        entries = new HashMap<>();
+        leasedEntries = new IdentityHashMap<>();
+        idleEntries = new LinkedHashSet<>();
+    }
+
+    /**
+     * Leases a reader for a data file. A reader which is open already is leased, if it is
+     * not leased by another thread. Otherwise a new reader is opened.
+     *
+     * @param datafile The data file.
+     *
+     * @return the reader.
+     *
+     * @throws IOException if the reader could not be opened.
+     */
+    public Reader lease(DataFile datafile) throws IOException {
+        final String path = datafile.getPath();
+        synchronized (this) {
+            final List<Entry> pathEntries = entries.get(path);
+            if (pathEntries != null) {
+                for (final Entry entry : pathEntries) {
+                    if (!entry.leased) {
+                        hitCount++;
+                        acquire(entry);
+                        return entry.reader;
+                    }
+                }
+            }
+            missCount++;
+        }
+
+        final Reader reader = openReader(datafile);
+        final long readerMemory = estimateMemory(reader);
+        synchronized (this) {
+            final Entry entry = new Entry(path, reader, readerMemory);
+            List<Entry> pathEntries = entries.get(path);
+            if (pathEntries == null) {
+                pathEntries = new ArrayList<>(1);
+                entries.put(path, pathEntries);
+            }
+            pathEntries.add(entry);
+            readerCount++;
+            memory += readerMemory;
+            acquire(entry);
+        }
+        evict();
+        return reader;
+    }
+
+    /**
+     * Releases a reader obtained from {@link #lease(DataFile)}.
+     *
+     * @param reader The reader.
+     */
+    public void release(Reader reader) {
+        final Entry entry;
+        final boolean retired;
+        synchronized (this) {
+            entry = leasedEntries.remove(reader);
+            if (entry == null) {
+                throw new IllegalArgumentException("Reader has not been leased from this pool.");
+            }
+            entry.leased = false;
+            retired = entry.retired;
+            if (retired) {
+                memory -= entry.memory;
+            } else {
+                idleEntries.add(entry);
+            }
+        }
+        if (retired) {
+            closeReader(entry);
+        } else {
+            evict();
+        }
+    }
+
+    /**
+     * Closes all readers which are not leased. Leased readers are closed when they are released.
+     */
+    public void clear() {
+        final List<Entry> retiredEntries = new ArrayList<>();
+        synchronized (this) {
+            for (final List<Entry> pathEntries : entries.values()) {
+                for (final Entry entry : pathEntries) {
+                    if (entry.leased) {
+                        entry.retired = true;
+                    } else {
+                        retiredEntries.add(entry);
+                        memory -= entry.memory;
+                    }
+                }
+            }
+            entries.clear();
+            idleEntries.clear();
+            readerCount = 0;
+        }
+        for (final Entry entry : retiredEntries) {
+            closeReader(entry);
+        }
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized int getReaderCount() {
+        return readerCount;
+    }
+
+    public synchronized long getMemory() {
+        return memory;
+    }
+
+    protected Reader openReader(DataFile datafile) throws IOException {
+        final String path = datafile.getPath();
+        try {
+            if (logger != null && logger.isLoggable(Level.INFO)) {
+                logger.info(MessageFormat.format("Opening input file ''{0}''.", path));
+            }
+            final Reader reader = ReaderFactory.open(datafile, configuration);
+            if (logger != null && logger.isLoggable(Level.INFO)) {
+                logger.info(MessageFormat.format("Opened input file ''{0}''.", path));
+            }
+            return reader;
+        } catch (Exception e) {
+            throw new IOException(MessageFormat.format("Unable to open file ''{0}''.", path), e);
+        }
+    }
+
+    protected long estimateMemory(Reader reader) {
+        // the caches of a reader may be filled up to their maximum size
+        long memory = ReaderFactory.getCacheSize(reader);
+        final Product product = reader.getProduct();
+        if (product != null) {
+            memory += product.getRawStorageSize();
+        }
+        return memory;
+    }
+
+    private void acquire(Entry entry) {
+        idleEntries.remove(entry);
+        leasedEntries.put(entry.reader, entry);
+        entry.leased = true;
+    }
+
+    private void evict() {
+        final List<Entry> evictedEntries = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Entry> iterator = idleEntries.iterator();
+            while (iterator.hasNext() && (idleEntries.size() > maxReaderCount || maxMemory > 0 && memory > maxMemory)) {
+                final Entry entry = iterator.next();
+                iterator.remove();
+                final List<Entry> pathEntries = entries.get(entry.path);
+                pathEntries.remove(entry);
+                if (pathEntries.isEmpty()) {
+                    entries.remove(entry.path);
+                }
+                readerCount--;
+                memory -= entry.memory;
+                evictionCount++;
+                evictedEntries.add(entry);
+            }
+        }
+        for (final Entry entry : evictedEntries) {
+            closeReader(entry);
+        }
+    }
+
+    private void closeReader(Entry entry) {
+        if (logger != null && logger.isLoggable(Level.FINE)) {
+            logger.fine(MessageFormat.format("Closing input file ''{0}''.", entry.path));
+        }
+        entry.reader.close();
+    }
+
+    private static final class Entry {
+
+        private final String path;
+        private final Reader reader;
+        private final long memory;
+        private boolean leased;
+        private boolean retired;
+
+        private Entry(String path, Reader reader, long memory) {
+            this.path = path;
+            this.reader = reader;
+            this.memory = memory;
+        }
+    }
+}
@@ -3,13 +3,30 @@ package org.esa.cci.sst.util;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Reads and writes lists of sampling points.
+ * <p/>
+ * There are two formats: a JSON format, and a compact binary format, where the points are stored
+ * in chunks, column by column and, optionally, compressed. The binary format is written and read
+ * by {@link SamplingPointWriter} and {@link SamplingPointReader}, which process the points chunk
+ * by chunk. When reading, the format is detected automatically, so either format can be converted
+ * into the other by reading and writing.
+ */
 public class SamplingPointIO {
 
+    static final int MAGIC = 0x534D5042; // "SMPB"
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+    static final byte NO_DATASET_ID = -1;
+    static final int DEFAULT_CHUNK_SIZE = 65536;
+
 
     public static void write(List<SamplingPoint> samplingPoints, OutputStream outputStream) throws IOException {
         final SamplingPointList samplingPointList = new SamplingPointList(samplingPoints);
@@ -17,14 +34,50 @@ public class SamplingPointIO {
         mapper.writeValue(outputStream, samplingPointList);
     }
 
+    public static void writeBinary(List<SamplingPoint> samplingPoints, OutputStream outputStream) throws IOException {
+        try (SamplingPointWriter writer = new SamplingPointWriter(outputStream)) {
+            writer.write(samplingPoints);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static List<SamplingPoint> read(InputStream inputStream) throws IOException {
+        if (!inputStream.markSupported()) {
+            inputStream = new BufferedInputStream(inputStream, 65536);
+        }
+        if (isBinary(inputStream)) {
+            final List<SamplingPoint> samplingPoints = new ArrayList<>();
+            try (SamplingPointReader reader = new SamplingPointReader(inputStream)) {
+                List<SamplingPoint> chunk;
+                while ((chunk = reader.readChunk()) != null) {
+                    samplingPoints.addAll(chunk);
+                }
+            }
+            return samplingPoints;
+        }
         final ObjectMapper objectMapper = new ObjectMapper();
         final SamplingPointList samplingPointList = objectMapper.readValue(inputStream, SamplingPointList.class);
 
         return samplingPointList.getSamplingPoints();
     }
 
+    static boolean isBinary(InputStream inputStream) throws IOException {
+        inputStream.mark(4);
+        try {
+            int magic = 0;
+            for (int i = 0; i < 4; i++) {
+                final int b = inputStream.read();
+                if (b < 0) {
+                    return false;
+                }
+                magic = magic << 8 | b;
+            }
+            return magic == MAGIC;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
     private static final class SamplingPointList {
 
         @JsonProperty
@@ -0,0 +1,234 @@
+package org.esa.cci.sst.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.esa.cci.sst.common.InsituDatasetId;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads sampling points chunk by chunk, either from the binary or from the JSON format of
+ * {@link SamplingPointIO}. Only a single chunk of points is held in memory at any time.
+ */
+public final class SamplingPointReader implements Closeable {
+
+    private final InputStream inputStream;
+    private final int chunkSize;
+
+    private final DataInputStream dis;
+    private final Inflater inflater;
+
+    private final ObjectMapper mapper;
+    private final JsonParser parser;
+
+    private boolean done;
+
+    /**
+     * Creates a new reader. The format is detected from the first bytes of the input stream.
+     *
+     * @param inputStream The input stream.
+     *
+     * @throws IOException when an I/O error occurs.
+     */
+    public SamplingPointReader(InputStream inputStream) throws IOException {
+        this(inputStream, SamplingPointIO.DEFAULT_CHUNK_SIZE);
+    }
+
+    public SamplingPointReader(InputStream inputStream, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0");
+        }
+        this.inputStream = inputStream.markSupported() ? inputStream : new BufferedInputStream(inputStream, 65536);
+        this.chunkSize = chunkSize;
+
+        if (SamplingPointIO.isBinary(this.inputStream)) {
+            final DataInputStream headerStream = new DataInputStream(this.inputStream);
+            headerStream.readInt();
+            final int version = headerStream.readInt();
+            if (version != SamplingPointIO.VERSION) {
+                throw new IOException("Unsupported version of sampling point format: " + version);
+            }
+            final int flags = headerStream.readByte();
+            if ((flags & SamplingPointIO.FLAG_COMPRESSED) != 0) {
+                inflater = new Inflater();
+                dis = new DataInputStream(new BufferedInputStream(
+                        new InflaterInputStream(this.inputStream, inflater, 65536), 65536));
+            } else {
+                inflater = null;
+                dis = headerStream;
+            }
+            mapper = null;
+            parser = null;
+        } else {
+            dis = null;
+            inflater = null;
+            mapper = new ObjectMapper();
+            parser = mapper.getFactory().createParser(this.inputStream);
+            done = !skipToSamplingPoints();
+        }
+    }
+
+    /**
+     * Reads the next chunk of sampling points.
+     *
+     * @return the next chunk of sampling points, or {@code null} if all points have been read.
+     *
+     * @throws IOException when an I/O error occurs.
+     */
+    public List<SamplingPoint> readChunk() throws IOException {
+        if (done) {
+            return null;
+        }
+        final List<SamplingPoint> points = dis != null ? readBinaryChunk() : readJsonChunk();
+        if (points.isEmpty()) {
+            done = true;
+            return null;
+        }
+        return points;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (parser != null) {
+                parser.close();
+            }
+            inputStream.close();
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    private List<SamplingPoint> readBinaryChunk() throws IOException {
+        final int count = dis.readInt();
+        if (count == 0) {
+            return new ArrayList<>(0);
+        }
+        if (count < 0) {
+            throw new IOException("Invalid sampling point chunk size: " + count);
+        }
+        final ByteBuffer columnBuffer = ByteBuffer.allocate(count * 8);
+
+        final double[] random = readDoubles(columnBuffer, count);
+        final double[] lon = readDoubles(columnBuffer, count);
+        final double[] lat = readDoubles(columnBuffer, count);
+        final long[] time = readLongs(columnBuffer, count);
+        final int[] reference = readInts(columnBuffer, count);
+        final int[] index = readInts(columnBuffer, count);
+        final int[] reference2 = readInts(columnBuffer, count);
+        final int[] x = readInts(columnBuffer, count);
+        final int[] y = readInts(columnBuffer, count);
+        final int[] insituReference = readInts(columnBuffer, count);
+        final long[] referenceTime = readLongs(columnBuffer, count);
+        final double[] referenceLat = readDoubles(columnBuffer, count);
+        final double[] referenceLon = readDoubles(columnBuffer, count);
+        final byte[] insituDatasetId = new byte[count];
+        dis.readFully(insituDatasetId);
+        final String[] datasetName = readStrings(columnBuffer, count);
+        final long[] reference2Time = readLongs(columnBuffer, count);
+
+        final List<SamplingPoint> points = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final SamplingPoint point = new SamplingPoint(lon[i], lat[i], time[i], random[i]);
+            point.setReference(reference[i]);
+            point.setIndex(index[i]);
+            point.setReference2(reference2[i]);
+            point.setX(x[i]);
+            point.setY(y[i]);
+            point.setInsituReference(insituReference[i]);
+            point.setReferenceTime(referenceTime[i]);
+            point.setReferenceLat(referenceLat[i]);
+            point.setReferenceLon(referenceLon[i]);
+            if (insituDatasetId[i] != SamplingPointIO.NO_DATASET_ID) {
+                point.setInsituDatasetId(InsituDatasetId.create(insituDatasetId[i]));
+            }
+            point.setDatasetName(datasetName[i]);
+            point.setReference2Time(reference2Time[i]);
+            points.add(point);
+        }
+        return points;
+    }
+
+    private double[] readDoubles(ByteBuffer columnBuffer, int count) throws IOException {
+        dis.readFully(columnBuffer.array(), 0, count * 8);
+        final double[] column = new double[count];
+        columnBuffer.clear();
+        columnBuffer.asDoubleBuffer().get(column);
+        return column;
+    }
+
+    private long[] readLongs(ByteBuffer columnBuffer, int count) throws IOException {
+        dis.readFully(columnBuffer.array(), 0, count * 8);
+        final long[] column = new long[count];
+        columnBuffer.clear();
+        columnBuffer.asLongBuffer().get(column);
+        return column;
+    }
+
+    private int[] readInts(ByteBuffer columnBuffer, int count) throws IOException {
+        dis.readFully(columnBuffer.array(), 0, count * 4);
+        final int[] column = new int[count];
+        columnBuffer.clear();
+        columnBuffer.asIntBuffer().get(column);
+        return column;
+    }
+
+    private String[] readStrings(ByteBuffer columnBuffer, int count) throws IOException {
+        final int dictionarySize = dis.readInt();
+        final String[] dictionary = new String[dictionarySize];
+        for (int k = 0; k < dictionarySize; k++) {
+            dictionary[k] = dis.readUTF();
+        }
+        final int[] indexes = readInts(columnBuffer, count);
+        final String[] column = new String[count];
+        for (int i = 0; i < count; i++) {
+            final int dictionaryIndex = indexes[i];
+            if (dictionaryIndex >= dictionarySize) {
+                throw new IOException("Invalid dataset name index: " + dictionaryIndex);
+            }
+            column[i] = dictionaryIndex >= 0 ? dictionary[dictionaryIndex] : null;
+        }
+        return column;
+    }
+
+    private List<SamplingPoint> readJsonChunk() throws IOException {
+        final List<SamplingPoint> points = new ArrayList<>();
+        while (points.size() < chunkSize) {
+            final JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.END_ARRAY) {
+                done = true;
+                break;
+            }
+            points.add(mapper.readValue(parser, SamplingPoint.class));
+        }
+        return points;
+    }
+
+    // positions the parser at the start of the 'samplingPoints' array, returns false if there is none
+    private boolean skipToSamplingPoints() throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Invalid sampling point file: JSON object expected.");
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String fieldName = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("samplingPoints".equals(fieldName)) {
+                return token == JsonToken.START_ARRAY;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+}
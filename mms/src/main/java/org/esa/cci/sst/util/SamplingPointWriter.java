@@ -0,0 +1,229 @@
+package org.esa.cci.sst.util;
+
+import org.esa.cci.sst.common.InsituDatasetId;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes sampling points in the binary format of {@link SamplingPointIO}.
+ * <p/>
+ * The points are buffered and written in chunks. Within a chunk, the points are stored column by
+ * column, i.e. first all longitudes, then all latitudes and so on, which compresses considerably
+ * better than storing the points one after another. Only a single chunk of points is held in
+ * memory at any time.
+ */
+public final class SamplingPointWriter implements Closeable {
+
+    private final DataOutputStream dos;
+    private final Deflater deflater;
+    private final DeflaterOutputStream deflaterStream;
+    private final int chunkSize;
+
+    private final double[] random;
+    private final double[] lon;
+    private final double[] lat;
+    private final long[] time;
+    private final int[] reference;
+    private final int[] index;
+    private final int[] reference2;
+    private final int[] x;
+    private final int[] y;
+    private final int[] insituReference;
+    private final long[] referenceTime;
+    private final double[] referenceLat;
+    private final double[] referenceLon;
+    private final byte[] insituDatasetId;
+    private final String[] datasetName;
+    private final long[] reference2Time;
+    private final ByteBuffer columnBuffer;
+
+    private int count;
+    private boolean closed;
+
+    public SamplingPointWriter(OutputStream outputStream) throws IOException {
+        this(outputStream, true, SamplingPointIO.DEFAULT_CHUNK_SIZE);
+    }
+
+    public SamplingPointWriter(OutputStream outputStream, boolean compressed, int chunkSize) throws IOException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize <= 0");
+        }
+        final DataOutputStream headerStream = new DataOutputStream(outputStream);
+        headerStream.writeInt(SamplingPointIO.MAGIC);
+        headerStream.writeInt(SamplingPointIO.VERSION);
+        headerStream.writeByte(compressed ? SamplingPointIO.FLAG_COMPRESSED : 0);
+        headerStream.flush();
+        if (compressed) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+            deflaterStream = new DeflaterOutputStream(outputStream, deflater, 65536);
+            dos = new DataOutputStream(new BufferedOutputStream(deflaterStream, 65536));
+        } else {
+            deflater = null;
+            deflaterStream = null;
+            dos = new DataOutputStream(new BufferedOutputStream(outputStream, 65536));
+        }
+        this.chunkSize = chunkSize;
+
+        random = new double[chunkSize];
+        lon = new double[chunkSize];
+        lat = new double[chunkSize];
+        time = new long[chunkSize];
+        reference = new int[chunkSize];
+        index = new int[chunkSize];
+        reference2 = new int[chunkSize];
+        x = new int[chunkSize];
+        y = new int[chunkSize];
+        insituReference = new int[chunkSize];
+        referenceTime = new long[chunkSize];
+        referenceLat = new double[chunkSize];
+        referenceLon = new double[chunkSize];
+        insituDatasetId = new byte[chunkSize];
+        datasetName = new String[chunkSize];
+        reference2Time = new long[chunkSize];
+        columnBuffer = ByteBuffer.allocate(chunkSize * 8);
+    }
+
+    public void write(SamplingPoint point) throws IOException {
+        if (closed) {
+            throw new IOException("Writer is closed.");
+        }
+        random[count] = point.getRandom();
+        lon[count] = point.getLon();
+        lat[count] = point.getLat();
+        time[count] = point.getTime();
+        reference[count] = point.getReference();
+        index[count] = point.getIndex();
+        reference2[count] = point.getReference2();
+        x[count] = point.getX();
+        y[count] = point.getY();
+        insituReference[count] = point.getInsituReference();
+        referenceTime[count] = point.getReferenceTime();
+        referenceLat[count] = point.getReferenceLat();
+        referenceLon[count] = point.getReferenceLon();
+        final InsituDatasetId datasetId = point.getInsituDatasetId();
+        insituDatasetId[count] = datasetId != null ? datasetId.getValue() : SamplingPointIO.NO_DATASET_ID;
+        datasetName[count] = point.getDatasetName();
+        reference2Time[count] = point.getReference2Time();
+        count++;
+        if (count == chunkSize) {
+            writeChunk();
+        }
+    }
+
+    public void write(List<SamplingPoint> points) throws IOException {
+        for (final SamplingPoint point : points) {
+            write(point);
+        }
+    }
+
+    /**
+     * Writes any buffered points and the end marker, and closes the underlying stream.
+     *
+     * @throws IOException when an I/O error occurs.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (count > 0) {
+                writeChunk();
+            }
+            dos.writeInt(0);
+            dos.flush();
+            if (deflaterStream != null) {
+                deflaterStream.finish();
+            }
+        } finally {
+            dos.close();
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        dos.writeInt(count);
+        writeDoubles(random);
+        writeDoubles(lon);
+        writeDoubles(lat);
+        writeLongs(time);
+        writeInts(reference);
+        writeInts(index);
+        writeInts(reference2);
+        writeInts(x);
+        writeInts(y);
+        writeInts(insituReference);
+        writeLongs(referenceTime);
+        writeDoubles(referenceLat);
+        writeDoubles(referenceLon);
+        dos.write(insituDatasetId, 0, count);
+        writeStrings(datasetName);
+        writeLongs(reference2Time);
+
+        for (int i = 0; i < count; i++) {
+            datasetName[i] = null;
+        }
+        count = 0;
+    }
+
+    private void writeDoubles(double[] column) throws IOException {
+        columnBuffer.clear();
+        columnBuffer.asDoubleBuffer().put(column, 0, count);
+        dos.write(columnBuffer.array(), 0, count * 8);
+    }
+
+    private void writeLongs(long[] column) throws IOException {
+        columnBuffer.clear();
+        columnBuffer.asLongBuffer().put(column, 0, count);
+        dos.write(columnBuffer.array(), 0, count * 8);
+    }
+
+    private void writeInts(int[] column) throws IOException {
+        columnBuffer.clear();
+        columnBuffer.asIntBuffer().put(column, 0, count);
+        dos.write(columnBuffer.array(), 0, count * 4);
+    }
+
+    // there are few distinct dataset names, so the names are stored as a dictionary and indexes into it
+    private void writeStrings(String[] column) throws IOException {
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            final String value = column[i];
+            if (value == null) {
+                indexes[i] = -1;
+            } else {
+                Integer dictionaryIndex = dictionary.get(value);
+                if (dictionaryIndex == null) {
+                    dictionaryIndex = dictionary.size();
+                    dictionary.put(value, dictionaryIndex);
+                }
+                indexes[i] = dictionaryIndex;
+            }
+        }
+        final String[] values = new String[dictionary.size()];
+        for (final Map.Entry<String, Integer> entry : dictionary.entrySet()) {
+            values[entry.getValue()] = entry.getKey();
+        }
+        dos.writeInt(values.length);
+        for (final String value : values) {
+            dos.writeUTF(value);
+        }
+        columnBuffer.clear();
+        columnBuffer.asIntBuffer().put(indexes);
+        dos.write(columnBuffer.array(), 0, count * 4);
+    }
+}
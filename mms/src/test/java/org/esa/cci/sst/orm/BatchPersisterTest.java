@@ -0,0 +1,174 @@
+package org.esa.cci.sst.orm;
+
+import org.esa.cci.sst.data.Coincidence;
+import org.esa.cci.sst.data.GlobalObservation;
+import org.esa.cci.sst.data.InsituObservation;
+import org.esa.cci.sst.data.Matchup;
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.data.RelatedObservation;
+import org.junit.Test;
+
+import javax.persistence.Column;
+import javax.persistence.DiscriminatorColumn;
+import javax.persistence.DiscriminatorValue;
+import javax.persistence.Entity;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the SQL of the batch persister against the mapping metadata of the entity classes.
+ */
+public class BatchPersisterTest {
+
+    private static final Pattern INSERT_PATTERN = Pattern.compile("insert into (\\w+) \\(([^)]*)\\) values .*");
+
+    @Test
+    public void testInsertObservation_matchesMapping() {
+        final Class<?>[] entityClasses = {
+                Observation.class,
+                RelatedObservation.class,
+                ReferenceObservation.class,
+                InsituObservation.class,
+                GlobalObservation.class
+        };
+        // all observations are mapped to a single table with the default discriminator column
+        for (final Class<?> entityClass : entityClasses) {
+            if (entityClass != Observation.class) {
+                assertNull(entityClass.getAnnotation(Table.class));
+            }
+            final Inheritance inheritance = entityClass.getAnnotation(Inheritance.class);
+            assertTrue(inheritance == null || inheritance.strategy() == InheritanceType.SINGLE_TABLE);
+            assertNull(entityClass.getAnnotation(DiscriminatorColumn.class));
+        }
+
+        final Set<String> expectedColumns = getMappedColumns(entityClasses);
+        expectedColumns.add("dtype");
+        assertInsert(BatchPersister.SQL_INSERT_OBSERVATION, getTableName(Observation.class), expectedColumns);
+    }
+
+    @Test
+    public void testInsertMatchup_matchesMapping() {
+        assertInsert(BatchPersister.SQL_INSERT_MATCHUP, getTableName(Matchup.class), getMappedColumns(Matchup.class));
+    }
+
+    @Test
+    public void testInsertCoincidence_matchesMapping() {
+        assertInsert(BatchPersister.SQL_INSERT_COINCIDENCE, getTableName(Coincidence.class),
+                     getMappedColumns(Coincidence.class));
+    }
+
+    @Test
+    public void testGetDiscriminatorValue() {
+        assertEquals("Observation", BatchPersister.getDiscriminatorValue(Observation.class));
+        assertEquals("ReferenceObservation", BatchPersister.getDiscriminatorValue(ReferenceObservation.class));
+        assertEquals("Named", BatchPersister.getDiscriminatorValue(NamedEntity.class));
+        assertEquals("V", BatchPersister.getDiscriminatorValue(ValuedEntity.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetDiscriminatorValue_noEntity() {
+        BatchPersister.getDiscriminatorValue(String.class);
+    }
+
+    private static void assertInsert(String sql, String expectedTable, Set<String> expectedColumns) {
+        final Matcher matcher = INSERT_PATTERN.matcher(sql);
+        assertTrue(sql, matcher.matches());
+        assertEquals(expectedTable, matcher.group(1));
+
+        final Set<String> columns = new HashSet<>();
+        for (final String column : matcher.group(2).split(",")) {
+            assertTrue(column, columns.add(column.trim()));
+        }
+        assertEquals(expectedColumns, columns);
+    }
+
+    private static String getTableName(Class<?> entityClass) {
+        return entityClass.getAnnotation(Table.class).name().toLowerCase();
+    }
+
+    // the columns of the persistent properties declared by the entity classes, by default mapping rules
+    private static Set<String> getMappedColumns(Class<?>... entityClasses) {
+        final Set<String> columns = new HashSet<>();
+        for (final Class<?> entityClass : entityClasses) {
+            for (final Method getter : entityClass.getDeclaredMethods()) {
+                final String propertyName = getPropertyName(getter);
+                if (propertyName == null || !hasSetter(entityClass, getter, propertyName)) {
+                    continue;
+                }
+                if (getter.isAnnotationPresent(Transient.class) || getter.isAnnotationPresent(OneToMany.class)) {
+                    continue;
+                }
+                final String columnName;
+                if (getter.isAnnotationPresent(ManyToOne.class)) {
+                    final JoinColumn joinColumn = getter.getAnnotation(JoinColumn.class);
+                    if (joinColumn != null && !joinColumn.name().isEmpty()) {
+                        columnName = joinColumn.name();
+                    } else {
+                        columnName = propertyName + "_id";
+                    }
+                } else {
+                    final Column column = getter.getAnnotation(Column.class);
+                    if (column != null && !column.name().isEmpty()) {
+                        columnName = column.name();
+                    } else {
+                        columnName = propertyName;
+                    }
+                }
+                columns.add(columnName.toLowerCase());
+            }
+        }
+        return columns;
+    }
+
+    private static String getPropertyName(Method method) {
+        if (Modifier.isStatic(method.getModifiers()) || method.getParameterTypes().length != 0 ||
+            method.isSynthetic()) {
+            return null;
+        }
+        final String name = method.getName();
+        final String suffix;
+        if (name.startsWith("get") && name.length() > 3) {
+            suffix = name.substring(3);
+        } else if (name.startsWith("is") && name.length() > 2 && method.getReturnType() == boolean.class) {
+            suffix = name.substring(2);
+        } else {
+            return null;
+        }
+        return Character.toLowerCase(suffix.charAt(0)) + suffix.substring(1);
+    }
+
+    private static boolean hasSetter(Class<?> entityClass, Method getter, String propertyName) {
+        final String setterName = "set" + Character.toUpperCase(propertyName.charAt(0)) + propertyName.substring(1);
+        for (final Method method : entityClass.getMethods()) {
+            if (method.getName().equals(setterName) &&
+                Arrays.equals(method.getParameterTypes(), new Class<?>[]{getter.getReturnType()})) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Entity(name = "Named")
+    private static class NamedEntity {
+    }
+
+    @Entity
+    @DiscriminatorValue("V")
+    private static class ValuedEntity {
+    }
+}
@@ -0,0 +1,192 @@
+package org.esa.cci.sst.reader;
+
+import org.esa.beam.framework.datamodel.Band;
+import org.esa.beam.framework.datamodel.CrsGeoCoding;
+import org.esa.beam.framework.datamodel.Product;
+import org.esa.beam.framework.datamodel.ProductData;
+import org.esa.cci.sst.common.ExtractDefinition;
+import org.esa.cci.sst.common.ExtractDefinitionBuilder;
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.data.Observation;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import ucar.ma2.Array;
+
+import javax.media.jai.TiledImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class AbstractProductReaderTest {
+
+    private static final int W = 20;
+    private static final int H = 20;
+    private static final int NO_DATA_VALUE = -999;
+    private static final int[] SHAPE = {1, 3, 3};
+
+    private AbstractProductReader reader;
+
+    @Before
+    public void setUp() throws Exception {
+        reader = new TestProductReader();
+        reader.open(new DataFile("test.nc", null), null);
+    }
+
+    @After
+    public void tearDown() {
+        reader.close();
+    }
+
+    @Test
+    public void testRead_mergedSubscenes() {
+        final ExtractDefinition[] definitions = {
+                createExtractDefinition(6, 6, null),
+                createExtractDefinition(5, 5, null),
+                createExtractDefinition(12, 4, null),
+                createExtractDefinition(9, 14, null)
+        };
+
+        final Array[][] arrays = reader.read(new String[]{"v"}, definitions);
+
+        assertEquals(1, arrays.length);
+        assertEquals(4, arrays[0].length);
+        assertSubscene(6, 6, null, arrays[0][0]);
+        assertSubscene(5, 5, null, arrays[0][1]);
+        assertSubscene(12, 4, null, arrays[0][2]);
+        assertSubscene(9, 14, null, arrays[0][3]);
+    }
+
+    @Test
+    public void testRead_subscenesAtImageEdges() {
+        final ExtractDefinition[] definitions = {
+                createExtractDefinition(0, 0, null),
+                createExtractDefinition(W - 1, 10, -1),
+                createExtractDefinition(10, H - 1, null),
+                createExtractDefinition(W - 1, H - 1, -1)
+        };
+
+        final Array[][] arrays = reader.read(new String[]{"v"}, definitions);
+
+        assertSubscene(0, 0, null, arrays[0][0]);
+        assertSubscene(W - 1, 10, -1, arrays[0][1]);
+        assertSubscene(10, H - 1, null, arrays[0][2]);
+        assertSubscene(W - 1, H - 1, -1, arrays[0][3]);
+    }
+
+    @Test
+    public void testRead_subsceneOutsideImage() {
+        final ExtractDefinition[] definitions = {
+                createExtractDefinition(5, 5, null),
+                createExtractDefinition(10, 40, -1),
+                createExtractDefinition(10, 41, null)
+        };
+
+        final Array[][] arrays = reader.read(new String[]{"v"}, definitions);
+
+        assertSubscene(5, 5, null, arrays[0][0]);
+        for (int k = 0; k < arrays[0][1].getSize(); k++) {
+            assertEquals(-1, arrays[0][1].getInt(k));
+            assertEquals(NO_DATA_VALUE, arrays[0][2].getInt(k));
+        }
+    }
+
+    @Test
+    public void testRead_equalsSingleRecordRead() {
+        final ExtractDefinition[] definitions = {
+                createExtractDefinition(3, 17, null),
+                createExtractDefinition(0, 8, -1),
+                createExtractDefinition(14, 2, null),
+                createExtractDefinition(15, 3, null)
+        };
+
+        final Array[][] arrays = reader.read(new String[]{"v"}, definitions);
+
+        for (int j = 0; j < definitions.length; j++) {
+            final Array expected = reader.read("v", definitions[j]);
+            assertArrayEquals((int[]) expected.getStorage(), (int[]) arrays[0][j].getStorage());
+        }
+    }
+
+    @Test
+    public void testRead_unknownRole() {
+        final ExtractDefinition[] definitions = {
+                createExtractDefinition(5, 5, null),
+                createExtractDefinition(6, 6, null)
+        };
+
+        final Array[][] arrays = reader.read(new String[]{"unknown", "v"}, definitions);
+
+        assertEquals(2, arrays.length);
+        assertNull(arrays[0][0]);
+        assertNull(arrays[0][1]);
+        assertSubscene(5, 5, null, arrays[1][0]);
+        assertSubscene(6, 6, null, arrays[1][1]);
+    }
+
+    private static ExtractDefinition createExtractDefinition(int x, int y, Number fillValue) {
+        // the geo-coding maps the centre of pixel (x, y) onto (lon, lat) = (x, H - y)
+        return new ExtractDefinitionBuilder()
+                .lon(x)
+                .lat(H - y)
+                .shape(SHAPE)
+                .fillValue(fillValue)
+                .build();
+    }
+
+    private static void assertSubscene(int centreX, int centreY, Number fillValue, Array array) {
+        assertNotNull(array);
+        assertEquals(9, array.getSize());
+        final int expectedFillValue = fillValue != null ? fillValue.intValue() : NO_DATA_VALUE;
+        for (int i = 0, k = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++, k++) {
+                final int x = centreX - 1 + j;
+                final int y = centreY - 1 + i;
+                if (x < 0 || x >= W || y < 0 || y >= H) {
+                    assertEquals(expectedFillValue, array.getInt(k));
+                } else {
+                    assertEquals(y * W + x, array.getInt(k));
+                }
+            }
+        }
+    }
+
+    private static class TestProductReader extends AbstractProductReader {
+
+        TestProductReader() {
+            super("test");
+        }
+
+        @Override
+        protected Product readProduct(DataFile dataFile) throws IOException {
+            final Product product = new Product("test", "type", W, H);
+            try {
+                product.setGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, W, H, 0.0, H, 1.0, 1.0));
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            final Band band = product.addBand("v", ProductData.TYPE_INT32);
+            // small tiles so that sub-scenes and bands span several tiles
+            final TiledImage image = new TiledImage(0, 0, W, H, 0, 0,
+                                                    new PixelInterleavedSampleModel(DataBuffer.TYPE_INT, 8, 8, 1, 8,
+                                                                                    new int[]{0}),
+                                                    null);
+            for (int y = 0; y < H; y++) {
+                for (int x = 0; x < W; x++) {
+                    image.setSample(x, y, 0, y * W + x);
+                }
+            }
+            band.setSourceImage(image);
+            band.setNoDataValue(NO_DATA_VALUE);
+            return product;
+        }
+
+        @Override
+        public Observation readObservation(int recordNo) throws IOException {
+            return null;
+        }
+    }
+}
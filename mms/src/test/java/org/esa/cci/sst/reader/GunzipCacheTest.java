@@ -0,0 +1,222 @@
+package org.esa.cci.sst.reader;
+
+import org.esa.cci.sst.tool.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class GunzipCacheTest {
+
+    private File testDir;
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        testDir = Files.createTempDirectory("gunzip-cache-test").toFile();
+        cacheDir = new File(testDir, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        delete(testDir);
+    }
+
+    @Test
+    public void testAcquire_DecompressesFile() throws IOException {
+        final byte[] content = createContent(3000000, 1);
+        final File gzipFile = createGzipFile("test.nc.gz", content);
+        final GunzipCache cache = new GunzipCache(cacheDir, 1L << 30);
+
+        final File file = cache.acquire(gzipFile);
+        assertEquals("test.nc", file.getName());
+        assertTrue(file.getPath().startsWith(cacheDir.getPath()));
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+
+        cache.release(file);
+        assertTrue(file.isFile());
+    }
+
+    @Test
+    public void testAcquire_ReusesDecompressedFile() throws IOException {
+        final File gzipFile = createGzipFile("test.nc.gz", createContent(1000, 2));
+        final GunzipCache cache = new GunzipCache(cacheDir, 1L << 30);
+
+        final File file1 = cache.acquire(gzipFile);
+        cache.release(file1);
+        assertTrue(file1.setLastModified(1000000L));
+
+        final File file2 = cache.acquire(gzipFile);
+        assertEquals(file1, file2);
+        // the file has been touched, but not rewritten
+        assertTrue(file2.lastModified() > 1000000L);
+        cache.release(file2);
+
+        assertEquals(1, countEntries());
+    }
+
+    @Test
+    public void testCreateKey_DependsOnModificationTime() throws IOException {
+        final File gzipFile = createGzipFile("test.nc.gz", createContent(1000, 3));
+        assertTrue(gzipFile.setLastModified(1000000L));
+        final String key1 = GunzipCache.createKey(gzipFile);
+        assertEquals(key1, GunzipCache.createKey(gzipFile));
+
+        assertTrue(gzipFile.setLastModified(2000000L));
+        final String key2 = GunzipCache.createKey(gzipFile);
+        assertFalse(key1.equals(key2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testAcquire_MissingFile() throws IOException {
+        new GunzipCache(cacheDir, 1L << 30).acquire(new File(testDir, "missing.nc.gz"));
+    }
+
+    @Test
+    public void testRelease_EvictsLeastRecentlyUsedFiles() throws IOException {
+        final GunzipCache cache = new GunzipCache(cacheDir, 2500);
+
+        final File file1 = cache.acquire(createGzipFile("a.nc.gz", createContent(1000, 4)));
+        assertTrue(file1.setLastModified(1000000L));
+        final File file2 = cache.acquire(createGzipFile("b.nc.gz", createContent(1000, 5)));
+        assertTrue(file2.setLastModified(2000000L));
+        cache.release(file1);
+        cache.release(file2);
+
+        // the third file exceeds the size limit, the least recently used file is evicted
+        final File file3 = cache.acquire(createGzipFile("c.nc.gz", createContent(1000, 6)));
+        assertFalse(file1.exists());
+        assertTrue(file2.isFile());
+        assertTrue(file3.isFile());
+        cache.release(file3);
+    }
+
+    @Test
+    public void testRelease_DoesNotEvictFilesInUse() throws IOException {
+        final GunzipCache cache = new GunzipCache(cacheDir, 1500);
+
+        final File file1 = cache.acquire(createGzipFile("a.nc.gz", createContent(1000, 7)));
+        final File file2 = cache.acquire(createGzipFile("b.nc.gz", createContent(1000, 8)));
+        assertTrue(file1.isFile());
+        assertTrue(file2.isFile());
+
+        cache.release(file1);
+        assertFalse(file1.exists());
+        assertTrue(file2.isFile());
+        cache.release(file2);
+    }
+
+    @Test
+    public void testRelease_WithZeroSizeLimit() throws IOException {
+        final File gzipFile = createGzipFile("test.nc.gz", createContent(1000, 9));
+        final GunzipCache cache = new GunzipCache(cacheDir, 0);
+
+        final File file1 = cache.acquire(gzipFile);
+        final File file2 = cache.acquire(gzipFile);
+        assertEquals(file1, file2);
+
+        cache.release(file1);
+        assertTrue(file2.isFile());
+        cache.release(file2);
+        assertFalse(file2.exists());
+        assertEquals(0, countEntries());
+    }
+
+    @Test
+    public void testRelease_DoesNotEvictFilesLockedByOtherCaches() throws IOException {
+        // another cache using the same directory stands for another tool
+        final GunzipCache otherCache = new GunzipCache(cacheDir, 1L << 30);
+        final GunzipCache cache = new GunzipCache(cacheDir, 0);
+
+        final File otherFile = otherCache.acquire(createGzipFile("a.nc.gz", createContent(1000, 10)));
+        final File file1 = cache.acquire(createGzipFile("b.nc.gz", createContent(1000, 11)));
+        cache.release(file1);
+        assertFalse(file1.exists());
+        assertTrue(otherFile.isFile());
+
+        otherCache.release(otherFile);
+        final File file2 = cache.acquire(createGzipFile("c.nc.gz", createContent(1000, 12)));
+        cache.release(file2);
+        assertFalse(otherFile.exists());
+        assertEquals(0, countEntries());
+    }
+
+    @Test
+    public void testGetInstance_DeletesReleasedFilesByDefault() throws IOException {
+        final File gzipFile = createGzipFile("test.nc.gz", createContent(1000, 13));
+        final Configuration config = new Configuration();
+        config.put(Configuration.KEY_MMS_IO_GUNZIPCACHE_DIR, cacheDir.getPath());
+        final GunzipCache cache = GunzipCache.getInstance(config);
+        assertEquals(cacheDir.getAbsoluteFile(), cache.getCacheDir());
+
+        final File file = cache.acquire(gzipFile);
+        assertTrue(file.isFile());
+        cache.release(file);
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void testGetInstance_SizeLimitIsNotChangedByOtherDecorators() throws IOException {
+        final Configuration config = new Configuration();
+        config.put(Configuration.KEY_MMS_IO_GUNZIPCACHE_DIR, cacheDir.getPath());
+        config.put(Configuration.KEY_MMS_IO_GUNZIPCACHE_SIZE, "1");
+        final GunzipCache cache = GunzipCache.getInstance(config);
+        final File file1 = cache.acquire(createGzipFile("a.nc.gz", createContent(1000, 14)));
+        cache.release(file1);
+        assertTrue(file1.isFile());
+
+        // decorators created while the file is cached, one of them with the default size limit
+        final Configuration defaultConfig = new Configuration();
+        defaultConfig.put(Configuration.KEY_MMS_IO_GUNZIPCACHE_DIR, cacheDir.getPath());
+        new GunzipDecorator(null);
+        new GunzipDecorator(null, defaultConfig);
+        assertSame(cache, GunzipCache.getInstance(defaultConfig));
+
+        final File file2 = cache.acquire(createGzipFile("b.nc.gz", createContent(1000, 15)));
+        cache.release(file2);
+        assertTrue(file1.isFile());
+        assertTrue(file2.isFile());
+    }
+
+    private File createGzipFile(String name, byte[] content) throws IOException {
+        final File file = new File(testDir, name);
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(file))) {
+            os.write(content);
+        }
+        return file;
+    }
+
+    private int countEntries() {
+        final String[] names = cacheDir.list();
+        return names == null ? 0 : names.length;
+    }
+
+    private static byte[] createContent(int length, int seed) {
+        final byte[] content = new byte[length];
+        Arrays.fill(content, (byte) seed);
+        for (int i = 0; i < length; i += 7) {
+            content[i] = (byte) (i * seed);
+        }
+        return content;
+    }
+
+    private static void delete(File file) {
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                delete(f);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
@@ -17,11 +17,19 @@
 package org.esa.cci.sst.reader;
 
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Variable;
 
 import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 public class MdReaderTest {
 
@@ -68,4 +76,105 @@ public class MdReaderTest {
         assertEquals(9 * 21 + 9 + 1, target.getInt(target.getIndex().set(0, 14, 14)));
     }
 
+    @Test
+    public void testGetData_blockAtEndOfVariable() throws Exception {
+        final List<int[]> reads = new ArrayList<>();
+        final Variable variable = createVariable(reads);
+        final MdReader reader = new AtsrMdReader("atsr");
+
+        // blocks of four records, the last block has two records
+        assertRecord(9, reader.getData(variable, 9));
+        assertEquals(1, reads.size());
+        assertArrayEquals(new int[]{8, 0, 0, 2}, reads.get(0));
+
+        assertRecord(8, reader.getData(variable, 8));
+        assertEquals(1, reads.size());
+    }
+
+    @Test
+    public void testGetData_evictionOrder() throws Exception {
+        final List<int[]> reads = new ArrayList<>();
+        final Variable variable = createVariable(reads);
+        final MdReader reader = new AtsrMdReader("atsr");
+        // a full block has 1 MiB
+        reader.setCacheSize(2L * 1024L * 1024L);
+
+        assertRecord(0, reader.getData(variable, 0));
+        assertRecord(4, reader.getData(variable, 4));
+        // the first block becomes the most recently used block
+        assertRecord(1, reader.getData(variable, 1));
+        // the second block is evicted
+        assertRecord(8, reader.getData(variable, 8));
+        assertRecord(2, reader.getData(variable, 2));
+        assertRecord(5, reader.getData(variable, 5));
+
+        assertEquals(4, reads.size());
+        assertEquals(0, reads.get(0)[0]);
+        assertEquals(4, reads.get(1)[0]);
+        assertEquals(8, reads.get(2)[0]);
+        assertEquals(4, reads.get(3)[0]);
+    }
+
+    @Test
+    public void testGetData_cacheSizeZero() throws Exception {
+        final List<int[]> reads = new ArrayList<>();
+        final Variable variable = createVariable(reads);
+        final MdReader reader = new AtsrMdReader("atsr");
+        reader.setCacheSize(0);
+
+        assertRecord(1, reader.getData(variable, 1));
+        assertRecord(2, reader.getData(variable, 2));
+        assertRecord(1, reader.getData(variable, 1));
+
+        // records are read one by one
+        assertEquals(3, reads.size());
+        assertArrayEquals(new int[]{1, 0, 0, 1}, reads.get(0));
+        assertArrayEquals(new int[]{2, 0, 0, 1}, reads.get(1));
+        assertArrayEquals(new int[]{1, 0, 0, 1}, reads.get(2));
+    }
+
+    @Test
+    public void testSetCacheSize() {
+        final MdReader reader = new AtsrMdReader("atsr");
+        assertEquals(MdReader.DEFAULT_CACHE_SIZE, reader.getCacheSize());
+
+        reader.setCacheSize(0);
+        assertEquals(0, reader.getCacheSize());
+    }
+
+    // a variable of ten records of 64 x 1024 integers, the values of a record are the record number
+    private static Variable createVariable(final List<int[]> reads) throws Exception {
+        final Variable variable = mock(Variable.class);
+        when(variable.getShortName()).thenReturn("v");
+        when(variable.getElementSize()).thenReturn(4);
+        when(variable.getShape()).thenAnswer(new Answer<int[]>() {
+            @Override
+            public int[] answer(InvocationOnMock invocation) {
+                return new int[]{10, 64, 1024};
+            }
+        });
+        when(variable.read(any(int[].class), any(int[].class))).thenAnswer(new Answer<Array>() {
+            @Override
+            public Array answer(InvocationOnMock invocation) {
+                final int[] origin = (int[]) invocation.getArguments()[0];
+                final int[] shape = ((int[]) invocation.getArguments()[1]).clone();
+                // the origin and the record count of the read
+                reads.add(new int[]{origin[0], origin[1], origin[2], shape[0]});
+                final Array array = Array.factory(DataType.INT, shape);
+                final int recordSize = shape[1] * shape[2];
+                for (int i = 0; i < array.getSize(); i++) {
+                    array.setInt(i, origin[0] + i / recordSize);
+                }
+                return array;
+            }
+        });
+        return variable;
+    }
+
+    private static void assertRecord(int recordNo, Array record) {
+        assertArrayEquals(new int[]{1, 64, 1024}, record.getShape());
+        final int[] expected = new int[64 * 1024];
+        Arrays.fill(expected, recordNo);
+        assertArrayEquals(expected, (int[]) record.copyTo1DJavaArray());
+    }
 }
@@ -16,8 +16,10 @@
 
 package org.esa.cci.sst.reader;
 
+import org.esa.cci.sst.tool.Configuration;
 import org.junit.Test;
 
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
 import static junit.framework.Assert.assertTrue;
 
@@ -90,4 +92,24 @@ public class ReaderFactoryTest {
         assertNotNull(reader);
         assertTrue(reader instanceof ProductReader);
     }
+
+    @Test
+    public void testCreateConfiguredMdReader() throws Exception {
+        final Configuration configuration = new Configuration();
+        configuration.put(Configuration.KEY_MMS_IO_MDCACHE_SIZE, "8");
+
+        final Reader reader = ReaderFactory.createReader("GunzipDecorator,AtsrMdReader", "", configuration);
+        assertTrue(reader instanceof GunzipDecorator);
+        assertEquals(8L * 1024L * 1024L, ((MdReader) ((GunzipDecorator) reader).getDelegate()).getCacheSize());
+        assertEquals(8L * 1024L * 1024L, ReaderFactory.getCacheSize(reader));
+    }
+
+    @Test
+    public void testGetCacheSize() throws Exception {
+        final Reader mdReader = ReaderFactory.createReader("AtsrMdReader", "");
+        assertEquals(MdReader.DEFAULT_CACHE_SIZE, ReaderFactory.getCacheSize(mdReader));
+
+        final Reader productReader = ReaderFactory.createReader("ProductReader", "");
+        assertEquals(0L, ReaderFactory.getCacheSize(productReader));
+    }
 }
@@ -87,6 +87,16 @@ public class AtsrCalibrationFilenameTest {
                         return null;
                     }
 
+                    @Override
+                    public Array[] read(String[] roles, ExtractDefinition extractDefinition) throws IOException {
+                        return new Array[roles.length];
+                    }
+
+                    @Override
+                    public Array[][] read(String[] roles, ExtractDefinition[] extractDefinitions) throws IOException {
+                        return new Array[roles.length][extractDefinitions.length];
+                    }
+
                     @Override
                     public List<SamplingPoint> readSamplingPoints() {
                         return null;
@@ -0,0 +1,189 @@
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.util.TimeUtil;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.postgis.PGgeometry;
+
+import javax.persistence.Query;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+public class BatchedCoincidenceQueryTest {
+
+    private static final String CRITERION = "select o.id from mm_observation o where o.sensor = ?1 order by o.id";
+
+    @Test
+    public void testCreateQueryString_singleReference() {
+        final String sql = BatchedCoincidenceQuery.createQueryString(CRITERION, 1);
+
+        assertEquals("select r.id, c.id from (values " +
+                     "(cast(?2 as integer), cast(?3 as timestamp), cast(?4 as text), cast(?5 as text))" +
+                     ") as r(id, time, point, name)" +
+                     " cross join lateral (" + CRITERION + " limit 1) as c", sql);
+    }
+
+    @Test
+    public void testCreateQueryString_threeReferences() {
+        final String sql = BatchedCoincidenceQuery.createQueryString(CRITERION, 3);
+
+        assertTrue(sql.contains("(cast(?2 as integer), cast(?3 as timestamp), cast(?4 as text), cast(?5 as text)), " +
+                                "(cast(?6 as integer), cast(?7 as timestamp), cast(?8 as text), cast(?9 as text)), " +
+                                "(cast(?10 as integer), cast(?11 as timestamp), cast(?12 as text), cast(?13 as text))" +
+                                ") as r(id, time, point, name)"));
+    }
+
+    @Test
+    public void testExecute_emptyChunkDoesNotQuery() {
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        final BatchedCoincidenceQuery batchedQuery = new BatchedCoincidenceQuery(persistenceManager);
+
+        final Map<Integer, Integer> observationIds =
+                batchedQuery.execute(new ArrayList<ReferenceObservation>(), CRITERION, "seviri");
+
+        assertTrue(observationIds.isEmpty());
+        verifyNoMoreInteractions(persistenceManager);
+    }
+
+    @Test
+    public void testExecute_bindsParametersAndMapsResults() throws Exception {
+        final List<ReferenceObservation> refObsList = Arrays.asList(createRefObs(7, "a"), createRefObs(9, "b"));
+        final Query query = mock(Query.class);
+        when(query.getResultList()).thenReturn(Arrays.<Object[]>asList(new Object[]{7, BigInteger.valueOf(70)}));
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        when(persistenceManager.createNativeQuery(anyString())).thenReturn(query);
+
+        final Map<Integer, Integer> observationIds =
+                new BatchedCoincidenceQuery(persistenceManager).execute(refObsList, CRITERION, "seviri");
+
+        verify(persistenceManager).createNativeQuery(BatchedCoincidenceQuery.createQueryString(CRITERION, 2));
+        verify(query).setParameter(1, "seviri");
+        for (int i = 0; i < refObsList.size(); i++) {
+            final ReferenceObservation refObs = refObsList.get(i);
+            final int p = 2 + i * BatchedCoincidenceQuery.VALUES_PER_ROW;
+            verify(query).setParameter(p, refObs.getId());
+            verify(query).setParameter(p + 1, TimeUtil.formatCcsdsUtcFormat(refObs.getTime()));
+            verify(query).setParameter(p + 2, refObs.getPoint().toString());
+            verify(query).setParameter(p + 3, refObs.getName());
+        }
+        verify(query, times(9)).setParameter(anyInt(), any());
+        // the reference observation without any coincidence is not contained
+        assertEquals(1, observationIds.size());
+        assertEquals(70, (int) observationIds.get(7));
+        assertFalse(observationIds.containsKey(9));
+    }
+
+    @Test
+    public void testExecute_largeChunkIsSplit() throws Exception {
+        final List<ReferenceObservation> refObsList = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            refObsList.add(createRefObs(i, "r" + i));
+        }
+        final Query query = mock(Query.class);
+        when(query.getResultList()).thenReturn(Arrays.<Object[]>asList(new Object[]{0, 10}),
+                                               Arrays.<Object[]>asList(new Object[]{2, 12}, new Object[]{3, 13}),
+                                               Arrays.<Object[]>asList(new Object[]{4, 14}));
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        when(persistenceManager.createNativeQuery(anyString())).thenReturn(query);
+
+        final Map<Integer, Integer> observationIds =
+                new BatchedCoincidenceQuery(persistenceManager, 2).execute(refObsList, CRITERION, "seviri");
+
+        verify(persistenceManager, times(2)).createNativeQuery(BatchedCoincidenceQuery.createQueryString(CRITERION, 2));
+        verify(persistenceManager).createNativeQuery(BatchedCoincidenceQuery.createQueryString(CRITERION, 1));
+        // each query binds the sensor name and the values of its own rows
+        verify(query, times(3)).setParameter(1, "seviri");
+        verify(query).setParameter(2, 0);
+        verify(query).setParameter(2, 2);
+        verify(query).setParameter(2, 4);
+        verify(query, never()).setParameter(eq(10), any());
+        assertEquals(4, observationIds.size());
+        assertEquals(10, (int) observationIds.get(0));
+        assertEquals(12, (int) observationIds.get(2));
+        assertEquals(13, (int) observationIds.get(3));
+        assertEquals(14, (int) observationIds.get(4));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testResolveObservations_largeIdListIsSplit() throws Exception {
+        final Map<Integer, Integer> observationIds = new HashMap<>();
+        observationIds.put(1, 10);
+        observationIds.put(2, 11);
+        observationIds.put(3, 10);
+        observationIds.put(4, 12);
+        observationIds.put(5, 13);
+        final Observation observation10 = createRefObs(10, "o10");
+        final Observation observation11 = createRefObs(11, "o11");
+        final Observation observation12 = createRefObs(12, "o12");
+        final Query query = mock(Query.class);
+        // the observation with ID 13 does not exist
+        when(query.getResultList()).thenReturn(Arrays.asList(observation10, observation11),
+                                               Arrays.asList(observation12));
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        when(persistenceManager.createQuery(BatchedCoincidenceQuery.OBSERVATIONS_BY_ID_QUERY)).thenReturn(query);
+
+        final Map<Integer, Observation> observations =
+                BatchedCoincidenceQuery.resolveObservations(persistenceManager, observationIds, 3);
+
+        // the distinct IDs are bound in two queries
+        final ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(query, times(2)).setParameter(eq(1), captor.capture());
+        final Set<Object> boundIds = new HashSet<>();
+        for (final List ids : captor.getAllValues()) {
+            assertTrue(ids.size() <= 3);
+            boundIds.addAll(ids);
+        }
+        assertEquals(new HashSet<Object>(Arrays.asList(10, 11, 12, 13)), boundIds);
+        assertEquals(4, observations.size());
+        assertSame(observation10, observations.get(1));
+        assertSame(observation11, observations.get(2));
+        assertSame(observation10, observations.get(3));
+        assertSame(observation12, observations.get(4));
+        assertFalse(observations.containsKey(5));
+    }
+
+    @Test
+    public void testResolveObservations_emptyMapDoesNotQuery() {
+        final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+
+        final Map<Integer, Observation> observations =
+                BatchedCoincidenceQuery.resolveObservations(persistenceManager, new HashMap<Integer, Integer>());
+
+        assertTrue(observations.isEmpty());
+        verifyNoMoreInteractions(persistenceManager);
+    }
+
+    @Test
+    public void testMaxRowCount_doesNotExceedParameterLimit() {
+        final int parameterCount = 1 + BatchedCoincidenceQuery.MAX_ROW_COUNT * BatchedCoincidenceQuery.VALUES_PER_ROW;
+        assertTrue(parameterCount <= BatchedCoincidenceQuery.MAX_PARAMETER_COUNT);
+        assertTrue(parameterCount + BatchedCoincidenceQuery.VALUES_PER_ROW >
+                   BatchedCoincidenceQuery.MAX_PARAMETER_COUNT);
+    }
+
+    private static ReferenceObservation createRefObs(int id, String name) throws Exception {
+        final ReferenceObservation refObs = new ReferenceObservation();
+        refObs.setId(id);
+        refObs.setName(name);
+        refObs.setTime(new Date(1000000L * id));
+        refObs.setPoint(new PGgeometry("POINT(" + id + " 45)"));
+        return refObs;
+    }
+}
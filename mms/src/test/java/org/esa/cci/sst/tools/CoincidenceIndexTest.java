@@ -0,0 +1,149 @@
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.util.GeometryUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Query;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CoincidenceIndexTest {
+
+    private static final long HOUR = 60L * 60L * 1000L;
+    private static final long T0 = 1275350400000L; // 2010-06-01T00:00:00Z
+    private static final String SQUARE =
+            "SRID=4326;POLYGON((10 30, 10.5 30, 11 30, 11.5 30, 12 30, 12 30.5, 12 31, 12 31.5, 12 32, 11.5 32, 11 32, 10.5 32, 10 32, 10 31.5, 10 31, 10 30.5, 10 30))";
+
+    private PersistenceManager persistenceManager;
+    private Query query;
+    private CoincidenceIndex index;
+
+    @Before
+    public void setUp() {
+        persistenceManager = mock(PersistenceManager.class);
+        query = mock(Query.class);
+        when(persistenceManager.createNativeQuery(anyString())).thenReturn(query);
+        index = new CoincidenceIndex(persistenceManager, new Date(T0), new Date(T0 + 24 * HOUR), 2);
+    }
+
+    @After
+    public void tearDown() {
+        index.dispose();
+    }
+
+    @Test
+    public void testTruncateToSeconds() {
+        assertEquals(T0, CoincidenceIndex.truncateToSeconds(T0 + 999));
+        assertEquals(T0, CoincidenceIndex.truncateToSeconds(T0));
+    }
+
+    @Test
+    public void testFindObservationIds_spatial() {
+        when(query.getResultList()).thenReturn(Arrays.asList(
+                row(101, T0 - 13 * HOUR, "a", 0.0, SQUARE),
+                row(102, T0 - 2 * HOUR, "b", 0.0, SQUARE),
+                row(103, T0 + HOUR, "c", 0.0, "SRID=4326;POLYGON((0 0, 1 0, 1 1, 0 1, 0 0))"),
+                row(104, T0 + 3 * HOUR, "d", 0.0, SQUARE),
+                row(105, T0 + 4 * HOUR, "e", 0.0, "SRID=4326;POINT(20 40)")));
+
+        final List<ReferenceObservation> refObsList = Arrays.asList(
+                createReference(1, T0, 11.0, 31.0, null),
+                createReference(2, T0 + 2 * HOUR + 500, 11.0, 31.0, null),
+                createReference(3, T0 + 5 * HOUR, 20.0, 40.0, null),
+                createReference(4, T0 + 5 * HOUR, 50.0, 50.0, null));
+
+        final Map<Integer, Integer> ids = index.findObservationIds(refObsList, CoincidenceIndex.Criterion.SPATIAL,
+                                                                   "avhrr.n18");
+        assertEquals(102, ids.get(1).intValue());
+        assertEquals(104, ids.get(2).intValue());
+        assertEquals(105, ids.get(3).intValue());
+        assertFalse(ids.containsKey(4));
+    }
+
+    @Test
+    public void testFindObservationIds_callsignTieIsBrokenByLowerId() {
+        when(query.getResultList()).thenReturn(Arrays.asList(
+                row(201, T0 - HOUR, "callsign", 0.0, null),
+                row(202, T0 + HOUR, "other", 0.0, null),
+                row(203, T0 + HOUR, "callsign", 0.0, null),
+                row(204, T0 + 11 * HOUR, "far", 0.0, null)));
+
+        final List<ReferenceObservation> refObsList = Arrays.asList(
+                createReference(1, T0, 0.0, 0.0, "callsign"),
+                createReference(2, T0, 0.0, 0.0, "unknown"),
+                createReference(3, T0 - 2 * HOUR, 0.0, 0.0, "far"));
+
+        final Map<Integer, Integer> ids = index.findObservationIds(refObsList, CoincidenceIndex.Criterion.CALLSIGN,
+                                                                   "avhrr_md");
+        assertEquals(201, ids.get(1).intValue());
+        assertFalse(ids.containsKey(2));
+        assertFalse(ids.containsKey(3));
+    }
+
+    @Test
+    public void testFindObservationIds_insituUsesTimeRadius() {
+        when(query.getResultList()).thenReturn(Arrays.asList(
+                row(301, T0 - 30 * HOUR, "buoy", 36.0 * 3600.0, null),
+                row(302, T0 + 2 * HOUR, "buoy", 3600.0, null)));
+
+        final List<ReferenceObservation> refObsList = Arrays.asList(
+                createReference(1, T0, 0.0, 0.0, "buoy"),
+                createReference(2, T0 + 90 * 60 * 1000, 0.0, 0.0, "buoy"),
+                createReference(3, T0 - 70 * HOUR, 0.0, 0.0, "buoy"));
+
+        final Map<Integer, Integer> ids = index.findObservationIds(refObsList, CoincidenceIndex.Criterion.INSITU,
+                                                                   "history");
+        assertEquals(301, ids.get(1).intValue());
+        assertEquals(302, ids.get(2).intValue());
+        assertFalse(ids.containsKey(3));
+    }
+
+    @Test
+    public void testFindObservationIds_globalInParallel() {
+        final List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 48; i++) {
+            rows.add(row(1000 + i, T0 + i * HOUR, null, 0.0, null));
+        }
+        when(query.getResultList()).thenReturn(rows);
+
+        final List<ReferenceObservation> refObsList = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            refObsList.add(createReference(i, T0 + i * 60 * 1000 + 1000, 0.0, 0.0, null));
+        }
+
+        final Map<Integer, Integer> ids = index.findObservationIds(refObsList, CoincidenceIndex.Criterion.GLOBAL,
+                                                                   "aai");
+        assertEquals(500, ids.size());
+        for (int i = 0; i < 500; i++) {
+            final long time = T0 + i * 60 * 1000 + 1000;
+            final int nearest = (int) ((time - T0 + HOUR / 2 - 1) / HOUR);
+            assertEquals(1000 + nearest, ids.get(i).intValue());
+        }
+        verify(persistenceManager, times(1)).createNativeQuery(anyString());
+    }
+
+    private static Object[] row(int id, long time, String name, double timeRadius, String location) {
+        return new Object[]{id, new Timestamp(time), name, timeRadius, location};
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ReferenceObservation createReference(int id, long time, double lon, double lat, String name) {
+        final ReferenceObservation refObs = new ReferenceObservation();
+        refObs.setId(id);
+        refObs.setTime(new Date(time));
+        refObs.setName(name);
+        refObs.setPoint(GeometryUtil.createPointGeometry(lon, lat));
+        return refObs;
+    }
+}
@@ -0,0 +1,92 @@
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.PersistenceException;
+import java.sql.Savepoint;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class CoincidenceQueryGuardTest {
+
+    private PersistenceManager persistenceManager;
+    private Savepoint savepoint;
+
+    @Before
+    public void setUp() {
+        persistenceManager = mock(PersistenceManager.class);
+        savepoint = mock(Savepoint.class);
+        when(persistenceManager.setSavepoint()).thenReturn(savepoint);
+    }
+
+    @Test
+    public void testExecute_streaming() {
+        final CoincidenceQueryGuard guard = new CoincidenceQueryGuard(persistenceManager, true, null);
+
+        assertEquals("result", guard.execute(createQuery("result"), "warning"));
+        verify(persistenceManager, times(1)).setSavepoint();
+        verify(persistenceManager, times(1)).releaseSavepoint(savepoint);
+        verify(persistenceManager, never()).rollback(savepoint);
+        verify(persistenceManager, never()).commit();
+        verify(persistenceManager, never()).transaction();
+    }
+
+    @Test
+    public void testExecute_streaming_outsidePointError() {
+        final CoincidenceQueryGuard guard = new CoincidenceQueryGuard(persistenceManager, true, null);
+
+        assertNull(guard.execute(createFailingQuery(CoincidenceQueryGuard.OUTSIDE_POINT_ERROR + " (chunk)"),
+                                 "warning"));
+        // the transaction of the streaming scan is not ended
+        verify(persistenceManager, times(1)).setSavepoint();
+        verify(persistenceManager, times(1)).rollback(savepoint);
+        verify(persistenceManager, never()).releaseSavepoint(savepoint);
+        verify(persistenceManager, never()).commit();
+        verify(persistenceManager, never()).transaction();
+    }
+
+    @Test
+    public void testExecute_outsidePointError() {
+        final CoincidenceQueryGuard guard = new CoincidenceQueryGuard(persistenceManager, false, null);
+
+        assertNull(guard.execute(createFailingQuery(CoincidenceQueryGuard.OUTSIDE_POINT_ERROR), "warning"));
+        verify(persistenceManager, never()).setSavepoint();
+        verify(persistenceManager, times(1)).commit();
+        verify(persistenceManager, times(1)).transaction();
+    }
+
+    @Test
+    public void testExecute_otherErrorIsThrown() {
+        final CoincidenceQueryGuard guard = new CoincidenceQueryGuard(persistenceManager, true, null);
+
+        try {
+            guard.execute(createFailingQuery("ERROR: relation does not exist"), "warning");
+            fail("PersistenceException expected");
+        } catch (PersistenceException expected) {
+            assertEquals("ERROR: relation does not exist", expected.getMessage());
+        }
+        verify(persistenceManager, never()).commit();
+        verify(persistenceManager, never()).transaction();
+    }
+
+    private static CoincidenceQueryGuard.Query<String> createQuery(final String result) {
+        return new CoincidenceQueryGuard.Query<String>() {
+            @Override
+            public String execute() {
+                return result;
+            }
+        };
+    }
+
+    private static CoincidenceQueryGuard.Query<String> createFailingQuery(final String message) {
+        return new CoincidenceQueryGuard.Query<String>() {
+            @Override
+            public String execute() {
+                throw new PersistenceException(message);
+            }
+        };
+    }
+}
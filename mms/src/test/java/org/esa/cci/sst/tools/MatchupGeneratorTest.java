@@ -2,6 +2,7 @@ package org.esa.cci.sst.tools;
 
 import org.esa.cci.sst.common.InsituDatasetId;
 import org.esa.cci.sst.data.*;
+import org.esa.cci.sst.orm.BatchPersister;
 import org.esa.cci.sst.orm.PersistenceManager;
 import org.esa.cci.sst.orm.Storage;
 import org.esa.cci.sst.util.SamplingPoint;
@@ -102,23 +103,26 @@ public class MatchupGeneratorTest {
     }
 
     @Test
-    public void testPersistReferenceObservations() {
+    public void testPersistReferenceObservations() throws Exception {
         final Stack<EntityTransaction> transactionStack = new Stack<>();
         final EntityTransaction transaction = mock(EntityTransaction.class);
         final PersistenceManager persistenceManager = mock(PersistenceManager.class);
+        final BatchPersister batchPersister = mock(BatchPersister.class);
 
         final List<ReferenceObservation> observations = new ArrayList<>();
         observations.add(new ReferenceObservation());
         observations.add(new ReferenceObservation());
 
         when(persistenceManager.transaction()).thenReturn(transaction);
+        when(persistenceManager.getBatchPersister()).thenReturn(batchPersister);
 
         MatchupGenerator.persistReferenceObservations(observations, persistenceManager, transactionStack);
 
         verify(persistenceManager, times(1)).transaction();
-        verify(persistenceManager, times(2)).persist(any(ReferenceObservation.class));
+        verify(persistenceManager, times(1)).getBatchPersister();
+        verify(batchPersister, times(1)).persistObservations(observations);
         verify(persistenceManager, times(1)).commit();
-        verifyNoMoreInteractions(persistenceManager);
+        verifyNoMoreInteractions(persistenceManager, batchPersister);
 
         assertEquals(1, transactionStack.size());
         assertSame(transaction, transactionStack.pop());
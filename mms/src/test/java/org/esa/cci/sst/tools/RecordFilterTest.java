@@ -0,0 +1,236 @@
+package org.esa.cci.sst.tools;
+
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class RecordFilterTest {
+
+    private static final int RECORD_COUNT = 20;
+    private static final double FILL = -1.0;
+
+    @Test
+    public void testBlock_GetRecord() {
+        final Variable variable = mock(Variable.class);
+        final RecordFilter.Block block = new RecordFilter.Block(100, 3);
+        block.put(variable, new double[]{1.0, 2.0, 3.0, 4.0, 5.0, 6.0});
+
+        assertEquals(100, block.getStart());
+        assertEquals(3, block.getRecordCount());
+        assertArrayEquals(new double[]{1.0, 2.0}, block.getRecord(variable, 0), 0.0);
+        assertArrayEquals(new double[]{5.0, 6.0}, block.getRecord(variable, 2), 0.0);
+    }
+
+    @Test
+    public void testEvaluate_AllPredicatesMustAccept() {
+        final Variable a = mock(Variable.class);
+        final Variable b = mock(Variable.class);
+        final RecordFilter.Block block = new RecordFilter.Block(0, 4);
+        block.put(a, new double[]{1.0, 0.0, 1.0, 0.0});
+        block.put(b, new double[]{1.0, 1.0, 0.0, 0.0});
+
+        final BitSet accepted = RecordFilter.evaluate(block, Arrays.asList(createPredicate(a), createPredicate(b)));
+        assertEquals(1, accepted.cardinality());
+        assertTrue(accepted.get(0));
+    }
+
+    @Test
+    public void testEvaluate_WithoutPredicates() {
+        final RecordFilter.Block block = new RecordFilter.Block(0, 3);
+
+        final BitSet accepted = RecordFilter.evaluate(block, Collections.<RecordFilter.Predicate>emptyList());
+        assertEquals(3, accepted.cardinality());
+    }
+
+    @Test
+    public void testSelect_acrossBlocks() throws Exception {
+        final File sourceFile = createSourceFile();
+        try {
+            final NetcdfFile sourceMmd = NetcdfFile.open(sourceFile.getPath());
+            try {
+                final Variable flag = sourceMmd.findVariable("flag");
+                // three records per block, more blocks than are held in memory at once
+                final RecordFilter recordFilter = new RecordFilter(RECORD_COUNT, 2, 5 * 3 * 8);
+
+                final BitSet accepted = recordFilter.select(Collections.singletonList(createPredicate(flag)));
+                assertEquals(createExpectedSelection(), accepted);
+            } finally {
+                sourceMmd.close();
+            }
+        } finally {
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void testGetBlockRecordCount() {
+        final RecordFilter recordFilter = new RecordFilter(1000, 4, 9 * 80);
+
+        // the buffer is shared by all blocks held in memory at once
+        assertEquals(10, recordFilter.getBlockRecordCount(8, 9));
+        assertEquals(90, recordFilter.getBlockRecordCount(8, 1));
+        assertEquals(1, recordFilter.getBlockRecordCount(1000, 9));
+        assertEquals(1000, new RecordFilter(1000, 4, 1L << 30).getBlockRecordCount(8, 9));
+    }
+
+    @Test
+    public void testSelect_singleBlock() throws Exception {
+        final File sourceFile = createSourceFile();
+        try {
+            final NetcdfFile sourceMmd = NetcdfFile.open(sourceFile.getPath());
+            try {
+                final Variable flag = sourceMmd.findVariable("flag");
+                final RecordFilter recordFilter = new RecordFilter(RECORD_COUNT, 2);
+
+                final BitSet accepted = recordFilter.select(Collections.singletonList(createPredicate(flag)));
+                assertEquals(createExpectedSelection(), accepted);
+            } finally {
+                sourceMmd.close();
+            }
+        } finally {
+            sourceFile.delete();
+        }
+    }
+
+    @Test
+    public void testCopy_acrossBlocks() throws Exception {
+        // three records per block: gathered, contiguous, single and empty blocks, and a short last block
+        assertCopy(new int[]{0, 2, 3, 4, 8, 9, 13, 19}, 3 * 8);
+    }
+
+    @Test
+    public void testCopy_singleBlock() throws Exception {
+        assertCopy(new int[]{1, 5, 6, 7, 18}, 16L * 1024L * 1024L);
+    }
+
+    @Test
+    public void testCopy_allRecords() throws Exception {
+        final int[] indexes = new int[RECORD_COUNT];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        assertCopy(indexes, 3 * 8);
+    }
+
+    private static void assertCopy(int[] indexes, long bufferSize) throws Exception {
+        final BitSet accepted = new BitSet(RECORD_COUNT);
+        for (final int i : indexes) {
+            accepted.set(i);
+        }
+        final File sourceFile = createSourceFile();
+        final File targetFile = File.createTempFile("mmd", ".nc");
+        try {
+            final NetcdfFile sourceMmd = NetcdfFile.open(sourceFile.getPath());
+            final NetcdfFileWriter targetMmd = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                                                                          targetFile.getPath());
+            try {
+                targetMmd.addDimension(null, "matchup", indexes.length);
+                targetMmd.addDimension(null, "ny", 2);
+                final Map<Variable, Variable> mapping = new HashMap<>();
+                mapping.put(targetMmd.addVariable(null, "a", DataType.INT, "matchup ny"),
+                            sourceMmd.findVariable("a"));
+                mapping.put(targetMmd.addVariable(null, "flag", DataType.DOUBLE, "matchup"),
+                            sourceMmd.findVariable("flag"));
+                targetMmd.create();
+
+                new RecordFilter(RECORD_COUNT, 1, bufferSize).copy(accepted, targetMmd, mapping);
+            } finally {
+                targetMmd.close();
+                sourceMmd.close();
+            }
+
+            final NetcdfFile target = NetcdfFile.open(targetFile.getPath());
+            try {
+                final Array a = target.findVariable("a").read();
+                final Array flag = target.findVariable("flag").read();
+                assertEquals(2 * indexes.length, a.getSize());
+                assertEquals(indexes.length, flag.getSize());
+                for (int k = 0; k < indexes.length; k++) {
+                    assertEquals(2 * indexes[k], a.getInt(2 * k));
+                    assertEquals(2 * indexes[k] + 1, a.getInt(2 * k + 1));
+                    assertEquals(getFlag(indexes[k]), flag.getDouble(k), 0.0);
+                }
+            } finally {
+                target.close();
+            }
+        } finally {
+            sourceFile.delete();
+            targetFile.delete();
+        }
+    }
+
+    private static File createSourceFile() throws Exception {
+        final File sourceFile = File.createTempFile("mmd", ".nc");
+        final NetcdfFileWriter sourceWriter = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                                                                         sourceFile.getPath());
+        try {
+            sourceWriter.addDimension(null, "matchup", RECORD_COUNT);
+            sourceWriter.addDimension(null, "ny", 2);
+            final Variable a = sourceWriter.addVariable(null, "a", DataType.INT, "matchup ny");
+            final Variable flag = sourceWriter.addVariable(null, "flag", DataType.DOUBLE, "matchup");
+            flag.addAttribute(new Attribute("scale_factor", 1.0));
+            flag.addAttribute(new Attribute("_FillValue", FILL));
+            sourceWriter.create();
+
+            final int[] aValues = new int[2 * RECORD_COUNT];
+            for (int k = 0; k < aValues.length; k++) {
+                aValues[k] = k;
+            }
+            final double[] flagValues = new double[RECORD_COUNT];
+            for (int i = 0; i < flagValues.length; i++) {
+                flagValues[i] = getFlag(i);
+            }
+            sourceWriter.write(a, Array.factory(DataType.INT, new int[]{RECORD_COUNT, 2}, aValues));
+            sourceWriter.write(flag, Array.factory(DataType.DOUBLE, new int[]{RECORD_COUNT}, flagValues));
+        } finally {
+            sourceWriter.close();
+        }
+        return sourceFile;
+    }
+
+    // records are accepted if their flag is positive, the flag of every fifth record is a fill value
+    private static double getFlag(int i) {
+        if (i % 5 == 4) {
+            return FILL;
+        }
+        return i % 3 == 0 || i == RECORD_COUNT - 1 ? 1.0 : 0.0;
+    }
+
+    private static BitSet createExpectedSelection() {
+        final BitSet expected = new BitSet(RECORD_COUNT);
+        for (int i = 0; i < RECORD_COUNT; i++) {
+            if (getFlag(i) > 0.0) {
+                expected.set(i);
+            }
+        }
+        return expected;
+    }
+
+    private static RecordFilter.Predicate createPredicate(final Variable variable) {
+        return new RecordFilter.Predicate() {
+            @Override
+            public Variable[] getVariables() {
+                return new Variable[]{variable};
+            }
+
+            @Override
+            public boolean accept(RecordFilter.Block block, int recordIndex) {
+                return block.getRecord(variable, recordIndex)[0] > 0.0;
+            }
+        };
+    }
+}
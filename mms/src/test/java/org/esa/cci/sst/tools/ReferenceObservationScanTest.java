@@ -0,0 +1,113 @@
+package org.esa.cci.sst.tools;
+
+import org.esa.cci.sst.data.ReferenceObservation;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.persistence.Query;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReferenceObservationScanTest {
+
+    private static final String QUERY = "select o from ReferenceObservation o" +
+                                        " where o.sensor = ?1 and o.time >= ?2 and o.time < ?3" +
+                                        " order by o.time, o.id";
+    private static final String KEYSET_QUERY = "select o from ReferenceObservation o" +
+                                               " where o.sensor = ?1 and o.time >= ?2 and o.time < ?3" +
+                                               " and (o.time > ?4 or (o.time = ?4 and o.id > ?5))" +
+                                               " order by o.time, o.id";
+
+    private PersistenceManager persistenceManager;
+    private Date startDate;
+    private Date stopDate;
+
+    @Before
+    public void setUp() {
+        persistenceManager = mock(PersistenceManager.class);
+        startDate = new Date(1000000L);
+        stopDate = new Date(2000000L);
+    }
+
+    @Test
+    public void testCreateKeysetQueryString() {
+        assertEquals(KEYSET_QUERY, ReferenceObservationScan.createKeysetQueryString(QUERY));
+    }
+
+    @Test
+    public void testConstruction_throwsOnUnorderedQuery() {
+        try {
+            new ReferenceObservationScan(persistenceManager, "select o from ReferenceObservation o", "atsr_md",
+                                         startDate, stopDate, 2, false);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            //
+        }
+    }
+
+    @Test
+    public void testNext_keysetPagination() {
+        final Query firstQuery = mock(Query.class);
+        final Query keysetQuery = mock(Query.class);
+        final ReferenceObservation o1 = createObservation(11, 1100000L);
+        final ReferenceObservation o2 = createObservation(12, 1200000L);
+        final ReferenceObservation o3 = createObservation(13, 1200000L);
+
+        when(persistenceManager.createQuery(QUERY)).thenReturn(firstQuery);
+        when(persistenceManager.createQuery(KEYSET_QUERY)).thenReturn(keysetQuery);
+        when(firstQuery.getResultList()).thenReturn(Arrays.asList(o1, o2));
+        when(keysetQuery.getResultList()).thenReturn(Arrays.asList(o3));
+
+        final ReferenceObservationScan scan = new ReferenceObservationScan(persistenceManager, QUERY, "atsr_md",
+                                                                           startDate, stopDate, 2, false);
+        assertFalse(scan.isStreaming());
+        assertEquals(Arrays.asList(o1, o2), scan.next());
+        assertEquals(Arrays.asList(o3), scan.next());
+        assertTrue(scan.next().isEmpty());
+
+        verify(firstQuery, times(1)).setMaxResults(2);
+        verify(keysetQuery, times(1)).setParameter(4, o2.getTime());
+        verify(keysetQuery, times(1)).setParameter(5, 12);
+        verify(firstQuery, never()).setFirstResult(anyInt());
+        verify(keysetQuery, never()).setFirstResult(anyInt());
+        verify(persistenceManager, times(1)).createQuery(QUERY);
+        verify(persistenceManager, times(1)).createQuery(KEYSET_QUERY);
+        verifyNoMoreInteractions(persistenceManager);
+    }
+
+    @Test
+    public void testNext_streaming() {
+        final Query query = mock(Query.class);
+        final List<ReferenceObservation> observations = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            observations.add(createObservation(i, 1000000L + i));
+        }
+        when(persistenceManager.createQuery(QUERY)).thenReturn(query);
+        when(query.getResultList()).thenReturn(observations);
+
+        final ReferenceObservationScan scan = new ReferenceObservationScan(persistenceManager, QUERY, "atsr_md",
+                                                                           startDate, stopDate, 2, true);
+        assertTrue(scan.isStreaming());
+        assertEquals(2, scan.next().size());
+        assertEquals(2, scan.next().size());
+        assertEquals(1, scan.next().size());
+        assertTrue(scan.next().isEmpty());
+
+        verify(persistenceManager, times(1)).createQuery(QUERY);
+        verify(query, never()).setMaxResults(anyInt());
+    }
+
+    @SuppressWarnings("deprecation")
+    private static ReferenceObservation createObservation(int id, long time) {
+        final ReferenceObservation observation = new ReferenceObservation();
+        observation.setId(id);
+        observation.setTime(new Date(time));
+        return observation;
+    }
+}
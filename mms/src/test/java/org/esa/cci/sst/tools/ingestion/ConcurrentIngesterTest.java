@@ -0,0 +1,201 @@
+package org.esa.cci.sst.tools.ingestion;
+
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.data.Item;
+import org.esa.cci.sst.data.Observation;
+import org.esa.cci.sst.data.RelatedObservation;
+import org.esa.cci.sst.data.Sensor;
+import org.esa.cci.sst.orm.BatchPersister;
+import org.esa.cci.sst.orm.PersistenceManager;
+import org.esa.cci.sst.orm.Storage;
+import org.esa.cci.sst.reader.Reader;
+import org.esa.cci.sst.tools.ErrorHandler;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ConcurrentIngesterTest {
+
+    private PersistenceManager persistenceManager;
+    private Storage storage;
+    private BatchPersister batchPersister;
+    private ErrorHandler errorHandler;
+    private Ingester ingester;
+    private Map<String, Reader> readers;
+
+    @Before
+    public void setUp() throws Exception {
+        final Sensor sensor = mock(Sensor.class);
+        storage = mock(Storage.class);
+        when(storage.getSensor(anyString())).thenReturn(sensor);
+
+        batchPersister = mock(BatchPersister.class);
+        persistenceManager = mock(PersistenceManager.class);
+        when(persistenceManager.getBatchPersister()).thenReturn(batchPersister);
+
+        errorHandler = mock(ErrorHandler.class);
+
+        ingester = mock(Ingester.class);
+        when(ingester.createSensor(anyString(), anyString(), anyLong())).thenReturn(sensor);
+        when(ingester.readObservation(any(Reader.class), anyInt())).thenCallRealMethod();
+        when(ingester.getErrorHandler()).thenReturn(errorHandler);
+        when(ingester.checkObservation(any(Observation.class), anyInt())).thenReturn(true);
+        when(ingester.checkTime(any(Observation.class))).thenReturn(true);
+
+        readers = new HashMap<>();
+    }
+
+    @Test
+    public void testIngest_filesAreWrittenInOrder() throws Exception {
+        // the first file is read slowly, so that the other files are read first
+        readers.put("a", createReader(5, -1, 50));
+        readers.put("b", createReader(3, -1, 0));
+        readers.put("c", createReader(4, -1, 0));
+
+        createIngester(3, 2, 1000).ingest(createJobs("a", "b", "c"));
+
+        final List<Observation> observations = getPersistedObservations();
+        assertEquals(12, observations.size());
+        assertRecords(observations.subList(0, 5), "a", 5);
+        assertRecords(observations.subList(5, 8), "b", 3);
+        assertRecords(observations.subList(8, 12), "c", 4);
+        verify(persistenceManager, times(3)).transaction();
+        verify(persistenceManager, times(3)).commit();
+        verify(persistenceManager, never()).rollback();
+        verify(ingester, times(3)).persistColumns(anyString(), any(Item[].class));
+    }
+
+    @Test
+    public void testIngest_failureIsPropagated() throws Exception {
+        readers.put("a", createReader(4, -1, 0));
+        readers.put("b", createReader(6, 3, 0));
+        readers.put("c", createReader(2, -1, 0));
+
+        final List<IngestionJob> jobs = createJobs("a", "b", "c");
+        createIngester(2, 2, 1000).ingest(jobs);
+
+        verify(persistenceManager, times(1)).rollback();
+        verify(errorHandler, times(1)).warn(any(IOException.class), eq("Failed to ingest file 'b'."));
+        assertFalse(jobs.get(0).isCancelled());
+        assertTrue(jobs.get(1).isCancelled());
+        assertFalse(jobs.get(2).isCancelled());
+        // the files before and after the failed file are committed
+        verify(persistenceManager, times(3)).transaction();
+        verify(persistenceManager, times(2)).commit();
+        final List<Observation> observations = getPersistedObservations();
+        assertRecords(observations.subList(0, 4), "a", 4);
+        assertRecords(observations.subList(observations.size() - 2, observations.size()), "c", 2);
+    }
+
+    @Test
+    public void testIngest_checkpoints() throws Exception {
+        readers.put("a", createReader(10, -1, 0));
+        readers.put("b", createReader(3, -1, 0));
+
+        createIngester(2, 2, 4).ingest(createJobs("a", "b"));
+
+        // two checkpoints for the first file, none for the second
+        verify(persistenceManager, times(4)).transaction();
+        verify(persistenceManager, times(4)).commit();
+        verify(batchPersister, times(7)).persistObservations(anyListOf(Observation.class));
+        final List<Observation> observations = getPersistedObservations();
+        assertRecords(observations.subList(0, 10), "a", 10);
+        assertRecords(observations.subList(10, 13), "b", 3);
+    }
+
+    @Test
+    public void testIngest_incompleteObservationsAreSkipped() throws Exception {
+        when(ingester.checkObservation(any(Observation.class), anyInt())).thenCallRealMethod();
+        final Reader reader = createReader(4, -1, 0);
+        when(reader.readObservation(2)).thenReturn(new RelatedObservation());
+        readers.put("a", reader);
+        readers.put("b", createReader(1, -1, 0));
+
+        createIngester(2, 2, 1000).ingest(createJobs("a", "b"));
+
+        final List<Observation> observations = getPersistedObservations();
+        assertEquals(4, observations.size());
+        assertEquals(0, observations.get(0).getRecordNo());
+        assertEquals(1, observations.get(1).getRecordNo());
+        assertEquals(3, observations.get(2).getRecordNo());
+        assertEquals("b", observations.get(3).getDatafile().getPath());
+        verify(persistenceManager, never()).rollback();
+        // the skipped record is reported like a record failing to be persisted by the sequential ingestion
+        verify(errorHandler).warn(any(IllegalArgumentException.class),
+                                  eq("Observation 0 2 is incomplete: missing sensor."));
+    }
+
+    private ConcurrentIngester createIngester(int threadCount, int batchSize, int checkpointInterval) {
+        return new ConcurrentIngester(persistenceManager, storage, errorHandler, ingester, null,
+                                      null, threadCount, batchSize, checkpointInterval) {
+            @Override
+            Reader createReader(IngestionJob job) {
+                return readers.get(job.getPath());
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Observation> getPersistedObservations() throws Exception {
+        final ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(batchPersister, atLeastOnce()).persistObservations(captor.capture());
+        final List<Observation> observations = new ArrayList<>();
+        for (final List batch : captor.getAllValues()) {
+            observations.addAll(batch);
+        }
+        return observations;
+    }
+
+    private static List<IngestionJob> createJobs(String... paths) {
+        final List<IngestionJob> jobs = new ArrayList<>(paths.length);
+        for (final String path : paths) {
+            jobs.add(new IngestionJob(path, "reader", "sensor", "RelatedObservation", 1L));
+        }
+        return jobs;
+    }
+
+    // creates a reader, which fails at the given record, if not negative
+    private static Reader createReader(int recordCount, final int failingRecordNo, final long delay) throws Exception {
+        final Reader reader = mock(Reader.class);
+        when(reader.getColumns()).thenReturn(new Item[0]);
+        when(reader.getNumRecords()).thenReturn(recordCount);
+        when(reader.readObservation(anyInt())).thenAnswer(new Answer<Observation>() {
+            @Override
+            public Observation answer(InvocationOnMock invocation) throws Throwable {
+                final int recordNo = (Integer) invocation.getArguments()[0];
+                if (recordNo == failingRecordNo) {
+                    throw new IOException("Cannot read record " + recordNo + ".");
+                }
+                Thread.sleep(delay);
+                final RelatedObservation observation = new RelatedObservation();
+                observation.setSensor("sensor");
+                observation.setTime(new Date());
+                observation.setRecordNo(recordNo);
+                return observation;
+            }
+        });
+        return reader;
+    }
+
+    private static void assertRecords(List<Observation> observations, String path, int recordCount) {
+        assertEquals(recordCount, observations.size());
+        for (int i = 0; i < recordCount; i++) {
+            final Observation observation = observations.get(i);
+            final DataFile datafile = observation.getDatafile();
+            assertEquals(path, datafile.getPath());
+            assertEquals(i, observation.getRecordNo());
+        }
+    }
+}
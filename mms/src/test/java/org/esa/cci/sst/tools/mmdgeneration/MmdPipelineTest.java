@@ -0,0 +1,107 @@
+package org.esa.cci.sst.tools.mmdgeneration;
+
+import org.esa.cci.sst.tool.ToolException;
+import org.esa.cci.sst.util.ReaderCache;
+import org.esa.cci.sst.util.ReaderPool;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import ucar.ma2.Array;
+import ucar.ma2.InvalidRangeException;
+import ucar.nc2.Variable;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MmdPipelineTest {
+
+    @Test
+    public void testAllBlocksAreWritten() throws Exception {
+        final MmdWriter mmdWriter = mock(MmdWriter.class);
+        final Variable variable = mock(Variable.class);
+        when(variable.getRank()).thenReturn(2);
+
+        final Map<Integer, Integer> written = Collections.synchronizedMap(new HashMap<Integer, Integer>());
+        final AtomicLong maxBytesInFlight = new AtomicLong();
+        final MmdPipeline pipeline = new MmdPipeline(mmdWriter, 4, 64, mock(ReaderPool.class), 2);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                final int[] origin = (int[]) invocation.getArguments()[1];
+                final Array array = (Array) invocation.getArguments()[2];
+                assertEquals(0, origin[1]);
+                written.put(origin[0], array.getInt(0));
+                maxBytesInFlight.set(Math.max(maxBytesInFlight.get(), pipeline.getBytesInFlight()));
+                return null;
+            }
+        }).when(mmdWriter).write(same(variable), any(int[].class), any(Array.class));
+
+        pipeline.start();
+        try {
+            for (int i = 0; i < 100; i++) {
+                final int recordNo = i;
+                pipeline.submit(new MmdPipeline.Task() {
+                    @Override
+                    public void run(ReaderCache readerCache, MmdPipeline.Sink sink) throws IOException {
+                        assertNotNull(readerCache);
+                        final Array array = Array.factory(new int[]{recordNo, recordNo, recordNo, recordNo});
+                        try {
+                            sink.write(variable, recordNo, array);
+                        } catch (InvalidRangeException e) {
+                            fail();
+                        }
+                    }
+                });
+            }
+            pipeline.finish();
+        } finally {
+            pipeline.dispose();
+        }
+
+        assertEquals(100, written.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, written.get(i).intValue());
+        }
+        assertTrue(maxBytesInFlight.get() <= 64);
+        assertEquals(0, pipeline.getBytesInFlight());
+    }
+
+    @Test
+    public void testFailureIsPropagated() {
+        final MmdWriter mmdWriter = mock(MmdWriter.class);
+        final MmdPipeline pipeline = new MmdPipeline(mmdWriter, 2, 1024, mock(ReaderPool.class), 2);
+
+        pipeline.start();
+        try {
+            pipeline.submit(new MmdPipeline.Task() {
+                @Override
+                public void run(ReaderCache readerCache, MmdPipeline.Sink sink) {
+                    throw new ToolException("expected", ToolException.TOOL_ERROR);
+                }
+            });
+            pipeline.finish();
+            fail("ToolException expected");
+        } catch (ToolException expected) {
+            assertEquals("expected", expected.getMessage());
+        } finally {
+            pipeline.dispose();
+        }
+        verifyNoMoreInteractions(mmdWriter);
+    }
+
+    @Test
+    public void testConstruction_throwsOnInvalidWorkerCount() {
+        try {
+            new MmdPipeline(mock(MmdWriter.class), 0, 1024, mock(ReaderPool.class), 2);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            //
+        }
+    }
+}
@@ -317,6 +317,21 @@ public class MmdToolTest {
         return stringBuilder.substring(0, stringBuilder.length() - 1);
     }
 
+    @Test
+    public void testGetRecordSize() {
+        assertEquals(4 * 101 * 101, MmdTool.getRecordSize(new int[]{1000, 101, 101}, 4));
+        assertEquals(8, MmdTool.getRecordSize(new int[]{1000}, 8));
+    }
+
+    @Test
+    public void testGetMaxBatchSize() {
+        assertEquals(128, MmdTool.getMaxBatchSize(0));
+        assertEquals(128, MmdTool.getMaxBatchSize(1024));
+        // 30 variables of 101 x 101 floats
+        assertEquals(13, MmdTool.getMaxBatchSize(30L * 4 * 101 * 101));
+        assertEquals(1, MmdTool.getMaxBatchSize(64L * 1024 * 1024));
+    }
+
     private void assertCorrectDate(int year, int month, int day, Date date) {
         final GregorianCalendar utcCalendar = TimeUtil.createUtcCalendar();
         utcCalendar.setTime(date);
@@ -0,0 +1,108 @@
+package org.esa.cci.sst.tools.mmdgeneration;
+
+import org.esa.cci.sst.data.Item;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import ucar.ma2.Array;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class MmdWriterTest {
+
+    private NetcdfFileWriter fileWriter;
+    private Variable variable;
+    private MmdWriter mmdWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        fileWriter = mock(NetcdfFileWriter.class);
+        variable = mock(Variable.class);
+        when(variable.getRank()).thenReturn(2);
+        when(variable.getShape()).thenReturn(new int[]{10, 2});
+        mmdWriter = new MmdWriter(fileWriter, 10, new HashMap<String, Integer>(), new ArrayList<Item>());
+    }
+
+    @Test
+    public void testWrite_unbuffered() throws Exception {
+        final Array record = createRecord(3);
+        mmdWriter.write(variable, new int[]{3, 0}, record);
+
+        verify(fileWriter, times(1)).write(variable, new int[]{3, 0}, record);
+    }
+
+    @Test
+    public void testWrite_buffered_contiguousRecordsAreMerged() throws Exception {
+        mmdWriter.setBufferSize(3);
+
+        mmdWriter.write(variable, new int[]{5, 0}, createRecord(5));
+        mmdWriter.write(variable, new int[]{3, 0}, createRecord(3));
+        verify(fileWriter, never()).write(any(Variable.class), any(int[].class), any(Array.class));
+
+        mmdWriter.write(variable, new int[]{4, 0}, createRecord(4));
+
+        final ArgumentCaptor<int[]> originCaptor = ArgumentCaptor.forClass(int[].class);
+        final ArgumentCaptor<Array> arrayCaptor = ArgumentCaptor.forClass(Array.class);
+        verify(fileWriter, times(1)).write(same(variable), originCaptor.capture(), arrayCaptor.capture());
+        assertArrayEquals(new int[]{3, 0}, originCaptor.getValue());
+        final Array slab = arrayCaptor.getValue();
+        assertArrayEquals(new int[]{3, 2}, slab.getShape());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(3 + i / 2, slab.getInt(i));
+        }
+    }
+
+    @Test
+    public void testWrite_buffered_runsAreSplitAtGaps() throws Exception {
+        mmdWriter.setBufferSize(100);
+
+        mmdWriter.write(variable, new int[]{0, 0}, createRecord(0));
+        mmdWriter.write(variable, new int[]{1, 0}, createRecord(1));
+        mmdWriter.write(variable, new int[]{7, 0}, createRecord(7));
+        mmdWriter.close();
+
+        final ArgumentCaptor<int[]> originCaptor = ArgumentCaptor.forClass(int[].class);
+        final ArgumentCaptor<Array> arrayCaptor = ArgumentCaptor.forClass(Array.class);
+        verify(fileWriter, times(2)).write(same(variable), originCaptor.capture(), arrayCaptor.capture());
+        final List<int[]> origins = originCaptor.getAllValues();
+        final List<Array> arrays = arrayCaptor.getAllValues();
+        assertArrayEquals(new int[]{0, 0}, origins.get(0));
+        assertArrayEquals(new int[]{2, 2}, arrays.get(0).getShape());
+        assertArrayEquals(new int[]{7, 0}, origins.get(1));
+        assertArrayEquals(new int[]{1, 2}, arrays.get(1).getShape());
+        verify(fileWriter, times(1)).close();
+    }
+
+    @Test
+    public void testWrite_buffered_partialRecordIsWrittenDirectly() throws Exception {
+        mmdWriter.setBufferSize(100);
+
+        final Array record = createRecord(2);
+        final Array partial = Array.factory(new int[]{9}).reshape(new int[]{1, 1});
+        mmdWriter.write(variable, new int[]{2, 0}, record);
+        mmdWriter.write(variable, new int[]{6, 1}, partial);
+
+        verify(fileWriter, times(1)).write(variable, new int[]{2, 0}, record);
+        verify(fileWriter, times(1)).write(variable, new int[]{6, 1}, partial);
+    }
+
+    @Test
+    public void testIsCompleteRecord() {
+        assertTrue(MmdWriter.isCompleteRecord(variable, new int[]{4, 0}, createRecord(4)));
+        assertFalse(MmdWriter.isCompleteRecord(variable, new int[]{4, 1}, createRecord(4)));
+        assertFalse(MmdWriter.isCompleteRecord(variable, new int[]{4, 0}, Array.factory(new int[]{1, 2, 3, 4})));
+        assertFalse(MmdWriter.isCompleteRecord(variable, new int[]{4, 0},
+                                               Array.factory(new int[]{1, 2, 3, 4}).reshape(new int[]{2, 2})));
+    }
+
+    private static Array createRecord(int recordNo) {
+        return Array.factory(new int[]{recordNo, recordNo}).reshape(new int[]{1, 2});
+    }
+}
@@ -0,0 +1,82 @@
+package org.esa.cci.sst.tools.nwp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BilinearSamplerTest {
+
+    private static final double[] LAT_AXIS = {60.0, 30.0, 0.0, -30.0, -60.0};
+    private static final double[] LON_AXIS = {0.0, 90.0, 180.0, 270.0};
+
+    @Test
+    public void testIsCyclic() {
+        assertTrue(BilinearSampler.isCyclic(LON_AXIS));
+        assertFalse(BilinearSampler.isCyclic(new double[]{0.0, 90.0, 180.0}));
+        assertFalse(BilinearSampler.isCyclic(new double[]{270.0, 180.0, 90.0, 0.0}));
+    }
+
+    @Test
+    public void testLocate_descendingAxis() {
+        final double[] index = new double[2];
+
+        BilinearSampler.locate(LAT_AXIS, 15.0, false, index);
+        assertEquals(1.0, index[0], 0.0);
+        assertEquals(0.5, index[1], 1.0e-10);
+
+        BilinearSampler.locate(LAT_AXIS, 80.0, false, index);
+        assertEquals(0.0, index[0], 0.0);
+        assertEquals(0.0, index[1], 0.0);
+
+        BilinearSampler.locate(LAT_AXIS, -80.0, false, index);
+        assertEquals(3.0, index[0], 0.0);
+        assertEquals(1.0, index[1], 0.0);
+    }
+
+    @Test
+    public void testLocate_cyclicAxis() {
+        final double[] index = new double[2];
+
+        BilinearSampler.locate(LON_AXIS, -45.0, true, index);
+        assertEquals(3.0, index[0], 0.0);
+        assertEquals(0.5, index[1], 1.0e-10);
+
+        BilinearSampler.locate(LON_AXIS, 135.0, true, index);
+        assertEquals(1.0, index[0], 0.0);
+        assertEquals(0.5, index[1], 1.0e-10);
+    }
+
+    @Test
+    public void testSample() {
+        final float[] field = new float[LAT_AXIS.length * LON_AXIS.length];
+        for (int j = 0; j < LAT_AXIS.length; j++) {
+            for (int i = 0; i < LON_AXIS.length; i++) {
+                field[j * LON_AXIS.length + i] = 10 * j + i;
+            }
+        }
+        final float[] lats = {15.0f, 30.0f, 45.0f, 100.0f};
+        final float[] lons = {45.0f, -45.0f, 0.0f, 0.0f};
+        final BilinearSampler sampler = new BilinearSampler(LAT_AXIS, LON_AXIS, lats, lons);
+
+        final float[] values = sampler.sample(field, -1.0f);
+        assertEquals(15.5f, values[0], 1.0e-5f);
+        assertEquals(11.5f, values[1], 1.0e-5f);
+        assertEquals(5.0f, values[2], 1.0e-5f);
+        assertEquals(-1.0f, values[3], 0.0f);
+    }
+
+    @Test
+    public void testSample_missingValuesAreSkipped() {
+        final float[] field = new float[LAT_AXIS.length * LON_AXIS.length];
+        field[0] = Float.NaN;
+        field[1] = 4.0f;
+        field[4] = Float.NaN;
+        field[5] = Float.NaN;
+        final BilinearSampler sampler = new BilinearSampler(LAT_AXIS, LON_AXIS, new float[]{45.0f, 45.0f},
+                                                            new float[]{45.0f, 0.0f});
+
+        final float[] values = sampler.sample(field, -1.0f);
+        assertEquals(4.0f, values[0], 1.0e-5f);
+        assertEquals(-1.0f, values[1], 0.0f);
+    }
+}
@@ -0,0 +1,38 @@
+package org.esa.cci.sst.tools.nwp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class NwpExtractorTest {
+
+    @Test
+    public void testToSecondsSince1978() throws IOException {
+        assertEquals(0, NwpExtractor.toSecondsSince1978(0.0, "seconds since 1978-01-01 00:00:00"));
+        assertEquals(86400, NwpExtractor.toSecondsSince1978(1.0, "days since 1978-01-01"));
+        assertEquals(21600, NwpExtractor.toSecondsSince1978(683742.0, "hours since 1900-01-01 00:00:00"));
+    }
+
+    @Test
+    public void testToSecondsSince1978_invalidUnits() {
+        try {
+            NwpExtractor.toSecondsSince1978(0.0, "bananas");
+            fail("IOException expected");
+        } catch (IOException expected) {
+            //
+        }
+    }
+
+    @Test
+    public void testExtract_withoutSource() throws IOException {
+        try {
+            new NwpExtractor().extract(new float[1], new float[1], 1, "target.nc");
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException expected) {
+            //
+        }
+    }
+}
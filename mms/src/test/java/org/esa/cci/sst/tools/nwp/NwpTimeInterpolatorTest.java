@@ -0,0 +1,136 @@
+package org.esa.cci.sst.tools.nwp;
+
+import org.junit.Test;
+import ucar.ma2.Array;
+import ucar.ma2.DataType;
+import ucar.nc2.Attribute;
+import ucar.nc2.NetcdfFile;
+import ucar.nc2.NetcdfFileWriter;
+import ucar.nc2.Variable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class NwpTimeInterpolatorTest {
+
+    private static final float FILL = 2.0E20F;
+
+    @Test
+    public void testInterpolate_values() {
+        final float[] source = {0.0f, 10.0f, FILL, FILL, 20.0f, 30.0f, 40.0f, FILL};
+        final float[] target = new float[5];
+
+        NwpTimeInterpolator.interpolate(source, 0, 4, 4, 0.25, FILL, Float.NEGATIVE_INFINITY,
+                                        Float.POSITIVE_INFINITY, target, 1);
+
+        assertEquals(0.0f, target[0], 0.0f);
+        assertEquals(5.0f, target[1], 1.0e-6f);
+        assertEquals(15.0f, target[2], 1.0e-6f);
+        assertEquals(40.0f, target[3], 0.0f);
+        assertEquals(FILL, target[4], 0.0f);
+    }
+
+    @Test
+    public void testInterpolate_validRange() {
+        final float[] source = {-5.0f, 1.0f, 2.0f, 500.0f};
+        final float[] target = new float[2];
+
+        NwpTimeInterpolator.interpolate(source, 0, 2, 2, 0.5, FILL, 0.0f, 100.0f, target, 0);
+
+        assertEquals(2.0f, target[0], 0.0f);
+        assertEquals(1.0f, target[1], 0.0f);
+    }
+
+    @Test
+    public void testInterpolate_file() throws Exception {
+        final int matchupCount = 3;
+        final int timeCount = 4;
+        final int gz = 2;
+        final int gy = 2;
+        final int gx = 3;
+
+        final File sourceFile = File.createTempFile("nwp", ".nc");
+        final File targetFile = File.createTempFile("mmd", ".nc");
+        try {
+            final NetcdfFileWriter sourceWriter = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                                                                             sourceFile.getPath());
+            sourceWriter.addDimension(null, "time", timeCount);
+            sourceWriter.addDimension(null, "lev", gz);
+            sourceWriter.addDimension(null, "y", matchupCount * gy);
+            sourceWriter.addDimension(null, "x", gx);
+            final Variable a = sourceWriter.addVariable(null, "A", DataType.FLOAT, "time lev y x");
+            a.addAttribute(new Attribute("_FillValue", FILL));
+            final Variable b = sourceWriter.addVariable(null, "B", DataType.FLOAT, "time lev y x");
+            sourceWriter.create();
+            final float[] values = new float[timeCount * gz * matchupCount * gy * gx];
+            for (int k = 0; k < values.length; k++) {
+                values[k] = k;
+            }
+            final int[] sourceShape = {timeCount, gz, matchupCount * gy, gx};
+            sourceWriter.write(a, Array.factory(DataType.FLOAT, sourceShape, values));
+            sourceWriter.write(b, Array.factory(DataType.FLOAT, sourceShape, values));
+            sourceWriter.close();
+
+            final NetcdfFile sourceNwp = NetcdfFile.open(sourceFile.getPath());
+            final NetcdfFileWriter targetMmd = NetcdfFileWriter.createNew(NetcdfFileWriter.Version.netcdf3,
+                                                                          targetFile.getPath());
+            try {
+                targetMmd.addDimension(null, "matchup", matchupCount);
+                targetMmd.addDimension(null, "nz", gz);
+                targetMmd.addDimension(null, "ny", gy);
+                targetMmd.addDimension(null, "nx", gx);
+                final Map<Variable, Variable> map = new HashMap<>();
+                map.put(targetMmd.addVariable(null, "a", DataType.FLOAT, "matchup nz ny nx"),
+                        sourceNwp.findVariable("A"));
+                map.put(targetMmd.addVariable(null, "b", DataType.FLOAT, "matchup nz ny nx"),
+                        sourceNwp.findVariable("B"));
+                targetMmd.create();
+
+                final int[] timeSteps = {2, -1, 0};
+                final double[] timeFractions = {0.5, 0.0, 0.25};
+                new NwpTimeInterpolator(timeSteps, timeFractions, gy, gx).interpolate(sourceNwp, map, targetMmd, 2);
+            } finally {
+                targetMmd.close();
+                sourceNwp.close();
+            }
+
+            final NetcdfFile target = NetcdfFile.open(targetFile.getPath());
+            try {
+                final Array sourceData = Array.factory(DataType.FLOAT, new int[]{timeCount, gz, matchupCount * gy, gx},
+                                                       values);
+                for (final String name : new String[]{"a", "b"}) {
+                    final Array targetData = target.findVariable(name).read();
+                    for (int z = 0; z < gz; z++) {
+                        for (int y = 0; y < gy; y++) {
+                            for (int x = 0; x < gx; x++) {
+                                assertEquals(expected(sourceData, 2, 0.5, z, y, x),
+                                             get(targetData, 0, z, y, x), 1.0e-4f);
+                                assertEquals(expected(sourceData, 0, 0.25, z, 2 * gy + y, x),
+                                             get(targetData, 2, z, y, x), 1.0e-4f);
+                            }
+                        }
+                    }
+                }
+                assertEquals(FILL, get(target.findVariable("a").read(), 1, 1, 1, 1), 0.0f);
+            } finally {
+                target.close();
+            }
+        } finally {
+            sourceFile.delete();
+            targetFile.delete();
+        }
+    }
+
+    private static float expected(Array sourceData, int t, double f, int z, int y, int x) {
+        final float v1 = get(sourceData, t, z, y, x);
+        final float v2 = get(sourceData, t + 1, z, y, x);
+        return (float) ((1.0 - f) * v1 + f * v2);
+    }
+
+    private static float get(Array array, int i, int j, int k, int l) {
+        return array.getFloat(array.getIndex().set(i, j, k, l));
+    }
+}
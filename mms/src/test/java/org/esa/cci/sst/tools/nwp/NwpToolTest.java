@@ -19,6 +19,7 @@ package org.esa.cci.sst.tools.nwp;
 import org.junit.Test;
 import ucar.ma2.Array;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -51,37 +52,57 @@ public class NwpToolTest {
     }
 
     @Test
-    public void testGetMatchupCount_noInputData() {
+    public void testGetMatchupIndexes_noInputData() {
         final Array array = mock(Array.class);
         when(array.getSize()).thenReturn(0L);
 
-        final int matchupCount = NwpTool.getMatchupCount(array, 800);
-        assertEquals(0, matchupCount);
+        final int[] matchupIndexes = NwpTool.getMatchupIndexes(array, 800);
+        assertEquals(0, matchupIndexes.length);
     }
 
     @Test
-    public void testGetMatchupCount_noMatchingPattern() {
+    public void testGetMatchupIndexes_noMatchingPattern() {
         final Array array = mock(Array.class);
         when(array.getSize()).thenReturn(3L);
         when(array.getInt(0)).thenReturn(200);
         when(array.getInt(1)).thenReturn(1600);
         when(array.getInt(2)).thenReturn(400);
 
-        final int matchupCount = NwpTool.getMatchupCount(array, 800);
-        assertEquals(0, matchupCount);
+        final int[] matchupIndexes = NwpTool.getMatchupIndexes(array, 800);
+        assertEquals(0, matchupIndexes.length);
     }
 
     @Test
-    public void testGetMatchupCount_matchingPattern() {
+    public void testGetMatchupIndexes_matchingPattern() {
         final Array array = mock(Array.class);
-        when(array.getSize()).thenReturn(4L);
+        when(array.getSize()).thenReturn(5L);
         when(array.getInt(0)).thenReturn(400);
         when(array.getInt(1)).thenReturn(1600);
         when(array.getInt(2)).thenReturn(800);
         when(array.getInt(3)).thenReturn(8);
+        when(array.getInt(4)).thenReturn(800 | 8);
 
-        final int matchupCount = NwpTool.getMatchupCount(array, 800);
-        assertEquals(1, matchupCount);
+        final int[] matchupIndexes = NwpTool.getMatchupIndexes(array, 800);
+        assertArrayEquals(new int[]{2, 4}, matchupIndexes);
+    }
+
+    @Test
+    public void testGetBlockEnd() {
+        final int[] indexes = {0, 1, 2, 5, 9, 10, 30};
+
+        assertEquals(3, NwpTool.getBlockEnd(indexes, 0, 4));
+        assertEquals(5, NwpTool.getBlockEnd(indexes, 0, 10));
+        assertEquals(6, NwpTool.getBlockEnd(indexes, 3, 6));
+        assertEquals(7, NwpTool.getBlockEnd(indexes, 5, 100));
+    }
+
+    @Test
+    public void testGetBlockEnd_singleRecordPerBlock() {
+        final int[] indexes = {3, 4, 8};
+
+        assertEquals(1, NwpTool.getBlockEnd(indexes, 0, 1));
+        assertEquals(2, NwpTool.getBlockEnd(indexes, 1, 1));
+        assertEquals(3, NwpTool.getBlockEnd(indexes, 2, 1));
     }
 
     @Test
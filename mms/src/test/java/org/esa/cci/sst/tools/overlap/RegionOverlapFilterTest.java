@@ -263,6 +263,46 @@ public class RegionOverlapFilterTest {
         assertEquals(82715, filtererList.size());
     }
 
+    @Test
+    public void testFilter_maxCount_subSceneIsEnlarged() {
+        final List<SamplingPoint> sampleList = new ArrayList<>();
+        for (int x = 0; x < 100; x++) {
+            addSamplePoint(x, 50, sampleList);
+        }
+
+        final List<SamplingPoint> filteredList = new RegionOverlapFilter(1, 1).apply(sampleList, 10);
+        assertEquals(10, filteredList.size());
+        for (int i = 0; i < 10; i++) {
+            assertSamplePointAt(10 * i, 50, i, filteredList);
+        }
+    }
+
+    @Test
+    public void testFilter_maxCount_notExceeded() {
+        final List<SamplingPoint> sampleList = new ArrayList<>();
+        addSamplePoint(19, 83, sampleList);
+        addSamplePoint(21, 82, sampleList);
+        addSamplePoint(102, 13, sampleList);
+
+        final List<SamplingPoint> filteredList = filter.apply(sampleList, 2);
+        assertEquals(2, filteredList.size());
+        assertSamplePointAt(102, 13, 0, filteredList);
+        assertSamplePointAt(21, 82, 1, filteredList);
+    }
+
+    @Test
+    public void testFilter_maxCount_onePointPerOrbitRemains() {
+        final List<SamplingPoint> sampleList = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final SamplingPoint point = new SamplingPoint(17 * i, 5 * i);
+            point.setReference(i % 2);
+            sampleList.add(point);
+        }
+
+        final List<SamplingPoint> filteredList = filter.apply(sampleList, 1);
+        assertEquals(2, filteredList.size());
+    }
+
     private void assertSamplePointAt(int expectedX, int expectedY, int index, List<SamplingPoint> filteredList) {
         assertEquals(expectedX, filteredList.get(index).getX());
         assertEquals(expectedY, filteredList.get(index).getY());
@@ -42,6 +42,28 @@ public class ObservationFinderTest {
         assertEquals(471, samples.size());
     }
 
+    @Test
+    public void testFindObservations_parallelSearchEqualsSequentialSearch() throws ParseException {
+        final long startTime = TimeUtil.parseCcsdsUtcFormat("2003-01-01T00:00:00Z").getTime();
+        final long stopTime = TimeUtil.parseCcsdsUtcFormat("2003-01-02T00:00:00Z").getTime();
+        final List<SamplingPoint> samples1 = new SobolSamplePointGenerator().createSamples(10000, 0, startTime,
+                                                                                           stopTime);
+        final List<SamplingPoint> samples2 = new SobolSamplePointGenerator().createSamples(10000, 0, startTime,
+                                                                                           stopTime);
+
+        final int searchTime = 86400 * 175 / 20 * 1000;
+        ObservationFinder.findObservations(samples1, searchTime, searchTime, true, 1,
+                                           createAtsrPolygon(1), createAtsrPolygon(2));
+        ObservationFinder.findObservations(samples2, searchTime, searchTime, true, 4,
+                                           createAtsrPolygon(1), createAtsrPolygon(2));
+
+        assertEquals(518, samples1.size());
+        assertEquals(samples1.size(), samples2.size());
+        for (int i = 0; i < samples1.size(); i++) {
+            assertEquals(samples1.get(i).getTime(), samples2.get(i).getTime());
+            assertEquals(samples1.get(i).getReference(), samples2.get(i).getReference());
+        }
+    }
 
     @Test
     public void testFindObservations_withNoPolygon() throws Exception {
@@ -0,0 +1,219 @@
+package org.esa.cci.sst.util;
+
+import org.esa.cci.sst.data.DataFile;
+import org.esa.cci.sst.reader.Reader;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class ReaderPoolTest {
+
+    @Test
+    public void testLease_hitAndMiss() throws Exception {
+        final TestPool pool = new TestPool(2, 0);
+
+        final Reader reader = pool.lease(new DataFile("a", null));
+        pool.release(reader);
+        assertSame(reader, pool.lease(new DataFile("a", null)));
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.openCount.get());
+    }
+
+    @Test
+    public void testLease_leasedReaderIsNotLeasedAgain() throws Exception {
+        final TestPool pool = new TestPool(2, 0);
+
+        final Reader a1 = pool.lease(new DataFile("a", null));
+        final Reader a2 = pool.lease(new DataFile("a", null));
+        assertNotSame(a1, a2);
+        assertEquals(2, pool.getMissCount());
+        assertEquals(0, pool.getHitCount());
+        assertEquals(2, pool.getReaderCount());
+
+        pool.release(a2);
+        assertSame(a2, pool.lease(new DataFile("a", null)));
+        assertEquals(1, pool.getHitCount());
+    }
+
+    @Test
+    public void testRelease_leastRecentlyUsedIdleReaderIsEvicted() throws Exception {
+        final TestPool pool = new TestPool(2, 0);
+
+        final Reader a = pool.lease(new DataFile("a", null));
+        final Reader b = pool.lease(new DataFile("b", null));
+        final Reader c = pool.lease(new DataFile("c", null));
+        pool.release(a);
+        pool.release(b);
+        pool.release(pool.lease(new DataFile("a", null)));
+        pool.release(c);
+
+        verify(b, times(1)).close();
+        verify(a, never()).close();
+        verify(c, never()).close();
+        assertEquals(1, pool.getEvictionCount());
+        assertEquals(2, pool.getReaderCount());
+    }
+
+    @Test
+    public void testLeasedReaderIsNeverClosed() throws Exception {
+        final TestPool pool = new TestPool(0, 0);
+
+        final Reader a = pool.lease(new DataFile("a", null));
+        final Reader b = pool.lease(new DataFile("b", null));
+        verify(a, never()).close();
+        verify(b, never()).close();
+
+        pool.release(a);
+        verify(a, times(1)).close();
+        verify(b, never()).close();
+    }
+
+    @Test
+    public void testRelease_memoryLimit() throws Exception {
+        final TestPool pool = new TestPool(10, 250);
+
+        final Reader a = pool.lease(new DataFile("a", null));
+        final Reader b = pool.lease(new DataFile("b", null));
+        pool.release(a);
+        pool.release(b);
+        assertEquals(200, pool.getMemory());
+
+        pool.release(pool.lease(new DataFile("c", null)));
+        verify(a, times(1)).close();
+        verify(b, never()).close();
+        assertEquals(200, pool.getMemory());
+    }
+
+    @Test
+    public void testClear_leasedReaderIsClosedOnRelease() throws Exception {
+        final TestPool pool = new TestPool(10, 0);
+
+        final Reader a = pool.lease(new DataFile("a", null));
+        final Reader b = pool.lease(new DataFile("b", null));
+        pool.release(b);
+        pool.clear();
+        verify(b, times(1)).close();
+        verify(a, never()).close();
+
+        pool.release(a);
+        verify(a, times(1)).close();
+        assertEquals(0, pool.getReaderCount());
+        assertEquals(0, pool.getMemory());
+    }
+
+    @Test
+    public void testRelease_throwsForUnknownReader() {
+        try {
+            new TestPool(1, 0).release(mock(Reader.class));
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException expected) {
+            //
+        }
+    }
+
+    @Test
+    public void testLease_exclusive() throws Exception {
+        final TestPool pool = new TestPool(4, 0);
+        final CyclicBarrier allLeased = new CyclicBarrier(4);
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<Reader>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(new Callable<Reader>() {
+                    @Override
+                    public Reader call() throws Exception {
+                        final Reader reader = pool.lease(new DataFile("a", null));
+                        // all readers are leased at the same time
+                        allLeased.await(10, TimeUnit.SECONDS);
+                        return reader;
+                    }
+                }));
+            }
+            final Set<Reader> readers = Collections.newSetFromMap(new IdentityHashMap<Reader, Boolean>());
+            for (final Future<Reader> future : futures) {
+                readers.add(future.get());
+            }
+            assertEquals(4, readers.size());
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(4, pool.openCount.get());
+        assertEquals(4, pool.getMissCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void testLease_readerIsNeverLeasedToSeveralThreads() throws Exception {
+        final TestPool pool = new TestPool(4, 0);
+        final Set<Reader> leasedReaders = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<Reader, Boolean>()));
+        final AtomicInteger conflictCount = new AtomicInteger();
+
+        final ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int k = 0; k < 200; k++) {
+                            final Reader reader = pool.lease(new DataFile("a", null));
+                            if (!leasedReaders.add(reader)) {
+                                conflictCount.incrementAndGet();
+                            }
+                            Thread.yield();
+                            leasedReaders.remove(reader);
+                            pool.release(reader);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executorService.shutdown();
+        }
+        assertEquals(0, conflictCount.get());
+        assertEquals(800, pool.getHitCount() + pool.getMissCount());
+        assertTrue(pool.openCount.get() <= 4);
+    }
+
+    private static class TestPool extends ReaderPool {
+
+        private final AtomicInteger openCount = new AtomicInteger();
+
+        private TestPool(int maxReaderCount, long maxMemory) {
+            super(maxReaderCount, maxMemory, null, null);
+        }
+
+        @Override
+        protected Reader openReader(DataFile datafile) throws IOException {
+            openCount.incrementAndGet();
+            return mock(Reader.class);
+        }
+
+        @Override
+        protected long estimateMemory(Reader reader) {
+            return 100;
+        }
+    }
+}
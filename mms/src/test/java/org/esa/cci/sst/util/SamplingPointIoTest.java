@@ -7,6 +7,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -99,6 +100,111 @@ public class SamplingPointIoTest {
         assertEquals(referencePoint.getY(), testedPoint.getY());
     }
 
+    @Test
+    public void testWriteBinaryReadSinglePointList() throws IOException {
+        final ByteArrayOutputStream outputStream = createEmptyStream();
+        final List<SamplingPoint> list1 = new ArrayList<>();
+        createSinglePointList(list1);
+
+        SamplingPointIO.writeBinary(list1, outputStream);
+
+        final List<SamplingPoint> list2 = SamplingPointIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertEquals(1, list2.size());
+        final SamplingPoint point = list2.get(0);
+        assertEquals(0.5, point.getRandom(), 0.0);
+        assertEquals(1.0, point.getLon(), 0.0);
+        assertEquals(2.0, point.getLat(), 0.0);
+        assertEquals(1000, point.getTime());
+        assertEquals(67, point.getReference());
+        assertEquals(1, point.getIndex());
+        assertEquals(71, point.getReference2());
+        assertEquals(17, point.getX());
+        assertEquals(11, point.getY());
+        assertEquals(19, point.getInsituReference());
+        assertEquals(20, point.getReferenceTime());
+        assertEquals(21.0, point.getReferenceLat(), 0.0);
+        assertEquals(22.0, point.getReferenceLon(), 0.0);
+        assertEquals(InsituDatasetId.animal, point.getInsituDatasetId());
+        assertEquals("jippieh", point.getDatasetName());
+        assertEquals(23, point.getReference2Time());
+
+        // converting back to JSON yields the original JSON
+        final ByteArrayOutputStream jsonStream = createEmptyStream();
+        SamplingPointIO.write(list2, jsonStream);
+        assertEquals(SINGLE_POINT_LIST_STRING, jsonStream.toString());
+    }
+
+    @Test
+    public void testWriteBinaryReadEmptyList() throws IOException {
+        final ByteArrayOutputStream outputStream = createEmptyStream();
+
+        SamplingPointIO.writeBinary(new ArrayList<SamplingPoint>(), outputStream);
+
+        final List<SamplingPoint> list = SamplingPointIO.read(new ByteArrayInputStream(outputStream.toByteArray()));
+        assertNotNull(list);
+        assertEquals(0, list.size());
+    }
+
+    @Test
+    public void testReaderWriter_multipleChunks() throws IOException {
+        for (final boolean compressed : new boolean[]{false, true}) {
+            final ByteArrayOutputStream outputStream = createEmptyStream();
+            try (SamplingPointWriter writer = new SamplingPointWriter(outputStream, compressed, 3)) {
+                for (int i = 0; i < 7; i++) {
+                    final SamplingPoint point = new SamplingPoint(i, -i, 1000L * i, 0.1 * i);
+                    point.setReference2(i % 2 == 0 ? -1 : i);
+                    point.setInsituDatasetId(i % 3 == 0 ? null : InsituDatasetId.argo);
+                    point.setDatasetName(i % 2 == 0 ? null : "dataset" + i % 4);
+                    writer.write(point);
+                }
+            }
+
+            final List<Integer> chunkSizes = new ArrayList<>();
+            final List<SamplingPoint> points = new ArrayList<>();
+            try (SamplingPointReader reader = new SamplingPointReader(
+                    new ByteArrayInputStream(outputStream.toByteArray()), 4)) {
+                List<SamplingPoint> chunk;
+                while ((chunk = reader.readChunk()) != null) {
+                    chunkSizes.add(chunk.size());
+                    points.addAll(chunk);
+                }
+            }
+
+            assertEquals(Arrays.asList(3, 3, 1), chunkSizes);
+            for (int i = 0; i < 7; i++) {
+                final SamplingPoint point = points.get(i);
+                assertEquals(i, point.getLon(), 0.0);
+                assertEquals(-i, point.getLat(), 0.0);
+                assertEquals(1000L * i, point.getTime());
+                assertEquals(0.1 * i, point.getRandom(), 0.0);
+                assertEquals(i % 2 == 0 ? -1 : i, point.getReference2());
+                assertEquals(i % 3 == 0 ? null : InsituDatasetId.argo, point.getInsituDatasetId());
+                assertEquals(i % 2 == 0 ? null : "dataset" + i % 4, point.getDatasetName());
+            }
+        }
+    }
+
+    @Test
+    public void testReader_readsJsonInChunks() throws IOException {
+        final ByteArrayOutputStream outputStream = createEmptyStream();
+        final List<SamplingPoint> list = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            list.add(new SamplingPoint(i, i, i, 0.1 * i));
+        }
+        SamplingPointIO.write(list, outputStream);
+
+        final List<Integer> chunkSizes = new ArrayList<>();
+        try (SamplingPointReader reader = new SamplingPointReader(
+                new ByteArrayInputStream(outputStream.toByteArray()), 2)) {
+            List<SamplingPoint> chunk;
+            while ((chunk = reader.readChunk()) != null) {
+                chunkSizes.add(chunk.size());
+                assertEquals(0.1 * (chunkSizes.size() - 1) * 2, chunk.get(0).getRandom(), 1e-8);
+            }
+        }
+        assertEquals(Arrays.asList(2, 2, 1), chunkSizes);
+    }
+
     private ByteArrayOutputStream createEmptyStream() {
         return new ByteArrayOutputStream();
     }
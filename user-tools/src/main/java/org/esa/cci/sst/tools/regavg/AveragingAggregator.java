@@ -17,7 +17,6 @@ import org.esa.cci.sst.tools.regavg.auxiliary.LUT1;
 import org.esa.cci.sst.tools.regavg.auxiliary.LUT2;
 import org.esa.cci.sst.util.StopWatch;
 import org.esa.cci.sst.util.TimeUtil;
-import ucar.nc2.NetcdfFile;
 
 import java.io.File;
 import java.io.IOException;
@@ -163,28 +162,31 @@ class AveragingAggregator extends AbstractAggregator {
         final GridDef targetGridDef = GridDef.createGlobal(SpatialResolution.DEGREE_5_00.getResolution());
         final CellGrid<SpatialAggregationCell> targetGrid = CellGrid.create(targetGridDef, targetCellFactory);
 
+        final List<File> files = new ArrayList<>();
         for (final FileList filesForOneDay : allFiles) {
-            for (final File file : filesForOneDay.getFiles()) {
-                logger.info(String.format("Processing input %s file '%s'", getFileStore().getProductType(), file));
-
+            files.addAll(filesForOneDay.getFiles());
+        }
+        final SourceFileSequence sourceFiles = createSourceFileSequence(files, true);
+        try {
+            while (sourceFiles.hasNext()) {
                 final StopWatch fileWatch = new StopWatch();
                 fileWatch.start();
 
-                final NetcdfFile dataFile = NetcdfFile.open(file.getPath());
-
                 try {
+                    final SourceFile sourceFile = sourceFiles.next();
+                    logger.info(String.format("Processing input %s file '%s'", getFileStore().getProductType(),
+                            sourceFile.getFile()));
 
                     final StopWatch gridWatch = new StopWatch();
                     gridWatch.start();
 
-                    final Date date = fileType.readDate(dataFile);
-                    final int dayOfYear = TimeUtil.getDayOfYear(date);
+                    final int dayOfYear = TimeUtil.getDayOfYear(sourceFile.getDate());
                     logger.fine("Day of year is " + dayOfYear);
 
                     context.setClimatologySstGrid(climatology.getSstGrid(dayOfYear));
                     context.setSeaCoverageGrid(climatology.getSeaCoverageGrid());
 
-                    readSourceGrids(dataFile, context);
+                    setSourceGrids(context, sourceFile.getSourceGrids());
 
                     logger.fine("Aggregating grid(s)...");
 
@@ -194,14 +196,14 @@ class AveragingAggregator extends AbstractAggregator {
                     logger.fine(String.format("Aggregating grid(s) took %d ms", gridWatch.getElapsedMillis()));
                 } catch (IOException e) {
                     logger.warning(e.getMessage());
-                } finally {
-                    dataFile.close();
                 }
 
                 fileWatch.stop();
                 logger.fine(String.format("Processing input %s file took %d ms", getFileStore().getProductType(),
                         fileWatch.getElapsedMillis()));
             }
+        } finally {
+            sourceFiles.close();
         }
 
         return targetGrid;
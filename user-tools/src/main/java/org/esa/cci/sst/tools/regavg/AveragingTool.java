@@ -24,6 +24,7 @@ import org.esa.cci.sst.common.ProcessingLevel;
 import org.esa.cci.sst.common.SstDepth;
 import org.esa.cci.sst.common.TemporalResolution;
 import org.esa.cci.sst.file.FileStore;
+import org.esa.cci.sst.grid.Projector;
 import org.esa.cci.sst.grid.RegionMask;
 import org.esa.cci.sst.grid.RegionMaskList;
 import org.esa.cci.sst.log.SstLogging;
@@ -98,6 +99,10 @@ public final class AveragingTool extends Tool {
     private static final Parameter PARAM_CLIMATOLOGY_DIR = new Parameter("climatologyDir", "DIR", "./climatology",
             "The directory path to the reference climatology.");
 
+    private static final Parameter PARAM_CLIMATOLOGY_CACHE_DIR = new Parameter("climatologyCacheDir", "DIR", null,
+            "The directory path to a binary cache of the reference climatology. The cache is created when " +
+                    "needed and speeds up reading the climatology. If not set, no cache is used.");
+
     private static final Parameter PARAM_TEMPORAL_RES = new Parameter("temporalRes", "NUM",
             TemporalResolution.monthly + "",
             "The temporal resolution. Must be one of " + validTemporalResolutions() + ".");
@@ -113,6 +118,10 @@ public final class AveragingTool extends Tool {
                     "to include daily (D) L3 AATSR (ATS) files with night observations only, dual view, 3 channel retrieval, " +
                     "bayes cloud screening (nD3b) you could use the regex \'ATS_AVG_3PAARC\\\\d{8}_D_nD3b[.]nc[.]gz\'.");
 
+    private static final Parameter PARAM_FILE_INDEX = new Parameter("fileIndex", "FILE", null,
+            "A file used for persisting the index of input files between runs. If set, only input " +
+                    "directories modified since the previous run are scanned again.");
+
     private static final Parameter PARAM_OUTPUT_DIR = new Parameter("outputDir", "DIR", ".", "The output directory.");
 
     private static final Parameter PARAM_LUT1_FILE = new Parameter("lut1File", "FILE",
@@ -124,6 +133,10 @@ public final class AveragingTool extends Tool {
             "./auxdata/RegionalAverage_LUT2.txt",
             "A plain text file that provides lookup table 2.");
 
+    private static final Parameter PARAM_THREADS = new Parameter("threads", "NUM",
+            String.valueOf(Runtime.getRuntime().availableProcessors()),
+            "The number of threads used for aggregating source pixels and for projecting L2P products.");
+
     private static final Parameter PARAM_WRITE_TEXT = new Parameter("writeText", null, null,
             "Also writes results to a plain text file 'regavg-output-<date>.txt'.");
 
@@ -182,12 +195,15 @@ public final class AveragingTool extends Tool {
                 PARAM_START_DATE,
                 PARAM_END_DATE,
                 PARAM_CLIMATOLOGY_DIR,
+                PARAM_CLIMATOLOGY_CACHE_DIR,
                 PARAM_LUT1_FILE,
                 PARAM_LUT2_FILE,
                 PARAM_PRODUCT_TYPE,
                 PARAM_FILENAME_REGEX,
+                PARAM_FILE_INDEX,
                 PARAM_OUTPUT_DIR,
-                PARAM_WRITE_TEXT));
+                PARAM_WRITE_TEXT,
+                PARAM_THREADS));
         ProductType[] values = ProductType.values();
         for (ProductType value : values) {
             paramList.add(new Parameter(value.name() + ".dir", "DIR", null,
@@ -204,7 +220,9 @@ public final class AveragingTool extends Tool {
         final String climatologyDirValue = configuration.getMandatoryStringValue(PARAM_CLIMATOLOGY_DIR.getName(), PARAM_CLIMATOLOGY_DIR.getDefaultValue());
         final String toolHome = configuration.getToolHome();
         final File climatologyDir = FileUtil.getExistingDirectory(climatologyDirValue, toolHome);
-        final Climatology climatology = Climatology.create(climatologyDir, productType.getGridDef());
+        final String climatologyCacheDirPath = configuration.getOptionalStringValue(PARAM_CLIMATOLOGY_CACHE_DIR.getName());
+        final File climatologyCacheDir = climatologyCacheDirPath != null ? new File(climatologyCacheDirPath) : null;
+        final Climatology climatology = Climatology.create(climatologyDir, productType.getGridDef(), climatologyCacheDir);
 
         final String lut_1_path = configuration.getMandatoryStringValue(PARAM_LUT1_FILE.getName(), PARAM_LUT1_FILE.getDefaultValue());
         final File lut1File = FileUtil.getExistingFile(lut_1_path, toolHome);
@@ -216,7 +234,9 @@ public final class AveragingTool extends Tool {
 
         final String productDir = configuration.getMandatoryStringValue(productType + ".dir", null);
         final String filenameRegex = configuration.getStringValue(PARAM_FILENAME_REGEX.getName(), productType.getDefaultFilenameRegex());
-        final FileStore fileStore = FileStore.create(productType, filenameRegex, productDir);
+        final String fileIndexPath = configuration.getOptionalStringValue(PARAM_FILE_INDEX.getName());
+        final File fileIndex = fileIndexPath != null ? new File(fileIndexPath) : null;
+        final FileStore fileStore = FileStore.create(productType, filenameRegex, fileIndex, productDir);
 
         final String sstDepthValue = configuration.getMandatoryStringValue(PARAM_SST_DEPTH.getName(), PARAM_SST_DEPTH.getDefaultValue());
         final SstDepth sstDepth = SstDepth.valueOf(sstDepthValue);
@@ -228,6 +248,10 @@ public final class AveragingTool extends Tool {
         final Date startDate = configuration.getMandatoryShortUtcDateValue(PARAM_START_DATE.getName(), PARAM_START_DATE.getDefaultValue());
         final Date endDate = configuration.getMandatoryShortUtcDateValue(PARAM_END_DATE.getName(), PARAM_END_DATE.getDefaultValue());
         final AveragingAggregator aggregator = new AveragingAggregator(regionMaskList, fileStore, climatology, lut1, lut2, sstDepth);
+        final int threadCount = configuration.getIntValue(PARAM_THREADS.getName(),
+                Runtime.getRuntime().availableProcessors());
+        aggregator.setThreadCount(threadCount);
+        Projector.setThreadCount(threadCount);
         final List<AveragingTimeStep> timeSteps;
         try {
             timeSteps = aggregator.aggregate(startDate, endDate, temporalResolution);
@@ -24,20 +24,17 @@ import org.esa.cci.sst.auxiliary.Climatology;
 import org.esa.cci.sst.cell.CellAggregationCell;
 import org.esa.cci.sst.cell.CellFactory;
 import org.esa.cci.sst.cell.CellGrid;
+import org.esa.cci.sst.cell.SingleDayAggregationGrid;
 import org.esa.cci.sst.common.SstDepth;
 import org.esa.cci.sst.common.TemporalResolution;
 import org.esa.cci.sst.file.FileList;
 import org.esa.cci.sst.file.FileStore;
 import org.esa.cci.sst.file.FileType;
-import org.esa.cci.sst.grid.Grid;
-import org.esa.cci.sst.grid.GridDef;
 import org.esa.cci.sst.grid.LUT;
 import org.esa.cci.sst.product.ProductType;
 import org.esa.cci.sst.util.StopWatch;
 import org.esa.cci.sst.util.TimeUtil;
-import ucar.nc2.NetcdfFile;
 
-import java.awt.*;
 import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
@@ -163,7 +160,6 @@ class RegriddingAggregator extends AbstractAggregator {
 
     CellGrid<SpatialAggregationCell> aggregateTimeStep(Date date1, Date date2) throws IOException {
         final FileStore fileStore = getFileStore();
-        final ProductType productType = fileStore.getProductType();
         final List<FileList> allFiles = fileStore.getFiles(date1, date2);
 
         if (allFiles.isEmpty()) {
@@ -179,6 +175,22 @@ class RegriddingAggregator extends AbstractAggregator {
         final Climatology climatology = getClimatology();
         final CoverageUncertaintyProvider coverageUncertaintyProvider = createCoverageUncertaintyProvider(date1, date2);
         aggregationContext.setCoverageUncertaintyProvider(coverageUncertaintyProvider);
+
+        final List<File> files = new ArrayList<>();
+        for (final FileList singleDayFiles : allFiles) {
+            files.addAll(singleDayFiles.getFiles());
+        }
+        final SourceFileSequence sourceFiles = createSourceFileSequence(files, false);
+        try {
+            return aggregateDays(allFiles, climatology, sourceFiles);
+        } finally {
+            sourceFiles.close();
+        }
+    }
+
+    private CellGrid<SpatialAggregationCell> aggregateDays(List<FileList> allFiles, Climatology climatology,
+                                                           SourceFileSequence sourceFiles) {
+        final ProductType productType = getFileStore().getProductType();
         CellGrid<SpatialAggregationCell> targetGrid = null;
 
         for (final FileList singleDayFiles : allFiles) {
@@ -188,16 +200,16 @@ class RegriddingAggregator extends AbstractAggregator {
             aggregationContext.setClimatologySstGrid(climatology.getSstGrid(doy));
             aggregationContext.setSeaCoverageGrid(climatology.getSeaCoverageGrid());
 
-            final CellGrid<SpatialAggregationCell> singleDayGrid = aggregateSingleDay(productType, singleDayFiles.getFiles());
+            final SingleDayAggregationGrid singleDayGrid = aggregateSingleDay(productType,
+                    singleDayFiles.getFiles().size(), sourceFiles);
 
             if (singleDayGrid != null) {
-                aggregationContext.setSstGrid(new CellGridAdapter(singleDayGrid, Aggregation.SST));
-                aggregationContext.setRandomUncertaintyGrid(new CellGridAdapter(singleDayGrid, Aggregation.RANDOM_UNCERTAINTY));
-                aggregationContext.setLargeScaleUncertaintyGrid(new CellGridAdapter(singleDayGrid, Aggregation.LARGE_SCALE_UNCERTAINTY));
-                aggregationContext.setSynopticUncertaintyGrid(new CellGridAdapter(singleDayGrid, Aggregation.SYNOPTIC_UNCERTAINTY));
-                aggregationContext.setAdjustmentUncertaintyGrid(new CellGridAdapter(singleDayGrid, Aggregation.ADJUSTMENT_UNCERTAINTY));
-                aggregationContext.setAdjustmentUncertaintyGrid(new CellGridAdapter(singleDayGrid, Aggregation.ADJUSTMENT_UNCERTAINTY));
-                aggregationContext.setSeaIceFractionGrid(new CellGridAdapter(singleDayGrid, Aggregation.SEA_ICE_FRACTION));
+                aggregationContext.setSstGrid(singleDayGrid.getResultGrid(Aggregation.SST));
+                aggregationContext.setRandomUncertaintyGrid(singleDayGrid.getResultGrid(Aggregation.RANDOM_UNCERTAINTY));
+                aggregationContext.setLargeScaleUncertaintyGrid(singleDayGrid.getResultGrid(Aggregation.LARGE_SCALE_UNCERTAINTY));
+                aggregationContext.setSynopticUncertaintyGrid(singleDayGrid.getResultGrid(Aggregation.SYNOPTIC_UNCERTAINTY));
+                aggregationContext.setAdjustmentUncertaintyGrid(singleDayGrid.getResultGrid(Aggregation.ADJUSTMENT_UNCERTAINTY));
+                aggregationContext.setSeaIceFractionGrid(singleDayGrid.getResultGrid(Aggregation.SEA_ICE_FRACTION));
                 aggregationContext.setQualityGrid(null);
 
                 if (targetGrid == null) {
@@ -218,25 +230,24 @@ class RegriddingAggregator extends AbstractAggregator {
         return targetGrid;
     }
 
-    private CellGrid<SpatialAggregationCell> aggregateSingleDay(ProductType productType, List<File> files) throws
-            IOException {
+    private SingleDayAggregationGrid aggregateSingleDay(ProductType productType, int fileCount,
+                                                        SourceFileSequence sourceFiles) {
         final FileType fileType = productType.getFileType();
-        final CellFactory<SpatialAggregationCell> dailyCellFactory = fileType.getSingleDayAggregationCellFactory(
-                aggregationContext);
-        CellGrid<SpatialAggregationCell> targetGrid = null;
-
-        for (final File file : files) {
-            logger.info(String.format("Processing input %s file '%s'", productType, file));
+        SingleDayAggregationGrid targetGrid = null;
 
+        for (int i = 0; i < fileCount; i++) {
             final StopWatch fileWatch = new StopWatch();
             fileWatch.start();
 
-            NetcdfFile datafile = null;
+            File file = null;
             try {
-                datafile = NetcdfFile.open(file.getPath());
-                readSourceGrids(datafile, aggregationContext);
+                final SourceFile sourceFile = sourceFiles.next();
+                file = sourceFile.getFile();
+                logger.info(String.format("Processing input %s file '%s'", productType, file));
+
+                setSourceGrids(aggregationContext, sourceFile.getSourceGrids());
                 if (targetGrid == null) {
-                    targetGrid = CellGrid.create(fileType.getGridDef(), dailyCellFactory);
+                    targetGrid = SingleDayAggregationGrid.create(fileType.getGridDef(), aggregationContext);
                 }
 
                 logger.fine("Aggregating grid(s)...");
@@ -249,8 +260,8 @@ class RegriddingAggregator extends AbstractAggregator {
                 logger.fine(String.format("Aggregating grid(s) took %d ms", gridWatch.getElapsedMillis()));
             } catch (IOException e) {
                 logger.warning(
-                        String.format("Cannot process input %s file '%s' because of an I/O error: '%s'.", productType,
-                                file, e.getMessage()));
+                        String.format("Cannot process input %s file because of an I/O error: '%s'.", productType,
+                                e.getMessage()));
             } catch (Exception e) {
                 if (e.getMessage() == null) {
                     logger.severe(
@@ -261,14 +272,6 @@ class RegriddingAggregator extends AbstractAggregator {
                             String.format("Cannot process input %s file '%s' because of an error: '%s'.", productType,
                                     file, e.getMessage()));
                 }
-            } finally {
-                if (datafile != null) {
-                    try {
-                        datafile.close();
-                    } catch (IOException e) {
-                        // ignore
-                    }
-                }
             }
 
             fileWatch.stop();
@@ -303,30 +306,17 @@ class RegriddingAggregator extends AbstractAggregator {
         return multiMonthGrid;
     }
 
-    private static <C extends SpatialAggregationCell> void aggregateSingleDaySourcePixels(AggregationContext context,
-                                                                                          CellGrid<C> targetGrid) {
-        final GridDef targetGridDef = targetGrid.getGridDef();
-
-        final int w = targetGridDef.getWidth();
-        final int h = targetGridDef.getHeight();
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                final Rectangle targetRectangle = new Rectangle(x, y, 1, 1);
-                C targetCell = targetGrid.getCell(x, y);
-                if (targetCell != null) {
-                    targetCell.accumulate(context, targetRectangle);
-                } else {
-                    targetCell = targetGrid.createCell(x, y);
-                    targetCell.accumulate(context, targetRectangle);
-                    if (!targetCell.isEmpty()) {
-                        targetGrid.setCell(targetCell);
-                    }
-                }
+    private void aggregateSingleDaySourcePixels(final AggregationContext context,
+                                                final SingleDayAggregationGrid targetGrid) {
+        final int h = targetGrid.getGridDef().getHeight();
+        aggregateRows(h, new RowAggregator() {
+            @Override
+            public void aggregateRow(int y) {
+                targetGrid.accumulate(context, y);
             }
-        }
+        });
     }
 
-
     CellGrid<SpatialAggregationCell> createSpatialAggregationCellGrid() {
         final FileType fileType = getFileType();
         final CellFactory<SpatialAggregationCell> cellFactory = fileType.getSpatialAggregationCellFactory(
@@ -337,43 +327,4 @@ class RegriddingAggregator extends AbstractAggregator {
     private CoverageUncertaintyProvider createCoverageUncertaintyProvider(Date date1, Date date2) {
         return new RegriddingCoverageUncertaintyProvider(spaceLut, timeLut, date1, date2);
     }
-
-    private static final class CellGridAdapter implements Grid {
-
-        private final CellGrid<SpatialAggregationCell> cellGrid;
-        private int index;
-
-        public CellGridAdapter(CellGrid<SpatialAggregationCell> cellGrid, int index) {
-            this.cellGrid = cellGrid;
-            this.index = index;
-        }
-
-        @Override
-        public GridDef getGridDef() {
-            return cellGrid.getGridDef();
-        }
-
-        private Number getNumber(int x, int y) {
-            final SpatialAggregationCell cell = cellGrid.getCell(x, y);
-            if (cell == null || cell.isEmpty()) {
-                return Double.NaN;
-            }
-            return cell.getResults()[index];
-        }
-
-        @Override
-        public final double getSampleDouble(int x, int y) {
-            return getNumber(x, y).doubleValue();
-        }
-
-        @Override
-        public final int getSampleInt(int x, int y) {
-            return getNumber(x, y).intValue();
-        }
-
-        @Override
-        public final boolean getSampleBoolean(int x, int y) {
-            return getSampleInt(x, y) != 0;
-        }
-    }
 }
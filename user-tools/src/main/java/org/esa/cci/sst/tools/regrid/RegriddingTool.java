@@ -25,6 +25,7 @@ import org.esa.cci.sst.common.TemporalResolution;
 import org.esa.cci.sst.file.FileStore;
 import org.esa.cci.sst.grid.GridDef;
 import org.esa.cci.sst.grid.LUT;
+import org.esa.cci.sst.grid.Projector;
 import org.esa.cci.sst.grid.RegionMaskList;
 import org.esa.cci.sst.product.ProductType;
 import org.esa.cci.sst.tool.Configuration;
@@ -82,6 +83,10 @@ public class RegriddingTool extends Tool {
                     "to include daily (D) L3 AATSR (ATS) files with night observations only, dual view, 3 channel retrieval, " +
                     "bayes cloud screening (nD3b) you could use the regex \'ATS_AVG_3PAARC\\\\d{8}_D_nD3b[.]nc[.]gz\'.");
 
+    private static final Parameter PARAM_FILE_INDEX = new Parameter("fileIndex", "FILE", null,
+            "A file used for persisting the index of input files between runs. If set, only input " +
+                    "directories modified since the previous run are scanned again.");
+
     public static final Parameter PARAM_OUTPUT_DIR = new Parameter("outputDir", "DIR", ".", "The output directory.");
 
     public static final Parameter PARAM_START_DATE = new Parameter("startDate", "DATE", "1990-01-01",
@@ -97,6 +102,14 @@ public class RegriddingTool extends Tool {
     public static final Parameter PARAM_CLIMATOLOGY_DIR = new Parameter("climatologyDir", "DIR", "./climatology",
             "The directory path to the reference climatology.");
 
+    private static final Parameter PARAM_CLIMATOLOGY_CACHE_DIR = new Parameter("climatologyCacheDir", "DIR", null,
+            "The directory path to a binary cache of the reference climatology. The cache is created when " +
+                    "needed and speeds up reading the climatology. If not set, no cache is used.");
+
+    private static final Parameter PARAM_THREADS = new Parameter("threads", "NUM",
+            String.valueOf(Runtime.getRuntime().availableProcessors()),
+            "The number of threads used for aggregating source pixels and for projecting L2P products.");
+
     private static final Parameter PARAM_MIN_COVERAGE = new Parameter("minCoverage", "NUM", "0.0",
             "The minimum fractional coverage required for non-missing output. " +
                     "(fraction of valid values in input per grid box in output) ");
@@ -139,11 +152,15 @@ public class RegriddingTool extends Tool {
         final String toolHome = configuration.getToolHome();
         final String climatologyDirPath = configuration.getMandatoryStringValue(PARAM_CLIMATOLOGY_DIR.getName(), PARAM_CLIMATOLOGY_DIR.getDefaultValue());
         final File climatologyDir = FileUtil.getExistingDirectory(climatologyDirPath, toolHome);
-        final Climatology climatology = Climatology.create(climatologyDir, productType.getGridDef());
+        final String climatologyCacheDirPath = configuration.getOptionalStringValue(PARAM_CLIMATOLOGY_CACHE_DIR.getName());
+        final File climatologyCacheDir = climatologyCacheDirPath != null ? new File(climatologyCacheDirPath) : null;
+        final Climatology climatology = Climatology.create(climatologyDir, productType.getGridDef(), climatologyCacheDir);
 
         final String productDir = configuration.getMandatoryStringValue(productType + ".dir", ".");
         final String sourceFilenameRegex = configuration.getStringValue(PARAM_FILENAME_REGEX.getName(), productType.getDefaultFilenameRegex());
-        final FileStore fileStore = FileStore.create(productType, sourceFilenameRegex, productDir);
+        final String fileIndexPath = configuration.getOptionalStringValue(PARAM_FILE_INDEX.getName());
+        final File fileIndex = fileIndexPath != null ? new File(fileIndexPath) : null;
+        final FileStore fileStore = FileStore.create(productType, sourceFilenameRegex, fileIndex, productDir);
 
         final String stdefFilePath = configuration.getMandatoryStringValue(PARAM_COVERAGE_UNCERTAINTY_FILE_STDDEV.getName(), PARAM_COVERAGE_UNCERTAINTY_FILE_STDDEV.getDefaultValue());
         final File cuStdDevFile = FileUtil.getExistingFile(stdefFilePath, toolHome);
@@ -195,6 +212,10 @@ public class RegriddingTool extends Tool {
                 aggregationContext,
                 cuTimeLut,
                 cuSpaceLut);
+        final int threadCount = configuration.getIntValue(PARAM_THREADS.getName(),
+                Runtime.getRuntime().availableProcessors());
+        aggregator.setThreadCount(threadCount);
+        Projector.setThreadCount(threadCount);
         try {
             aggregator.aggregate(startDate, endDate, temporalResolution, writer);
         } catch (IOException e) {
@@ -233,12 +254,14 @@ public class RegriddingTool extends Tool {
         paramList.addAll(Arrays.asList(
                 PARAM_REGION,
                 PARAM_CLIMATOLOGY_DIR,
+                PARAM_CLIMATOLOGY_CACHE_DIR,
                 PARAM_MAX_TOTAL_UNCERTAINTY,
                 PARAM_TOTAL_UNCERTAINTY,
                 PARAM_SPATIAL_RESOLUTION,
                 PARAM_START_DATE,
                 PARAM_END_DATE,
                 PARAM_FILENAME_REGEX,
+                PARAM_FILE_INDEX,
                 PARAM_SST_DEPTH,
                 PARAM_OUTPUT_DIR,
                 PARAM_PRODUCT_TYPE,
@@ -246,7 +269,8 @@ public class RegriddingTool extends Tool {
                 PARAM_COVERAGE_UNCERTAINTY_FILE_X0TIME,
                 PARAM_COVERAGE_UNCERTAINTY_FILE_X0SPACE,
                 PARAM_MIN_COVERAGE,
-                PARAM_TEMPORAL_RES));
+                PARAM_TEMPORAL_RES,
+                PARAM_THREADS));
 
         ProductType[] values = ProductType.values();
         for (ProductType value : values) {